@@ -0,0 +1,95 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.benchmark;
+
+import net.imglib2.type.numeric.ARGBType;
+import org.embl.mobie.viewer.bdv.render.AccumulateOccludingProjectorARGB;
+import org.embl.mobie.viewer.bdv.render.BlendingMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Blends the per source ARGB values of a screen full of pixels,
+ * with every second source being occluding.
+ * <p>
+ * This measures the per pixel kernel of {@link AccumulateOccludingProjectorARGB};
+ * the projector itself needs a running {@code SourceAndConverterService}.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class AccumulateOccludingProjectorBenchmark
+{
+	private static final int NUM_PIXELS = 512 * 512;
+
+	@Param( { "2", "8" } )
+	public int numSources;
+
+	private int[][] argbs;
+	private boolean[] occluding;
+
+	@Setup
+	public void setup()
+	{
+		final BlendingMode[] blendingModes = new BlendingMode[ numSources ];
+		for ( int sourceIndex = 0; sourceIndex < numSources; sourceIndex++ )
+			blendingModes[ sourceIndex ] = sourceIndex % 2 == 0 ? BlendingMode.Sum : BlendingMode.SumOccluding;
+		occluding = AccumulateOccludingProjectorARGB.getOccluding( blendingModes );
+
+		final Random random = new Random( 42 );
+		argbs = new int[ NUM_PIXELS ][ numSources ];
+		for ( int i = 0; i < NUM_PIXELS; i++ )
+			for ( int sourceIndex = 0; sourceIndex < numSources; sourceIndex++ )
+				argbs[ i ][ sourceIndex ] = ARGBType.rgba( random.nextInt( 256 ), random.nextInt( 256 ), random.nextInt( 256 ), random.nextInt( 4 ) * 85 );
+	}
+
+	@Benchmark
+	public int accumulate()
+	{
+		int sum = 0;
+		for ( int i = 0; i < NUM_PIXELS; i++ )
+			sum += AccumulateOccludingProjectorARGB.getArgbIndex( argbs[ i ], occluding );
+		return sum;
+	}
+}
@@ -0,0 +1,134 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.benchmark;
+
+import de.embl.cba.tables.color.ColoringLuts;
+import de.embl.cba.tables.imagesegment.DefaultImageSegment;
+import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.type.numeric.integer.UnsignedIntType;
+import net.imglib2.type.volatiles.VolatileUnsignedLongType;
+import org.embl.mobie.viewer.SourceNameEncoder;
+import org.embl.mobie.viewer.color.LabelConverter;
+import org.embl.mobie.viewer.color.SelectionColoringModel;
+import org.embl.mobie.viewer.segment.SegmentAdapter;
+import org.embl.mobie.viewer.select.MoBIESelectionModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converts a screen full of label pixels to colors, once with a
+ * fixed image id and once with the image name encoded in the pixel
+ * value, as done for merged grid segmentations.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class LabelConverterBenchmark
+{
+	private static final String IMAGE = "image";
+	private static final int NUM_PIXELS = 512 * 512;
+
+	@Param( { "1000", "100000" } )
+	public int numSegments;
+
+	private LabelConverter< DefaultImageSegment > converter;
+	private LabelConverter< DefaultImageSegment > encodedConverter;
+	private UnsignedIntType[] labels;
+	private VolatileUnsignedLongType[] encodedLabels;
+	private ARGBType color;
+
+	@Setup
+	public void setup()
+	{
+		final List< DefaultImageSegment > segments = new ArrayList<>();
+		for ( int label = 1; label <= numSegments; label++ )
+			segments.add( new DefaultImageSegment( IMAGE, label, 0, 0, 0, 0, null ) );
+
+		final SegmentAdapter< DefaultImageSegment > segmentAdapter = new SegmentAdapter<>( segments );
+		final SelectionColoringModel< DefaultImageSegment > coloringModel = new SelectionColoringModel<>( ColoringLuts.GLASBEY, new MoBIESelectionModel<>() );
+		converter = new LabelConverter<>( segmentAdapter, IMAGE, coloringModel );
+		encodedConverter = new LabelConverter<>( segmentAdapter, coloringModel );
+
+		SourceNameEncoder.addName( IMAGE );
+		final Random random = new Random( 42 );
+		labels = new UnsignedIntType[ NUM_PIXELS ];
+		encodedLabels = new VolatileUnsignedLongType[ NUM_PIXELS ];
+		for ( int i = 0; i < NUM_PIXELS; i++ )
+		{
+			// roughly a tenth of the pixels is background
+			final int label = random.nextInt( 10 ) == 0 ? 0 : 1 + random.nextInt( numSegments );
+			labels[ i ] = new UnsignedIntType( label );
+			encodedLabels[ i ] = new VolatileUnsignedLongType( label );
+			SourceNameEncoder.encodeName( encodedLabels[ i ].get(), IMAGE );
+		}
+
+		color = new ARGBType();
+	}
+
+	@Benchmark
+	public int convertWithImageId()
+	{
+		int sum = 0;
+		for ( int i = 0; i < NUM_PIXELS; i++ )
+		{
+			converter.convert( labels[ i ], color );
+			sum += color.get();
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public int convertEncoded()
+	{
+		int sum = 0;
+		for ( int i = 0; i < NUM_PIXELS; i++ )
+		{
+			encodedConverter.convert( encodedLabels[ i ], color );
+			sum += color.get();
+		}
+		return sum;
+	}
+}
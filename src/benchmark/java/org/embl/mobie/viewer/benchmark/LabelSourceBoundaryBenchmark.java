@@ -0,0 +1,112 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.benchmark;
+
+import bdv.util.RandomAccessibleIntervalSource;
+import bdv.viewer.Interpolation;
+import net.imglib2.Cursor;
+import net.imglib2.RealRandomAccess;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.IntArray;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.integer.UnsignedIntType;
+import org.embl.mobie.viewer.source.LabelSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples one screen plane of a label image through a {@link LabelSource},
+ * with and without the boundary rendering.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class LabelSourceBoundaryBenchmark
+{
+	private static final int SIZE = 512;
+	private static final int LABEL_SIZE = 16;
+
+	@Param( { "false", "true" } )
+	public boolean showAsBoundaries;
+
+	@Param( { "1", "3" } )
+	public float boundaryWidth;
+
+	private RealRandomAccess< UnsignedIntType > access;
+
+	@Setup
+	public void setup()
+	{
+		// square labels on a regular grid, separated by background
+		final ArrayImg< UnsignedIntType, IntArray > labels = ArrayImgs.unsignedInts( SIZE, SIZE, 1 );
+		final Cursor< UnsignedIntType > cursor = labels.localizingCursor();
+		final int labelsPerRow = SIZE / LABEL_SIZE;
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			final int x = cursor.getIntPosition( 0 );
+			final int y = cursor.getIntPosition( 1 );
+			if ( x % LABEL_SIZE == 0 || y % LABEL_SIZE == 0 ) continue;
+			cursor.get().set( 1 + ( y / LABEL_SIZE ) * labelsPerRow + x / LABEL_SIZE );
+		}
+
+		final RandomAccessibleIntervalSource< UnsignedIntType > source = new RandomAccessibleIntervalSource<>( labels, new UnsignedIntType(), new AffineTransform3D(), "labels" );
+		final LabelSource< UnsignedIntType > labelSource = new LabelSource<>( source );
+		labelSource.showAsBoundary( showAsBoundaries, boundaryWidth );
+		access = labelSource.getInterpolatedSource( 0, 0, Interpolation.NEARESTNEIGHBOR ).realRandomAccess();
+	}
+
+	@Benchmark
+	public long samplePlane()
+	{
+		long sum = 0;
+		for ( int y = 0; y < SIZE; y++ )
+			for ( int x = 0; x < SIZE; x++ )
+			{
+				access.setPosition( new double[]{ x + 0.5, y + 0.5, 0 } );
+				sum += access.get().get();
+			}
+		return sum;
+	}
+}
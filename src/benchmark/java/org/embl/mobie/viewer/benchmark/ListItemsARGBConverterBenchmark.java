@@ -0,0 +1,113 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.benchmark;
+
+import de.embl.cba.tables.color.ColoringLuts;
+import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.type.numeric.integer.IntType;
+import org.embl.mobie.viewer.color.ListItemsARGBConverter;
+import org.embl.mobie.viewer.color.SelectionColoringModel;
+import org.embl.mobie.viewer.select.MoBIESelectionModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converts a screen full of region row indices to colors,
+ * with and without an active selection.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class ListItemsARGBConverterBenchmark
+{
+	private static final int NUM_PIXELS = 512 * 512;
+
+	@Param( { "100", "10000" } )
+	public int numItems;
+
+	@Param( { "false", "true" } )
+	public boolean withSelection;
+
+	private ListItemsARGBConverter< String > converter;
+	private IntType[] rowIndices;
+	private ARGBType color;
+
+	@Setup
+	public void setup()
+	{
+		final List< String > items = new ArrayList<>();
+		for ( int i = 0; i < numItems; i++ )
+			items.add( "region_" + i );
+
+		final MoBIESelectionModel< String > selectionModel = new MoBIESelectionModel<>();
+		if ( withSelection )
+			selectionModel.setSelected( items.get( 0 ), true );
+
+		converter = new ListItemsARGBConverter<>( items, new SelectionColoringModel<>( ColoringLuts.GLASBEY, selectionModel ) );
+
+		final Random random = new Random( 42 );
+		rowIndices = new IntType[ NUM_PIXELS ];
+		for ( int i = 0; i < NUM_PIXELS; i++ )
+		{
+			final int index = random.nextInt( 10 ) == 0 ? ListItemsARGBConverter.OUT_OF_BOUNDS_ROW_INDEX : random.nextInt( numItems );
+			rowIndices[ i ] = new IntType( index );
+		}
+
+		color = new ARGBType();
+	}
+
+	@Benchmark
+	public int convert()
+	{
+		int sum = 0;
+		for ( int i = 0; i < NUM_PIXELS; i++ )
+		{
+			converter.convert( rowIndices[ i ], color );
+			sum += color.get();
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,129 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.benchmark;
+
+import bdv.util.RandomAccessibleIntervalSource;
+import bdv.viewer.Source;
+import net.imglib2.Cursor;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.IntArray;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.integer.UnsignedIntType;
+import net.imglib2.view.Views;
+import org.embl.mobie.viewer.SourceNameEncoder;
+import org.embl.mobie.viewer.transform.MergedGridSource;
+import org.embl.mobie.viewer.transform.TransformedGridSourceTransformer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads all cells of a freshly created {@link MergedGridSource}
+ * that merges a square grid of synthetic label images,
+ * with and without encoding the source names into the voxels.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class MergedGridSourceBenchmark
+{
+	private static final int CELL_SIZE = 128;
+
+	@Param( { "4", "16" } )
+	public int gridSize;
+
+	@Param( { "false", "true" } )
+	public boolean encodeSource;
+
+	private List< Source< UnsignedIntType > > gridSources;
+	private List< int[] > positions;
+	private MergedGridSource< ? > mergedGridSource;
+
+	@Setup
+	public void setup()
+	{
+		gridSources = new ArrayList<>();
+		positions = new ArrayList<>();
+		for ( int x = 0; x < gridSize; x++ )
+			for ( int y = 0; y < gridSize; y++ )
+			{
+				final String name = "image_" + x + "_" + y;
+				SourceNameEncoder.addName( name );
+				gridSources.add( new RandomAccessibleIntervalSource<>( createLabels(), new UnsignedIntType(), new AffineTransform3D(), name ) );
+				positions.add( new int[]{ x, y } );
+			}
+	}
+
+	@Setup( Level.Invocation )
+	public void createMergedGridSource()
+	{
+		// a new source has an empty cell cache
+		mergedGridSource = new MergedGridSource<>( gridSources, positions, "merged", TransformedGridSourceTransformer.RELATIVE_CELL_MARGIN, encodeSource );
+	}
+
+	@Benchmark
+	public long loadAllCells()
+	{
+		long sum = 0;
+		// with encoded source names the merged voxels are 64 bit
+		for ( Object value : Views.iterable( mergedGridSource.getSource( 0, 0 ) ) )
+			sum += ( ( IntegerType< ? > ) value ).getIntegerLong();
+		return sum;
+	}
+
+	private static ArrayImg< UnsignedIntType, IntArray > createLabels()
+	{
+		final ArrayImg< UnsignedIntType, IntArray > labels = ArrayImgs.unsignedInts( CELL_SIZE, CELL_SIZE, 1 );
+		final Cursor< UnsignedIntType > cursor = labels.localizingCursor();
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			cursor.get().set( 1 + cursor.getIntPosition( 0 ) / 8 );
+		}
+		return labels;
+	}
+}
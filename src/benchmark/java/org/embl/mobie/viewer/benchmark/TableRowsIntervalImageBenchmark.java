@@ -0,0 +1,127 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.benchmark;
+
+import bdv.viewer.Interpolation;
+import bdv.viewer.Source;
+import de.embl.cba.tables.color.ColoringLuts;
+import net.imglib2.RealRandomAccess;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.realtransform.RealViews;
+import net.imglib2.roi.geom.GeomMasks;
+import net.imglib2.type.numeric.integer.IntType;
+import org.embl.mobie.viewer.TableColumnNames;
+import org.embl.mobie.viewer.annotate.DefaultRegionTableRow;
+import org.embl.mobie.viewer.annotate.RegionTableRow;
+import org.embl.mobie.viewer.annotate.TableRowsIntervalImage;
+import org.embl.mobie.viewer.color.SelectionColoringModel;
+import org.embl.mobie.viewer.select.MoBIESelectionModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples one screen plane of the image that maps a square grid
+ * of region boxes onto their table row indices.
+ * After the first iteration the cells of the image are cached.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class TableRowsIntervalImageBenchmark
+{
+	private static final int REGION_SIZE = 100;
+	private static final int SCREEN_SIZE = 512;
+
+	@Param( { "100", "2500" } )
+	public int numRegions;
+
+	private RealRandomAccess< IntType > access;
+	private double step;
+
+	@Setup
+	public void setup()
+	{
+		final int regionsPerRow = ( int ) Math.ceil( Math.sqrt( numRegions ) );
+
+		final List< String > regionIds = new ArrayList<>();
+		for ( int i = 0; i < numRegions; i++ )
+			regionIds.add( "" + i );
+		final Map< String, List< String > > columns = new HashMap<>();
+		columns.put( TableColumnNames.REGION_ID, regionIds );
+
+		final List< RegionTableRow > tableRows = new ArrayList<>();
+		for ( int i = 0; i < numRegions; i++ )
+		{
+			final double[] min = { ( i % regionsPerRow ) * REGION_SIZE, ( i / regionsPerRow ) * REGION_SIZE, 0 };
+			final double[] max = { min[ 0 ] + 0.9 * REGION_SIZE, min[ 1 ] + 0.9 * REGION_SIZE, 1 };
+			tableRows.add( new DefaultRegionTableRow( regionIds.get( i ), GeomMasks.closedBox( min, max ), columns, i ) );
+		}
+
+		final SelectionColoringModel< RegionTableRow > coloringModel = new SelectionColoringModel<>( ColoringLuts.GLASBEY, new MoBIESelectionModel<>() );
+		final TableRowsIntervalImage< RegionTableRow > image = new TableRowsIntervalImage<>( tableRows, coloringModel, "regions" );
+		final Source< IntType > source = image.getSourceAndConverter().getSpimSource();
+		final AffineTransform3D sourceTransform = new AffineTransform3D();
+		source.getSourceTransform( 0, 0, sourceTransform );
+		access = RealViews.affineReal( source.getInterpolatedSource( 0, 0, Interpolation.NEARESTNEIGHBOR ), sourceTransform ).realRandomAccess();
+
+		// the screen shows all regions
+		step = 1.0 * regionsPerRow * REGION_SIZE / SCREEN_SIZE;
+	}
+
+	@Benchmark
+	public long samplePlane()
+	{
+		long sum = 0;
+		for ( int y = 0; y < SCREEN_SIZE; y++ )
+			for ( int x = 0; x < SCREEN_SIZE; x++ )
+			{
+				access.setPosition( new double[]{ x * step, y * step, 0.5 } );
+				sum += access.get().get();
+			}
+		return sum;
+	}
+}
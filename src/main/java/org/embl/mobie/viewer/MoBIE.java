@@ -28,26 +28,32 @@
  */
 package org.embl.mobie.viewer;
 
-import bdv.img.n5.N5ImageLoader;
 import bdv.viewer.Source;
 import bdv.viewer.SourceAndConverter;
 import de.embl.cba.bdv.utils.Logger;
 import mpicbg.spim.data.SpimDataException;
+import mpicbg.spim.data.sequence.TimePoint;
 import org.embl.mobie.io.ImageDataFormat;
 import org.embl.mobie.io.SpimDataOpener;
-import org.embl.mobie.io.ome.zarr.loaders.N5OMEZarrImageLoader;
 import org.embl.mobie.io.util.IOHelper;
 import org.embl.mobie.io.util.S3Utils;
 import org.embl.mobie.viewer.display.AnnotationDisplay;
+import org.embl.mobie.viewer.metrics.Metrics;
 import org.embl.mobie.viewer.display.SegmentationDisplay;
 import org.embl.mobie.viewer.display.RegionDisplay;
 import org.embl.mobie.viewer.annotate.RegionCreator;
 import org.embl.mobie.viewer.annotate.RegionTableRow;
 import org.embl.mobie.viewer.plugins.platybrowser.GeneSearchCommand;
 import org.embl.mobie.viewer.serialize.DatasetJsonParser;
+import org.embl.mobie.viewer.serialize.MetadataCache;
 import org.embl.mobie.viewer.serialize.ProjectJsonParser;
+import org.embl.mobie.viewer.source.CachingN5Reader;
+import org.embl.mobie.viewer.source.DiskChunkCache;
 import org.embl.mobie.viewer.source.ImageSource;
+import org.embl.mobie.viewer.source.LazySourceAndConverter;
 import org.embl.mobie.viewer.source.SegmentationSource;
+import org.embl.mobie.viewer.source.SourceMetadata;
+import org.embl.mobie.viewer.source.SourcePool;
 import org.embl.mobie.viewer.table.TableDataFormat;
 import org.embl.mobie.viewer.table.TableHelper;
 import org.embl.mobie.viewer.ui.UserInterface;
@@ -60,7 +66,6 @@ import de.embl.cba.tables.github.GitHubUtils;
 import de.embl.cba.tables.tablerow.TableRowImageSegment;
 import ij.IJ;
 import mpicbg.spim.data.SpimData;
-import mpicbg.spim.data.sequence.ImgLoader;
 import sc.fiji.bdvpg.PlaygroundPrefs;
 import sc.fiji.bdvpg.scijava.services.SourceAndConverterService;
 import sc.fiji.bdvpg.services.SourceAndConverterServices;
@@ -75,6 +80,8 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 
 public class MoBIE
 {
@@ -93,7 +100,7 @@ public class MoBIE
 	private String projectRoot;
 	private String imageRoot;
 	private String tableRoot;
-	private HashMap< String, ImgLoader > sourceNameToImgLoader;
+	private final SourcePool sourcePool = new SourcePool();
 	private Map< String, SourceAndConverter< ? > > sourceNameToSourceAndConverter;
 	private ArrayList< String > projectCommands = new ArrayList<>();;
 	public static int minLogTimeMillis = 100;
@@ -117,10 +124,16 @@ public class MoBIE
 		// Open project
 		IJ.log("\n# MoBIE" );
 		IJ.log("Opening project: " + projectLocation );
-		WindowArrangementHelper.setLogWindowPositionAndSize();
+		if ( ! settings.values.isHeadless() )
+			WindowArrangementHelper.setLogWindowPositionAndSize();
 
 		this.settings = settings.projectLocation( projectLocation );
 		setS3Credentials( settings );
+		MetadataCache.enabled = settings.values.isMetadataCache();
+		MetadataCache.timeToLiveMillis = settings.values.getMetadataCacheTimeToLiveMillis();
+		setDiskChunkCache( settings );
+		sourcePool.setMaxIdleMillis( settings.values.getSourcePoolMaxIdleMillis() );
+		sourcePool.setMemoryBudget( settings.values.getSourcePoolMemoryBudget() );
 		setProjectImageAndTableRootLocations( );
 		registerProjectPlugins( settings.values.getProjectLocation() );
 		projectName = MoBIEHelper.getName( projectLocation );
@@ -224,13 +237,22 @@ public class MoBIE
 		}
 	}
 
+	private static void setDiskChunkCache( MoBIESettings settings )
+	{
+		final DiskChunkCache cache = DiskChunkCache.getInstance();
+		if ( ! settings.values.isDiskChunkCache() )
+			DiskChunkCache.setInstance( null );
+		else if ( cache == null || cache.getMaxBytes() != settings.values.getDiskChunkCacheMaxBytes() )
+			DiskChunkCache.setInstance( new DiskChunkCache( DiskChunkCache.DEFAULT_DIRECTORY, settings.values.getDiskChunkCacheMaxBytes() ) );
+	}
+
 	private void setProjectImageAndTableRootLocations( )
 	{
 		projectRoot = createPath(
 				settings.values.getProjectLocation(),
 				settings.values.getProjectBranch() );
 
-		if( ! IOHelper.exists( IOHelper.combinePath( projectRoot, "project.json" ) ) )
+		if( ! MetadataCache.exists( IOHelper.combinePath( projectRoot, "project.json" ) ) )
 		{
 			projectRoot = IOHelper.combinePath( projectRoot, "data" );
 		}
@@ -239,7 +261,7 @@ public class MoBIE
 				settings.values.getImageDataLocation(),
 				settings.values.getImageDataBranch() );
 
-		if( ! IOHelper.exists( IOHelper.combinePath( imageRoot, "project.json" ) ) )
+		if( ! MetadataCache.exists( IOHelper.combinePath( imageRoot, "project.json" ) ) )
 		{
 			imageRoot = IOHelper.combinePath( imageRoot, "data" );
 		}
@@ -248,7 +270,7 @@ public class MoBIE
 				settings.values.getTableDataLocation(),
 				settings.values.getTableDataBranch() );
 
-		if( ! IOHelper.exists( IOHelper.combinePath( tableRoot, "project.json" ) ) )
+		if( ! MetadataCache.exists( IOHelper.combinePath( tableRoot, "project.json" ) ) )
 		{
 			tableRoot = IOHelper.combinePath( tableRoot, "data" );
 		}
@@ -272,23 +294,41 @@ public class MoBIE
 		final int numImages = sources.size();
 		AtomicInteger sourceLoggingModulo = new AtomicInteger(1);
 		AtomicLong lastLogMillis = new AtomicLong( System.currentTimeMillis() );
+		AtomicInteger numReused = new AtomicInteger( 0 );
 
 		for ( String sourceName : sources )
 		{
 			futures.add(
 					MultiThreading.ioExecutorService.submit( () -> {
 						String log = getLog( sourceIndex, numImages, sourceLoggingModulo, lastLogMillis );
+						if ( sourcePool.contains( sourceName ) )
+							numReused.incrementAndGet();
 						sourceNameToSourceAndConverters.put( sourceName, openSourceAndConverter( sourceName, log ) );
 					}
 				) );
 		}
 		MultiThreading.waitUntilFinished( futures );
 
-		IJ.log( "Opened " + sourceNameToSourceAndConverters.size() + " image(s) in " + (System.currentTimeMillis() - startTime) + " ms, using up to " + MultiThreading.getNumIoThreads() + " thread(s).");
+		IJ.log( "Opened " + sourceNameToSourceAndConverters.size() + " image(s) (" + numReused.get() + " already open) in " + (System.currentTimeMillis() - startTime) + " ms, using up to " + MultiThreading.getNumIoThreads() + " thread(s).");
 
 		return sourceNameToSourceAndConverters;
 	}
 
+	/*
+	 * Releases sources that have been obtained via openSourceAndConverters.
+	 * The sources stay open in the source pool, such that they can be reused
+	 * by subsequent views, until they are evicted.
+	 */
+	public void releaseSourceAndConverters( Collection< String > sources )
+	{
+		sourcePool.release( sources );
+	}
+
+	public SourcePool getSourcePool()
+	{
+		return sourcePool;
+	}
+
 	private String getLog( AtomicInteger index, int numTotal, AtomicInteger modulo, AtomicLong lastLogMillis )
 	{
 		if ( ( index.incrementAndGet() - 1 ) % modulo.get() == 0  )
@@ -314,10 +354,11 @@ public class MoBIE
 	private void openDataset( String datasetName ) throws IOException
 	{
 		IJ.log("Opening dataset: " + datasetName );
-		sourceNameToImgLoader = new HashMap<>();
 		sourceNameToSourceAndConverter = new ConcurrentHashMap<>();
 		setDatasetName( datasetName );
 		dataset = new DatasetJsonParser().parseDataset( getDatasetPath( "dataset.json" ) );
+		prefetchImageMetadata();
+		if ( settings.values.isHeadless() ) return;
 		userInterface = new UserInterface( this );
 		viewManager = new ViewManager( this, userInterface, dataset.is2D );
 		final View view = getView();
@@ -328,6 +369,43 @@ public class MoBIE
 		IJ.log("Opened view: " + view.getName() + ", in " + (System.currentTimeMillis() - startTime) + " ms." );
 	}
 
+	// Revalidate all remote bdv.xml files in one parallel round,
+	// instead of one after the other while opening the images
+	private void prefetchImageMetadata()
+	{
+		final long start = System.currentTimeMillis();
+		final List< String > xmlPaths = new ArrayList<>();
+		for ( String sourceName : dataset.sources.keySet() )
+		{
+			final ImageSource imageSource = getSource( sourceName );
+			for ( ImageDataFormat imageDataFormat : imageSource.imageData.keySet() )
+			{
+				if ( isRemoteXml( imageDataFormat ) && settings.values.getImageDataFormats().contains( imageDataFormat ) )
+				{
+					xmlPaths.add( getImagePath( imageSource, imageDataFormat ) );
+					break;
+				}
+			}
+		}
+
+		if ( xmlPaths.isEmpty() ) return;
+
+		MetadataCache.prefetch( xmlPaths );
+		final long durationMillis = System.currentTimeMillis() - start;
+		if ( durationMillis > minLogTimeMillis )
+			IJ.log( "Fetched metadata of " + xmlPaths.size() + " images in " + durationMillis + " ms." );
+	}
+
+	private static boolean isRemoteXml( ImageDataFormat imageDataFormat )
+	{
+		return imageDataFormat.equals( ImageDataFormat.BdvN5S3 ) || imageDataFormat.equals( ImageDataFormat.BdvOmeZarrS3 );
+	}
+
+	private static boolean isRemote( ImageDataFormat imageDataFormat )
+	{
+		return isRemoteXml( imageDataFormat ) || imageDataFormat.equals( ImageDataFormat.OmeZarrS3 ) || imageDataFormat.equals( ImageDataFormat.OpenOrganelleS3 );
+	}
+
 	private View getView() throws IOException
 	{
 		final View view = dataset.views.get( settings.values.getView() );
@@ -403,7 +481,10 @@ public class MoBIE
 			IJ.log( "Closing MoBIE..." );
 			IJ.log( "Closing I/O threads..." );
 			MultiThreading.resetIOThreads();
-			viewManager.close();
+			if ( viewManager != null )
+				viewManager.close();
+			IJ.log( "Closing images..." );
+			sourcePool.close();
 			IJ.log( "MoBIE closed." );
 			IJ.log( "Closing MoBIE may have lead to errors due to processes that are interrupted." );
 			IJ.log( "Usually it is fine to ignore those errors." );
@@ -422,6 +503,11 @@ public class MoBIE
 	}
 
 	public SourceAndConverter< ? > openSourceAndConverter( String sourceName, String log )
+	{
+		return sourcePool.acquire( sourceName, () -> openPooledSource( sourceName, log ) );
+	}
+
+	private SourcePool.PooledSource openPooledSource( String sourceName, String log )
 	{
 		final ImageSource imageSource = getSource( sourceName );
 
@@ -431,17 +517,29 @@ public class MoBIE
         if( log != null )
             IJ.log( log + imagePath );
 
+		if ( settings.values.isLazySourceOpening() )
+		{
+			final SourceMetadata metadata = SourceMetadata.read( imagePath );
+			if ( metadata != null )
+				return openLazyPooledSource( sourceName, imagePath, imageDataFormat, metadata );
+		}
+
 		try
 		{
+			final long start = System.nanoTime();
 			SpimData spimData = tryOpenSpimData( imagePath, imageDataFormat );
-			sourceNameToImgLoader.put( sourceName, spimData.getSequenceDescription().getImgLoader() );
 
 			final SourceAndConverterFromSpimDataCreator creator = new SourceAndConverterFromSpimDataCreator( spimData );
 			SourceAndConverter< ? > sourceAndConverter = creator.getSetupIdToSourceAndConverter().values().iterator().next();
             // Touch the source once to initiate the cache,
             // as this speeds up future accesses significantly
             sourceAndConverter.getSpimSource().getSource( 0,0 );
-			return sourceAndConverter;
+			Metrics.timeSince( Metrics.IMAGE_OPEN, start );
+
+			if ( settings.values.isLazySourceOpening() )
+				SourceMetadata.fromSourceAndConverter( imagePath, sourceAndConverter, getTimepoints( spimData ) ).write();
+
+			return new SourcePool.PooledSource( sourceAndConverter, spimData.getSequenceDescription().getImgLoader() );
 		}
 		catch ( Exception e )
 		{
@@ -450,6 +548,34 @@ public class MoBIE
 		}
     }
 
+	private SourcePool.PooledSource openLazyPooledSource( String sourceName, String imagePath, ImageDataFormat imageDataFormat, SourceMetadata metadata )
+	{
+		final AtomicReference< SpimData > spimDataReference = new AtomicReference<>();
+		final LazySourceAndConverter lazySourceAndConverter = new LazySourceAndConverter( sourceName, metadata, () ->
+		{
+			final long start = System.currentTimeMillis();
+			final SpimData spimData = tryOpenSpimData( imagePath, imageDataFormat );
+			spimDataReference.set( spimData );
+			final SourceAndConverterFromSpimDataCreator creator = new SourceAndConverterFromSpimDataCreator( spimData );
+			final SourceAndConverter< ? > sourceAndConverter = creator.getSetupIdToSourceAndConverter().values().iterator().next();
+			final long durationMillis = System.currentTimeMillis() - start;
+			if ( durationMillis > minLogTimeMillis )
+				IJ.log( "Opened " + sourceName + " on demand in " + durationMillis + " ms." );
+			return sourceAndConverter;
+		} );
+
+		return new SourcePool.PooledSource( lazySourceAndConverter.create(), () ->
+		{
+			final SpimData spimData = spimDataReference.get();
+			return spimData == null ? null : spimData.getSequenceDescription().getImgLoader();
+		} );
+	}
+
+	private static List< Integer > getTimepoints( SpimData spimData )
+	{
+		return spimData.getSequenceDescription().getTimePoints().getTimePointsOrdered().stream().map( TimePoint::getId ).collect( Collectors.toList() );
+	}
+
 	private ImageDataFormat getImageDataFormat( String sourceName, Set< ImageDataFormat > sourceDataFormats )
 	{
 		for ( ImageDataFormat sourceDataFormat : sourceDataFormats )
@@ -473,18 +599,32 @@ public class MoBIE
 	{
 		try
 		{
+			// The xml of remote formats holds the absolute location of the data,
+			// thus it can be opened from a local copy
+			final String openPath = isRemoteXml( imageDataFormat ) ? MetadataCache.getLocalCopy( imagePath ) : imagePath;
+
+			final SpimData spimData;
 			if ( imageDataFormat.equals( ImageDataFormat.BdvOmeZarrS3) ||
 					imageDataFormat.equals( ImageDataFormat.BdvOmeZarr) )
 			{
 				// TODO enable shared queues
-				return ( SpimData ) new SpimDataOpener().openSpimData( imagePath, imageDataFormat );
+				spimData = ( SpimData ) new SpimDataOpener().openSpimData( openPath, imageDataFormat );
 			}
 			else
 			{
-				return ( SpimData ) new SpimDataOpener().openSpimData( imagePath, imageDataFormat, MultiThreading.sharedQueue );
+				spimData = ( SpimData ) new SpimDataOpener().openSpimData( openPath, imageDataFormat, MultiThreading.sharedQueue );
 			}
+
+			final DiskChunkCache diskChunkCache = DiskChunkCache.getInstance();
+			if ( ( diskChunkCache != null || settings.values.isChunkMetrics() ) && isRemote( imageDataFormat ) )
+			{
+				if ( ! CachingN5Reader.install( spimData.getSequenceDescription().getImgLoader(), imagePath, diskChunkCache ) )
+					IJ.log( "[WARN] Chunks of " + imagePath + " can not be cached on disk or measured." );
+			}
+
+			return spimData;
 		}
-		catch ( SpimDataException e )
+		catch ( SpimDataException | IOException e )
 		{
 			throw new RuntimeException( e );
 		}
@@ -493,7 +633,10 @@ public class MoBIE
 	public void setDataset( String dataset )
     {
         setDatasetName( dataset );
-        viewManager.close();
+        if ( viewManager != null )
+            viewManager.close();
+        // source names are only unique within a dataset
+        sourcePool.close();
 
         try {
             openDataset( datasetName );
@@ -552,7 +695,9 @@ public class MoBIE
 		final String defaultTablePath = getTablePath( tableSource, tableName );
 		if ( log != null )
 			IJ.log( log + defaultTablePath );
+		final long start = System.nanoTime();
 		final List< TableRowImageSegment > segments = MoBIEHelper.createAnnotatedImageSegmentsFromTableFile( defaultTablePath, sourceName );
+		Metrics.timeSince( Metrics.TABLE_LOAD, start );
 		return segments;
 	}
 
@@ -567,7 +712,9 @@ public class MoBIE
 		{
 			futures.add(
 				executorService.submit( () -> {
+					final long tableStart = System.nanoTime();
 					Map< String, List< String > > columns = TableHelper.loadTableAndAddImageIdColumn( sourceName, getTablePath( ( SegmentationSource ) getSource( sourceName ), table ) );
+					Metrics.timeSince( Metrics.TABLE_LOAD, tableStart );
 				additionalTables.add( columns );
 				} )
 			);
@@ -701,6 +848,7 @@ public class MoBIE
 			final long startTime = System.currentTimeMillis();
 			tables.add( TableColumns.stringColumnsFromTableFile( tablePath ) );
 			final long durationMillis = System.currentTimeMillis() - startTime;
+			Metrics.time( Metrics.TABLE_LOAD, durationMillis );
 			if ( durationMillis > minLogTimeMillis )
 				Logger.log( "Read in "+ durationMillis +" ms: " + tablePath );
 		}
@@ -721,29 +869,25 @@ public class MoBIE
 		return regionTableRows;
 	}
 
-	public void closeSourceAndConverter( SourceAndConverter< ? > sourceAndConverter, boolean closeImgLoader )
+	/*
+	 * Removes a (transformed) source from the viewers and from MoBIE.
+	 * The image loaders are not closed here, because they are owned by the
+	 * source pool, to which the ViewManager releases the raw sources.
+	 */
+	public void closeSourceAndConverter( SourceAndConverter< ? > sourceAndConverter )
 	{
 		SourceAndConverterServices.getBdvDisplayService().removeFromAllBdvs( sourceAndConverter );
 		String sourceName = sourceAndConverter.getSpimSource().getName();
-
-		if ( closeImgLoader )
-		{
-			final ImgLoader imgLoader = sourceNameToImgLoader.get( sourceName );
-			if ( imgLoader instanceof N5ImageLoader )
-			{
-				( ( N5ImageLoader ) imgLoader ).close();
-			}
-			else if ( imgLoader instanceof N5OMEZarrImageLoader )
-			{
-				( ( N5OMEZarrImageLoader ) imgLoader ).close();
-			}
-		}
-
-		sourceNameToImgLoader.remove( sourceName );
 		sourceNameToSourceAndConverter.remove( sourceName );
 		SourceAndConverterServices.getSourceAndConverterService().remove( sourceAndConverter );
 	}
 
+	public String getImagePath( String sourceName )
+	{
+		final ImageSource imageSource = getSource( sourceName );
+		return getImagePath( imageSource, getImageDataFormat( sourceName, imageSource.imageData.keySet() ) );
+	}
+
     public synchronized String getImagePath(ImageSource source, ImageDataFormat imageDataFormat) {
 
         switch (imageDataFormat) {
@@ -52,11 +52,12 @@ import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.roi.Bounds;
 import net.imglib2.roi.RealMaskRealInterval;
 import net.imglib2.roi.geom.GeomMasks;
-import net.imglib2.util.Intervals;
 import org.embl.mobie.io.util.IOHelper;
+import org.embl.mobie.viewer.serialize.MetadataCache;
 import org.embl.mobie.viewer.source.LabelSource;
 import org.embl.mobie.viewer.transform.MergedGridSource;
 import org.embl.mobie.viewer.transform.TransformHelper;
+import org.embl.mobie.viewer.transform.UnionRealMask;
 
 import javax.swing.*;
 import javax.swing.filechooser.FileNameExtensionFilter;
@@ -167,30 +168,14 @@ public abstract class MoBIEHelper
 
 	public static RealMaskRealInterval unionRealMask( List< ? extends Source< ? > > sources )
 	{
-		RealMaskRealInterval union = null;
-
+		final List< RealMaskRealInterval > masks = new ArrayList<>();
 		for ( Source< ? > source : sources )
-		{
-			final RealMaskRealInterval mask = getMask( source );
+			masks.add( getMask( source ) );
 
-			if ( union == null )
-			{
-				union = mask;
-			}
-			else
-			{
-				if ( Intervals.equals( mask, union ) )
-				{
-					continue;
-				}
-				else
-				{
-					union = union.or( mask );
-				}
-			}
-		}
+		if ( masks.size() == 1 )
+			return masks.get( 0 );
 
-		return union;
+		return new UnionRealMask( masks );
 	}
 
 	public enum FileLocation {
@@ -203,7 +188,7 @@ public abstract class MoBIEHelper
 		ArrayList<String> commonFileNames = new ArrayList<>();
 
 		for ( String directory: directories ) {
-			String[] directoryFileNames = IOHelper.getFileNames( directory );
+			String[] directoryFileNames = MetadataCache.getFileNames( directory );
 			for ( String directoryFileName: directoryFileNames ) {
 				if ( fileNameCounts.containsKey( directoryFileName ) ) {
 					int count = fileNameCounts.get(directoryFileName);
@@ -248,7 +233,7 @@ public abstract class MoBIEHelper
 			// all of them
 			return chooseCommonFileName(directories, objectName);
 		} else {
-			String[] fileNames = IOHelper.getFileNames( directories.get(0) );
+			String[] fileNames = MetadataCache.getFileNames( directories.get(0) );
 			if ( fileNames == null )
 				throw new RuntimeException("Could not find any files at " + directories.get(0) );
 
@@ -261,7 +246,7 @@ public abstract class MoBIEHelper
 			return null;
 		}
 
-		String[] fileNames = IOHelper.getFileNames( directory );
+		String[] fileNames = MetadataCache.getFileNames( directory );
 		String fileName = selectionDialog( fileNames, objectName );
 		if ( fileName != null ) {
 			return IOHelper.combinePath( directory, fileName );
@@ -29,6 +29,7 @@
 package org.embl.mobie.viewer;
 
 import org.embl.mobie.io.ImageDataFormat;
+import org.embl.mobie.viewer.source.SourcePool;
 
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -104,6 +105,149 @@ public class MoBIESettings
 		return this;
 	}
 
+	/**
+	 * Open the project without any user interface or viewer,
+	 * e.g. for rendering views in batch.
+	 *
+	 * @param headless whether to open the project headless
+	 * @return the settings
+	 */
+	public MoBIESettings headless( boolean headless )
+	{
+		this.values.headless = headless;
+		return this;
+	}
+
+	/**
+	 * Show each display of a view as soon as its images are open,
+	 * rather than waiting until all images of the view are open.
+	 *
+	 * @param progressiveViewOpening whether to open views progressively
+	 * @return the settings
+	 */
+	public MoBIESettings progressiveViewOpening( boolean progressiveViewOpening )
+	{
+		this.values.progressiveViewOpening = progressiveViewOpening;
+		return this;
+	}
+
+	/**
+	 * Open images lazily: if the metadata of an image has been cached
+	 * in a previous session, the image is added to the viewer without
+	 * reading anything from disk or network, and the actual image data
+	 * is only opened once a voxel of it needs to be rendered.
+	 *
+	 * @param lazySourceOpening whether to open images lazily
+	 * @return the settings
+	 */
+	public MoBIESettings lazySourceOpening( boolean lazySourceOpening )
+	{
+		this.values.lazySourceOpening = lazySourceOpening;
+		return this;
+	}
+
+	/**
+	 * Cache remote metadata files, such as project.json, dataset.json and bdv.xml,
+	 * on the local disk and only revalidate them with the server once they are
+	 * older than the given time to live.
+	 *
+	 * @param metadataCache whether to cache remote metadata
+	 * @param timeToLiveMillis how long a cached file is used without revalidation
+	 * @return the settings
+	 */
+	public MoBIESettings metadataCache( boolean metadataCache, long timeToLiveMillis )
+	{
+		this.values.metadataCache = metadataCache;
+		this.values.metadataCacheTimeToLiveMillis = timeToLiveMillis;
+		return this;
+	}
+
+	/**
+	 * Cache the chunks of remote (S3) images on the local disk,
+	 * such that they only need to be downloaded once across sessions.
+	 *
+	 * @param diskChunkCache whether to cache chunks on disk
+	 * @param maxBytes the maximal size of the cache; least recently used chunks are deleted beyond this
+	 * @return the settings
+	 */
+	public MoBIESettings diskChunkCache( boolean diskChunkCache, long maxBytes )
+	{
+		this.values.diskChunkCache = diskChunkCache;
+		this.values.diskChunkCacheMaxBytes = maxBytes;
+		return this;
+	}
+
+	/**
+	 * Configure when the sources that are not shown in any view anymore are closed,
+	 * which releases their image caches.
+	 *
+	 * @param maxIdleMillis time after which a source that is not shown anymore is closed
+	 * @param memoryBudget used heap, in bytes, above which all sources that are not shown are closed
+	 * @return the settings
+	 */
+	public MoBIESettings sourcePool( long maxIdleMillis, long memoryBudget )
+	{
+		this.values.sourcePoolMaxIdleMillis = maxIdleMillis;
+		this.values.sourcePoolMemoryBudget = memoryBudget;
+		return this;
+	}
+
+	/**
+	 * Request the image chunks that are likely needed next
+	 * while panning and zooming in the slice viewer.
+	 *
+	 * @param prefetching whether to prefetch chunks
+	 * @return the settings
+	 */
+	public MoBIESettings prefetching( boolean prefetching )
+	{
+		this.values.prefetching = prefetching;
+		return this;
+	}
+
+	/**
+	 * Request the visible image chunks of the upcoming timepoints
+	 * whenever the timepoint changes in the slice viewer.
+	 *
+	 * @param timepointPrefetching whether to prefetch upcoming timepoints
+	 * @return the settings
+	 */
+	public MoBIESettings timepointPrefetching( boolean timepointPrefetching )
+	{
+		this.values.timepointPrefetching = timepointPrefetching;
+		return this;
+	}
+
+	/**
+	 * Request the visible image chunks of each frame ordered by display
+	 * priority and distance from the screen centre, rather than in
+	 * the scan line order of the renderer.
+	 * This also records the memory cache hit rate and the number of
+	 * pending visible chunks in the {@link org.embl.mobie.viewer.metrics.Metrics}.
+	 *
+	 * @param prioritizedFetching whether to order the chunk requests
+	 * @return the settings
+	 */
+	public MoBIESettings prioritizedFetching( boolean prioritizedFetching )
+	{
+		this.values.prioritizedFetching = prioritizedFetching;
+		return this;
+	}
+
+	/**
+	 * Record the fetch latency and the number of bytes read for the chunks
+	 * of remote images, as well as the frame render time of the slice viewer.
+	 * This wraps the readers of the image loaders.
+	 *
+	 * @param chunkMetrics whether to record chunk metrics
+	 * @return the settings
+	 */
+	public MoBIESettings chunkMetrics( boolean chunkMetrics )
+	{
+		this.values.chunkMetrics = chunkMetrics;
+		return this;
+	}
+
 	public static class Values
 	{
 		public String[] s3AccessAndSecretKey;
@@ -116,6 +260,19 @@ public class MoBIESettings
 		private String imageDataLocation;
 		private String tableDataLocation;
 		private String view = "default";
+		private boolean headless = false;
+		private boolean progressiveViewOpening = false;
+		private boolean lazySourceOpening = false;
+		private boolean metadataCache = false;
+		private long metadataCacheTimeToLiveMillis = 10 * 60 * 1000;
+		private boolean diskChunkCache = false;
+		private boolean prefetching = false;
+		private boolean timepointPrefetching = false;
+		private boolean prioritizedFetching = false;
+		private boolean chunkMetrics = false;
+		private long diskChunkCacheMaxBytes = 10L * 1024 * 1024 * 1024;
+		private long sourcePoolMaxIdleMillis = SourcePool.DEFAULT_MAX_IDLE_MILLIS;
+		private long sourcePoolMemoryBudget = SourcePool.DEFAULT_MEMORY_BUDGET;
 
 		public String getDataset()
 		{
@@ -164,6 +321,71 @@ public class MoBIESettings
 			return view;
 		}
 
+		public boolean isHeadless()
+		{
+			return headless;
+		}
+
+		public boolean isProgressiveViewOpening()
+		{
+			return progressiveViewOpening;
+		}
+
+		public boolean isLazySourceOpening()
+		{
+			return lazySourceOpening;
+		}
+
+		public boolean isMetadataCache()
+		{
+			return metadataCache;
+		}
+
+		public long getMetadataCacheTimeToLiveMillis()
+		{
+			return metadataCacheTimeToLiveMillis;
+		}
+
+		public boolean isDiskChunkCache()
+		{
+			return diskChunkCache;
+		}
+
+		public long getDiskChunkCacheMaxBytes()
+		{
+			return diskChunkCacheMaxBytes;
+		}
+
+		public long getSourcePoolMaxIdleMillis()
+		{
+			return sourcePoolMaxIdleMillis;
+		}
+
+		public long getSourcePoolMemoryBudget()
+		{
+			return sourcePoolMemoryBudget;
+		}
+
+		public boolean isPrefetching()
+		{
+			return prefetching;
+		}
+
+		public boolean isTimepointPrefetching()
+		{
+			return timepointPrefetching;
+		}
+
+		public boolean isPrioritizedFetching()
+		{
+			return prioritizedFetching;
+		}
+
+		public boolean isChunkMetrics()
+		{
+			return chunkMetrics;
+		}
+
 		public String[] getS3AccessAndSecretKey()
 		{
 			return s3AccessAndSecretKey;
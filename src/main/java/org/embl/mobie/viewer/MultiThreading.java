@@ -30,6 +30,7 @@ package org.embl.mobie.viewer;
 
 import bdv.util.volatiles.SharedQueue;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
@@ -37,6 +38,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 public class MultiThreading
 {
@@ -65,6 +67,11 @@ public class MultiThreading
 		return N_IO_THREADS;
 	}
 
+	public static int getNumThreads()
+	{
+		return Math.max( 1, N_THREADS );
+	}
+
 	public static void waitUntilFinished( List< Future< ? > > futures )
 	{
 		for ( Future< ? > future : futures )
@@ -83,6 +90,38 @@ public class MultiThreading
 		}
 	}
 
+	/**
+	 * Waits for all futures. If one of them fails, the remaining ones are
+	 * cancelled and the failure is rethrown, as created from its cause.
+	 */
+	public static < E extends Exception > void waitUntilFinished( List< Future< ? > > futures, Function< Throwable, E > failure ) throws E
+	{
+		try
+		{
+			for ( Future< ? > future : futures )
+				future.get();
+		}
+		catch ( InterruptedException | ExecutionException e )
+		{
+			for ( Future< ? > future : futures )
+				future.cancel( true );
+
+			if ( e instanceof InterruptedException )
+				Thread.currentThread().interrupt();
+
+			throw failure.apply( e instanceof ExecutionException ? e.getCause() : e );
+		}
+	}
+
+	/**
+	 * @return a failure for {@link #waitUntilFinished(List, Function)} that rethrows
+	 * IOExceptions as they are and wraps any other cause
+	 */
+	public static Function< Throwable, IOException > ioFailure( String message )
+	{
+		return cause -> cause instanceof IOException ? ( IOException ) cause : new IOException( message, cause );
+	}
+
 	public static ArrayList< Future< ? > > getFutures()
 	{
 		return new ArrayList<>();
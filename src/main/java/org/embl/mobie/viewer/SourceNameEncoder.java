@@ -28,20 +28,70 @@
  */
 package org.embl.mobie.viewer;
 
-import net.imglib2.type.numeric.integer.UnsignedIntType;
-import net.imglib2.type.volatiles.VolatileUnsignedIntType;
+import net.imglib2.Volatile;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedLongType;
 
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Encodes the name of the label image that a label belongs to
+ * into the voxel value, such that one voxel of a merged grid
+ * identifies both the label and its image.
+ *
+ * The lower {@link #getLabelBits()} bits of the 64-bit value hold the label,
+ * the bits above hold the index of the image name.
+ * Label 0 (background) is never encoded.
+ *
+ * Decoding is called per rendered voxel and does not lock:
+ * the image names are kept in an array that is replaced, never modified,
+ * when a name is added.
+ */
 public abstract class SourceNameEncoder
 {
-	private static Map< String, Long > nameToLong = new HashMap< String, Long >();
-	private static Map< Long, String > longToName = new HashMap< Long, String >();
-	private static long count = 0;
+	/**
+	 * Encoded values may be converted to double on their way through ImgLib2,
+	 * which represents integers exactly only up to 2^53.
+	 * The default split leaves 32 bits for the labels and 21 bits
+	 * for the image names (more than 2 million images).
+	 */
+	public static final int DEFAULT_LABEL_BITS = 32;
+	public static final int MAX_ENCODED_BITS = 53;
+
+	private static final Map< String, Long > nameToIndex = new ConcurrentHashMap<>();
+	private static volatile String[] indexToName = new String[ 0 ];
+	private static volatile int labelBits = DEFAULT_LABEL_BITS;
+	private static volatile long labelMask = ( 1L << DEFAULT_LABEL_BITS ) - 1;
+
+	/**
+	 * Sets how many bits of the encoded value hold the label;
+	 * the remaining bits up to {@link #MAX_ENCODED_BITS} hold the image index.
+	 *
+	 * Values that have been encoded before cannot be decoded anymore
+	 * after the split has been changed.
+	 *
+	 * @param numLabelBits number of bits for the labels
+	 */
+	public static synchronized void setLabelBits( int numLabelBits )
+	{
+		if ( numLabelBits < 1 || numLabelBits >= MAX_ENCODED_BITS )
+			throw new IllegalArgumentException( "The number of label bits must be between 1 and " + ( MAX_ENCODED_BITS - 1 ) + ", but is " + numLabelBits );
+
+		if ( indexToName.length > getMaxNumNames( numLabelBits ) )
+			throw new IllegalArgumentException( "With " + numLabelBits + " label bits at most " + getMaxNumNames( numLabelBits ) + " image names can be encoded, but there are " + indexToName.length );
 
-	public static Integer valueBits = 16;
+		labelMask = ( 1L << numLabelBits ) - 1;
+		labelBits = numLabelBits;
+	}
+
+	public static int getLabelBits()
+	{
+		return labelBits;
+	}
 
 	public static synchronized void addNames( Collection< String > names )
 	{
@@ -51,55 +101,87 @@ public abstract class SourceNameEncoder
 		}
 	}
 
-	public static void addName( String name )
+	public static synchronized void addName( String name )
 	{
-		if ( ! nameToLong.containsKey( name ) )
-		{
-			nameToLong.put( name, count );
-			longToName.put( count, name );
-			count++;
-		}
+		if ( nameToIndex.containsKey( name ) ) return;
+
+		final String[] names = indexToName;
+		final long maxNumNames = getMaxNumNames( labelBits );
+		if ( names.length >= maxNumNames )
+			throw new IllegalStateException( "Cannot add the image name " + name + ": with " + labelBits + " label bits at most " + maxNumNames + " image names can be encoded and this capacity is used up." );
+
+		// copy on write, such that readers never see a partially updated table
+		final String[] newNames = Arrays.copyOf( names, names.length + 1 );
+		newNames[ names.length ] = name;
+		indexToName = newNames;
+		nameToIndex.put( name, ( long ) names.length );
 	}
 
-	public static String getName( final UnsignedIntType unsignedIntType )
+	/**
+	 * @return the index of the image name, to be used with {@link #encode(long, long)}
+	 */
+	public static long getIndex( String name )
 	{
-		final long imageIndex = unsignedIntType.get() >> valueBits;
-		final String name = longToName.get( imageIndex );
-		return name;
+		final Long index = nameToIndex.get( name );
+		if ( index == null )
+			throw new IllegalArgumentException( "The image name " + name + " has not been added to the encoder." );
+		return index;
 	}
 
-	public static String getName( final VolatileUnsignedIntType unsignedIntType )
+	public static long encode( long label, long nameIndex )
 	{
-		return getName( unsignedIntType.get().get() );
+		if ( label == 0 ) return 0;
+
+		if ( label < 0 || label > labelMask )
+			throw new IllegalArgumentException( "Label " + label + " does not fit into " + labelBits + " bits." );
+
+		return ( nameIndex << labelBits ) | label;
 	}
 
-	public static String getName( final long l )
+	public static void encodeName( final UnsignedLongType value, final String name )
 	{
-		final long imageIndex = l >> valueBits;
-		final String name = longToName.get( imageIndex );
-		return name;
+		value.set( encode( value.get(), getIndex( name ) ) );
 	}
 
-	public static long getValue( final UnsignedIntType unsignedIntType )
+	public static String getName( final long encoded )
 	{
-		return getValue( unsignedIntType.get() );
+		final long index = encoded >>> labelBits;
+		final String[] names = indexToName;
+		return index < names.length ? names[ ( int ) index ] : null;
 	}
 
-	public static long getValue( final VolatileUnsignedIntType unsignedIntType )
+	public static String getName( final RealType< ? > encoded )
 	{
-		return getValue( unsignedIntType.get().get() );
+		return getName( getEncodedValue( encoded ) );
 	}
 
-	public static long getValue( final long l )
+	public static long getValue( final long encoded )
 	{
-		final long value = l & 0x0000FFFF;
-		return value;
+		return encoded & labelMask;
+	}
+
+	public static long getValue( final RealType< ? > encoded )
+	{
+		return getValue( getEncodedValue( encoded ) );
+	}
+
+	/**
+	 * @return the value of an encoded voxel, without the detour via double if possible
+	 */
+	public static long getEncodedValue( final RealType< ? > encoded )
+	{
+		Object type = encoded;
+		if ( type instanceof Volatile )
+			type = ( ( Volatile< ? > ) type ).get();
+
+		if ( type instanceof IntegerType )
+			return ( ( IntegerType< ? > ) type ).getIntegerLong();
+		else
+			return ( long ) encoded.getRealDouble();
 	}
 
-	public static void encodeName( final UnsignedIntType value, final String name )
+	private static long getMaxNumNames( int numLabelBits )
 	{
-		final long l = value.get();
-		final long encoded = l + ( nameToLong.get( name ) << valueBits );
-		value.set( encoded );
+		return 1L << ( MAX_ENCODED_BITS - numLabelBits );
 	}
 }
@@ -32,12 +32,14 @@ import de.embl.cba.tables.Logger;
 import de.embl.cba.tables.SwingUtils;
 import de.embl.cba.tables.color.CategoryTableRowColumnColoringModel;
 import de.embl.cba.tables.color.ColorUtils;
+import org.embl.mobie.viewer.TableColumnNames;
 import org.embl.mobie.viewer.select.SelectionListener;
 import org.embl.mobie.viewer.select.SelectionModel;
 import de.embl.cba.tables.tablerow.TableRow;
 import de.embl.cba.tables.tablerow.TableRowImageSegment;
 import ij.IJ;
 import net.imglib2.type.numeric.ARGBType;
+import org.embl.mobie.viewer.table.ColumnIndex;
 import org.embl.mobie.viewer.ui.MoBIELaf;
 
 import javax.swing.*;
@@ -47,6 +49,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Function;
 
 public class Annotator< T extends TableRow > extends JFrame implements SelectionListener< T >
 {
@@ -64,13 +67,18 @@ public class Annotator< T extends TableRow > extends JFrame implements Selection
 	private boolean isKeepSelectedMode = false;
 	private JTextField goToRowIndexTextField;
 	private HashMap< String, T > annotationToTableRow;
+	private final Function< String, ColumnIndex< T > > columnIndices;
 	private JPanel annotationButtonsContainer;
 	private JScrollPane annotationButtonsScrollPane;
 	private T currentlySelectedRow;
 	private Set< String > annotationNames;
 	private String objectName = "entity";
 
-	public Annotator( String columnName, List< T > tableRows, SelectionModel< T > selectionModel, CategoryTableRowColumnColoringModel< T > coloringModel, RowSorter< ? extends TableModel > rowSorter )
+	/**
+	 * @param columnIndices provides the index of a column, such as {@link org.embl.mobie.viewer.table.TableViewer#getColumnIndex},
+	 * 		which is shared with the table and kept up to date when cells change
+	 */
+	public Annotator( String columnName, List< T > tableRows, SelectionModel< T > selectionModel, CategoryTableRowColumnColoringModel< T > coloringModel, RowSorter< ? extends TableModel > rowSorter, Function< String, ColumnIndex< T > > columnIndices )
 	{
 		super("");
 		this.annotationColumnName = columnName;
@@ -79,6 +87,7 @@ public class Annotator< T extends TableRow > extends JFrame implements Selection
 		this.selectionModel = selectionModel;
 		this.coloringModel = coloringModel;
 		this.rowSorter = rowSorter;
+		this.columnIndices = columnIndices;
 		this.currentlySelectedRow = tableRows.get( rowSorter.convertRowIndexToModel( 0 ) );
 		this.coloringModel.fixedColorMode( true );
 		setNames( tableRows );
@@ -390,26 +399,20 @@ public class Annotator< T extends TableRow > extends JFrame implements Selection
 		if ( tableRows.get( 0 ) instanceof TableRowImageSegment )
 		{
 			final double selectedLabelId = Double.parseDouble( goToRowIndexTextField.getText() );
-			for ( T tableRow : tableRows )
+			final int[] rows = columnIndices.apply( TableColumnNames.SEGMENT_LABEL_ID ).equalTo( selectedLabelId );
+			if ( rows.length > 0 )
 			{
-				final double labelId = ( ( TableRowImageSegment ) tableRow ).labelId();
-				if ( labelId == selectedLabelId )
-				{
-					return tableRow;
-				}
+				return tableRows.get( rows[ 0 ] );
 			}
 			throw new UnsupportedOperationException( "Could not find " + objectName + " with ID " + selectedLabelId );
 		}
 		else if ( tableRows.get( 0 ) instanceof RegionTableRow )
 		{
 			final String annotationID = goToRowIndexTextField.getText();
-			for ( T tableRow : tableRows )
+			final int[] rows = columnIndices.apply( TableColumnNames.REGION_ID ).equalTo( annotationID );
+			if ( rows.length > 0 )
 			{
-				final String name = ( ( RegionTableRow ) tableRow ).name();
-				if ( name.equals( annotationID ) )
-				{
-					return tableRow;
-				}
+				return tableRows.get( rows[ 0 ] );
 			}
 			throw new UnsupportedOperationException( "Could not find " + objectName + " with ID " + annotationID );
 		}
@@ -482,10 +485,12 @@ public class Annotator< T extends TableRow > extends JFrame implements Selection
 		{
 			annotationToTableRow = new HashMap<>();
 
-			for ( int row = 0; row < tableRows.size(); row++ )
+			// one row per distinct annotation, the last one as before
+			final ColumnIndex< T > annotationIndex = columnIndices.apply( annotationColumnName );
+			for ( String annotation : annotationIndex.getValues() )
 			{
-				final T tableRow = tableRows.get( row );
-				annotationToTableRow.put( tableRow.getCell( annotationColumnName ), tableRow );
+				final int[] rows = annotationIndex.equalTo( annotation );
+				annotationToTableRow.put( annotation, tableRows.get( rows[ rows.length - 1 ] ) );
 			}
 		}
 
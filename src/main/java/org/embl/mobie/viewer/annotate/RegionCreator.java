@@ -31,14 +31,18 @@ package org.embl.mobie.viewer.annotate;
 import bdv.viewer.Source;
 import bdv.viewer.SourceAndConverter;
 import ij.IJ;
-import net.imglib2.roi.RealMaskRealInterval;
+import net.imglib2.FinalRealInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.realtransform.AffineTransform3D;
 import org.embl.mobie.viewer.MoBIEHelper;
+import org.embl.mobie.viewer.MultiThreading;
 import org.embl.mobie.viewer.TableColumnNames;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.Future;
 import java.util.function.Function;
 
 public class RegionCreator
@@ -46,6 +50,7 @@ public class RegionCreator
 	private final Map< String, List< String > > columns;
 	private final Map< String, List< String > > annotationIdToSources;
 	private final Function< String, SourceAndConverter< ? > > sourceAndConverterSupplier;
+	private RegionStore regionStore;
 	private List< RegionTableRow > regionTableRows;
 
 	public RegionCreator( Map< String, List< String > > columns, Map< String, List< String > > annotationIdToSources, Function< String, SourceAndConverter< ? > > sourceAndConverterSupplier)
@@ -60,31 +65,73 @@ public class RegionCreator
 	{
 		final long currentTimeMillis = System.currentTimeMillis();
 
-		regionTableRows = new ArrayList<>();
-		final Set< String > annotationIds = annotationIdToSources.keySet();
+		final String[] annotationIds = annotationIdToSources.keySet().toArray( new String[ 0 ] );
+		final int numRegions = annotationIds.length;
+
 		final List< String > annotationIdColumn = columns.get( TableColumnNames.REGION_ID );
+		final Map< String, Integer > annotationIdToRowIndex = new HashMap<>();
+		for ( int rowIndex = annotationIdColumn.size() - 1; rowIndex >= 0; rowIndex-- )
+			annotationIdToRowIndex.put( annotationIdColumn.get( rowIndex ), rowIndex );
 
-		for ( String annotationId : annotationIds )
+		final int[] rowIndices = new int[ numRegions ];
+		final int[] memberOffsets = new int[ numRegions + 1 ];
+		for ( int region = 0; region < numRegions; region++ )
 		{
-			final ArrayList< Source< ? > > sources = getSources( annotationId );
-
-			final RealMaskRealInterval mask = MoBIEHelper.unionRealMask( sources );
-			//System.out.println( annotationId );
-			//System.out.println( sources.size() );
-			//System.out.println( Arrays.toString( mask.minAsDoubleArray() ));
-
-			regionTableRows.add(
-					new DefaultRegionTableRow(
-							annotationId,
-							mask,
-							columns,
-							annotationIdColumn.indexOf( annotationId ) )
-			);
+			final Integer rowIndex = annotationIdToRowIndex.get( annotationIds[ region ] );
+			if ( rowIndex == null )
+				throw new UnsupportedOperationException( "The region " + annotationIds[ region ] + " is missing in the " + TableColumnNames.REGION_ID + " column of the table." );
+			rowIndices[ region ] = rowIndex;
+			memberOffsets[ region + 1 ] = memberOffsets[ region ] + annotationIdToSources.get( annotationIds[ region ] ).size();
+		}
+
+		final double[] memberMin = new double[ 3 * memberOffsets[ numRegions ] ];
+		final double[] memberMax = new double[ 3 * memberOffsets[ numRegions ] ];
+		final ArrayList< Future< ? > > futures = MultiThreading.getFutures();
+		for ( int region = 0; region < numRegions; region++ )
+		{
+			final int finalRegion = region;
+			futures.add( MultiThreading.executorService.submit( () ->
+			{
+				final ArrayList< Source< ? > > sources = getSources( annotationIds[ finalRegion ] );
+				for ( int i = 0; i < sources.size(); i++ )
+					setBounds( sources.get( i ), memberOffsets[ finalRegion ] + i, memberMin, memberMax );
+			} ) );
 		}
+		MultiThreading.waitUntilFinished( futures, cause -> new RuntimeException( "Could not compute the bounds of the regions", cause ) );
+
+		regionStore = new RegionStore( columns, annotationIds, rowIndices, memberOffsets, memberMin, memberMax );
+		regionTableRows = regionStore.createRows();
 
 		final long durationMillis = System.currentTimeMillis() - currentTimeMillis;
 		if ( durationMillis > 100 )
-			IJ.log("Created " + annotationIds.size() + " annotated intervals in " + durationMillis + " ms.");
+			IJ.log("Created " + numRegions + " annotated intervals in " + durationMillis + " ms.");
+	}
+
+	/**
+	 * Same bounds as {@link MoBIEHelper#getMask(Source)}, i.e. the voxel box
+	 * enlarged by one voxel, but axis-aligned in the global space.
+	 */
+	private static void setBounds( Source< ? > source, int member, double[] memberMin, double[] memberMax )
+	{
+		final AffineTransform3D affineTransform3D = new AffineTransform3D();
+		source.getSourceTransform( 0, 0, affineTransform3D );
+		final RandomAccessibleInterval< ? > rai = source.getSource( 0, 0 );
+		final double[] min = rai.minAsDoubleArray();
+		final double[] max = rai.maxAsDoubleArray();
+		final double[] voxelSizes = new double[ 3 ];
+		source.getVoxelDimensions().dimensions( voxelSizes );
+		for ( int d = 0; d < 3; d++ )
+		{
+			min[ d ] -= voxelSizes[ d ];
+			max[ d ] += voxelSizes[ d ];
+		}
+
+		final FinalRealInterval bounds = affineTransform3D.estimateBounds( new FinalRealInterval( min, max ) );
+		for ( int d = 0; d < 3; d++ )
+		{
+			memberMin[ 3 * member + d ] = bounds.realMin( d );
+			memberMax[ 3 * member + d ] = bounds.realMax( d );
+		}
 	}
 
 	private ArrayList< Source< ? > > getSources( String annotationId )
@@ -107,6 +154,11 @@ public class RegionCreator
 		return sources;
 	}
 
+	public RegionStore getRegionStore()
+	{
+		return regionStore;
+	}
+
 	public List< RegionTableRow > getRegionTableRows()
 	{
 		return regionTableRows;
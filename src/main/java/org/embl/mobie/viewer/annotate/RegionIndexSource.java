@@ -0,0 +1,299 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.annotate;
+
+import bdv.util.volatiles.SharedQueue;
+import bdv.util.volatiles.VolatileViews;
+import bdv.viewer.Interpolation;
+import bdv.viewer.Source;
+import mpicbg.spim.data.sequence.FinalVoxelDimensions;
+import mpicbg.spim.data.sequence.VoxelDimensions;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealInterval;
+import net.imglib2.RealPoint;
+import net.imglib2.RealRandomAccessible;
+import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.cache.img.CellLoader;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgFactory;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgOptions;
+import net.imglib2.cache.img.SingleCellArrayImg;
+import net.imglib2.interpolation.randomaccess.NearestNeighborInterpolatorFactory;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.volatiles.VolatileIntType;
+import net.imglib2.view.Views;
+import org.embl.mobie.viewer.color.ListItemsARGBConverter;
+import org.embl.mobie.viewer.transform.UnionRealMask;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Multiscale raster of the index of the region at each voxel,
+ * i.e. the lowest index of the masks of the {@link UnionRealMask}
+ * that contain the voxel centre, or {@link ListItemsARGBConverter#OUT_OF_BOUNDS_ROW_INDEX}.
+ *
+ * The voxels are computed cell-wise on demand and cached, such that repainting
+ * reuses the cells. The finest level resolves the smallest region with
+ * {@link #VOXELS_PER_REGION} voxels, the coarser levels are downsampled by two
+ * until a level fits into a single cell.
+ */
+public class RegionIndexSource implements Source< IntType >
+{
+	public static final int VOXELS_PER_REGION = 100;
+	public static final long MAX_DIMENSION = 1 << 20;
+	public static final int[] CELL_DIMENSIONS = new int[]{ 256, 256, 1 };
+
+	private final UnionRealMask unionMask;
+	private final IntUnaryOperator maskIndexToRegionIndex;
+	private final String name;
+	private final VoxelDimensions voxelDimensions;
+	private final List< AffineTransform3D > transforms = new ArrayList<>();
+	private final List< CachedCellImg< IntType, ? > > images = new ArrayList<>();
+
+	public RegionIndexSource( UnionRealMask unionMask, String name )
+	{
+		this( unionMask, IntUnaryOperator.identity(), name );
+	}
+
+	/**
+	 * @param unionMask the union of the masks
+	 * @param maskIndexToRegionIndex maps the index of a mask of the union to the index of its region,
+	 * 		for regions that consist of several masks
+	 * @param name the name of the source
+	 */
+	public RegionIndexSource( UnionRealMask unionMask, IntUnaryOperator maskIndexToRegionIndex, String name )
+	{
+		this.unionMask = unionMask;
+		this.maskIndexToRegionIndex = maskIndexToRegionIndex;
+		this.name = name;
+
+		final double voxelSize = voxelSize( unionMask );
+		voxelDimensions = new FinalVoxelDimensions( "pixel", voxelSize, voxelSize, voxelSize );
+		createLevels( voxelSize );
+	}
+
+	private static double voxelSize( UnionRealMask unionMask )
+	{
+		double minRegionSize = Double.MAX_VALUE;
+		for ( int i = 0; i < unionMask.numMasks(); i++ )
+		{
+			final RealInterval bounds = unionMask.getBounds( i );
+			for ( int d = 0; d < 2; d++ )
+				minRegionSize = Math.min( minRegionSize, bounds.realMax( d ) - bounds.realMin( d ) );
+		}
+
+		double maxSize = 0;
+		for ( int d = 0; d < 3; d++ )
+			maxSize = Math.max( maxSize, unionMask.realMax( d ) - unionMask.realMin( d ) );
+
+		// do not create absurdly large images for very different region sizes
+		final double voxelSize = Math.max( minRegionSize / VOXELS_PER_REGION, maxSize / MAX_DIMENSION );
+		return voxelSize > 0 ? voxelSize : 1.0;
+	}
+
+	private void createLevels( double voxelSize )
+	{
+		final double[] scale = new double[]{ voxelSize, voxelSize, voxelSize };
+		while ( true )
+		{
+			final long[] dimensions = new long[ 3 ];
+			final AffineTransform3D transform = new AffineTransform3D();
+			for ( int d = 0; d < 3; d++ )
+			{
+				final double size = unionMask.realMax( d ) - unionMask.realMin( d );
+				dimensions[ d ] = Math.max( 1, ( long ) Math.ceil( size / scale[ d ] ) );
+				// the voxel centres are at the centres of the voxel intervals
+				transform.set( scale[ d ], d, d );
+				transform.set( unionMask.realMin( d ) + 0.5 * scale[ d ], d, 3 );
+			}
+
+			final CachedCellImg< IntType, ? > image = new ReadOnlyCachedCellImgFactory().create(
+					dimensions,
+					new IntType(),
+					new RegionIndexLoader( transform ),
+					ReadOnlyCachedCellImgOptions.options().cellDimensions( CELL_DIMENSIONS ) );
+
+			transforms.add( transform );
+			images.add( image );
+
+			if ( dimensions[ 0 ] <= CELL_DIMENSIONS[ 0 ] && dimensions[ 1 ] <= CELL_DIMENSIONS[ 1 ] )
+				return;
+
+			for ( int d = 0; d < 3; d++ )
+				if ( dimensions[ d ] > CELL_DIMENSIONS[ d ] )
+					scale[ d ] *= 2;
+		}
+	}
+
+	/**
+	 * @return a volatile view of this source, whose cells are loaded in the
+	 * background by the fetcher threads of the queue
+	 */
+	public Source< VolatileIntType > asVolatile( SharedQueue queue )
+	{
+		return new VolatileRegionIndexSource( queue );
+	}
+
+	@Override
+	public boolean isPresent( int t )
+	{
+		return t == 0;
+	}
+
+	@Override
+	public RandomAccessibleInterval< IntType > getSource( int t, int level )
+	{
+		return images.get( level );
+	}
+
+	@Override
+	public RealRandomAccessible< IntType > getInterpolatedSource( int t, int level, Interpolation method )
+	{
+		// regions are never interpolated
+		final IntType outOfBounds = new IntType( ListItemsARGBConverter.OUT_OF_BOUNDS_ROW_INDEX );
+		return Views.interpolate( Views.extendValue( getSource( t, level ), outOfBounds ), new NearestNeighborInterpolatorFactory<>() );
+	}
+
+	@Override
+	public void getSourceTransform( int t, int level, AffineTransform3D transform )
+	{
+		transform.set( transforms.get( level ) );
+	}
+
+	@Override
+	public IntType getType()
+	{
+		return new IntType();
+	}
+
+	@Override
+	public String getName()
+	{
+		return name;
+	}
+
+	@Override
+	public VoxelDimensions getVoxelDimensions()
+	{
+		return voxelDimensions;
+	}
+
+	@Override
+	public int getNumMipmapLevels()
+	{
+		return images.size();
+	}
+
+	class RegionIndexLoader implements CellLoader< IntType >
+	{
+		private final AffineTransform3D transform;
+
+		public RegionIndexLoader( AffineTransform3D transform )
+		{
+			this.transform = transform;
+		}
+
+		@Override
+		public void load( SingleCellArrayImg< IntType, ? > cell )
+		{
+			final RealPoint position = new RealPoint( 3 );
+			final Cursor< IntType > cursor = cell.localizingCursor();
+			while ( cursor.hasNext() )
+			{
+				final IntType value = cursor.next();
+				transform.apply( cursor, position );
+				final int maskIndex = unionMask.indexOf( position );
+				value.set( maskIndex == -1 ? ListItemsARGBConverter.OUT_OF_BOUNDS_ROW_INDEX : maskIndexToRegionIndex.applyAsInt( maskIndex ) );
+			}
+		}
+	}
+
+	class VolatileRegionIndexSource implements Source< VolatileIntType >
+	{
+		private final List< RandomAccessibleInterval< VolatileIntType > > volatileImages = new ArrayList<>();
+
+		public VolatileRegionIndexSource( SharedQueue queue )
+		{
+			for ( CachedCellImg< IntType, ? > image : images )
+				volatileImages.add( VolatileViews.wrapAsVolatile( image, queue ) );
+		}
+
+		@Override
+		public boolean isPresent( int t )
+		{
+			return RegionIndexSource.this.isPresent( t );
+		}
+
+		@Override
+		public RandomAccessibleInterval< VolatileIntType > getSource( int t, int level )
+		{
+			return volatileImages.get( level );
+		}
+
+		@Override
+		public RealRandomAccessible< VolatileIntType > getInterpolatedSource( int t, int level, Interpolation method )
+		{
+			final VolatileIntType outOfBounds = new VolatileIntType( ListItemsARGBConverter.OUT_OF_BOUNDS_ROW_INDEX, true );
+			return Views.interpolate( Views.extendValue( getSource( t, level ), outOfBounds ), new NearestNeighborInterpolatorFactory<>() );
+		}
+
+		@Override
+		public void getSourceTransform( int t, int level, AffineTransform3D transform )
+		{
+			RegionIndexSource.this.getSourceTransform( t, level, transform );
+		}
+
+		@Override
+		public VolatileIntType getType()
+		{
+			return new VolatileIntType();
+		}
+
+		@Override
+		public String getName()
+		{
+			return name;
+		}
+
+		@Override
+		public VoxelDimensions getVoxelDimensions()
+		{
+			return voxelDimensions;
+		}
+
+		@Override
+		public int getNumMipmapLevels()
+		{
+			return images.size();
+		}
+	}
+}
@@ -0,0 +1,195 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.annotate;
+
+import net.imglib2.FinalRealInterval;
+import net.imglib2.RealInterval;
+import net.imglib2.roi.RealMaskRealInterval;
+import net.imglib2.roi.geom.GeomMasks;
+import org.embl.mobie.viewer.transform.UnionRealMask;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compact storage of the annotated regions of a region display.
+ *
+ * The bounds of the sources that make up each region are kept in primitive
+ * arrays, and the masks are only created when they are asked for.
+ * The rows do not copy their cells, but read and write the shared table columns.
+ */
+public class RegionStore
+{
+	private final Map< String, List< String > > columns;
+	private final String[] names;
+	private final int[] rowIndices;
+	private final int[] memberOffsets;
+	private final double[] memberMin;
+	private final double[] memberMax;
+	private final RealMaskRealInterval[] masks;
+
+	/**
+	 * @param columns the region table
+	 * @param names the name (region id) of each region
+	 * @param rowIndices the table row of each region
+	 * @param memberOffsets region i consists of the members [ memberOffsets[ i ], memberOffsets[ i + 1 ] )
+	 * @param memberMin the minimum of each member, 3 values per member
+	 * @param memberMax the maximum of each member, 3 values per member
+	 */
+	public RegionStore( Map< String, List< String > > columns, String[] names, int[] rowIndices, int[] memberOffsets, double[] memberMin, double[] memberMax )
+	{
+		this.columns = columns;
+		this.names = names;
+		this.rowIndices = rowIndices;
+		this.memberOffsets = memberOffsets;
+		this.memberMin = memberMin;
+		this.memberMax = memberMax;
+		this.masks = new RealMaskRealInterval[ names.length ];
+	}
+
+	public int size()
+	{
+		return names.length;
+	}
+
+	public String getName( int region )
+	{
+		return names[ region ];
+	}
+
+	public RealMaskRealInterval getMask( int region )
+	{
+		// creating the same mask twice in concurrent calls is harmless
+		RealMaskRealInterval mask = masks[ region ];
+		if ( mask == null )
+		{
+			mask = createMask( region );
+			masks[ region ] = mask;
+		}
+		return mask;
+	}
+
+	public String getCell( int region, String columnName )
+	{
+		final List< String > column = columns.get( columnName );
+		return column == null ? null : column.get( rowIndices[ region ] );
+	}
+
+	public synchronized void setCell( int region, String columnName, String value )
+	{
+		if ( ! columns.containsKey( columnName ) )
+			columns.put( columnName, new ArrayList<>( Collections.nCopies( getNumTableRows(), "" ) ) );
+
+		columns.get( columnName ).set( rowIndices[ region ], value );
+	}
+
+	public Set< String > getColumnNames()
+	{
+		return columns.keySet();
+	}
+
+	public List< RegionTableRow > createRows()
+	{
+		final List< RegionTableRow > rows = new ArrayList<>( names.length );
+		for ( int region = 0; region < names.length; region++ )
+			rows.add( new StoredRegionTableRow( this, region ) );
+		return rows;
+	}
+
+	/**
+	 * Creates the union of the members of all regions directly from their bounds,
+	 * without creating the mask of each region.
+	 *
+	 * As the members are ordered by region, the lowest member that contains a position
+	 * belongs to the lowest region that contains it; see {@link #getRegion}.
+	 *
+	 * @return the union, whose mask indices are the member indices
+	 */
+	public UnionRealMask createMemberUnion()
+	{
+		final int numMembers = memberOffsets[ names.length ];
+		final double[][] min = new double[ numMembers ][];
+		final double[][] max = new double[ numMembers ][];
+		for ( int member = 0; member < numMembers; member++ )
+		{
+			min[ member ] = getMin( member );
+			max[ member ] = getMax( member );
+		}
+		return UnionRealMask.fromBounds( min, max, 3 );
+	}
+
+	/**
+	 * @param member the index of a member
+	 * @return the index of the region that the member belongs to
+	 */
+	public int getRegion( int member )
+	{
+		int region = Arrays.binarySearch( memberOffsets, 0, names.length, member );
+		if ( region < 0 )
+			return - region - 2;
+
+		// skip regions without members, which share the offset of the next region
+		while ( region + 1 < names.length && memberOffsets[ region + 1 ] == member )
+			region++;
+		return region;
+	}
+
+	private RealMaskRealInterval createMask( int region )
+	{
+		final int start = memberOffsets[ region ];
+		final int end = memberOffsets[ region + 1 ];
+
+		if ( end - start == 1 )
+			return GeomMasks.closedBox( getMin( start ), getMax( start ) );
+
+		final List< RealInterval > boxes = new ArrayList<>();
+		for ( int member = start; member < end; member++ )
+			boxes.add( new FinalRealInterval( getMin( member ), getMax( member ) ) );
+		return UnionRealMask.fromBoxes( boxes );
+	}
+
+	private double[] getMin( int member )
+	{
+		return Arrays.copyOfRange( memberMin, 3 * member, 3 * member + 3 );
+	}
+
+	private double[] getMax( int member )
+	{
+		return Arrays.copyOfRange( memberMax, 3 * member, 3 * member + 3 );
+	}
+
+	private int getNumTableRows()
+	{
+		return columns.values().iterator().next().size();
+	}
+}
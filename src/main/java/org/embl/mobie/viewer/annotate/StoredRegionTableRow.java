@@ -0,0 +1,107 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.annotate;
+
+import de.embl.cba.tables.tablerow.AbstractTableRow;
+import net.imglib2.roi.RealMaskRealInterval;
+
+import java.util.Set;
+
+/**
+ * A region of a {@link RegionStore}.
+ */
+public class StoredRegionTableRow extends AbstractTableRow implements RegionTableRow
+{
+	private final RegionStore store;
+	private final int region;
+
+	public StoredRegionTableRow( RegionStore store, int region )
+	{
+		this.store = store;
+		this.region = region;
+	}
+
+	@Override
+	public RealMaskRealInterval mask()
+	{
+		return store.getMask( region );
+	}
+
+	@Override
+	public Integer timePoint()
+	{
+		final String timePoint = store.getCell( region, "timepoint" );
+		if ( timePoint != null )
+			return Integer.parseInt( timePoint );
+		else
+			return 0;
+	}
+
+	@Override
+	public String name()
+	{
+		return store.getName( region );
+	}
+
+	@Override
+	public String getCell( String columnName )
+	{
+		return store.getCell( region, columnName );
+	}
+
+	@Override
+	public void setCell( String columnName, String value )
+	{
+		store.setCell( region, columnName, value );
+		notifyCellChangedListeners( columnName, value );
+	}
+
+	@Override
+	public Set< String > getColumnNames()
+	{
+		return store.getColumnNames();
+	}
+
+	RegionStore getStore()
+	{
+		return store;
+	}
+
+	int getRegion()
+	{
+		return region;
+	}
+
+	@Override
+	@Deprecated
+	public int rowIndex()
+	{
+		return -1;
+	}
+}
@@ -30,28 +30,25 @@ package org.embl.mobie.viewer.annotate;
 
 import bdv.tools.transformation.TransformedSource;
 import bdv.util.BdvOverlay;
-import bdv.util.RealRandomAccessibleIntervalSource;
+import bdv.viewer.Source;
 import bdv.viewer.SourceAndConverter;
 import ij.IJ;
-import net.imglib2.Interval;
-import net.imglib2.RealInterval;
 import net.imglib2.roi.RealMaskRealInterval;
-import net.imglib2.roi.geom.GeomMasks;
 import org.embl.mobie.viewer.MoBIE;
+import org.embl.mobie.viewer.MultiThreading;
 import org.embl.mobie.viewer.color.ListItemsARGBConverter;
 import de.embl.cba.tables.color.ColorUtils;
-import net.imglib2.RealLocalizable;
-import net.imglib2.position.FunctionRealRandomAccessible;
 import net.imglib2.type.numeric.ARGBType;
 import net.imglib2.type.numeric.integer.IntType;
-import net.imglib2.util.Intervals;
+import net.imglib2.type.volatiles.VolatileIntType;
 import org.embl.mobie.viewer.color.SelectionColoringModel;
 import org.embl.mobie.viewer.source.LabelSource;
+import org.embl.mobie.viewer.transform.UnionRealMask;
 
 import java.awt.*;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.function.BiConsumer;
+import java.util.function.IntUnaryOperator;
 
 public class TableRowsIntervalImage< T extends RegionTableRow >
 {
@@ -60,9 +57,8 @@ public class TableRowsIntervalImage< T extends RegionTableRow >
 	private double[] contrastLimits;
 	private String name;
 	private SourceAndConverter< IntType > sourceAndConverter;
-	private RealMaskRealInterval unionMask;
-	private RealInterval unionInterval;
-	private int size;
+	private UnionRealMask unionMask;
+	private IntUnaryOperator maskIndexToRowIndex;
 
 	public TableRowsIntervalImage(
 			List< T > tableRows,
@@ -74,7 +70,6 @@ public class TableRowsIntervalImage< T extends RegionTableRow >
 		this.tableRows = tableRows;
 		this.coloringModel = coloringModel;
 		this.name = name;
-		this.size = tableRows.size();
 
 		setUnionMask( tableRows );
 		createImage();
@@ -86,71 +81,69 @@ public class TableRowsIntervalImage< T extends RegionTableRow >
 
 	public void setUnionMask( List< T > tableRows )
 	{
-		size = tableRows.size();
-
-		for ( T tableRow : tableRows )
+		final RegionStore store = getRegionStore( tableRows );
+		if ( store != null )
 		{
-			final RealMaskRealInterval mask = tableRow.mask();
-
-			if ( unionInterval == null )
-			{
-				//unionMask = mask;
-				unionInterval = mask;
-			}
-			else
-			{
-
-				if ( Intervals.equals(  mask, unionInterval ) )
-				{
-					continue;
-				}
-				else
-				{
-					// TODO: Below hangs
-					//unionMask = unionMask.or( mask );
-					unionInterval = Intervals.union( unionInterval, mask );
-				}
-			}
+			// build the union from the primitive bounds of the members,
+			// without creating a mask per row
+			unionMask = store.createMemberUnion();
+			maskIndexToRowIndex = store::getRegion;
+			return;
 		}
 
-		// TODO: this is a work around
-		unionMask = GeomMasks.closedBox( unionInterval.minAsDoubleArray(), unionInterval.maxAsDoubleArray() );
+		final List< RealMaskRealInterval > masks = new ArrayList<>();
+		for ( T tableRow : tableRows )
+			masks.add( tableRow.mask() );
+
+		unionMask = new UnionRealMask( masks );
+		maskIndexToRowIndex = IntUnaryOperator.identity();
 	}
 
-	private void createImage( )
+	/**
+	 * @return the store of the rows, if row i is region i of that store, or null
+	 */
+	private RegionStore getRegionStore( List< T > tableRows )
 	{
-		BiConsumer< RealLocalizable, IntType > biConsumer = ( location, value ) ->
-		{
-			value.setInteger( ListItemsARGBConverter.OUT_OF_BOUNDS_ROW_INDEX );
+		if ( tableRows.isEmpty() || ! ( tableRows.get( 0 ) instanceof StoredRegionTableRow ) )
+			return null;
 
-			for ( int i = 0; i < size; i++ )
-			{
-				final RealMaskRealInterval mask = tableRows.get( i ).mask();
-
-				if ( mask.test( location ) )
-				{
-					value.setInteger( i );
-					return;
-				}
-			}
-		};
-
-		final ArrayList< Integer > timePoints = configureTimePoints();
+		final RegionStore store = ( ( StoredRegionTableRow ) tableRows.get( 0 ) ).getStore();
+		if ( store.size() != tableRows.size() )
+			return null;
 
+		for ( int i = 0; i < tableRows.size(); i++ )
+		{
+			final T tableRow = tableRows.get( i );
+			if ( ! ( tableRow instanceof StoredRegionTableRow ) )
+				return null;
+			final StoredRegionTableRow storedRow = ( StoredRegionTableRow ) tableRow;
+			if ( storedRow.getStore() != store || storedRow.getRegion() != i )
+				return null;
+		}
 
-		final FunctionRealRandomAccessible< IntType > randomAccessible = new FunctionRealRandomAccessible( 3, biConsumer, IntType::new );
+		return store;
+	}
 
-		final Interval interval = Intervals.smallestContainingInterval( unionMask );
+	private void createImage( )
+	{
+		// the index of the first region that contains the location,
+		// which is OUT_OF_BOUNDS_ROW_INDEX (-1) outside of all regions,
+		// rasterised in cached cells that are loaded in the background
+		final RegionIndexSource source = new RegionIndexSource( unionMask, maskIndexToRowIndex, name );
+		final Source< VolatileIntType > volatileSource = source.asVolatile( MultiThreading.sharedQueue );
 
-		final RealRandomAccessibleIntervalSource< IntType > source = new RealRandomAccessibleIntervalSource( randomAccessible, interval, new IntType(), name );
+		final ArrayList< Integer > timePoints = configureTimePoints();
 
 		final ListItemsARGBConverter< T > argbConverter = new ListItemsARGBConverter<>( tableRows, coloringModel );
 
 		final LabelSource< IntType > labelSource = new LabelSource<>( source, ListItemsARGBConverter.OUT_OF_BOUNDS_ROW_INDEX, unionMask, timePoints );
+		final LabelSource< VolatileIntType > volatileLabelSource = new LabelSource<>( volatileSource, ListItemsARGBConverter.OUT_OF_BOUNDS_ROW_INDEX, unionMask, timePoints );
 
 		final TransformedSource< IntType > transformedSource = new TransformedSource<>( labelSource );
+		final TransformedSource< VolatileIntType > volatileTransformedSource = new TransformedSource<>( volatileLabelSource, transformedSource );
 
-		sourceAndConverter = new SourceAndConverter( transformedSource, argbConverter );
+		final SourceAndConverter< VolatileIntType > volatileSourceAndConverter = new SourceAndConverter( volatileTransformedSource, argbConverter );
+		sourceAndConverter = new SourceAndConverter( transformedSource, argbConverter, volatileSourceAndConverter );
 
 		contrastLimits = new double[]{ 0, 255 };
 	}
@@ -0,0 +1,151 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.bdv;
+
+import bdv.util.Affine3DHelpers;
+import bdv.viewer.Source;
+import net.imglib2.FinalInterval;
+import net.imglib2.FinalRealInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.cell.AbstractCellImg;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.util.Intervals;
+
+import java.util.function.Predicate;
+
+/**
+ * Iterates over the chunks (cells) of an image that intersect a voxel interval.
+ */
+class ChunkGrid
+{
+	private static final int DEFAULT_CHUNK_SIZE = 64;
+
+	interface VisibleChunkConsumer
+	{
+		/**
+		 * @param position a position within the chunk, the array is reused
+		 * @param screenX the x coordinate of the chunk centre in the viewer window
+		 * @param screenY the y coordinate of the chunk centre in the viewer window
+		 * @return false to stop the iteration
+		 */
+		boolean accept( long[] position, double screenX, double screenY );
+	}
+
+	/**
+	 * Iterates over the chunks of a source that intersect the viewer plane within the viewer window.
+	 *
+	 * @return the image of the source, or null if it is not visible in the window
+	 */
+	static RandomAccessibleInterval< ? > forEachVisibleChunk( Source< ? > source, int t, int level, AffineTransform3D viewerTransform, double width, double height, VisibleChunkConsumer consumer )
+	{
+		final FinalRealInterval globalBounds = viewerTransform.inverse().estimateBounds(
+				new FinalRealInterval( new double[]{ 0, 0, 0 }, new double[]{ width, height, 0 } ) );
+
+		final RandomAccessibleInterval< ? > rai = source.getSource( t, level );
+		final AffineTransform3D sourceToScreen = new AffineTransform3D();
+		source.getSourceTransform( t, level, sourceToScreen );
+		sourceToScreen.preConcatenate( viewerTransform );
+
+		final FinalInterval voxels = Intervals.intersect( rai, Intervals.smallestContainingInterval( sourceToScreen.inverse().estimateBounds( globalBounds ) ) );
+		if ( Intervals.isEmpty( voxels ) ) return null;
+
+		final long[] chunkSize = getChunkSize( rai );
+		final double chunkRadius = getChunkRadiusOnScreen( sourceToScreen, chunkSize );
+		final double[] chunkCentre = new double[ 3 ];
+		final double[] screen = new double[ 3 ];
+
+		forEachChunk( rai, voxels, chunkSize, position ->
+		{
+			for ( int d = 0; d < 3; d++ )
+				chunkCentre[ d ] = d < position.length ? position[ d ] + 0.5 * chunkSize[ d ] : 0;
+			sourceToScreen.apply( chunkCentre, screen );
+
+			// skip chunks that do not intersect the viewer plane
+			if ( Math.abs( screen[ 2 ] ) > chunkRadius ) return true;
+
+			return consumer.accept( position, screen[ 0 ], screen[ 1 ] );
+		} );
+
+		return rai;
+	}
+
+	private static double getChunkRadiusOnScreen( AffineTransform3D sourceToScreen, long[] chunkSize )
+	{
+		double radius = 0;
+		for ( int d = 0; d < 3 && d < chunkSize.length; d++ )
+			radius += Math.pow( chunkSize[ d ] * Affine3DHelpers.extractScale( sourceToScreen, d ), 2 );
+		return Math.sqrt( radius );
+	}
+
+	static long[] getChunkSize( RandomAccessibleInterval< ? > rai )
+	{
+		final long[] chunkSize = new long[ rai.numDimensions() ];
+		for ( int d = 0; d < chunkSize.length; d++ )
+			chunkSize[ d ] = rai instanceof AbstractCellImg ? ( ( AbstractCellImg< ?, ?, ?, ? > ) rai ).getCellGrid().cellDimension( d ) : DEFAULT_CHUNK_SIZE;
+		return chunkSize;
+	}
+
+	/**
+	 * @param rai the image
+	 * @param voxels the interval, must be within the image
+	 * @param chunkSize the size of the chunks
+	 * @param consumer receives one position within each chunk, the array is reused;
+	 *                 returns false to stop the iteration
+	 */
+	static void forEachChunk( RandomAccessibleInterval< ? > rai, Interval voxels, long[] chunkSize, Predicate< long[] > consumer )
+	{
+		final int n = rai.numDimensions();
+		final long[] start = new long[ n ];
+		final long[] chunkMin = new long[ n ];
+		final long[] position = new long[ n ];
+		for ( int d = 0; d < n; d++ )
+		{
+			start[ d ] = Math.floorDiv( voxels.min( d ) - rai.min( d ), chunkSize[ d ] ) * chunkSize[ d ] + rai.min( d );
+			chunkMin[ d ] = start[ d ];
+		}
+
+		while ( true )
+		{
+			for ( int d = 0; d < n; d++ )
+				position[ d ] = Math.max( chunkMin[ d ], voxels.min( d ) );
+
+			if ( ! consumer.test( position ) ) return;
+
+			int d = 0;
+			for ( ; d < n; d++ )
+			{
+				chunkMin[ d ] += chunkSize[ d ];
+				if ( chunkMin[ d ] <= voxels.max( d ) ) break;
+				chunkMin[ d ] = start[ d ];
+			}
+			if ( d == n ) return;
+		}
+	}
+}
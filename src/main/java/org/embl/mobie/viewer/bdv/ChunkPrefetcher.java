@@ -0,0 +1,238 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.bdv;
+
+import bdv.util.Affine3DHelpers;
+import bdv.util.BdvHandle;
+import bdv.viewer.Source;
+import bdv.viewer.SourceAndConverter;
+import bdv.viewer.TransformListener;
+import bdv.viewer.ViewerState;
+import net.imglib2.FinalInterval;
+import net.imglib2.FinalRealInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealInterval;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.util.Intervals;
+import sc.fiji.bdvpg.bdv.BdvHandleHelper;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Requests the chunks that will likely be needed next while the user
+ * pans and zooms in the slice viewer.
+ *
+ * From the two most recent viewer transforms the position and zoom
+ * of the viewer are extrapolated {@link #lookAheadMillis} into the future.
+ * For all visible volatile sources, the chunks of the predicted viewport at the
+ * predicted resolution level are then requested without waiting for them.
+ *
+ * The requests go into the same fetcher queue as the ones of the renderer.
+ * BDV moves all pending requests to the back of that queue at each new frame,
+ * thus prefetched chunks never delay the chunks that are on screen.
+ * In addition, predictions are made at most every {@link #minIntervalMillis}
+ * and at most {@link #maxChunksPerPrediction} chunks are requested each time.
+ */
+public class ChunkPrefetcher implements TransformListener< AffineTransform3D >
+{
+	public static long lookAheadMillis = 300;
+	public static long minIntervalMillis = 100;
+	public static int maxChunksPerPrediction = 256;
+
+	private static final long MAX_MOTION_INTERVAL_MILLIS = 1000;
+
+	private static final ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor( runnable -> {
+		final Thread thread = new Thread( runnable, "MoBIE chunk prefetcher" );
+		thread.setDaemon( true );
+		return thread;
+	} );
+
+	private final BdvHandle bdvHandle;
+	private final AtomicBoolean isScheduled = new AtomicBoolean();
+	private AffineTransform3D previousTransform;
+	private long previousMillis;
+	private AffineTransform3D currentTransform;
+	private long currentMillis;
+
+	public ChunkPrefetcher( BdvHandle bdvHandle )
+	{
+		this.bdvHandle = bdvHandle;
+		bdvHandle.getViewerPanel().addTransformListener( this );
+	}
+
+	public void close()
+	{
+		bdvHandle.getViewerPanel().removeTransformListener( this );
+	}
+
+	@Override
+	public void transformChanged( AffineTransform3D transform )
+	{
+		synchronized ( this )
+		{
+			previousTransform = currentTransform;
+			previousMillis = currentMillis;
+			currentTransform = transform.copy();
+			currentMillis = System.currentTimeMillis();
+		}
+
+		if ( isScheduled.compareAndSet( false, true ) )
+			executorService.schedule( this::prefetch, minIntervalMillis, TimeUnit.MILLISECONDS );
+	}
+
+	private void prefetch()
+	{
+		isScheduled.set( false );
+
+		final AffineTransform3D previous;
+		final AffineTransform3D current;
+		final long deltaMillis;
+		synchronized ( this )
+		{
+			if ( previousTransform == null ) return;
+			previous = previousTransform;
+			current = currentTransform;
+			deltaMillis = Math.max( 1, currentMillis - previousMillis );
+		}
+
+		if ( deltaMillis > MAX_MOTION_INTERVAL_MILLIS ) return;
+
+		try
+		{
+			final AffineTransform3D predicted = predict( previous, current, ( double ) lookAheadMillis / deltaMillis );
+			if ( predicted == null ) return;
+			prefetch( current, predicted );
+		}
+		catch ( Exception e )
+		{
+			// prefetching is optional, rendering will request the chunks anyway
+		}
+	}
+
+	/**
+	 * Extrapolates the motion of the window centre and the zoom.
+	 *
+	 * @return the predicted viewer transform, or null if the viewer did not move
+	 */
+	private AffineTransform3D predict( AffineTransform3D previous, AffineTransform3D current, double factor )
+	{
+		final double[] windowCentre = new double[]{ bdvHandle.getViewerPanel().getWidth() / 2.0, bdvHandle.getViewerPanel().getHeight() / 2.0, 0 };
+
+		final double[] previousCentre = new double[ 3 ];
+		final double[] currentCentre = new double[ 3 ];
+		previous.applyInverse( previousCentre, windowCentre );
+		current.applyInverse( currentCentre, windowCentre );
+
+		final double previousScale = Affine3DHelpers.extractScale( previous, 0 );
+		final double currentScale = Affine3DHelpers.extractScale( current, 0 );
+		final double zoom = Math.pow( currentScale / previousScale, factor );
+
+		final double[] shift = new double[ 3 ];
+		double shiftInPixels = 0;
+		for ( int d = 0; d < 3; d++ )
+		{
+			shift[ d ] = ( currentCentre[ d ] - previousCentre[ d ] ) * factor;
+			shiftInPixels += Math.pow( shift[ d ] * currentScale, 2 );
+		}
+
+		if ( Math.sqrt( shiftInPixels ) < 1 && Math.abs( zoom - 1 ) < 0.01 )
+			return null;
+
+		final AffineTransform3D predicted = current.copy();
+		final AffineTransform3D globalShift = new AffineTransform3D();
+		globalShift.translate( shift[ 0 ], shift[ 1 ], shift[ 2 ] );
+		predicted.concatenate( globalShift.inverse() );
+		predicted.translate( -windowCentre[ 0 ], -windowCentre[ 1 ], 0 );
+		predicted.scale( zoom );
+		predicted.translate( windowCentre[ 0 ], windowCentre[ 1 ], 0 );
+		return predicted;
+	}
+
+	private void prefetch( AffineTransform3D current, AffineTransform3D predicted )
+	{
+		final ViewerState state = bdvHandle.getViewerPanel().state().snapshot();
+		final int t = state.getCurrentTimepoint();
+		final RealInterval currentBounds = getGlobalBounds( current );
+		final RealInterval predictedBounds = getGlobalBounds( predicted );
+		final double predictedVoxelSpacing = 1.0 / Affine3DHelpers.extractScale( predicted, 0 );
+
+		int budget = maxChunksPerPrediction;
+		for ( SourceAndConverter< ? > sourceAndConverter : state.getVisibleAndPresentSources() )
+		{
+			// non volatile sources would be loaded synchronously
+			if ( sourceAndConverter.asVolatile() == null ) continue;
+
+			final Source< ? > source = sourceAndConverter.asVolatile().getSpimSource();
+			final int level = BdvHandleHelper.getLevel( source, predictedVoxelSpacing );
+			budget = prefetch( source, t, level, currentBounds, predictedBounds, budget );
+			if ( budget <= 0 ) return;
+		}
+	}
+
+	private int prefetch( Source< ? > source, int t, int level, RealInterval currentBounds, RealInterval predictedBounds, int budget )
+	{
+		final RandomAccessibleInterval< ? > rai = source.getSource( t, level );
+		final AffineTransform3D sourceTransform = new AffineTransform3D();
+		source.getSourceTransform( t, level, sourceTransform );
+
+		final FinalInterval predictedVoxels = Intervals.intersect( rai, Intervals.smallestContainingInterval( sourceTransform.inverse().estimateBounds( predictedBounds ) ) );
+		if ( Intervals.isEmpty( predictedVoxels ) ) return budget;
+
+		// those are requested by the renderer anyway
+		final Interval currentVoxels = Intervals.smallestContainingInterval( sourceTransform.inverse().estimateBounds( currentBounds ) );
+
+		final RandomAccess< ? > access = rai.randomAccess();
+		final int[] remaining = { budget };
+		ChunkGrid.forEachChunk( rai, predictedVoxels, ChunkGrid.getChunkSize( rai ), position ->
+		{
+			access.setPosition( position );
+			if ( ! Intervals.contains( currentVoxels, access ) )
+			{
+				access.get(); // enqueues the loading of the chunk without waiting for it
+				remaining[ 0 ]--;
+			}
+			return remaining[ 0 ] > 0;
+		} );
+
+		return remaining[ 0 ];
+	}
+
+	private RealInterval getGlobalBounds( AffineTransform3D viewerTransform )
+	{
+		final FinalRealInterval window = new FinalRealInterval(
+				new double[]{ 0, 0, 0 },
+				new double[]{ bdvHandle.getViewerPanel().getWidth(), bdvHandle.getViewerPanel().getHeight(), 0 } );
+		return viewerTransform.inverse().estimateBounds( window );
+	}
+}
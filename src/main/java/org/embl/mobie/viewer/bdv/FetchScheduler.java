@@ -0,0 +1,181 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.bdv;
+
+import bdv.cache.CacheControl;
+import bdv.util.Affine3DHelpers;
+import bdv.util.BdvHandle;
+import bdv.viewer.Source;
+import bdv.viewer.SourceAndConverter;
+import bdv.viewer.ViewerState;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.Volatile;
+import net.imglib2.realtransform.AffineTransform3D;
+import org.embl.mobie.viewer.bdv.render.BlendingMode;
+import org.embl.mobie.viewer.metrics.Metrics;
+import sc.fiji.bdvpg.bdv.BdvHandleHelper;
+import sc.fiji.bdvpg.services.SourceAndConverterServices;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Orders the chunk requests of each new frame, such that what
+ * the user is looking at sharpens first.
+ *
+ * The fetcher queue serves requests of equal priority in the order
+ * in which they arrive, and the renderer requests chunks in scan line order.
+ * This scheduler is called at the start of each frame, right after the
+ * queue has been cleared, and requests the visible chunks of all volatile sources
+ * ordered by display priority (current source, then occluding sources, then the others)
+ * and then by distance from the screen centre.
+ * The renderer's own requests for the same chunks are then deduplicated
+ * by the cache, which enqueues a chunk at most once per frame.
+ * Chunks that are already loaded are not requested.
+ */
+public class FetchScheduler implements CacheControl
+{
+	public static int maxChunksPerFrame = 512;
+
+	private final BdvHandle bdvHandle;
+
+	private static class Chunk
+	{
+		final int sourceIndex;
+		final int rank;
+		final double distance;
+		final long[] position;
+
+		Chunk( int sourceIndex, int rank, double distance, long[] position )
+		{
+			this.sourceIndex = sourceIndex;
+			this.rank = rank;
+			this.distance = distance;
+			this.position = position;
+		}
+	}
+
+	public FetchScheduler( BdvHandle bdvHandle )
+	{
+		this.bdvHandle = bdvHandle;
+		bdvHandle.getCacheControls().addCacheControl( this );
+	}
+
+	public void close()
+	{
+		bdvHandle.getCacheControls().removeCacheControl( this );
+	}
+
+	@Override
+	public void prepareNextFrame()
+	{
+		try
+		{
+			requestVisibleChunks();
+		}
+		catch ( Exception e )
+		{
+			// the renderer will request the chunks anyway
+		}
+	}
+
+	private void requestVisibleChunks()
+	{
+		final ViewerState state = bdvHandle.getViewerPanel().state().snapshot();
+		final int t = state.getCurrentTimepoint();
+		final AffineTransform3D viewerTransform = state.getViewerTransform();
+		final double width = bdvHandle.getViewerPanel().getWidth();
+		final double height = bdvHandle.getViewerPanel().getHeight();
+		if ( width == 0 || height == 0 ) return;
+
+		final double voxelSpacing = 1.0 / Affine3DHelpers.extractScale( viewerTransform, 0 );
+
+		final List< RandomAccessibleInterval< ? > > rais = new ArrayList<>();
+		final List< Chunk > chunks = new ArrayList<>();
+		for ( SourceAndConverter< ? > sourceAndConverter : state.getVisibleAndPresentSources() )
+		{
+			// non volatile sources would be loaded synchronously
+			if ( sourceAndConverter.asVolatile() == null ) continue;
+
+			final Source< ? > source = sourceAndConverter.asVolatile().getSpimSource();
+			final int level = BdvHandleHelper.getLevel( source, voxelSpacing );
+			final int sourceIndex = rais.size();
+			final int rank = getRank( sourceAndConverter, state );
+
+			final RandomAccessibleInterval< ? > rai = ChunkGrid.forEachVisibleChunk( source, t, level, viewerTransform, width, height, ( position, x, y ) ->
+			{
+				final double distance = Math.pow( x - width / 2, 2 ) + Math.pow( y - height / 2, 2 );
+				chunks.add( new Chunk( sourceIndex, rank, distance, position.clone() ) );
+				return chunks.size() < 8 * maxChunksPerFrame;
+			} );
+
+			if ( rai != null )
+				rais.add( rai );
+		}
+
+		chunks.sort( Comparator.< Chunk >comparingInt( chunk -> chunk.rank ).thenComparingDouble( chunk -> chunk.distance ) );
+
+		final List< RandomAccess< ? > > accesses = new ArrayList<>();
+		for ( RandomAccessibleInterval< ? > rai : rais )
+			accesses.add( rai.randomAccess() );
+
+		int numRequested = 0;
+		int numLoaded = 0;
+		for ( Chunk chunk : chunks )
+		{
+			final RandomAccess< ? > access = accesses.get( chunk.sourceIndex );
+			access.setPosition( chunk.position );
+			final Object value = access.get(); // enqueues the loading if not loaded yet
+			if ( value instanceof Volatile && ( ( Volatile< ? > ) value ).isValid() )
+			{
+				numLoaded++;
+				continue;
+			}
+			if ( ++numRequested >= maxChunksPerFrame ) break;
+		}
+
+		Metrics.count( Metrics.MEMORY_CACHE_HITS, numLoaded );
+		Metrics.count( Metrics.MEMORY_CACHE_MISSES, numRequested );
+		Metrics.gauge( Metrics.CHUNKS_VISIBLE_PENDING, numRequested );
+	}
+
+	private static int getRank( SourceAndConverter< ? > sourceAndConverter, ViewerState state )
+	{
+		if ( sourceAndConverter.equals( state.getCurrentSource() ) )
+			return 0;
+
+		final Object blendingMode = SourceAndConverterServices.getSourceAndConverterService().getMetadata( sourceAndConverter, BlendingMode.BLENDING_MODE );
+		if ( blendingMode instanceof BlendingMode && BlendingMode.isOccluding( ( BlendingMode ) blendingMode ) )
+			return 1;
+
+		return 2;
+	}
+}
@@ -0,0 +1,197 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.bdv;
+
+import bdv.cache.CacheControl;
+import bdv.util.BdvFunctions;
+import bdv.util.BdvHandle;
+import bdv.util.BdvOptions;
+import bdv.util.BdvOverlay;
+import bdv.util.BdvOverlaySource;
+import bdv.viewer.TransformListener;
+import net.imglib2.realtransform.AffineTransform3D;
+import org.embl.mobie.viewer.metrics.Metrics;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the frame render time of the slice viewer and
+ * optionally shows the performance metrics in the viewer.
+ *
+ * The render time is the time from the start of a new frame
+ * until its first (coarsest) image is displayed. It is only measured
+ * while the overlay is shown or while measuring is enabled,
+ * such that the renderer is not slowed down otherwise.
+ */
+public class MetricsOverlay extends BdvOverlay implements CacheControl, TransformListener< AffineTransform3D >
+{
+	private final BdvHandle bdvHandle;
+	private BdvOverlaySource< MetricsOverlay > overlaySource;
+	private volatile long frameStartNanos = -1;
+	private boolean isActive;
+	private boolean isMeasuring;
+	private boolean isRegistered;
+
+	public MetricsOverlay( BdvHandle bdvHandle )
+	{
+		this.bdvHandle = bdvHandle;
+	}
+
+	/**
+	 * @param isMeasuring whether to measure the frame render time even if the overlay is not shown
+	 */
+	public synchronized void setMeasuring( boolean isMeasuring )
+	{
+		this.isMeasuring = isMeasuring;
+		updateRegistration();
+	}
+
+	public synchronized void setActive( boolean isActive )
+	{
+		this.isActive = isActive;
+		updateRegistration();
+
+		// as for the source names, only add the overlay once it is needed
+		if ( isActive && overlaySource == null )
+			overlaySource = BdvFunctions.showOverlay( this, "metrics", BdvOptions.options().addTo( bdvHandle ) );
+
+		if ( overlaySource != null )
+			overlaySource.setActive( isActive );
+	}
+
+	public synchronized boolean isActive()
+	{
+		return isActive;
+	}
+
+	public synchronized void close()
+	{
+		isActive = false;
+		isMeasuring = false;
+		updateRegistration();
+	}
+
+	private void updateRegistration()
+	{
+		final boolean register = isActive || isMeasuring;
+		if ( register == isRegistered ) return;
+
+		if ( register )
+		{
+			bdvHandle.getCacheControls().addCacheControl( this );
+			bdvHandle.getViewerPanel().renderTransformListeners().add( this );
+		}
+		else
+		{
+			bdvHandle.getCacheControls().removeCacheControl( this );
+			bdvHandle.getViewerPanel().renderTransformListeners().remove( this );
+			frameStartNanos = -1;
+		}
+		isRegistered = register;
+	}
+
+	@Override
+	public void prepareNextFrame()
+	{
+		if ( frameStartNanos < 0 )
+			frameStartNanos = System.nanoTime();
+	}
+
+	@Override
+	public void transformChanged( AffineTransform3D transform )
+	{
+		// called when a newly rendered image is displayed
+		final long startNanos = frameStartNanos;
+		if ( startNanos < 0 ) return;
+		frameStartNanos = -1;
+		Metrics.timeSince( Metrics.FRAME_RENDER, startNanos );
+	}
+
+	@Override
+	protected void draw( Graphics2D g )
+	{
+		final List< String > lines = getLines();
+		g.setFont( new Font( Font.MONOSPACED, Font.PLAIN, 12 ) );
+		final int lineHeight = g.getFontMetrics().getHeight();
+		int width = 0;
+		for ( String line : lines )
+			width = Math.max( width, g.getFontMetrics().stringWidth( line ) );
+
+		g.setColor( new Color( 0, 0, 0, 160 ) );
+		g.fillRect( 5, 5, width + 10, lineHeight * lines.size() + 10 );
+		g.setColor( Color.WHITE );
+		for ( int i = 0; i < lines.size(); i++ )
+			g.drawString( lines.get( i ), 10, 5 + lineHeight * ( i + 1 ) );
+	}
+
+	private static List< String > getLines()
+	{
+		final List< String > lines = new ArrayList<>();
+		for ( Metrics.Metric metric : Metrics.getMetrics() )
+		{
+			switch ( metric.kind )
+			{
+				case Timer:
+					lines.add( String.format( "%-24s n=%-7d mean=%8.1f ms  p95=%8.1f ms", metric.name, metric.getCount(), metric.getMean(), metric.getRecentPercentile( 95 ) ) );
+					break;
+				case Counter:
+					lines.add( String.format( "%-24s %s", metric.name, format( metric.getTotal(), metric.name.startsWith( Metrics.CHUNK_BYTES ) ) ) );
+					break;
+				case Gauge:
+					lines.add( String.format( "%-24s %.0f", metric.name, metric.getLast() ) );
+					break;
+			}
+		}
+
+		final double memoryHitRate = Metrics.getHitRate( Metrics.MEMORY_CACHE_HITS, Metrics.MEMORY_CACHE_MISSES );
+		if ( ! Double.isNaN( memoryHitRate ) )
+			lines.add( String.format( "%-24s %.1f %%", "cache.memory.hitrate", 100 * memoryHitRate ) );
+		else if ( Metrics.get( Metrics.MEMORY_CACHE_HITS ) == null )
+			// only the FetchScheduler inspects the visible chunks
+			lines.add( String.format( "%-24s %s", "cache.memory.hitrate", "requires prioritized fetching" ) );
+		final double diskHitRate = Metrics.getHitRate( Metrics.DISK_CACHE_HITS, Metrics.DISK_CACHE_MISSES );
+		if ( ! Double.isNaN( diskHitRate ) )
+			lines.add( String.format( "%-24s %.1f %%", "cache.disk.hitrate", 100 * diskHitRate ) );
+
+		if ( lines.isEmpty() )
+			lines.add( "No metrics recorded yet." );
+
+		return lines;
+	}
+
+	private static String format( double value, boolean isBytes )
+	{
+		if ( ! isBytes ) return String.format( "%.0f", value );
+		if ( value > 1024 * 1024 ) return String.format( "%.1f MB", value / ( 1024 * 1024 ) );
+		if ( value > 1024 ) return String.format( "%.1f kB", value / 1024 );
+		return String.format( "%.0f B", value );
+	}
+}
@@ -158,16 +158,7 @@ public class ScreenShotMaker
 
         final ArrayList< double[] > displayRanges = new ArrayList<>();
 
-        final List< SourceAndConverter <?> > visibleSacs = getVisibleSacs( bdvHandle );
-        if ( visibleSacs.size() == 0 ) return;
-
-        List< SourceAndConverter< ? > > sacs = new ArrayList<>();
-        for ( SourceAndConverter< ?  > sac : visibleSacs )
-        {
-            if ( !isSourceIntersectingCurrentView( bdvHandle, sac.getSpimSource(), sourceInteractionWithViewerPlaneOnly2D ) )
-                continue;
-            sacs.add( sac );
-        }
+        final List< SourceAndConverter< ? > > sacs = getCapturedSacs( bdvHandle, sourceInteractionWithViewerPlaneOnly2D );
         if ( sacs.size() == 0 ) return;
 
         final int t = bdvHandle.getViewerPanel().state().getCurrentTimepoint();
@@ -183,12 +174,7 @@ public class ScreenShotMaker
             final Converter converter = sac.getConverter();
 
             final int level = getLevel( source, samplingXY );
-            final AffineTransform3D sourceTransform =
-                    BdvHandleHelper.getSourceTransform( source, t, level );
-
-            AffineTransform3D viewerToSourceTransform = new AffineTransform3D();
-            viewerToSourceTransform.preConcatenate( viewerTransform.inverse() );
-            viewerToSourceTransform.preConcatenate( sourceTransform.inverse() );
+            final AffineTransform3D viewerToSourceTransform = getViewerToSourceTransform( viewerTransform, source, t, level );
 
             final double canvasStepSize = samplingXY / getViewerVoxelSpacing( bdvHandle );
 
@@ -257,11 +243,34 @@ public class ScreenShotMaker
         }
     }
 
-    private List< SourceAndConverter<?> > getVisibleSacs( BdvHandle bdv )
+    static List< SourceAndConverter< ? > > getCapturedSacs( BdvHandle bdvHandle, boolean sourceInteractionWithViewerPlaneOnly2D )
+    {
+        final List< SourceAndConverter< ? > > sacs = new ArrayList<>();
+        for ( SourceAndConverter< ? > sac : getVisibleSacs( bdvHandle ) )
+        {
+            if ( !isSourceIntersectingCurrentView( bdvHandle, sac.getSpimSource(), sourceInteractionWithViewerPlaneOnly2D ) )
+                continue;
+            sacs.add( sac );
+        }
+        return sacs;
+    }
+
+    static AffineTransform3D getViewerToSourceTransform( AffineTransform3D viewerTransform, Source< ? > source, int t, int level )
+    {
+        final AffineTransform3D sourceTransform =
+                BdvHandleHelper.getSourceTransform( source, t, level );
+
+        AffineTransform3D viewerToSourceTransform = new AffineTransform3D();
+        viewerToSourceTransform.preConcatenate( viewerTransform.inverse() );
+        viewerToSourceTransform.preConcatenate( sourceTransform.inverse() );
+        return viewerToSourceTransform;
+    }
+
+    private static List< SourceAndConverter<?> > getVisibleSacs( BdvHandle bdv )
     {
         final SourceAndConverterBdvDisplayService displayService = SourceAndConverterServices.getBdvDisplayService();
 
-        final List< SourceAndConverter<?> > sacs = displayService.getSourceAndConverterOf( bdvHandle );
+        final List< SourceAndConverter<?> > sacs = displayService.getSourceAndConverterOf( bdv );
         List< SourceAndConverter<?> > visibleSacs = new ArrayList<>(  );
         for ( SourceAndConverter sac : sacs )
         {
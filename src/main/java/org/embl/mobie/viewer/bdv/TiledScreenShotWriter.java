@@ -0,0 +1,386 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.bdv;
+
+import bdv.util.BdvHandle;
+import bdv.viewer.Interpolation;
+import bdv.viewer.Source;
+import bdv.viewer.SourceAndConverter;
+import ij.IJ;
+import net.imglib2.RealRandomAccess;
+import net.imglib2.converter.Converter;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.type.numeric.RealType;
+import org.embl.mobie.viewer.MultiThreading;
+import org.embl.mobie.viewer.bdv.render.AccumulateOccludingProjectorARGB;
+import org.embl.mobie.viewer.projectcreator.ImagePyramidWriter;
+import org.embl.mobie.viewer.source.SourceHelper;
+import org.janelia.saalfeldlab.n5.ByteArrayDataBlock;
+import org.janelia.saalfeldlab.n5.Compression;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.GzipCompression;
+import org.janelia.saalfeldlab.n5.ShortArrayDataBlock;
+import org.janelia.saalfeldlab.n5.zarr.N5ZarrWriter;
+import sc.fiji.bdvpg.bdv.BdvHandleHelper;
+import sc.fiji.bdvpg.services.ISourceAndConverterService;
+import sc.fiji.bdvpg.services.SourceAndConverterServices;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import static sc.fiji.bdvpg.bdv.BdvHandleHelper.getLevel;
+import static sc.fiji.bdvpg.bdv.BdvHandleHelper.getViewerVoxelSpacing;
+
+/**
+ * Tiled variant of the {@link ScreenShotMaker}.
+ *
+ * The capture is cut into tiles which are sampled and blended independently
+ * on the shared compute pool and written to OME-Zarr as soon as they are done.
+ * Only the tiles that are currently being rendered are held in memory,
+ * such that captures much larger than the available memory can be exported.
+ */
+public class TiledScreenShotWriter
+{
+    public static final int DEFAULT_TILE_SIZE = 1024;
+
+    private static final String[] RGB_LABELS = { "red", "green", "blue" };
+    private static final String[] RGB_COLORS = { "FF0000", "00FF00", "0000FF" };
+
+    private final BdvHandle bdvHandle;
+    private double samplingXY = 1;
+    private String physicalUnit = "Pixels";
+    private boolean sourceInteractionWithViewerPlaneOnly2D = false;
+    private int tileSize = DEFAULT_TILE_SIZE;
+    private Compression compression = new GzipCompression();
+
+    public TiledScreenShotWriter( BdvHandle bdvHandle )
+    {
+        this.bdvHandle = bdvHandle;
+    }
+
+    public void setPhysicalPixelSpacingInXY( double spacing, String unit )
+    {
+        this.samplingXY = spacing;
+        this.physicalUnit = unit;
+    }
+
+    public void setSourceInteractionWithViewerPlaneOnly2D( boolean sourceInteractionWithViewerPlaneOnly2D )
+    {
+        this.sourceInteractionWithViewerPlaneOnly2D = sourceInteractionWithViewerPlaneOnly2D;
+    }
+
+    /**
+     * @param tileSize edge length of the rendered tiles and of the zarr chunks, in pixels
+     */
+    public void setTileSize( int tileSize )
+    {
+        this.tileSize = tileSize;
+    }
+
+    public void setCompression( Compression compression )
+    {
+        this.compression = compression;
+    }
+
+    /**
+     * Renders the current view of the BigDataViewer tile by tile.
+     *
+     * @param rgbZarrPath output for the blended RGB image (3 x uint8 channels), may be null
+     * @param rawZarrPath output for the raw data (one uint16 channel per source), may be null
+     * @throws IOException if a tile could not be rendered or written
+     */
+    public void write( String rgbZarrPath, String rawZarrPath ) throws IOException
+    {
+        final long startTime = System.currentTimeMillis();
+
+        final List< SourceAndConverter< ? > > sacs = ScreenShotMaker.getCapturedSacs( bdvHandle, sourceInteractionWithViewerPlaneOnly2D );
+        if ( sacs.size() == 0 )
+        {
+            IJ.log( "Tiled screenshot: there are no visible sources in the current view." );
+            return;
+        }
+
+        final AffineTransform3D viewerTransform = new AffineTransform3D();
+        bdvHandle.getViewerPanel().state().getViewerTransform( viewerTransform );
+        final int t = bdvHandle.getViewerPanel().state().getCurrentTimepoint();
+        final long[] captureSize = ScreenShotMaker.getCaptureImageSizeInPixels( bdvHandle, samplingXY );
+        final double viewerVoxelSpacing = getViewerVoxelSpacing( bdvHandle );
+        final double canvasStepSize = samplingXY / viewerVoxelSpacing;
+
+        final List< SourceSampler > samplers = new ArrayList<>();
+        for ( SourceAndConverter< ? > sac : sacs )
+            samplers.add( new SourceSampler( sac, viewerTransform, t, samplingXY ) );
+
+        final boolean[] occluding = AccumulateOccludingProjectorARGB.getOccluding( AccumulateOccludingProjectorARGB.getBlendingModes( sacs ) );
+
+        final double[] scale = new double[]{ 1.0, 1.0, viewerVoxelSpacing, samplingXY, samplingXY };
+        final N5ZarrWriter rgbWriter = rgbZarrPath == null ? null : createZarr( rgbZarrPath, "RGB", captureSize, 3, DataType.UINT8, scale, createRgbChannels() );
+        final N5ZarrWriter rawWriter = rawZarrPath == null ? null : createZarr( rawZarrPath, "Multi-Channel", captureSize, sacs.size(), DataType.UINT16, scale, createRawChannels( sacs ) );
+        final int numTiles = writeTiles( samplers, occluding, captureSize, canvasStepSize, rgbWriter, rawWriter );
+
+        final long durationMillis = System.currentTimeMillis() - startTime;
+        IJ.log( "Tiled screenshot: rendered " + captureSize[ 0 ] + " x " + captureSize[ 1 ] + " pixels ("
+                + numTiles + " tiles of " + tileSize + " pixels) in " + durationMillis + " ms." );
+    }
+
+    /**
+     * @param rgbWriter output for the blended RGB image, may be null
+     * @param rawWriter output for the raw data, may be null
+     * @return the number of tiles
+     */
+    int writeTiles( List< SourceSampler > samplers, boolean[] occluding, long[] captureSize, double canvasStepSize, N5ZarrWriter rgbWriter, N5ZarrWriter rawWriter ) throws IOException
+    {
+        final DatasetAttributes rgbAttributes = rgbWriter == null ? null : rgbWriter.getDatasetAttributes( "s0" );
+        final DatasetAttributes rawAttributes = rawWriter == null ? null : rawWriter.getDatasetAttributes( "s0" );
+
+        final long numTilesX = ( captureSize[ 0 ] - 1 ) / tileSize + 1;
+        final long numTilesY = ( captureSize[ 1 ] - 1 ) / tileSize + 1;
+
+        // the tile buffers are only allocated once a task runs,
+        // thus the memory in use is bounded by the size of the compute pool
+        final ArrayList< Future< ? > > futures = MultiThreading.getFutures();
+        for ( long tileY = 0; tileY < numTilesY; tileY++ )
+        {
+            for ( long tileX = 0; tileX < numTilesX; tileX++ )
+            {
+                final long[] gridPosition = { tileX, tileY };
+                futures.add( MultiThreading.executorService.submit( () ->
+                {
+                    final Tile tile = renderTile( samplers, occluding, gridPosition, captureSize, canvasStepSize, rawWriter != null );
+                    if ( rgbWriter != null )
+                        writeRgb( rgbWriter, rgbAttributes, tile );
+                    if ( rawWriter != null )
+                        writeRaw( rawWriter, rawAttributes, tile );
+                    return null;
+                } ) );
+            }
+        }
+
+        MultiThreading.waitUntilFinished( futures, MultiThreading.ioFailure( "Could not write tiled screenshot" ) );
+
+        return futures.size();
+    }
+
+    private Tile renderTile( List< SourceSampler > samplers, boolean[] occluding, long[] gridPosition, long[] captureSize, double canvasStepSize, boolean collectRaw )
+    {
+        final int numSources = samplers.size();
+        final Tile tile = new Tile( gridPosition, tileSize, numSources, collectRaw );
+
+        final List< RealRandomAccess< ? > > accesses = new ArrayList<>();
+        for ( SourceSampler sampler : samplers )
+            accesses.add( sampler.createAccess() );
+
+        final long minX = gridPosition[ 0 ] * tileSize;
+        final long minY = gridPosition[ 1 ] * tileSize;
+        final int width = ( int ) Math.min( tileSize, captureSize[ 0 ] - minX );
+        final int height = ( int ) Math.min( tileSize, captureSize[ 1 ] - minY );
+
+        final double[] canvasPosition = new double[ 3 ];
+        final double[] sourceRealPosition = new double[ 3 ];
+        final int[] argbs = new int[ numSources ];
+        final ARGBType argbType = new ARGBType();
+
+        for ( int y = 0; y < height; y++ )
+        {
+            for ( int x = 0; x < width; x++ )
+            {
+                final int index = y * tileSize + x;
+                for ( int s = 0; s < numSources; s++ )
+                {
+                    // canvasPosition is the position on the canvas, in calibrated units
+                    canvasPosition[ 0 ] = ( minX + x ) * canvasStepSize;
+                    canvasPosition[ 1 ] = ( minY + y ) * canvasStepSize;
+                    canvasPosition[ 2 ] = 0;
+                    samplers.get( s ).viewerToSourceTransform.apply( canvasPosition, sourceRealPosition );
+
+                    final RealRandomAccess< ? > access = accesses.get( s );
+                    access.setPosition( sourceRealPosition );
+                    final Object pixelValue = access.get();
+
+                    if ( pixelValue instanceof ARGBType )
+                        argbType.set( ( ARGBType ) pixelValue );
+                    else
+                        samplers.get( s ).converter.convert( pixelValue, argbType );
+                    argbs[ s ] = argbType.get();
+
+                    if ( collectRaw && pixelValue instanceof RealType )
+                        tile.raw[ s ][ index ] = toUnsignedShort( ( ( RealType< ? > ) pixelValue ).getRealDouble() );
+                }
+
+                tile.argb[ index ] = AccumulateOccludingProjectorARGB.getArgbIndex( argbs, occluding );
+            }
+        }
+
+        return tile;
+    }
+
+    private static short toUnsignedShort( double value )
+    {
+        return ( short ) Math.max( 0, Math.min( 65535, Math.round( value ) ) );
+    }
+
+    private void writeRgb( N5ZarrWriter n5, DatasetAttributes attributes, Tile tile ) throws IOException
+    {
+        final int numPixels = tile.argb.length;
+        final byte[][] channels = new byte[ 3 ][ numPixels ];
+        for ( int i = 0; i < numPixels; i++ )
+        {
+            final int argb = tile.argb[ i ];
+            channels[ 0 ][ i ] = ( byte ) ARGBType.red( argb );
+            channels[ 1 ][ i ] = ( byte ) ARGBType.green( argb );
+            channels[ 2 ][ i ] = ( byte ) ARGBType.blue( argb );
+        }
+
+        for ( int c = 0; c < 3; c++ )
+            n5.writeBlock( "s0", attributes, new ByteArrayDataBlock( attributes.getBlockSize(), tile.getBlockPosition( c ), channels[ c ] ) );
+    }
+
+    private void writeRaw( N5ZarrWriter n5, DatasetAttributes attributes, Tile tile ) throws IOException
+    {
+        for ( int c = 0; c < tile.raw.length; c++ )
+            n5.writeBlock( "s0", attributes, new ShortArrayDataBlock( attributes.getBlockSize(), tile.getBlockPosition( c ), tile.raw[ c ] ) );
+    }
+
+    N5ZarrWriter createZarr( String zarrPath, String name, long[] captureSize, int numChannels, DataType dataType, double[] scale, List< Map< String, Object > > channels ) throws IOException
+    {
+        final N5ZarrWriter n5 = new N5ZarrWriter( zarrPath );
+        n5.createGroup( "/" );
+
+        // x,y,z,c,t, which zarr stores in t,c,z,y,x order
+        n5.createDataset( "s0", new DatasetAttributes(
+                new long[]{ captureSize[ 0 ], captureSize[ 1 ], 1, numChannels, 1 },
+                new int[]{ tileSize, tileSize, 1, 1, 1 },
+                dataType, compression ) );
+
+        n5.setAttribute( "/", "multiscales", createMultiscales( name, scale ) );
+
+        final Map< String, Object > omero = new LinkedHashMap<>();
+        omero.put( "name", name );
+        omero.put( "channels", channels );
+        n5.setAttribute( "/", "omero", omero );
+
+        return n5;
+    }
+
+    private List< Map< String, Object > > createMultiscales( String name, double[] scale )
+    {
+        final String unit = "Pixels".equals( physicalUnit ) ? null : ImagePyramidWriter.toOmeZarrUnit( physicalUnit );
+
+        final Map< String, Object > dataset = ImagePyramidWriter.createOmeZarrDataset( "s0", Collections.singletonList( ImagePyramidWriter.createTransformation( "scale", scale ) ) );
+        return Collections.singletonList( ImagePyramidWriter.createOmeZarrMultiscale( name, unit, Collections.singletonList( dataset ) ) );
+    }
+
+    private static List< Map< String, Object > > createRgbChannels()
+    {
+        final List< Map< String, Object > > channels = new ArrayList<>();
+        for ( int c = 0; c < 3; c++ )
+            channels.add( createChannel( RGB_LABELS[ c ], RGB_COLORS[ c ], new double[]{ 0, 255 }, 255 ) );
+        return channels;
+    }
+
+    private static List< Map< String, Object > > createRawChannels( List< SourceAndConverter< ? > > sacs )
+    {
+        final ISourceAndConverterService sacService = SourceAndConverterServices.getSourceAndConverterService();
+        final List< Map< String, Object > > channels = new ArrayList<>();
+        for ( SourceAndConverter< ? > sac : sacs )
+        {
+            final double[] displayRange = BdvHandleHelper.getDisplayRange( sacService.getConverterSetup( sac ) );
+            channels.add( createChannel( sac.getSpimSource().getName(), "FFFFFF", displayRange, 65535 ) );
+        }
+        return channels;
+    }
+
+    private static Map< String, Object > createChannel( String label, String color, double[] displayRange, double max )
+    {
+        final Map< String, Object > window = new LinkedHashMap<>();
+        window.put( "min", 0 );
+        window.put( "max", max );
+        window.put( "start", displayRange[ 0 ] );
+        window.put( "end", displayRange[ 1 ] );
+
+        final Map< String, Object > channel = new LinkedHashMap<>();
+        channel.put( "label", label );
+        channel.put( "color", color );
+        channel.put( "window", window );
+        channel.put( "active", true );
+        return channel;
+    }
+
+    static class SourceSampler
+    {
+        private final Source< ? > source;
+        private final Converter converter;
+        private final int t;
+        private final int level;
+        private final Interpolation interpolation;
+        private final AffineTransform3D viewerToSourceTransform;
+
+        SourceSampler( SourceAndConverter< ? > sac, AffineTransform3D viewerTransform, int t, double samplingXY )
+        {
+            this.source = sac.getSpimSource();
+            this.converter = sac.getConverter();
+            this.t = t;
+            this.level = getLevel( source, samplingXY );
+            // interpolating between label ids would create labels that do not exist
+            this.interpolation = SourceHelper.getLabelSource( sac ) != null ? Interpolation.NEARESTNEIGHBOR : Interpolation.NLINEAR;
+            this.viewerToSourceTransform = ScreenShotMaker.getViewerToSourceTransform( viewerTransform, source, t, level );
+        }
+
+        RealRandomAccess< ? > createAccess()
+        {
+            return source.getInterpolatedSource( t, level, interpolation ).realRandomAccess();
+        }
+    }
+
+    private static class Tile
+    {
+        private final long[] gridPosition;
+        private final int[] argb;
+        private final short[][] raw;
+
+        Tile( long[] gridPosition, int tileSize, int numSources, boolean collectRaw )
+        {
+            this.gridPosition = gridPosition;
+            this.argb = new int[ tileSize * tileSize ];
+            this.raw = collectRaw ? new short[ numSources ][ tileSize * tileSize ] : null;
+        }
+
+        long[] getBlockPosition( int channel )
+        {
+            return new long[]{ gridPosition[ 0 ], gridPosition[ 1 ], 0, channel, 0 };
+        }
+    }
+}
@@ -0,0 +1,300 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.bdv;
+
+import bdv.util.Affine3DHelpers;
+import bdv.util.BdvHandle;
+import bdv.viewer.Source;
+import bdv.viewer.SourceAndConverter;
+import bdv.viewer.TimePointListener;
+import bdv.viewer.ViewerState;
+import ij.IJ;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.Volatile;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.RealType;
+import sc.fiji.bdvpg.bdv.BdvHandleHelper;
+
+import javax.swing.SwingUtilities;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Plays the time series of the visible sources at a target frame rate
+ * and optionally prefetches the upcoming timepoints.
+ *
+ * While playing, the viewer advances to the next timepoint
+ * only once all its visible chunks are loaded; a frame that is not
+ * ready in time is counted as dropped and the viewer stays at the current timepoint.
+ * The visible chunks of the next {@link #setNumPrefetchedTimepoints} timepoints
+ * are requested after each played frame, but only as many timepoints as fit
+ * into the memory budget.
+ *
+ * With {@link #setPrefetching} the upcoming timepoints are also prefetched
+ * whenever the user changes the timepoint.
+ */
+public class TimepointPlayer implements TimePointListener
+{
+	private static final Map< BdvHandle, TimepointPlayer > bdvToPlayer = new ConcurrentHashMap<>();
+
+	private final BdvHandle bdvHandle;
+	private final ScheduledExecutorService executorService;
+	private final AtomicBoolean isPrefetchScheduled = new AtomicBoolean();
+	private boolean isPrefetching;
+	private int numPrefetchedTimepoints = 5;
+	private long memoryBudgetBytes = Runtime.getRuntime().maxMemory() / 4;
+	private ScheduledFuture< ? > playback;
+	private long playbackStartMillis;
+	private int numPlayedFrames;
+	private int numDroppedFrames;
+	private double framesPerSecond;
+
+	private TimepointPlayer( BdvHandle bdvHandle )
+	{
+		this.bdvHandle = bdvHandle;
+		this.executorService = Executors.newSingleThreadScheduledExecutor( runnable -> {
+			final Thread thread = new Thread( runnable, "MoBIE timepoint player" );
+			thread.setDaemon( true );
+			return thread;
+		} );
+	}
+
+	public static TimepointPlayer getPlayer( BdvHandle bdvHandle )
+	{
+		return bdvToPlayer.computeIfAbsent( bdvHandle, TimepointPlayer::new );
+	}
+
+	public static void closePlayer( BdvHandle bdvHandle )
+	{
+		final TimepointPlayer player = bdvToPlayer.get( bdvHandle );
+		if ( player != null )
+			player.close();
+	}
+
+	public void setNumPrefetchedTimepoints( int numPrefetchedTimepoints )
+	{
+		this.numPrefetchedTimepoints = numPrefetchedTimepoints;
+	}
+
+	public void setMemoryBudgetBytes( long memoryBudgetBytes )
+	{
+		this.memoryBudgetBytes = memoryBudgetBytes;
+	}
+
+	/**
+	 * @param isPrefetching whether to prefetch the upcoming timepoints whenever the timepoint changes
+	 */
+	public synchronized void setPrefetching( boolean isPrefetching )
+	{
+		if ( this.isPrefetching == isPrefetching ) return;
+
+		this.isPrefetching = isPrefetching;
+		if ( isPrefetching )
+			bdvHandle.getViewerPanel().addTimePointListener( this );
+		else
+			bdvHandle.getViewerPanel().removeTimePointListener( this );
+	}
+
+	public synchronized boolean isPlaying()
+	{
+		return playback != null;
+	}
+
+	public synchronized void play( double framesPerSecond )
+	{
+		stop();
+		this.framesPerSecond = framesPerSecond;
+		numPlayedFrames = 0;
+		numDroppedFrames = 0;
+		playbackStartMillis = System.currentTimeMillis();
+		final long periodMicros = ( long ) ( 1000000 / framesPerSecond );
+		playback = executorService.scheduleAtFixedRate( this::nextFrame, periodMicros, periodMicros, TimeUnit.MICROSECONDS );
+		executorService.execute( () -> prefetch( bdvHandle.getViewerPanel().state().getCurrentTimepoint() ) );
+	}
+
+	public synchronized void stop()
+	{
+		if ( playback == null ) return;
+
+		playback.cancel( false );
+		playback = null;
+		final double seconds = ( System.currentTimeMillis() - playbackStartMillis ) / 1000.0;
+		IJ.log( String.format( "Played %d frames in %.1f s at a target of %.1f frames per second; %d frames were dropped because their data was not loaded in time.",
+				numPlayedFrames, seconds, framesPerSecond, numDroppedFrames ) );
+	}
+
+	public void close()
+	{
+		stop();
+		setPrefetching( false );
+		bdvToPlayer.remove( bdvHandle );
+		executorService.shutdownNow();
+	}
+
+	@Override
+	public void timePointChanged( int timePointIndex )
+	{
+		if ( isPrefetchScheduled.compareAndSet( false, true ) )
+			executorService.execute( () -> {
+				isPrefetchScheduled.set( false );
+				prefetch( bdvHandle.getViewerPanel().state().getCurrentTimepoint() );
+			} );
+	}
+
+	private void nextFrame()
+	{
+		final ViewerState state = bdvHandle.getViewerPanel().state();
+		final int numTimepoints = state.getNumTimepoints();
+		if ( numTimepoints < 2 ) return;
+
+		final int next = ( state.getCurrentTimepoint() + 1 ) % numTimepoints;
+		if ( requestVisibleChunks( next, true ) == 0 )
+		{
+			// the viewer state must only be changed on the event dispatch thread
+			SwingUtilities.invokeLater( () -> state.setCurrentTimepoint( next ) );
+			numPlayedFrames++;
+			if ( ! isPrefetching() )
+				prefetch( next );
+		}
+		else
+		{
+			numDroppedFrames++;
+			IJ.showStatus( "Timepoint " + next + " not loaded yet; dropped " + numDroppedFrames + " frames." );
+		}
+	}
+
+	private synchronized boolean isPrefetching()
+	{
+		return isPrefetching;
+	}
+
+	/**
+	 * Requests the visible chunks of the timepoints that follow the given one.
+	 *
+	 * @param current the timepoint from which on to prefetch
+	 */
+	private void prefetch( int current )
+	{
+		try
+		{
+			final ViewerState state = bdvHandle.getViewerPanel().state().snapshot();
+			final int numTimepoints = state.getNumTimepoints();
+			final long bytesPerTimepoint = requestVisibleChunks( current, false ) * getBytesPerChunk( state );
+			final int maxNumTimepoints = bytesPerTimepoint == 0 ? numPrefetchedTimepoints : ( int ) Math.min( numPrefetchedTimepoints, memoryBudgetBytes / bytesPerTimepoint );
+
+			for ( int i = 1; i <= maxNumTimepoints && i < numTimepoints; i++ )
+			{
+				final int t = isPlaying() ? ( current + i ) % numTimepoints : current + i;
+				if ( t >= numTimepoints ) break;
+				requestVisibleChunks( t, false );
+			}
+		}
+		catch ( Exception e )
+		{
+			// prefetching is optional, thus the viewer continues without it
+			IJ.log( "[WARN] Could not prefetch the upcoming timepoints: " + e.getMessage() );
+		}
+	}
+
+	/**
+	 * Requests the visible chunks of all volatile sources at the given timepoint.
+	 *
+	 * @param t the timepoint
+	 * @param onlyMissing whether to only count the chunks that are not loaded yet
+	 * @return the number of (missing) chunks
+	 */
+	private long requestVisibleChunks( int t, boolean onlyMissing )
+	{
+		final ViewerState state = bdvHandle.getViewerPanel().state().snapshot();
+		final AffineTransform3D viewerTransform = state.getViewerTransform();
+		final double width = bdvHandle.getViewerPanel().getWidth();
+		final double height = bdvHandle.getViewerPanel().getHeight();
+		final double voxelSpacing = 1.0 / Affine3DHelpers.extractScale( viewerTransform, 0 );
+
+		final long[] numChunks = { 0 };
+		for ( SourceAndConverter< ? > sourceAndConverter : state.getVisibleAndPresentSources() )
+		{
+			if ( sourceAndConverter.asVolatile() == null ) continue;
+
+			final Source< ? > source = sourceAndConverter.asVolatile().getSpimSource();
+			if ( ! source.isPresent( t ) ) continue;
+
+			final int level = BdvHandleHelper.getLevel( source, voxelSpacing );
+			final RandomAccess< ? >[] access = new RandomAccess[ 1 ];
+			ChunkGrid.forEachVisibleChunk( source, t, level, viewerTransform, width, height, ( position, x, y ) ->
+			{
+				if ( access[ 0 ] == null )
+					access[ 0 ] = source.getSource( t, level ).randomAccess();
+				access[ 0 ].setPosition( position );
+				final Object value = access[ 0 ].get(); // enqueues the loading if not loaded yet
+				final boolean isLoaded = value instanceof Volatile && ( ( Volatile< ? > ) value ).isValid();
+				if ( ! ( onlyMissing && isLoaded ) )
+					numChunks[ 0 ]++;
+				return true;
+			} );
+		}
+		return numChunks[ 0 ];
+	}
+
+	/**
+	 * @param state the viewer state
+	 * @return the mean size of a chunk at the resolution levels that are prefetched
+	 */
+	private static long getBytesPerChunk( ViewerState state )
+	{
+		final int t = state.getCurrentTimepoint();
+		final double voxelSpacing = 1.0 / Affine3DHelpers.extractScale( state.getViewerTransform(), 0 );
+
+		long bytes = 0;
+		int numSources = 0;
+		for ( SourceAndConverter< ? > sourceAndConverter : state.getVisibleAndPresentSources() )
+		{
+			if ( sourceAndConverter.asVolatile() == null ) continue;
+
+			final Source< ? > volatileSource = sourceAndConverter.asVolatile().getSpimSource();
+			final int level = BdvHandleHelper.getLevel( volatileSource, voxelSpacing );
+			final RandomAccessibleInterval< ? > rai = volatileSource.getSource( t, level );
+			final long[] chunkSize = ChunkGrid.getChunkSize( rai );
+			long numElements = 1;
+			for ( long size : chunkSize )
+				numElements *= size;
+			final Object type = sourceAndConverter.getSpimSource().getType();
+			final int bitsPerPixel = type instanceof RealType ? ( ( RealType< ? > ) type ).getBitsPerPixel() : 32;
+			bytes += numElements * Math.max( 1, bitsPerPixel / 8 );
+			numSources++;
+		}
+		return numSources == 0 ? 0 : bytes / numSources;
+	}
+}
@@ -46,7 +46,7 @@ public class AccumulateOccludingProjectorARGB extends AccumulateProjector< ARGBT
 {
 	private static BlendingMode[] blendingModes;
 	private static ArrayList< ArrayList< Integer > > isOccludedBy;
-	private static ArrayList< Boolean > isOccluding;
+	private static boolean[] occluding;
 
 	public AccumulateOccludingProjectorARGB(
 			final List< VolatileProjector > sourceProjectors,
@@ -87,12 +87,15 @@ public class AccumulateOccludingProjectorARGB extends AccumulateProjector< ARGBT
 
 	private static void initOcclusions( BlendingMode[] blendingModes )
 	{
-		isOccluding = new ArrayList();
+		occluding = getOccluding( blendingModes );
+	}
 
+	public static boolean[] getOccluding( BlendingMode[] blendingModes )
+	{
+		final boolean[] occluding = new boolean[ blendingModes.length ];
 		for ( int sourceIndex = 0; sourceIndex < blendingModes.length; sourceIndex++ )
-		{
-			isOccluding.add( BlendingMode.isOccluding( blendingModes[ sourceIndex ] ) );
-		}
+			occluding[ sourceIndex ] = BlendingMode.isOccluding( blendingModes[ sourceIndex ] );
+		return occluding;
 	}
 
 	@Override
@@ -106,11 +109,21 @@ public class AccumulateOccludingProjectorARGB extends AccumulateProjector< ARGBT
 
 	public static int getArgbIndex( Cursor< ? extends ARGBType >[] accesses, ArrayList< ArrayList< Integer > > occludedBy )
 	{
-		int aAccu = 0, rAccu = 0, gAccu = 0, bAccu = 0;
+		return getArgbIndex( getARGBs( accesses ), occluding );
+	}
 
-		int[] argbs = getARGBs( accesses );
+	/**
+	 * Blends the ARGB values of several sources at one pixel.
+	 *
+	 * @param argbs the ARGB value of each source, in display order
+	 * @param occluding whether the source at the same index occludes the sources before it
+	 * @return the blended ARGB value
+	 */
+	public static int getArgbIndex( int[] argbs, boolean[] occluding )
+	{
+		int aAccu = 0, rAccu = 0, gAccu = 0, bAccu = 0;
 
-		for ( int sourceIndex = 0; sourceIndex < accesses.length; sourceIndex++ )
+		for ( int sourceIndex = 0; sourceIndex < argbs.length; sourceIndex++ )
 		{
 			final int argb = argbs[ sourceIndex ];
 			final double alpha = ARGBType.alpha( argb ) / 255.0;
@@ -120,7 +133,7 @@ public class AccumulateOccludingProjectorARGB extends AccumulateProjector< ARGBT
 			final int g = ARGBType.green( argb );
 			final int b = ARGBType.blue( argb );
 
-			if ( isOccluding.get( sourceIndex ) )
+			if ( occluding[ sourceIndex ] )
 			{
 				rAccu *= (1 - alpha);
 				gAccu *= (1 - alpha);
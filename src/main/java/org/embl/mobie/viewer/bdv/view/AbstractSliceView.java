@@ -55,7 +55,8 @@ public abstract class AbstractSliceView implements SliceView
 	{
 		for ( SourceAndConverter< ? > sourceAndConverter : display.sourceNameToSourceAndConverter.values() )
 		{
-			moBIE.closeSourceAndConverter( sourceAndConverter, closeImgLoader );
+			// the image loaders are released to the source pool by the ViewManager
+			moBIE.closeSourceAndConverter( sourceAndConverter );
 		}
 		display.sourceNameToSourceAndConverter.clear();
 
@@ -32,6 +32,10 @@ import bdv.util.BdvHandle;
 import bdv.viewer.SourceAndConverter;
 import ij.IJ;
 import org.embl.mobie.viewer.MoBIE;
+import org.embl.mobie.viewer.bdv.ChunkPrefetcher;
+import org.embl.mobie.viewer.bdv.FetchScheduler;
+import org.embl.mobie.viewer.bdv.TimepointPlayer;
+import org.embl.mobie.viewer.bdv.MetricsOverlay;
 import org.embl.mobie.viewer.bdv.MobieBdvSupplier;
 import org.embl.mobie.viewer.bdv.MobieSerializableBdvOptions;
 import org.embl.mobie.viewer.bdv.SourceNamesRenderer;
@@ -45,8 +49,10 @@ import org.embl.mobie.viewer.command.ConfigureImageVolumeRenderingCommand;
 import org.embl.mobie.viewer.command.ConfigureLabelVolumeRenderingCommand;
 import org.embl.mobie.viewer.command.ManualRegistrationCommand;
 import org.embl.mobie.viewer.command.ScreenShotMakerCommand;
+import org.embl.mobie.viewer.command.ImagePlusExportCommand;
 import org.embl.mobie.viewer.command.ShowRasterImagesCommand;
 import org.embl.mobie.viewer.command.SourceAndConverterBlendingModeChangerCommand;
+import org.embl.mobie.viewer.command.TimepointPlaybackCommand;
 import org.embl.mobie.viewer.display.AbstractSourceDisplay;
 import org.embl.mobie.viewer.segment.SliceViewRegionSelector;
 import org.embl.mobie.viewer.source.SourceHelper;
@@ -82,6 +88,9 @@ public class SliceViewer
 	private SourceAndConverterContextMenuClickBehaviour contextMenu;
 	private final SourceAndConverterService sacService;
 	private SourceNamesRenderer sourceNameRenderer;
+	private MetricsOverlay metricsOverlay;
+	private ChunkPrefetcher chunkPrefetcher;
+	private FetchScheduler fetchScheduler;
 
 	public SliceViewer( MoBIE moBIE, boolean is2D )
 	{
@@ -97,6 +106,17 @@ public class SliceViewer
 		sacDisplayService.registerBdvHandle( bdvHandle );
 
 		sourceNameRenderer = new SourceNamesRenderer( bdvHandle, moBIE.initiallyShowSourceNames );
+		metricsOverlay = new MetricsOverlay( bdvHandle );
+		metricsOverlay.setMeasuring( moBIE.getSettings().values.isChunkMetrics() );
+
+		if ( moBIE.getSettings().values.isPrefetching() )
+			chunkPrefetcher = new ChunkPrefetcher( bdvHandle );
+
+		if ( moBIE.getSettings().values.isPrioritizedFetching() )
+			fetchScheduler = new FetchScheduler( bdvHandle );
+
+		if ( moBIE.getSettings().values.isTimepointPrefetching() && moBIE.getDataset().timepoints > 1 )
+			TimepointPlayer.getPlayer( bdvHandle ).setPrefetching( true );
 
 		installContextMenuAndKeyboardShortCuts();
 	}
@@ -106,6 +126,11 @@ public class SliceViewer
 		return sourceNameRenderer;
 	}
 
+	public MetricsOverlay getMetricsOverlay()
+	{
+		return metricsOverlay;
+	}
+
 	public BdvHandle getBdvHandle()
 	{
 		if ( bdvHandle == null )
@@ -116,6 +141,22 @@ public class SliceViewer
 		return bdvHandle;
 	}
 
+	public void close()
+	{
+		if ( chunkPrefetcher != null )
+			chunkPrefetcher.close();
+
+		if ( fetchScheduler != null )
+			fetchScheduler.close();
+
+		metricsOverlay.close();
+
+		// also closes a player that was started by the playback command
+		TimepointPlayer.closePlayer( bdvHandle );
+
+		bdvHandle.close();
+	}
+
 	private void installContextMenuAndKeyboardShortCuts( )
 	{
 		final SliceViewRegionSelector sliceViewRegionSelector = new SliceViewRegionSelector( bdvHandle, is2D, () -> moBIE.getViewManager().getAnnotatedRegionDisplays() );
@@ -140,10 +181,12 @@ public class SliceViewer
 		final ArrayList< String > actions = new ArrayList< String >();
 		actions.add( sacService.getCommandName( ScreenShotMakerCommand.class ) );
 		actions.add( sacService.getCommandName( ShowRasterImagesCommand.class ) );
+		actions.add( sacService.getCommandName( ImagePlusExportCommand.class ) );
 		actions.add( sacService.getCommandName( ViewerTransformLogger.class ) );
 		actions.add( sacService.getCommandName( BigWarpRegistrationCommand.class ) );
 		actions.add( sacService.getCommandName( ManualRegistrationCommand.class ) );
 		actions.add( sacService.getCommandName( SourceAndConverterBlendingModeChangerCommand.class ) );
+		actions.add( sacService.getCommandName( TimepointPlaybackCommand.class ) );
 		actions.add( sacService.getCommandName( ConfigureLabelRenderingCommand.class ) );
 		actions.add( sacService.getCommandName( ConfigureLabelVolumeRenderingCommand.class ) );
 		actions.add( sacService.getCommandName( ConfigureImageVolumeRenderingCommand.class ) );
@@ -183,6 +226,11 @@ public class SliceViewer
 							ConfigureLabelRenderingCommand.incrementRandomColorSeed( sourceAndConverters );
 						}).start(),
 				"Change random color seed", "ctrl L" ) ;
+
+		behaviours.behaviour(
+				( ClickBehaviour ) ( x, y ) ->
+						metricsOverlay.setActive( ! metricsOverlay.isActive() ),
+				"Toggle performance metrics", "ctrl shift M" ) ;
 	}
 
 	public static BdvHandle createBdv( boolean is2D, String frameTitle )
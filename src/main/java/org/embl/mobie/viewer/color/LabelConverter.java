@@ -29,7 +29,6 @@
 package org.embl.mobie.viewer.color;
 
 import bdv.viewer.TimePointListener;
-import net.imglib2.type.volatiles.VolatileUnsignedIntType;
 import org.embl.mobie.viewer.SourceNameEncoder;
 import org.embl.mobie.viewer.segment.SegmentAdapter;
 import de.embl.cba.tables.imagesegment.ImageSegment;
@@ -85,7 +84,8 @@ public class LabelConverter< S extends ImageSegment > implements Converter< Real
 
 		if ( imageId == null )
 		{
-			final long labelId = SourceNameEncoder.getValue( ( VolatileUnsignedIntType ) label );
+			final long encoded = SourceNameEncoder.getEncodedValue( label );
+			final long labelId = SourceNameEncoder.getValue( encoded );
 
 			if ( labelId == 0 )
 			{
@@ -93,7 +93,7 @@ public class LabelConverter< S extends ImageSegment > implements Converter< Real
 				return;
 			}
 
-			final String imageId = SourceNameEncoder.getName( ( VolatileUnsignedIntType ) label );
+			final String imageId = SourceNameEncoder.getName( encoded );
 			S segment = segmentAdapter.getSegment( labelId, timePointIndex, imageId );
 			setColorBySegment( color, segment );
 		}
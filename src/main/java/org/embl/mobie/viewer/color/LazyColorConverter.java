@@ -0,0 +1,133 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.color;
+
+import net.imglib2.converter.Converter;
+import net.imglib2.display.ColorConverter;
+import net.imglib2.type.numeric.ARGBType;
+
+/**
+ * Color converter of a lazily opened source.
+ *
+ * Until the real converter is available, the display settings are stored
+ * and all voxels are converted to transparent. Once the real converter is set,
+ * the display settings that were explicitly set are applied to it, the others keep
+ * the values of the real converter, and all calls are forwarded.
+ *
+ * @param <A> the voxel type
+ */
+public class LazyColorConverter< A > implements ColorConverter, Converter< A, ARGBType >
+{
+	private volatile Converter< A, ARGBType > converter;
+	private ARGBType color = new ARGBType( ARGBType.rgba( 255, 255, 255, 255 ) );
+	private double min = 0;
+	private double max = 255;
+	private boolean isColorSet;
+	private boolean isMinSet;
+	private boolean isMaxSet;
+
+	public LazyColorConverter( double min, double max )
+	{
+		this.min = min;
+		this.max = max;
+	}
+
+	public synchronized void setConverter( Converter< A, ARGBType > converter )
+	{
+		if ( converter instanceof ColorConverter )
+		{
+			final ColorConverter colorConverter = ( ColorConverter ) converter;
+			if ( isColorSet ) colorConverter.setColor( color );
+			if ( isMinSet ) colorConverter.setMin( min );
+			if ( isMaxSet ) colorConverter.setMax( max );
+		}
+		this.converter = converter;
+	}
+
+	@Override
+	public void convert( A input, ARGBType output )
+	{
+		final Converter< A, ARGBType > converter = this.converter;
+		if ( converter == null )
+			output.set( 0 );
+		else
+			converter.convert( input, output );
+	}
+
+	@Override
+	public synchronized ARGBType getColor()
+	{
+		return converter instanceof ColorConverter ? ( ( ColorConverter ) converter ).getColor() : color;
+	}
+
+	@Override
+	public synchronized void setColor( ARGBType c )
+	{
+		color = c.copy();
+		isColorSet = true;
+		if ( converter instanceof ColorConverter )
+			( ( ColorConverter ) converter ).setColor( c );
+	}
+
+	@Override
+	public boolean supportsColor()
+	{
+		return true;
+	}
+
+	@Override
+	public synchronized double getMin()
+	{
+		return converter instanceof ColorConverter ? ( ( ColorConverter ) converter ).getMin() : min;
+	}
+
+	@Override
+	public synchronized double getMax()
+	{
+		return converter instanceof ColorConverter ? ( ( ColorConverter ) converter ).getMax() : max;
+	}
+
+	@Override
+	public synchronized void setMin( double min )
+	{
+		this.min = min;
+		isMinSet = true;
+		if ( converter instanceof ColorConverter )
+			( ( ColorConverter ) converter ).setMin( min );
+	}
+
+	@Override
+	public synchronized void setMax( double max )
+	{
+		this.max = max;
+		isMaxSet = true;
+		if ( converter instanceof ColorConverter )
+			( ( ColorConverter ) converter ).setMax( max );
+	}
+}
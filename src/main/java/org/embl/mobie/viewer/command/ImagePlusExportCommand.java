@@ -28,146 +28,192 @@
  */
 package org.embl.mobie.viewer.command;
 
-import bdv.tools.transformation.TransformedSource;
+import bdv.tools.boundingbox.BoxSelectionOptions;
+import bdv.tools.boundingbox.TransformedRealBoxSelectionDialog;
 import bdv.util.Affine3DHelpers;
+import bdv.util.BdvFunctions;
+import bdv.util.BdvHandle;
 import bdv.viewer.Source;
 import bdv.viewer.SourceAndConverter;
 import ij.IJ;
-import ij.ImagePlus;
-import net.imglib2.RandomAccessibleInterval;
-import net.imglib2.img.display.imagej.ImageJFunctions;
+import net.imglib2.FinalRealInterval;
+import net.imglib2.RealInterval;
 import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.NumericType;
-import net.imglib2.view.IntervalView;
-import net.imglib2.view.Views;
+import net.imglib2.util.Intervals;
+import org.embl.mobie.io.n5.util.DownsampleBlock;
 import org.embl.mobie.viewer.MoBIEHelper;
+import org.embl.mobie.viewer.source.RasterExporter;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
+import sc.fiji.bdvpg.bdv.BdvHandleHelper;
 import sc.fiji.bdvpg.scijava.command.BdvPlaygroundActionCommand;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
-@Plugin(type = BdvPlaygroundActionCommand.class, menuPath = CommandConstants.CONTEXT_MENU_ITEMS_ROOT + "Show " + ImagePlusExportCommand.RAW + " Images" )
-public class ImagePlusExportCommand< T extends NumericType< T > > implements BdvPlaygroundActionCommand
+@Plugin(type = BdvPlaygroundActionCommand.class, menuPath = CommandConstants.CONTEXT_MENU_ITEMS_ROOT + "Export " + ImagePlusExportCommand.RAW + " Images..." )
+public class ImagePlusExportCommand< T extends NativeType< T > & NumericType< T > > implements BdvPlaygroundActionCommand
 {
 	public static final String RAW = "Raster"; // aka "Array" or "Voxel Grid", ... (not sure yet...)
 
+	public static final String CURRENT_VIEW = "Current view";
+	public static final String DRAWN_BOX = "Draw box";
+	public static final String ALL_TIMEPOINTS = "All";
+	public static final String CURRENT_TIMEPOINT = "Current";
+	public static final String SHOW = "Show";
+	public static final String TIFF = "TIFF";
+	public static final String OME_ZARR = "OME-Zarr";
+
+	@Parameter
+	public BdvHandle bdvh;
+
 	@Parameter( label = "Source(s)" )
 	public SourceAndConverter[] sourceAndConverterArray;
 
+	@Parameter( label = "Region", choices = { CURRENT_VIEW, DRAWN_BOX } )
+	public String region = CURRENT_VIEW;
+
+	@Parameter( label = "Time points", choices = { ALL_TIMEPOINTS, CURRENT_TIMEPOINT } )
+	public String timepoints = ALL_TIMEPOINTS;
+
+	@Parameter( label = "Voxel size (0 = full resolution)", min = "0.0", style = "format:#.00000" )
+	public double voxelSize = 0;
+
+	@Parameter( label = "Output", choices = { SHOW, TIFF, OME_ZARR } )
+	public String output = SHOW;
+
+	@Parameter( label = "Output directory", style = "directory", required = false )
+	public File outputDirectory;
+
 	@Parameter( label = "Maximum number of voxels [10^6]" )
-	public int maxNumMegaVoxels = 1;
+	public int maxNumMegaVoxels = 1000;
 
 	@Override
 	public void run()
 	{
+		if ( ! output.equals( SHOW ) && outputDirectory == null )
+		{
+			IJ.showMessage( "Please choose an output directory." );
+			return;
+		}
+
 		final List< SourceAndConverter< T > > sourceAndConverters = getSacs();
 
+		final RealInterval interval = getRegion( sourceAndConverters );
+		if ( interval == null ) return;
+
 		for ( SourceAndConverter< T > sourceAndConverter : sourceAndConverters )
 		{
-			exportAsImagePlus( sourceAndConverter, maxNumMegaVoxels * 1000000L );
+			export( sourceAndConverter.getSpimSource(), interval, maxNumMegaVoxels * 1000000L );
 		}
 	}
 
-	private void exportAsImagePlus( SourceAndConverter< T > sourceAndConverter, long maxNumVoxels )
+	private void export( Source< T > source, RealInterval region, long maxNumVoxels )
 	{
-		final Source< T > source = sourceAndConverter.getSpimSource();
-		final Source< T > rootSource = getRootSource( source );
-
-		if ( rootSource == null )
+		final List< Integer > timepoints = getTimepoints( source );
+		if ( timepoints.isEmpty() )
 		{
-			IJ.log( source.getName() + ": Consists of multiple sources and export to ImagePlus is not yet supported.");
+			IJ.log( source.getName() + ": Not present at the selected time point(s)." );
 			return;
 		}
 
-		IJ.log(source.getName() + ": " + RAW + " data = " + rootSource.getName() );
-
-		int exportLevel = getExportLevel( source, rootSource, maxNumVoxels );
-
-		if ( exportLevel == -1 )
+		final FinalRealInterval interval = Intervals.intersect( region, MoBIEHelper.getMask( source ) );
+		if ( Intervals.isEmpty( interval ) )
 		{
-			IJ.log(source.getName() + " is too big at all resolution levels and thus cannot be exported.");
+			IJ.log( source.getName() + ": Not within the export region." );
 			return;
 		}
 
-		long[] dimensions = source.getSource( 0, exportLevel ).dimensionsAsLongArray();
-
-		IJ.log( source.getName() + ": Exporting at resolution level = " + exportLevel );
-		IJ.log( source.getName() + ": [nx, yz, nz] = " + Arrays.toString( dimensions ) );
-
-		final AffineTransform3D sourceTransform = new AffineTransform3D();
-		source.getSourceTransform( 0, exportLevel, sourceTransform );
-
-		final AffineTransform3D rootSourceTransform = new AffineTransform3D();
-		rootSource.getSourceTransform( 0, exportLevel, rootSourceTransform );
-
-		double[] sourceScale = new double[ 3 ];
-		double[] rootSourceScale = new double[ 3 ];
+		final RasterExporter< T > exporter = new RasterExporter<>( source, timepoints, interval, getVoxelSize( source ) );
 
-		for ( int d = 0; d < 3; d++ )
+		if ( exporter.getNumVoxels() > maxNumVoxels )
 		{
-			sourceScale[ d ] = Affine3DHelpers.extractScale( sourceTransform, d );
-			rootSourceScale[ d ] = Affine3DHelpers.extractScale( rootSourceTransform, d );
+			IJ.log( source.getName() + ": " + Arrays.toString( exporter.getDimensions() ) + " voxels at " + timepoints.size() + " time point(s) exceed the maximum number of voxels and thus cannot be exported.");
+			return;
 		}
 
-		IJ.log( source.getName() + ": Scale = " + Arrays.toString( sourceScale ) );
-		IJ.log( source.getName() + ": Transform = " + sourceTransform );
-		IJ.log( source.getName() + ": " + RAW + " data scale = " + Arrays.toString( rootSourceScale ) );
-		IJ.log( source.getName() + ": " + RAW + " data transform = " + rootSourceTransform );
-
-		final ImagePlus imagePlus = getImagePlus( rootSource, exportLevel );
-		imagePlus.getCalibration().setUnit( rootSource.getVoxelDimensions().unit() );
-		imagePlus.getCalibration().pixelWidth = rootSourceScale[ 0 ];
-		imagePlus.getCalibration().pixelHeight = rootSourceScale[ 1 ];
-		imagePlus.getCalibration().pixelDepth = rootSourceScale[ 2 ];
+		IJ.log( source.getName() + ": Exporting " + Arrays.toString( exporter.getDimensions() ) + " voxels at " + timepoints.size() + " time point(s) from resolution level " + exporter.getLevel() );
 
-		imagePlus.show();
+		final String name = source.getName().replaceAll( "[^a-zA-Z0-9_.-]", "_" );
+		switch ( output )
+		{
+			case TIFF:
+				exporter.exportAsTiff( new File( outputDirectory, name + ".tif" ).getAbsolutePath() );
+				break;
+			case OME_ZARR:
+				exporter.exportAsOmeZarr( new File( outputDirectory, name + ".ome.zarr" ).getAbsolutePath(), DownsampleBlock.DownsamplingMethod.Average );
+				break;
+			default:
+				exporter.exportAsImagePlus().show();
+		}
 
-		IJ.log(source.getName() + ": Export done!" );
+		IJ.log( source.getName() + ": Export done!" );
 	}
 
-	private int getExportLevel( Source< T > source, Source< T > rootSource, long maxNumPixels )
+	private RealInterval getRegion( List< SourceAndConverter< T > > sourceAndConverters )
 	{
-		final int numMipmapLevels = rootSource.getNumMipmapLevels();
+		final FinalRealInterval viewerInterval = BdvHandleHelper.getViewerGlobalBoundingInterval( bdvh );
+
+		if ( region.equals( CURRENT_VIEW ) )
+			return viewerInterval;
 
-		for ( int level = 0; level < numMipmapLevels; level++ )
+		RealInterval sourcesInterval = null;
+		for ( SourceAndConverter< T > sourceAndConverter : sourceAndConverters )
 		{
-			long[] dimensions = source.getSource( 0, level ).dimensionsAsLongArray();
+			final RealInterval mask = MoBIEHelper.getMask( sourceAndConverter.getSpimSource() );
+			sourcesInterval = sourcesInterval == null ? mask : Intervals.union( sourcesInterval, mask );
+		}
 
-			final boolean javaIndexingOK = dimensions[ 0 ] * dimensions[ 1 ] < Integer.MAX_VALUE - 1;
+		RealInterval initialInterval = Intervals.intersect( viewerInterval, sourcesInterval );
+		if ( Intervals.isEmpty( initialInterval ) )
+			initialInterval = sourcesInterval;
 
-			final boolean sizeOK = dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ] < maxNumPixels;
+		final TransformedRealBoxSelectionDialog.Result result = BdvFunctions.selectRealBox(
+				bdvh,
+				new AffineTransform3D(),
+				initialInterval,
+				sourcesInterval,
+				BoxSelectionOptions.options().title( "Export Region" ) );
 
-			if( javaIndexingOK && sizeOK )
-				return level;
-		}
-		return -1;
+		if ( ! result.isValid() ) return null;
+
+		return result.getInterval();
 	}
 
-	private Source< T > getRootSource( Source< T > source )
+	private List< Integer > getTimepoints( Source< T > source )
 	{
-		final Set< Source< ? > > rootSources = new HashSet<>();
-		MoBIEHelper.fetchRootSources( source, rootSources );
-		if ( rootSources.size() > 1 )
+		final List< Integer > sourceTimepoints = new ArrayList<>();
+		if ( timepoints.equals( CURRENT_TIMEPOINT ) )
 		{
-			return null;
+			final int t = bdvh.getViewerPanel().state().getCurrentTimepoint();
+			if ( source.isPresent( t ) )
+				sourceTimepoints.add( t );
+			return sourceTimepoints;
 		}
-		final Source< T > rootSource = ( Source< T > ) rootSources.iterator().next();
-		return rootSource;
+
+		final int numTimepoints = bdvh.getViewerPanel().state().getNumTimepoints();
+		for ( int t = 0; t < numTimepoints; t++ )
+			if ( source.isPresent( t ) )
+				sourceTimepoints.add( t );
+		return sourceTimepoints;
 	}
 
-	private ImagePlus getImagePlus( Source< T > source, int level )
+	private double[] getVoxelSize( Source< T > source )
 	{
-		final RandomAccessibleInterval< T > raiXYZT = getRAIXYZT( source, level );
-		final IntervalView< T > raiXYZTC = Views.addDimension( raiXYZT, 0, 0 );
-		final IntervalView< T > raiXYCZT = Views.permute( Views.permute( raiXYZTC, 4, 3 ), 3, 2);
-		final ImagePlus imagePlus = ImageJFunctions.wrap( raiXYCZT, source.getName() );
-		return imagePlus;
+		if ( voxelSize > 0 )
+			return new double[]{ voxelSize, voxelSize, voxelSize };
+
+		// full resolution, in global units
+		final AffineTransform3D sourceTransform = new AffineTransform3D();
+		source.getSourceTransform( 0, 0, sourceTransform );
+		final double[] fullResolution = new double[ 3 ];
+		for ( int d = 0; d < 3; d++ )
+			fullResolution[ d ] = Affine3DHelpers.extractScale( sourceTransform, d );
+		return fullResolution;
 	}
 
 	private List< SourceAndConverter< T > > getSacs()
@@ -179,41 +225,4 @@ public class ImagePlusExportCommand< T extends NumericType< T > > implements Bdv
 		}
 		return sourceAndConverters;
 	}
-
-	private RandomAccessibleInterval< T > getRAIXYZT( Source< T > source, int level )
-	{
-		int numTimepoints = 0;
-		while ( source.isPresent( numTimepoints ) )
-		{
-			numTimepoints++;
-			if ( numTimepoints >= Integer.MAX_VALUE )
-			{
-				throw new RuntimeException("The source " + source.getName() + " appears to contain more than " + Integer.MAX_VALUE + " time points; maybe something is wrong?");
-			}
-		}
-
-		return getRAIXYZT( source, level, numTimepoints );
-	}
-
-	private RandomAccessibleInterval< T > getRAIXYZT( Source< T > source, int level, int numTimepoints )
-	{
-		final ArrayList< RandomAccessibleInterval< T > > rais = new ArrayList<>();
-		for ( int t = 0; t < numTimepoints; t++ )
-		{
-			rais.add( source.getSource( t, level ) );
-		}
-		return Views.stack( rais );
-	}
-
-	private HashMap< SourceAndConverter< T >, AffineTransform3D > fetchTransforms( List< SourceAndConverter< T > > movingSacs )
-	{
-		final HashMap< SourceAndConverter< T >, AffineTransform3D > sacToTransform = new HashMap<>();
-		for ( SourceAndConverter movingSac : movingSacs )
-		{
-			final AffineTransform3D fixedTransform = new AffineTransform3D();
-			( ( TransformedSource ) movingSac.getSpimSource()).getFixedTransform( fixedTransform );
-			sacToTransform.put( movingSac, fixedTransform );
-		}
-		return sacToTransform;
-	}
 }
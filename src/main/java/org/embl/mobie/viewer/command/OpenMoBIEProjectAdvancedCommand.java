@@ -31,6 +31,7 @@ package org.embl.mobie.viewer.command;
 import org.embl.mobie.io.ImageDataFormat;
 import org.embl.mobie.viewer.MoBIE;
 import org.embl.mobie.viewer.MoBIESettings;
+import org.embl.mobie.viewer.source.SourcePool;
 import org.scijava.command.Command;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
@@ -58,6 +59,27 @@ public class OpenMoBIEProjectAdvancedCommand implements Command
 	@Parameter ( label = "Table Data Branch" )
 	public String tableDataBranch = "master";
 
+	@Parameter ( label = "Show Images While Opening Views" )
+	public boolean progressiveViewOpening = false;
+
+	@Parameter ( label = "Open Images Only When Visible" )
+	public boolean lazySourceOpening = false;
+
+	@Parameter ( label = "Cache Remote Image Data On Disk" )
+	public boolean diskChunkCache = false;
+
+	@Parameter ( label = "Disk Cache Size [GB]" )
+	public double diskChunkCacheGigaBytes = 10;
+
+	@Parameter ( label = "Close Hidden Images After [min]" )
+	public double sourcePoolMaxIdleMinutes = SourcePool.DEFAULT_MAX_IDLE_MILLIS / ( 60 * 1000 );
+
+	@Parameter ( label = "Close Hidden Images Above Memory Usage [GB]" )
+	public double sourcePoolMemoryBudgetGigaBytes = SourcePool.DEFAULT_MEMORY_BUDGET / ( 1024.0 * 1024 * 1024 );
+
+	@Parameter ( label = "Prefetch Image Data While Navigating" )
+	public boolean prefetching = false;
+
 	@Override
 	public void run()
 	{
@@ -70,7 +92,12 @@ public class OpenMoBIEProjectAdvancedCommand implements Command
 							.addImageDataFormat( ImageDataFormat.valueOf( imageDataStorageModality ) )
 							.imageDataLocation( imageDataLocation )
 							.tableDataLocation( tableDataLocation )
-							.gitTablesBranch( tableDataBranch ) );
+							.gitTablesBranch( tableDataBranch )
+							.progressiveViewOpening( progressiveViewOpening )
+							.lazySourceOpening( lazySourceOpening )
+							.diskChunkCache( diskChunkCache, ( long ) ( diskChunkCacheGigaBytes * 1024 * 1024 * 1024 ) )
+							.sourcePool( ( long ) ( sourcePoolMaxIdleMinutes * 60 * 1000 ), ( long ) ( sourcePoolMemoryBudgetGigaBytes * 1024 * 1024 * 1024 ) )
+							.prefetching( prefetching ) );
 		}
 		catch ( IOException e )
 		{
@@ -0,0 +1,99 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.command;
+
+import org.embl.mobie.viewer.MoBIE;
+import org.embl.mobie.viewer.MoBIESettings;
+import org.embl.mobie.viewer.view.HeadlessViewRenderer;
+import org.scijava.command.Command;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Renders views of a MoBIE project to image files, without opening the viewer.
+ * This command can be run headless, e.g. to create thumbnails in batch.
+ */
+@Plugin(type = Command.class, menuPath = CommandConstants.MOBIE_PLUGIN_ROOT + "Render>Render Views..." )
+public class RenderViewsCommand implements Command
+{
+	@Parameter ( label = "Project Location" )
+	public String projectLocation = "https://github.com/mobie/platybrowser-datasets";
+
+	@Parameter ( label = "Dataset (empty for default)", required = false )
+	public String dataset = "";
+
+	@Parameter ( label = "Views (comma separated, empty for all)", required = false )
+	public String views = "";
+
+	@Parameter ( label = "Width [pixels]", min = "1" )
+	public int width = 512;
+
+	@Parameter ( label = "Height [pixels]", min = "1" )
+	public int height = 512;
+
+	@Parameter ( label = "File Format", choices = { HeadlessViewRenderer.PNG, HeadlessViewRenderer.TIFF } )
+	public String fileFormat = HeadlessViewRenderer.PNG;
+
+	@Parameter ( label = "Output Directory", style = "directory" )
+	public File outputDirectory;
+
+	@Override
+	public void run()
+	{
+		final MoBIESettings settings = MoBIESettings.settings().headless( true );
+		if ( dataset != null && ! dataset.trim().isEmpty() )
+			settings.dataset( dataset.trim() );
+
+		try
+		{
+			final MoBIE moBIE = new MoBIE( projectLocation, settings );
+			final HeadlessViewRenderer renderer = new HeadlessViewRenderer( moBIE );
+			renderer.setFileFormat( fileFormat );
+			renderer.render( getViewNames(), width, height, outputDirectory );
+			renderer.close();
+		}
+		catch ( IOException e )
+		{
+			e.printStackTrace();
+		}
+	}
+
+	private List< String > getViewNames()
+	{
+		if ( views == null ) return Arrays.asList();
+
+		return Arrays.stream( views.split( "," ) ).map( String::trim ).filter( s -> ! s.isEmpty() ).collect( Collectors.toList() );
+	}
+}
@@ -0,0 +1,80 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.command;
+
+import ij.IJ;
+import org.embl.mobie.viewer.metrics.Metrics;
+import org.scijava.command.Command;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Saves the performance metrics of the current session, e.g. to find out
+ * whether a slow session is limited by rendering, fetching or table loading.
+ * The metrics can be shown in the viewer with [ Ctrl Shift M ].
+ */
+@Plugin(type = Command.class, menuPath = CommandConstants.MOBIE_PLUGIN_ROOT + "Performance>Save Performance Metrics..." )
+public class SavePerformanceMetricsCommand implements Command
+{
+	public static final String JSON = "JSON";
+	public static final String CSV = "CSV";
+
+	@Parameter ( label = "File", style = "save" )
+	public File file;
+
+	@Parameter ( label = "Format", choices = { JSON, CSV } )
+	public String format = JSON;
+
+	@Parameter ( label = "Reset Metrics After Saving" )
+	public boolean reset = false;
+
+	@Override
+	public void run()
+	{
+		final String content = format.equals( CSV ) ? Metrics.toCsv() : Metrics.toJson();
+		try
+		{
+			Files.write( file.toPath(), content.getBytes( StandardCharsets.UTF_8 ) );
+			IJ.log( "Saved performance metrics to " + file );
+		}
+		catch ( IOException e )
+		{
+			IJ.showMessage( "Could not save performance metrics to " + file + ":\n" + e.getMessage() );
+			return;
+		}
+
+		if ( reset )
+			Metrics.reset();
+	}
+}
@@ -31,6 +31,7 @@ package org.embl.mobie.viewer.command;
 import bdv.util.BdvHandle;
 import ij.IJ;
 import org.embl.mobie.viewer.bdv.ScreenShotMaker;
+import org.embl.mobie.viewer.bdv.TiledScreenShotWriter;
 import org.scijava.Initializable;
 import org.scijava.command.DynamicCommand;
 import org.scijava.module.MutableModuleItem;
@@ -38,6 +39,8 @@ import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 import sc.fiji.bdvpg.scijava.command.BdvPlaygroundActionCommand;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
 
 @Plugin(type = BdvPlaygroundActionCommand.class, menuPath = CommandConstants.CONTEXT_MENU_ITEMS_ROOT + "Take Screenshot")
@@ -57,6 +60,15 @@ public class ScreenShotMakerCommand extends DynamicCommand implements BdvPlaygro
     @Parameter(label="Show Multi-Channel Image")
     public boolean showMultiChannel = true;
 
+    @Parameter(label="Tiled Export to OME-Zarr (for large captures)")
+    public boolean tiledExport = false;
+
+    @Parameter(label="Tiled Export Directory", style="directory", required = false)
+    public File tiledExportDirectory;
+
+    @Parameter(label="Tiled Export Tile Size [pixels]", min = "64")
+    public int tileSize = TiledScreenShotWriter.DEFAULT_TILE_SIZE;
+
 //    @Parameter( visibility = MESSAGE, required = false )
 //    String message = CAPTURE_SIZE_PIXELS +"";
 //
@@ -67,6 +79,12 @@ public class ScreenShotMakerCommand extends DynamicCommand implements BdvPlaygro
 
     @Override
     public void run() {
+        if ( tiledExport )
+        {
+            writeTiledScreenShot();
+            return;
+        }
+
         ScreenShotMaker screenShotMaker = new ScreenShotMaker( bdvh );
         screenShotMaker.setPhysicalPixelSpacingInXY( targetSamplingInXY, pixelUnit );
 
@@ -77,6 +95,32 @@ public class ScreenShotMakerCommand extends DynamicCommand implements BdvPlaygro
             screenShotMaker.getRawScreenShot().show();
     }
 
+    private void writeTiledScreenShot()
+    {
+        if ( tiledExportDirectory == null )
+        {
+            IJ.showMessage( "Please choose a directory for the tiled export." );
+            return;
+        }
+
+        final TiledScreenShotWriter writer = new TiledScreenShotWriter( bdvh );
+        writer.setPhysicalPixelSpacingInXY( targetSamplingInXY, pixelUnit );
+        writer.setTileSize( tileSize );
+
+        final String rgbPath = showRGB ? new File( tiledExportDirectory, "screenshot-rgb.ome.zarr" ).getAbsolutePath() : null;
+        final String rawPath = showMultiChannel ? new File( tiledExportDirectory, "screenshot-multi-channel.ome.zarr" ).getAbsolutePath() : null;
+
+        try
+        {
+            writer.write( rgbPath, rawPath );
+        }
+        catch ( IOException e )
+        {
+            IJ.log( "Tiled screenshot export failed: " + e.getMessage() );
+            e.printStackTrace();
+        }
+    }
+
     @Override
     public void initialize() {
 
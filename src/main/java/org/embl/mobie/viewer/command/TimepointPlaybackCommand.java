@@ -0,0 +1,70 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.command;
+
+import bdv.util.BdvHandle;
+import org.embl.mobie.viewer.bdv.TimepointPlayer;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import sc.fiji.bdvpg.scijava.command.BdvPlaygroundActionCommand;
+
+@Plugin(type = BdvPlaygroundActionCommand.class, menuPath = CommandConstants.CONTEXT_MENU_ITEMS_ROOT + "Display>Play Timepoints")
+public class TimepointPlaybackCommand implements BdvPlaygroundActionCommand
+{
+	public static final String PLAY = "Play";
+	public static final String STOP = "Stop";
+
+	@Parameter
+	BdvHandle bdvh;
+
+	@Parameter( label = "Playback", choices = { PLAY, STOP } )
+	String playback = PLAY;
+
+	@Parameter( label = "Frames per Second", min = "0.1" )
+	double framesPerSecond = 5;
+
+	@Parameter( label = "Number of Prefetched Timepoints", min = "0" )
+	int numPrefetchedTimepoints = 5;
+
+	@Parameter( label = "Prefetch Memory Budget [MB]", min = "0" )
+	long memoryBudgetMegaBytes = Runtime.getRuntime().maxMemory() / 4 / ( 1024 * 1024 );
+
+	@Override
+	public void run()
+	{
+		final TimepointPlayer player = TimepointPlayer.getPlayer( bdvh );
+		player.setNumPrefetchedTimepoints( numPrefetchedTimepoints );
+		player.setMemoryBudgetBytes( memoryBudgetMegaBytes * 1024 * 1024 );
+
+		if ( playback.equals( PLAY ) )
+			player.play( framesPerSecond );
+		else
+			player.stop();
+	}
+}
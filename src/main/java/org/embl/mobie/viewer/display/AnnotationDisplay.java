@@ -169,18 +169,23 @@ public abstract class AnnotationDisplay< T extends TableRow > extends AbstractSo
 			this.randomColorSeed = ( ( CategoryColoringModel<?> ) wrappedColoringModel ).getRandomSeed();
 		}
 
-		this.showScatterPlot = annotationDisplay.scatterPlotViewer.isVisible();
-		this.scatterPlotAxes = annotationDisplay.scatterPlotViewer.getSelectedColumns();
 		this.tables = annotationDisplay.tables;
-		List<String> additionalTables = annotationDisplay.tableViewer.getAdditionalTables();
-		if ( additionalTables.size() > 0 ){
-			if ( this.tables == null ) {
-				this.tables = new ArrayList<>();
+
+		// the tables of a segmentation display may still be loading
+		if ( annotationDisplay.tableViewer != null )
+		{
+			this.showScatterPlot = annotationDisplay.scatterPlotViewer.isVisible();
+			this.scatterPlotAxes = annotationDisplay.scatterPlotViewer.getSelectedColumns();
+			List<String> additionalTables = annotationDisplay.tableViewer.getAdditionalTables();
+			if ( additionalTables.size() > 0 ){
+				if ( this.tables == null ) {
+					this.tables = new ArrayList<>();
+				}
+				this.tables.addAll( additionalTables );
 			}
-			this.tables.addAll( additionalTables );
-		}
 
-		this.showTable = annotationDisplay.tableViewer.getWindow().isVisible();
+			this.showTable = annotationDisplay.tableViewer.getWindow().isVisible();
+		}
 
 		final LabelSource< ? > labelSource = SourceHelper.getLabelSource( sourceAndConverter );
 		this.showAsBoundaries = labelSource.isShowAsBoundaries();
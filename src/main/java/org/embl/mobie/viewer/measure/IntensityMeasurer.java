@@ -0,0 +1,397 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.measure;
+
+import bdv.util.Affine3DHelpers;
+import bdv.viewer.Source;
+import de.embl.cba.tables.imagesegment.ImageSegment;
+import net.imglib2.Cursor;
+import net.imglib2.FinalRealInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealPoint;
+import net.imglib2.algorithm.util.Grids;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.realtransform.Translation3D;
+import net.imglib2.roi.RealMaskRealInterval;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+import org.embl.mobie.viewer.MultiThreading;
+import org.embl.mobie.viewer.annotate.AnnotatedMask;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Measures the intensity statistics of segments or regions in an image,
+ * see {@link IntensityStatistics}.
+ *
+ * Segments are measured in parallel blocks of the label image, using the
+ * resolution level of the label image that best matches the chosen level
+ * of the intensity image. Each label voxel gets the intensity of the image
+ * voxel that contains its centre. Regions are measured in parallel, using
+ * all image voxels whose centres are within the region.
+ */
+public class IntensityMeasurer
+{
+	public static final int[] BLOCK_SIZE = new int[]{ 128, 128, 16 };
+
+	private final Source< ? > image;
+	private final int level;
+	private final String columnPrefix;
+
+	public IntensityMeasurer( Source< ? > image, int level )
+	{
+		this.image = image;
+		this.level = level;
+		this.columnPrefix = image.getName();
+	}
+
+	/**
+	 * @param segments the table rows
+	 * @param labelSources the label source of each {@link ImageSegment#imageId()}
+	 * @return the statistics columns, in the order of the segments
+	 */
+	public Map< String, List< String > > measureSegments( List< ? extends ImageSegment > segments, Function< String, Source< ? > > labelSources )
+	{
+		final IntensityStatistics statistics = new IntensityStatistics( segments.size(), isInteger() );
+
+		// the segments of each label image and time point
+		final Map< String, Map< Integer, List< Integer > > > imageIdToTimePointToRows = new LinkedHashMap<>();
+		for ( int row = 0; row < segments.size(); row++ )
+		{
+			final ImageSegment segment = segments.get( row );
+			imageIdToTimePointToRows
+					.computeIfAbsent( segment.imageId(), imageId -> new LinkedHashMap<>() )
+					.computeIfAbsent( segment.timePoint(), t -> new ArrayList<>() )
+					.add( row );
+		}
+
+		final List< LabelImage > labelImages = new ArrayList<>();
+		for ( String imageId : imageIdToTimePointToRows.keySet() )
+		{
+			final Source< ? > labelSource = labelSources.apply( imageId );
+			if ( labelSource == null )
+				throw new UnsupportedOperationException( "The label image " + imageId + " is not available." );
+
+			for ( Map.Entry< Integer, List< Integer > > entry : imageIdToTimePointToRows.get( imageId ).entrySet() )
+				labelImages.add( new LabelImage( labelSource, entry.getKey(), entry.getValue(), segments ) );
+		}
+
+		// the histograms need the minima and maxima of the first pass
+		for ( LabelImage labelImage : labelImages )
+			forEachBlockChunk( labelImage.blocks, blocks -> {
+				final IntensityStatistics chunkStatistics = new IntensityStatistics( segments.size(), isInteger() );
+				for ( Interval block : blocks )
+					labelImage.visit( block, chunkStatistics::add );
+				statistics.merge( chunkStatistics );
+			} );
+
+		statistics.startHistograms();
+		for ( LabelImage labelImage : labelImages )
+			forEachBlockChunk( labelImage.blocks, blocks -> {
+				final BlockHistograms histograms = new BlockHistograms( statistics );
+				for ( Interval block : blocks )
+				{
+					labelImage.visit( block, histograms::add );
+					histograms.flush();
+				}
+			} );
+
+		return createColumns( statistics );
+	}
+
+	/**
+	 * @param regions the table rows
+	 * @return the statistics columns, in the order of the regions
+	 */
+	public Map< String, List< String > > measureRegions( List< ? extends AnnotatedMask > regions )
+	{
+		final IntensityStatistics statistics = new IntensityStatistics( regions.size(), isInteger() );
+		statistics.startHistograms();
+
+		final ArrayList< Future< ? > > futures = MultiThreading.getFutures();
+		for ( int row = 0; row < regions.size(); row++ )
+		{
+			final int region = row;
+			futures.add( MultiThreading.executorService.submit( () -> measureRegion( region, regions.get( region ), statistics ) ) );
+		}
+		MultiThreading.waitUntilFinished( futures, cause -> new RuntimeException( "Could not measure intensities", cause ) );
+
+		return createColumns( statistics );
+	}
+
+	private void measureRegion( int row, AnnotatedMask region, IntensityStatistics statistics )
+	{
+		final int t = region.timePoint();
+		final RandomAccessibleInterval< ? extends RealType< ? > > rai = ( RandomAccessibleInterval ) image.getSource( t, level );
+		final AffineTransform3D transform = new AffineTransform3D();
+		image.getSourceTransform( t, level, transform );
+		final RealMaskRealInterval mask = region.mask();
+
+		final FinalRealInterval voxelBounds = transform.inverse().estimateBounds( mask );
+		final long[] min = new long[ 3 ];
+		final long[] max = new long[ 3 ];
+		for ( int d = 0; d < 3; d++ )
+		{
+			min[ d ] = Math.max( rai.min( d ), ( long ) Math.floor( voxelBounds.realMin( d ) ) );
+			max[ d ] = Math.min( rai.max( d ), ( long ) Math.ceil( voxelBounds.realMax( d ) ) );
+			if ( min[ d ] > max[ d ] ) return;
+		}
+
+		final Cursor< ? extends RealType< ? > > cursor = Views.interval( rai, min, max ).localizingCursor();
+		final RealPoint position = new RealPoint( 3 );
+		for ( int pass = 0; pass < 2; pass++ )
+		{
+			cursor.reset();
+			while ( cursor.hasNext() )
+			{
+				final double value = cursor.next().getRealDouble();
+				transform.apply( cursor, position );
+				if ( ! mask.test( position ) ) continue;
+
+				// each region is measured by one thread only
+				if ( pass == 0 )
+					statistics.add( row, value );
+				else
+					statistics.addToHistogram( row, value );
+			}
+		}
+	}
+
+	private boolean isInteger()
+	{
+		return image.getType() instanceof IntegerType;
+	}
+
+	private Map< String, List< String > > createColumns( IntensityStatistics statistics )
+	{
+		final Map< String, List< String > > columns = new LinkedHashMap<>();
+		addColumn( columns, "count", statistics, statistics::getCount );
+		addColumn( columns, "mean", statistics, statistics::getMean );
+		addColumn( columns, "sum", statistics, statistics::getSum );
+		addColumn( columns, "min", statistics, statistics::getMin );
+		addColumn( columns, "max", statistics, statistics::getMax );
+		for ( int percentile : IntensityStatistics.PERCENTILES )
+			addColumn( columns, "p" + percentile, statistics, label -> statistics.getPercentile( label, percentile ) );
+		return columns;
+	}
+
+	private void addColumn( Map< String, List< String > > columns, String statistic, IntensityStatistics statistics, IntToDoubleFunction values )
+	{
+		final List< String > column = new ArrayList<>( statistics.numLabels() );
+		for ( int label = 0; label < statistics.numLabels(); label++ )
+			column.add( String.valueOf( values.applyAsDouble( label ) ) );
+		columns.put( columnPrefix + "_" + statistic, column );
+	}
+
+	private static void forEachBlockChunk( List< Interval > blocks, Consumer< List< Interval > > chunkConsumer )
+	{
+		final int numChunks = Math.min( blocks.size(), MultiThreading.getNumThreads() );
+		final ArrayList< Future< ? > > futures = MultiThreading.getFutures();
+		for ( int chunk = 0; chunk < numChunks; chunk++ )
+		{
+			final List< Interval > chunkBlocks = new ArrayList<>();
+			for ( int i = chunk; i < blocks.size(); i += numChunks )
+				chunkBlocks.add( blocks.get( i ) );
+			futures.add( MultiThreading.executorService.submit( () -> chunkConsumer.accept( chunkBlocks ) ) );
+		}
+		MultiThreading.waitUntilFinished( futures, cause -> new RuntimeException( "Could not measure intensities", cause ) );
+	}
+
+	interface VoxelConsumer
+	{
+		void accept( int row, double value );
+	}
+
+	/**
+	 * The label image of one source and time point,
+	 * together with the table rows of its labels.
+	 */
+	class LabelImage
+	{
+		private final RandomAccessibleInterval< ? extends RealType< ? > > labels;
+		private final RandomAccessibleInterval< ? extends RealType< ? > > intensities;
+		private final AffineTransform3D labelToImage;
+		private final List< Interval > blocks;
+		private final long[] labelIds; // sorted
+		private final int[] rows;
+
+		LabelImage( Source< ? > labelSource, int t, List< Integer > labelRows, List< ? extends ImageSegment > segments )
+		{
+			final int labelLevel = getMatchingLevel( labelSource, t );
+			final RandomAccessibleInterval< ? extends RealType< ? > > labelRAI = ( RandomAccessibleInterval ) labelSource.getSource( t, labelLevel );
+			labels = Views.zeroMin( labelRAI );
+			intensities = ( RandomAccessibleInterval ) image.getSource( t, level );
+			blocks = Grids.collectAllContainedIntervals( labels.dimensionsAsLongArray(), BLOCK_SIZE );
+
+			// zero-min label voxel => label voxel => global => image voxel
+			labelToImage = new AffineTransform3D();
+			labelSource.getSourceTransform( t, labelLevel, labelToImage );
+			labelToImage.concatenate( new Translation3D( labelRAI.minAsDoubleArray() ) );
+			final AffineTransform3D imageTransform = new AffineTransform3D();
+			image.getSourceTransform( t, level, imageTransform );
+			labelToImage.preConcatenate( imageTransform.inverse() );
+
+			final List< Integer > sortedRows = new ArrayList<>( labelRows );
+			sortedRows.sort( Comparator.comparingDouble( row -> segments.get( row ).labelId() ) );
+			labelIds = new long[ sortedRows.size() ];
+			rows = new int[ sortedRows.size() ];
+			for ( int i = 0; i < rows.length; i++ )
+			{
+				rows[ i ] = sortedRows.get( i );
+				labelIds[ i ] = ( long ) segments.get( rows[ i ] ).labelId();
+			}
+		}
+
+		void visit( Interval block, VoxelConsumer consumer )
+		{
+			final Cursor< ? extends RealType< ? > > cursor = Views.interval( labels, block ).localizingCursor();
+			final RandomAccess< ? extends RealType< ? > > access = intensities.randomAccess();
+			final long[] imageMin = intensities.minAsLongArray();
+			final long[] imageMax = intensities.maxAsLongArray();
+			final double[] position = new double[ 3 ];
+			final long[] imagePosition = new long[ 3 ];
+
+			long lastLabelId = 0;
+			int row = -1;
+			voxels:
+			while ( cursor.hasNext() )
+			{
+				final long labelId = ( long ) cursor.next().getRealDouble();
+				if ( labelId == 0 ) continue; // background
+
+				if ( labelId != lastLabelId )
+				{
+					lastLabelId = labelId;
+					final int index = Arrays.binarySearch( labelIds, labelId );
+					row = index < 0 ? -1 : rows[ index ];
+				}
+				if ( row == -1 ) continue; // not in the table
+
+				cursor.localize( position );
+				labelToImage.apply( position, position );
+				for ( int d = 0; d < 3; d++ )
+				{
+					imagePosition[ d ] = Math.round( position[ d ] );
+					if ( imagePosition[ d ] < imageMin[ d ] || imagePosition[ d ] > imageMax[ d ] )
+						continue voxels;
+				}
+
+				access.setPosition( imagePosition );
+				consumer.accept( row, access.get().getRealDouble() );
+			}
+		}
+	}
+
+	private int getMatchingLevel( Source< ? > labelSource, int t )
+	{
+		final double imageVoxelSize = getVoxelSize( image, t, level );
+
+		int matchingLevel = 0;
+		double minDistance = Double.MAX_VALUE;
+		for ( int labelLevel = 0; labelLevel < labelSource.getNumMipmapLevels(); labelLevel++ )
+		{
+			final double distance = Math.abs( Math.log( getVoxelSize( labelSource, t, labelLevel ) / imageVoxelSize ) );
+			if ( distance < minDistance )
+			{
+				minDistance = distance;
+				matchingLevel = labelLevel;
+			}
+		}
+		return matchingLevel;
+	}
+
+	private static double getVoxelSize( Source< ? > source, int t, int level )
+	{
+		final AffineTransform3D transform = new AffineTransform3D();
+		source.getSourceTransform( t, level, transform );
+		return Affine3DHelpers.extractScale( transform, 0 );
+	}
+
+	/**
+	 * Histogram counts of the labels within one block, which
+	 * are added to the shared histograms at once.
+	 */
+	static class BlockHistograms
+	{
+		private final IntensityStatistics statistics;
+		private final int[] rowToIndex;
+		private final List< Integer > rows = new ArrayList<>();
+		private int[] counts = new int[ 16 * IntensityStatistics.NUM_BINS ];
+
+		BlockHistograms( IntensityStatistics statistics )
+		{
+			this.statistics = statistics;
+			rowToIndex = new int[ statistics.numLabels() ];
+			Arrays.fill( rowToIndex, -1 );
+		}
+
+		void add( int row, double value )
+		{
+			int index = rowToIndex[ row ];
+			if ( index == -1 )
+			{
+				index = rows.size();
+				rowToIndex[ row ] = index;
+				rows.add( row );
+				if ( counts.length < rows.size() * IntensityStatistics.NUM_BINS )
+					counts = Arrays.copyOf( counts, 2 * counts.length );
+			}
+			counts[ index * IntensityStatistics.NUM_BINS + statistics.bin( row, value ) ]++;
+		}
+
+		void flush()
+		{
+			for ( int index = 0; index < rows.size(); index++ )
+			{
+				final int row = rows.get( index );
+				for ( int bin = 0; bin < IntensityStatistics.NUM_BINS; bin++ )
+				{
+					final int count = counts[ index * IntensityStatistics.NUM_BINS + bin ];
+					if ( count == 0 ) continue;
+					statistics.addToHistogram( row, bin, count );
+					counts[ index * IntensityStatistics.NUM_BINS + bin ] = 0;
+				}
+				rowToIndex[ row ] = -1;
+			}
+			rows.clear();
+		}
+	}
+}
@@ -0,0 +1,182 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.measure;
+
+import java.util.Arrays;
+
+/**
+ * Intensity statistics of many labels, accumulated in primitive arrays.
+ *
+ * The percentiles are computed from histograms with {@link #NUM_BINS} bins
+ * between the minimum and the maximum of each label, thus they need a second
+ * pass over the voxels, after the minima and maxima are known.
+ * For integer images the percentiles are exact if the values of a label
+ * span at most {@link #NUM_BINS} integers, otherwise they are accurate
+ * up to one bin.
+ */
+public class IntensityStatistics
+{
+	public static final int NUM_BINS = 100;
+	public static final int[] PERCENTILES = { 5, 25, 50, 75, 95 };
+
+	private final int numLabels;
+	private final boolean isInteger;
+	private final long[] counts;
+	private final double[] sums;
+	private final double[] mins;
+	private final double[] maxs;
+	private int[] histograms;
+
+	public IntensityStatistics( int numLabels, boolean isInteger )
+	{
+		this.numLabels = numLabels;
+		this.isInteger = isInteger;
+		counts = new long[ numLabels ];
+		sums = new double[ numLabels ];
+		mins = new double[ numLabels ];
+		maxs = new double[ numLabels ];
+		Arrays.fill( mins, Double.POSITIVE_INFINITY );
+		Arrays.fill( maxs, Double.NEGATIVE_INFINITY );
+	}
+
+	public int numLabels()
+	{
+		return numLabels;
+	}
+
+	public void add( int label, double value )
+	{
+		counts[ label ]++;
+		sums[ label ] += value;
+		if ( value < mins[ label ] ) mins[ label ] = value;
+		if ( value > maxs[ label ] ) maxs[ label ] = value;
+	}
+
+	/**
+	 * Adds the first pass statistics of another instance,
+	 * e.g. the one of another thread.
+	 */
+	public synchronized void merge( IntensityStatistics other )
+	{
+		for ( int label = 0; label < numLabels; label++ )
+		{
+			if ( other.counts[ label ] == 0 ) continue;
+			counts[ label ] += other.counts[ label ];
+			sums[ label ] += other.sums[ label ];
+			mins[ label ] = Math.min( mins[ label ], other.mins[ label ] );
+			maxs[ label ] = Math.max( maxs[ label ], other.maxs[ label ] );
+		}
+	}
+
+	/**
+	 * Starts the second pass, in which the values are added to the histograms.
+	 */
+	public void startHistograms()
+	{
+		histograms = new int[ numLabels * NUM_BINS ];
+	}
+
+	public int bin( int label, double value )
+	{
+		final double range = maxs[ label ] - mins[ label ];
+		if ( range == 0 ) return 0;
+
+		if ( isInteger && range < NUM_BINS )
+			return ( int ) ( value - mins[ label ] );
+
+		final int bin = ( int ) ( ( value - mins[ label ] ) / range * NUM_BINS );
+		return Math.max( 0, Math.min( NUM_BINS - 1, bin ) );
+	}
+
+	/**
+	 * Adds a value to the histogram of the label. This must only be called
+	 * concurrently for different labels, otherwise see {@link #addToHistogram(int, int, int)}.
+	 */
+	public void addToHistogram( int label, double value )
+	{
+		histograms[ label * NUM_BINS + bin( label, value ) ]++;
+	}
+
+	public synchronized void addToHistogram( int label, int bin, int count )
+	{
+		histograms[ label * NUM_BINS + bin ] += count;
+	}
+
+	public long getCount( int label )
+	{
+		return counts[ label ];
+	}
+
+	public double getSum( int label )
+	{
+		return sums[ label ];
+	}
+
+	public double getMean( int label )
+	{
+		return counts[ label ] == 0 ? Double.NaN : sums[ label ] / counts[ label ];
+	}
+
+	public double getMin( int label )
+	{
+		return counts[ label ] == 0 ? Double.NaN : mins[ label ];
+	}
+
+	public double getMax( int label )
+	{
+		return counts[ label ] == 0 ? Double.NaN : maxs[ label ];
+	}
+
+	/**
+	 * @param percentile in [ 0, 100 ]
+	 * @return the smallest value such that at least the percentile of the
+	 * values of the label are smaller or equal, within the bin accuracy
+	 */
+	public double getPercentile( int label, double percentile )
+	{
+		if ( counts[ label ] == 0 || histograms == null ) return Double.NaN;
+
+		final long rank = Math.max( 1, ( long ) Math.ceil( percentile / 100.0 * counts[ label ] ) );
+		long cumulativeCount = 0;
+		int bin = 0;
+		for ( ; bin < NUM_BINS - 1; bin++ )
+		{
+			cumulativeCount += histograms[ label * NUM_BINS + bin ];
+			if ( cumulativeCount >= rank ) break;
+		}
+
+		final double range = maxs[ label ] - mins[ label ];
+		if ( range == 0 )
+			return mins[ label ];
+		else if ( isInteger && range < NUM_BINS )
+			return mins[ label ] + bin;
+		else
+			return mins[ label ] + ( bin + 0.5 ) * range / NUM_BINS;
+	}
+}
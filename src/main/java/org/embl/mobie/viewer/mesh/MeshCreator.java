@@ -45,6 +45,7 @@ import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.util.Intervals;
 import net.imglib2.view.Views;
+import org.embl.mobie.viewer.metrics.Metrics;
 import org.embl.mobie.viewer.playground.BdvPlaygroundHelper;
 import org.scijava.vecmath.Point3f;
 
@@ -128,7 +129,9 @@ public class MeshCreator < S extends ImageSegment >
 		{
 			try
 			{
+				final long start = System.nanoTime();
 				final float[] mesh = createMesh( segment, voxelSpacing, source );
+				Metrics.timeSince( Metrics.MESH_BUILD, start );
 				segment.setMesh( mesh );
 			}
 			catch ( Exception e )
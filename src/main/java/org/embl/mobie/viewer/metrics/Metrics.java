@@ -0,0 +1,260 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.metrics;
+
+import com.google.gson.GsonBuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of performance metrics of the running MoBIE session.
+ *
+ * There are three kinds of metrics:
+ * timers record durations in milliseconds and keep summary statistics,
+ * counters add up amounts (e.g. bytes or cache hits),
+ * and gauges hold the latest value of a quantity (e.g. a queue length).
+ *
+ * Recording is cheap and thread safe, such that it can be done on hot paths.
+ */
+public abstract class Metrics
+{
+	public static final String FRAME_RENDER = "frame.render";
+	// the chunk metrics are recorded per image, as "<metric>:<image name>"
+	public static final String CHUNK_FETCH = "chunk.fetch";
+	public static final String CHUNK_BYTES = "chunk.bytes";
+	// the visible chunk metrics are only recorded with prioritized fetching, see MoBIESettings
+	public static final String CHUNKS_VISIBLE_PENDING = "chunks.visible.pending";
+	public static final String MEMORY_CACHE_HITS = "cache.memory.hits";
+	public static final String MEMORY_CACHE_MISSES = "cache.memory.misses";
+	public static final String DISK_CACHE_HITS = "cache.disk.hits";
+	public static final String DISK_CACHE_MISSES = "cache.disk.misses";
+	public static final String IMAGE_OPEN = "image.open";
+	public static final String TABLE_LOAD = "table.load";
+	public static final String MESH_BUILD = "mesh.build";
+
+	private static final int NUM_RECENT_VALUES = 1000;
+
+	private static final Map< String, Metric > nameToMetric = new ConcurrentHashMap<>();
+
+	public enum Kind
+	{
+		Timer,
+		Counter,
+		Gauge
+	}
+
+	public static class Metric
+	{
+		public final String name;
+		public final Kind kind;
+		private long count;
+		private double total;
+		private double min = Double.MAX_VALUE;
+		private double max = - Double.MAX_VALUE;
+		private double last;
+		private final double[] recentValues;
+		private int numRecentValues;
+
+		private Metric( String name, Kind kind )
+		{
+			this.name = name;
+			this.kind = kind;
+			this.recentValues = kind.equals( Kind.Timer ) ? new double[ NUM_RECENT_VALUES ] : null;
+		}
+
+		private synchronized void add( double value )
+		{
+			count++;
+			total += value;
+			last = value;
+			min = Math.min( min, value );
+			max = Math.max( max, value );
+			if ( recentValues != null )
+				recentValues[ ( int ) ( ( count - 1 ) % NUM_RECENT_VALUES ) ] = value;
+			numRecentValues = ( int ) Math.min( count, NUM_RECENT_VALUES );
+		}
+
+		private synchronized void set( double value )
+		{
+			count++;
+			last = value;
+			min = Math.min( min, value );
+			max = Math.max( max, value );
+		}
+
+		public synchronized long getCount()
+		{
+			return count;
+		}
+
+		public synchronized double getTotal()
+		{
+			return total;
+		}
+
+		public synchronized double getLast()
+		{
+			return last;
+		}
+
+		public synchronized double getMean()
+		{
+			return count == 0 ? 0 : total / count;
+		}
+
+		/**
+		 * @param percentile between 0 and 100
+		 * @return the percentile of the most recent values of a timer
+		 */
+		public synchronized double getRecentPercentile( double percentile )
+		{
+			if ( recentValues == null || numRecentValues == 0 ) return 0;
+			final double[] values = Arrays.copyOf( recentValues, numRecentValues );
+			Arrays.sort( values );
+			// nearest rank
+			final int rank = ( int ) Math.ceil( percentile / 100.0 * values.length );
+			return values[ Math.min( values.length - 1, Math.max( 0, rank - 1 ) ) ];
+		}
+
+		private synchronized Map< String, Object > toMap()
+		{
+			final Map< String, Object > map = new LinkedHashMap<>();
+			map.put( "name", name );
+			map.put( "kind", kind.toString() );
+			map.put( "count", count );
+			switch ( kind )
+			{
+				case Timer:
+					map.put( "meanMillis", getMean() );
+					map.put( "minMillis", count == 0 ? 0 : min );
+					map.put( "maxMillis", count == 0 ? 0 : max );
+					map.put( "p50Millis", getRecentPercentile( 50 ) );
+					map.put( "p95Millis", getRecentPercentile( 95 ) );
+					map.put( "lastMillis", last );
+					map.put( "totalMillis", total );
+					break;
+				case Counter:
+					map.put( "total", total );
+					break;
+				case Gauge:
+					map.put( "last", last );
+					map.put( "min", count == 0 ? 0 : min );
+					map.put( "max", count == 0 ? 0 : max );
+					break;
+			}
+			return map;
+		}
+	}
+
+	public static void time( String name, double millis )
+	{
+		getMetric( name, Kind.Timer ).add( millis );
+	}
+
+	public static void timeSince( String name, long startNanos )
+	{
+		time( name, ( System.nanoTime() - startNanos ) / 1000000.0 );
+	}
+
+	public static void count( String name, double amount )
+	{
+		getMetric( name, Kind.Counter ).add( amount );
+	}
+
+	public static void gauge( String name, double value )
+	{
+		getMetric( name, Kind.Gauge ).set( value );
+	}
+
+	public static Metric get( String name )
+	{
+		return nameToMetric.get( name );
+	}
+
+	/**
+	 * @return the ratio of hits to hits plus misses, or NaN if there were none
+	 */
+	public static double getHitRate( String hits, String misses )
+	{
+		final double numHits = get( hits ) == null ? 0 : get( hits ).getTotal();
+		final double numMisses = get( misses ) == null ? 0 : get( misses ).getTotal();
+		return numHits + numMisses == 0 ? Double.NaN : numHits / ( numHits + numMisses );
+	}
+
+	public static List< Metric > getMetrics()
+	{
+		return new ArrayList<>( new TreeMap<>( nameToMetric ).values() );
+	}
+
+	public static void reset()
+	{
+		nameToMetric.clear();
+	}
+
+	public static String toJson()
+	{
+		final List< Map< String, Object > > metrics = new ArrayList<>();
+		for ( Metric metric : getMetrics() )
+			metrics.add( metric.toMap() );
+		return new GsonBuilder().setPrettyPrinting().serializeSpecialFloatingPointValues().create().toJson( metrics );
+	}
+
+	public static String toCsv()
+	{
+		final StringBuilder builder = new StringBuilder( "name,kind,count,total,mean,min,max,p50,p95,last\n" );
+		for ( Metric metric : getMetrics() )
+		{
+			synchronized ( metric )
+			{
+				builder.append( metric.name ).append( ',' )
+						.append( metric.kind ).append( ',' )
+						.append( metric.count ).append( ',' )
+						.append( metric.total ).append( ',' )
+						.append( metric.getMean() ).append( ',' )
+						.append( metric.count == 0 ? 0 : metric.min ).append( ',' )
+						.append( metric.count == 0 ? 0 : metric.max ).append( ',' )
+						.append( metric.getRecentPercentile( 50 ) ).append( ',' )
+						.append( metric.getRecentPercentile( 95 ) ).append( ',' )
+						.append( metric.last ).append( '\n' );
+			}
+		}
+		return builder.toString();
+	}
+
+	private static Metric getMetric( String name, Kind kind )
+	{
+		return nameToMetric.computeIfAbsent( name, n -> new Metric( n, kind ) );
+	}
+}
@@ -0,0 +1,322 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.plugins.platybrowser;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Block-level occupancy of a gene expression image, i.e. the number
+ * of non-zero voxels in each block of {@link #BLOCK_SIZE}^3 voxels.
+ *
+ * A search only reads the voxels of blocks that are both partially
+ * expressed and cut by the search sphere. Blocks without expression are
+ * skipped, and blocks that are fully expressed or fully inside the sphere
+ * are counted from the index.
+ *
+ * The index is cached on disk, keyed by the location of the gene
+ * in the project, such that it is only built once. A cached index is
+ * only used as long as the version of the image, e.g. its modification
+ * time, is the same as when the index was built.
+ */
+public class GeneExpressionIndex
+{
+	public static final int BLOCK_SIZE = 16; // BLOCK_SIZE^3 must fit into a short
+	private static File cacheDirectory = new File( System.getProperty( "user.home" ), ".mobie" + File.separator + "cache" + File.separator + "gene-search" );
+	private static final int MAGIC = 0x4d6f4247; // "MoBG"
+	private static final int FORMAT_VERSION = 2;
+
+	private final long[] dimensions;
+	private final long[] gridDimensions;
+	private final short[] counts;
+
+	private GeneExpressionIndex( long[] dimensions, short[] counts )
+	{
+		this.dimensions = dimensions;
+		this.gridDimensions = new long[ 3 ];
+		for ( int d = 0; d < 3; d++ )
+			gridDimensions[ d ] = ( dimensions[ d ] + BLOCK_SIZE - 1 ) / BLOCK_SIZE;
+		this.counts = counts == null ? new short[ ( int ) ( gridDimensions[ 0 ] * gridDimensions[ 1 ] * gridDimensions[ 2 ] ) ] : counts;
+	}
+
+	public static < T extends RealType< T > > GeneExpressionIndex build( RandomAccessibleInterval< T > rai )
+	{
+		final GeneExpressionIndex index = new GeneExpressionIndex( rai.dimensionsAsLongArray(), null );
+
+		final Cursor< T > cursor = Views.flatIterable( Views.zeroMin( rai ) ).localizingCursor();
+		while ( cursor.hasNext() )
+		{
+			if ( cursor.next().getRealDouble() == 0 ) continue;
+			index.counts[ index.blockIndex(
+					cursor.getLongPosition( 0 ) / BLOCK_SIZE,
+					cursor.getLongPosition( 1 ) / BLOCK_SIZE,
+					cursor.getLongPosition( 2 ) / BLOCK_SIZE ) ]++;
+		}
+
+		return index;
+	}
+
+	/**
+	 * The search region is the same as the one of
+	 * {@link GeneSearch.GeneSearchUtils#getFractionOfNonZeroVoxels}.
+	 * Voxels outside of the image count as not expressed.
+	 *
+	 * @param rai the image from which the index was built
+	 * @return the fraction of non-zero voxels within the radius around the position
+	 */
+	public < T extends RealType< T > > double getFractionOfNonZeroVoxels( RandomAccessibleInterval< T > rai, double[] position, double radius, double calibration )
+	{
+		final long[] center = new long[ 3 ];
+		for ( int d = 0; d < 3; d++ )
+			center[ d ] = ( long ) ( position[ d ] / calibration ) - rai.min( d );
+		final long r = ( long ) Math.ceil( radius / calibration );
+
+		final long[] minBlock = new long[ 3 ];
+		final long[] maxBlock = new long[ 3 ];
+		for ( int d = 0; d < 3; d++ )
+		{
+			minBlock[ d ] = Math.max( 0, center[ d ] - r ) / BLOCK_SIZE;
+			maxBlock[ d ] = Math.min( dimensions[ d ] - 1, center[ d ] + r ) / BLOCK_SIZE;
+			if ( center[ d ] + r < 0 || center[ d ] - r > dimensions[ d ] - 1 )
+				return 0.0;
+		}
+
+		final RandomAccess< T > access = Views.zeroMin( rai ).randomAccess();
+		final long[] min = new long[ 3 ];
+		final long[] max = new long[ 3 ];
+		long numNonZeroVoxels = 0;
+		for ( long bz = minBlock[ 2 ]; bz <= maxBlock[ 2 ]; bz++ )
+			for ( long by = minBlock[ 1 ]; by <= maxBlock[ 1 ]; by++ )
+				for ( long bx = minBlock[ 0 ]; bx <= maxBlock[ 0 ]; bx++ )
+				{
+					final int count = counts[ blockIndex( bx, by, bz ) ];
+					if ( count == 0 ) continue;
+
+					final long[] block = { bx, by, bz };
+					long numBlockVoxels = 1;
+					for ( int d = 0; d < 3; d++ )
+					{
+						min[ d ] = block[ d ] * BLOCK_SIZE;
+						max[ d ] = Math.min( min[ d ] + BLOCK_SIZE, dimensions[ d ] ) - 1;
+						numBlockVoxels *= max[ d ] - min[ d ] + 1;
+					}
+
+					if ( minSquaredDistance( center, min, max ) > r * r ) continue;
+
+					if ( maxSquaredDistance( center, min, max ) <= r * r )
+						numNonZeroVoxels += count;
+					else if ( count == numBlockVoxels )
+						numNonZeroVoxels += countSphereVoxels( center, r, min, max, null );
+					else
+						numNonZeroVoxels += countSphereVoxels( center, r, min, max, access );
+				}
+
+		return 1.0 * numNonZeroVoxels / numSphereVoxels( r );
+	}
+
+	public static File getCacheDirectory()
+	{
+		return cacheDirectory;
+	}
+
+	public static void setCacheDirectory( File cacheDirectory )
+	{
+		GeneExpressionIndex.cacheDirectory = cacheDirectory;
+	}
+
+	/**
+	 * @param key the location of the gene image
+	 * @param version the version of the gene image, see {@link org.embl.mobie.viewer.source.SourceMetadata#getVersion}
+	 * @param dimensions the dimensions of the gene image
+	 * @return the cached index, or null if there is none, the version is unknown,
+	 * or the index does not fit the image
+	 */
+	public static GeneExpressionIndex read( String key, String version, long[] dimensions )
+	{
+		if ( version == null ) return null;
+
+		final File file = getCacheFile( key );
+		if ( ! file.exists() ) return null;
+
+		try ( DataInputStream in = new DataInputStream( Files.newInputStream( file.toPath() ) ) )
+		{
+			if ( in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || in.readInt() != BLOCK_SIZE )
+				return null;
+			if ( ! key.equals( in.readUTF() ) || ! version.equals( in.readUTF() ) )
+				return null;
+			final long[] indexDimensions = { in.readLong(), in.readLong(), in.readLong() };
+			if ( ! Arrays.equals( indexDimensions, dimensions ) )
+				return null;
+			final short[] counts = new short[ in.readInt() ];
+			for ( int i = 0; i < counts.length; i++ )
+				counts[ i ] = in.readShort();
+			return new GeneExpressionIndex( indexDimensions, counts );
+		}
+		catch ( Exception e )
+		{
+			// a corrupt cache entry is simply ignored and overwritten later
+			return null;
+		}
+	}
+
+	/**
+	 * Does nothing if the version of the image is unknown,
+	 * as such an index could not be validated when it is read.
+	 */
+	public void write( String key, String version )
+	{
+		if ( version == null ) return;
+
+		final File file = getCacheFile( key );
+		try
+		{
+			Files.createDirectories( cacheDirectory.toPath() );
+			final File tmp = File.createTempFile( file.getName(), ".tmp", cacheDirectory );
+			try ( DataOutputStream out = new DataOutputStream( Files.newOutputStream( tmp.toPath() ) ) )
+			{
+				out.writeInt( MAGIC );
+				out.writeInt( FORMAT_VERSION );
+				out.writeInt( BLOCK_SIZE );
+				out.writeUTF( key );
+				out.writeUTF( version );
+				for ( int d = 0; d < 3; d++ )
+					out.writeLong( dimensions[ d ] );
+				out.writeInt( counts.length );
+				for ( short count : counts )
+					out.writeShort( count );
+			}
+			Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+		}
+		catch ( IOException e )
+		{
+			System.err.println( "Could not cache gene expression index of " + key + ": " + e.getMessage() );
+		}
+	}
+
+	private int blockIndex( long bx, long by, long bz )
+	{
+		return ( int ) ( ( bz * gridDimensions[ 1 ] + by ) * gridDimensions[ 0 ] + bx );
+	}
+
+	/**
+	 * @param access if null, all voxels count as non-zero
+	 */
+	private static < T extends RealType< T > > long countSphereVoxels( long[] center, long r, long[] min, long[] max, RandomAccess< T > access )
+	{
+		long numVoxels = 0;
+		for ( long z = min[ 2 ]; z <= max[ 2 ]; z++ )
+			for ( long y = min[ 1 ]; y <= max[ 1 ]; y++ )
+				for ( long x = min[ 0 ]; x <= max[ 0 ]; x++ )
+				{
+					final long dx = x - center[ 0 ], dy = y - center[ 1 ], dz = z - center[ 2 ];
+					if ( dx * dx + dy * dy + dz * dz > r * r ) continue;
+
+					if ( access == null )
+					{
+						numVoxels++;
+						continue;
+					}
+
+					access.setPosition( x, 0 );
+					access.setPosition( y, 1 );
+					access.setPosition( z, 2 );
+					if ( access.get().getRealDouble() != 0 )
+						numVoxels++;
+				}
+		return numVoxels;
+	}
+
+	private static long numSphereVoxels( long r )
+	{
+		long numVoxels = 0;
+		for ( long z = -r; z <= r; z++ )
+			for ( long y = -r; y <= r; y++ )
+			{
+				final long remaining = r * r - z * z - y * y;
+				if ( remaining < 0 ) continue;
+				numVoxels += 2 * ( long ) Math.floor( Math.sqrt( remaining ) ) + 1;
+			}
+		return numVoxels;
+	}
+
+	private static long minSquaredDistance( long[] center, long[] min, long[] max )
+	{
+		long distance = 0;
+		for ( int d = 0; d < 3; d++ )
+		{
+			final long delta = center[ d ] < min[ d ] ? min[ d ] - center[ d ] : center[ d ] > max[ d ] ? center[ d ] - max[ d ] : 0;
+			distance += delta * delta;
+		}
+		return distance;
+	}
+
+	private static long maxSquaredDistance( long[] center, long[] min, long[] max )
+	{
+		long distance = 0;
+		for ( int d = 0; d < 3; d++ )
+		{
+			final long delta = Math.max( Math.abs( center[ d ] - min[ d ] ), Math.abs( max[ d ] - center[ d ] ) );
+			distance += delta * delta;
+		}
+		return distance;
+	}
+
+	private static File getCacheFile( String key )
+	{
+		return new File( cacheDirectory, hash( key ) + ".idx" );
+	}
+
+	private static String hash( String string )
+	{
+		try
+		{
+			final byte[] digest = MessageDigest.getInstance( "SHA-1" ).digest( string.getBytes( StandardCharsets.UTF_8 ) );
+			return String.format( "%040x", new BigInteger( 1, digest ) );
+		}
+		catch ( NoSuchAlgorithmException e )
+		{
+			throw new RuntimeException( e );
+		}
+	}
+}
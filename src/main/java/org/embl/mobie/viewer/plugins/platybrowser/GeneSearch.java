@@ -46,6 +46,7 @@ import org.embl.mobie.viewer.Dataset;
 import org.embl.mobie.viewer.MoBIE;
 import org.embl.mobie.viewer.MultiThreading;
 import org.embl.mobie.viewer.source.ImageSource;
+import org.embl.mobie.viewer.source.SourceMetadata;
 import org.embl.mobie.viewer.view.View;
 
 import javax.swing.*;
@@ -58,7 +59,10 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 import static org.embl.mobie.viewer.plugins.platybrowser.GeneSearch.GeneSearchUtils.getFractionOfNonZeroVoxels;
@@ -74,6 +78,16 @@ public class GeneSearch
 	private Map< String, Double > localExpression;
 	private Collection< String > prosprSourceNames;
 	private static Map< String, SourceAndConverter< ? > > prosprSources;
+	private static final Map< String, GeneExpressionIndex > geneIndices = new ConcurrentHashMap<>();
+	private static final Set< String > indexedGenes = ConcurrentHashMap.newKeySet();
+
+	// the indices are built one after the other, such that they do not compete with the searches
+	private static final ExecutorService indexExecutorService = Executors.newSingleThreadExecutor( runnable -> {
+		final Thread thread = new Thread( runnable, "MoBIE gene index" );
+		thread.setDaemon( true );
+		thread.setPriority( Thread.MIN_PRIORITY );
+		return thread;
+	} );
 
 	public GeneSearch( double micrometerRadius,
 					   double[] micrometerPosition,
@@ -142,7 +156,17 @@ public class GeneSearch
 
 		final VoxelDimensions voxelDimensions = source.getVoxelDimensions();
 
-		final double fractionOfNonZeroVoxels = getFractionOfNonZeroVoxels(
+		final GeneExpressionIndex index = getIndex( source.getName(), rai );
+
+		final double fractionOfNonZeroVoxels;
+		if ( index != null )
+			fractionOfNonZeroVoxels = index.getFractionOfNonZeroVoxels(
+				( RandomAccessibleInterval ) rai,
+				micrometerPosition,
+				micrometerRadius,
+				voxelDimensions.dimension( 0 ) );
+		else
+			fractionOfNonZeroVoxels = getFractionOfNonZeroVoxels(
 				( RandomAccessibleInterval ) rai,
 				micrometerPosition,
 				micrometerRadius,
@@ -153,6 +177,45 @@ public class GeneSearch
 		IJ.log( "Gene Search: Fraction of non-zero voxels in search region: " + source.getName() + ": " + fractionOfNonZeroVoxels );
 	}
 
+	/**
+	 * @return the index of the gene, or null if it is not available yet,
+	 * in which case it is built in the background for subsequent searches
+	 */
+	private GeneExpressionIndex getIndex( String gene, RandomAccessibleInterval< ? > rai )
+	{
+		if ( geneIndices.containsKey( gene ) )
+			return geneIndices.get( gene );
+
+		final String key = moBIE.getDatasetPath( gene );
+		final String version = SourceMetadata.getVersion( moBIE.getImagePath( gene ) );
+		final GeneExpressionIndex cachedIndex = GeneExpressionIndex.read( key, version, rai.dimensionsAsLongArray() );
+		if ( cachedIndex != null )
+		{
+			geneIndices.put( gene, cachedIndex );
+			return cachedIndex;
+		}
+
+		if ( indexedGenes.add( gene ) )
+		{
+			indexExecutorService.submit( () -> {
+				try
+				{
+					final GeneExpressionIndex index = GeneExpressionIndex.build( ( RandomAccessibleInterval ) rai );
+					index.write( key, version );
+					geneIndices.put( gene, index );
+				}
+				catch ( Exception e )
+				{
+					// allow a later search to try again
+					indexedGenes.remove( gene );
+					IJ.log( "[WARN] Could not build the expression index of " + gene + ": " + e.getMessage() );
+				}
+			} );
+		}
+
+		return null;
+	}
+
 	private void removeGenesWithZeroExpression( Map< String, Double > localSortedExpression)
 	{
 		ArrayList< String > sortedNames = new ArrayList( localSortedExpression.keySet() );
@@ -0,0 +1,729 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.projectcreator;
+
+import bdv.img.n5.BdvN5Format;
+import bdv.img.n5.N5ImageLoader;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+import mpicbg.spim.data.SpimData;
+import mpicbg.spim.data.SpimDataException;
+import mpicbg.spim.data.XmlIoSpimData;
+import mpicbg.spim.data.registration.ViewRegistration;
+import mpicbg.spim.data.registration.ViewRegistrations;
+import mpicbg.spim.data.sequence.Angle;
+import mpicbg.spim.data.sequence.Channel;
+import mpicbg.spim.data.sequence.Illumination;
+import mpicbg.spim.data.sequence.SequenceDescription;
+import mpicbg.spim.data.sequence.TimePoint;
+import mpicbg.spim.data.sequence.TimePoints;
+import mpicbg.spim.data.sequence.ViewSetup;
+import mpicbg.spim.data.sequence.VoxelDimensions;
+import net.imglib2.Cursor;
+import net.imglib2.FinalDimensions;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.cache.img.CellLoader;
+import net.imglib2.cache.img.DiskCachedCellImgOptions;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgFactory;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgOptions;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.display.imagej.ImageJFunctions;
+import net.imglib2.iterator.LocalizingIntervalIterator;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+import org.embl.mobie.io.n5.util.DownsampleBlock;
+import org.janelia.saalfeldlab.n5.Bzip2Compression;
+import org.janelia.saalfeldlab.n5.Compression;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.GzipCompression;
+import org.janelia.saalfeldlab.n5.Lz4Compression;
+import org.janelia.saalfeldlab.n5.N5FSWriter;
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.RawCompression;
+import org.janelia.saalfeldlab.n5.XzCompression;
+import org.janelia.saalfeldlab.n5.blosc.BloscCompression;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+import org.janelia.saalfeldlab.n5.zarr.N5ZarrWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Writes a multi-resolution pyramid of a single channel image to BDV N5 or OME-Zarr.
+ *
+ * The blocks of each resolution level are read, downsampled, compressed and written concurrently.
+ * Lower resolution levels are computed from the previously written level whenever the
+ * downsampling factors allow it. The amount of block data that is in flight at any time
+ * is bounded by a memory budget, such that images that are much larger than the available
+ * memory can be written.
+ */
+public class ImagePyramidWriter {
+
+    public enum Codec {
+        Raw,
+        Gzip,
+        Lz4,
+        BloscLz4,
+        BloscZstd;
+
+        public Compression createCompression() {
+            switch ( this ) {
+                case Raw:
+                    return new RawCompression();
+                case Lz4:
+                    return new Lz4Compression();
+                case BloscLz4:
+                    return new BloscCompression( "lz4", 5, BloscCompression.SHUFFLE, 0, 1 );
+                case BloscZstd:
+                    return new BloscCompression( "zstd", 5, BloscCompression.SHUFFLE, 0, 1 );
+                case Gzip:
+                default:
+                    return new GzipCompression();
+            }
+        }
+    }
+
+    private static final int KIBIBYTE = 1024;
+    private static final double MEBIBYTE = 1024.0 * 1024.0;
+
+    private final int numThreads;
+    private final long maxInFlightBytes;
+    private final DownsampleBlock.DownsamplingMethod downsamplingMethod;
+
+    /**
+     * @param numThreads number of threads that concurrently downsample and write blocks
+     * @param maxInFlightBytes upper bound for the memory that is used by blocks which are currently processed
+     * @param downsamplingMethod Average for intensity images, Centre for label images
+     */
+    public ImagePyramidWriter( int numThreads, long maxInFlightBytes, DownsampleBlock.DownsamplingMethod downsamplingMethod ) {
+        this.numThreads = Math.max( 1, numThreads );
+        this.maxInFlightBytes = Math.max( KIBIBYTE, maxInFlightBytes );
+        this.downsamplingMethod = downsamplingMethod;
+    }
+
+    /**
+     * Same as {@link #asXYZT(ImagePlus)}, but virtual stacks are streamed: their planes are read lazily,
+     * while the blocks are written, and only a bounded number of planes is kept in memory.
+     *
+     * @param imp single channel image
+     * @param planeCacheBudget memory budget in bytes for caching planes of virtual stacks
+     * @param minCachedPlanes number of planes that is cached regardless of the budget,
+     *                        typically the chunk size along z of the full resolution level
+     * @return 4D view on the image data
+     */
+    public static < T extends RealType< T > & NativeType< T > > RandomAccessibleInterval< T > asXYZT( ImagePlus imp,
+                                                                                                    long planeCacheBudget,
+                                                                                                    int minCachedPlanes ) {
+        if ( imp.getStack().isVirtual() ) {
+            return openVirtualStack( imp, planeCacheBudget, minCachedPlanes );
+        } else {
+            return asXYZT( imp );
+        }
+    }
+
+    /**
+     * Wraps a single channel ImagePlus as a 4D (x,y,z,t) image, adding singleton dimensions where needed.
+     *
+     * @param imp single channel image
+     * @return 4D view on the image data
+     */
+    public static < T extends RealType< T > & NativeType< T > > RandomAccessibleInterval< T > asXYZT( ImagePlus imp ) {
+        RandomAccessibleInterval< T > rai = ImageJFunctions.wrapReal( imp );
+
+        if ( imp.getNSlices() == 1 ) {
+            rai = Views.addDimension( rai, 0, 0 );
+            if ( imp.getNFrames() > 1 ) {
+                // x,y,t,z => x,y,z,t
+                rai = Views.permute( rai, 2, 3 );
+            }
+        }
+
+        if ( imp.getNFrames() == 1 ) {
+            rai = Views.addDimension( rai, 0, 0 );
+        }
+
+        return rai;
+    }
+
+    private static < T extends RealType< T > & NativeType< T > > RandomAccessibleInterval< T > openVirtualStack(
+            ImagePlus imp, long planeCacheBudget, int minCachedPlanes ) {
+        final T type = createType( imp );
+        final long planeBytes = ( long ) imp.getWidth() * imp.getHeight() * imp.getBytesPerPixel();
+        final long maxCachedPlanes = Math.max( minCachedPlanes, planeCacheBudget / planeBytes );
+        IJ.log( "Streaming virtual stack " + imp.getTitle() + ", caching up to " + maxCachedPlanes + " plane(s)." );
+
+        final ImageStack stack = imp.getStack();
+        final CellLoader< T > planeLoader = cell -> {
+            final int z = ( int ) cell.min( 2 );
+            final int t = ( int ) cell.min( 3 );
+            final ImageProcessor processor;
+            // virtual stacks are not necessarily thread safe
+            synchronized ( stack ) {
+                processor = stack.getProcessor( imp.getStackIndex( 1, z + 1, t + 1 ) );
+            }
+
+            final Cursor< T > cursor = cell.cursor();
+            int index = 0;
+            while ( cursor.hasNext() ) {
+                cursor.next().setReal( processor.getf( index++ ) );
+            }
+        };
+
+        return new ReadOnlyCachedCellImgFactory().create(
+                new long[]{ imp.getWidth(), imp.getHeight(), imp.getNSlices(), imp.getNFrames() },
+                type,
+                planeLoader,
+                ReadOnlyCachedCellImgOptions.options()
+                        .cellDimensions( imp.getWidth(), imp.getHeight(), 1, 1 )
+                        .cacheType( DiskCachedCellImgOptions.CacheType.BOUNDED )
+                        .maxCacheSize( maxCachedPlanes ) );
+    }
+
+    private static < T extends RealType< T > & NativeType< T > > T createType( ImagePlus imp ) {
+        switch ( imp.getBitDepth() ) {
+            case 8:
+                return ( T ) new UnsignedByteType();
+            case 16:
+                return ( T ) new UnsignedShortType();
+            case 32:
+                return ( T ) new FloatType();
+            default:
+                throw new UnsupportedOperationException( "Streaming of " + imp.getBitDepth() + " bit images is not supported." );
+        }
+    }
+
+    /**
+     * Write a BDV N5 image, i.e. the n5 data next to a BDV xml file.
+     *
+     * @param xyzt image data
+     * @param xmlPath path of the xml, the n5 will be written next to it
+     * @param imageName name of the view setup
+     * @param voxelDimensions voxel size
+     * @param sourceTransform transformation of the full resolution level
+     * @param resolutions downsampling factors of each level, e.g. new int[][]{ {1,1,1}, {2,2,2} }
+     * @param subdivisions chunk size of each level, e.g. new int[][]{ {64,64,64}, {64,64,64} }
+     * @param compression compression of the blocks
+     * @throws IOException
+     * @throws SpimDataException
+     */
+    public < T extends RealType< T > & NativeType< T > > void writeBdvN5( RandomAccessibleInterval< T > xyzt,
+                                                                        String xmlPath, String imageName,
+                                                                        VoxelDimensions voxelDimensions,
+                                                                        AffineTransform3D sourceTransform,
+                                                                        int[][] resolutions, int[][] subdivisions,
+                                                                        Compression compression ) throws IOException, SpimDataException {
+        final File xmlFile = new File( xmlPath );
+        final File n5File = new File( xmlPath.replaceAll( "\\.xml$", "" ) + ".n5" );
+        final int numTimepoints = ( int ) xyzt.dimension( 3 );
+        final DataType dataType = N5Utils.dataType( Util.getTypeFromInterval( xyzt ) );
+
+        final N5FSWriter n5 = new N5FSWriter( n5File.getAbsolutePath() );
+        final String setupPath = BdvN5Format.getPathName( 0 );
+        n5.createGroup( setupPath );
+        n5.setAttribute( setupPath, BdvN5Format.DOWNSAMPLING_FACTORS_KEY, resolutions );
+        n5.setAttribute( setupPath, BdvN5Format.DATA_TYPE_KEY, dataType );
+
+        final double[] voxelSize = new double[ 3 ];
+        voxelDimensions.dimensions( voxelSize );
+        final long startTime = System.currentTimeMillis();
+        final ExecutorService executorService = Executors.newFixedThreadPool( numThreads );
+        try {
+            for ( int t = 0; t < numTimepoints; t++ ) {
+                final String timepointPath = BdvN5Format.getPathName( 0, t );
+                n5.createGroup( timepointPath );
+                n5.setAttribute( timepointPath, "multiScale", true );
+                n5.setAttribute( timepointPath, "resolution", voxelSize );
+
+                final RandomAccessibleInterval< T > volume = Views.hyperSlice( xyzt, 3, t );
+                final String[] paths = new String[ resolutions.length ];
+                final DatasetAttributes[] attributes = new DatasetAttributes[ resolutions.length ];
+                for ( int level = 0; level < resolutions.length; level++ ) {
+                    paths[ level ] = BdvN5Format.getPathName( 0, t, level );
+                    attributes[ level ] = new DatasetAttributes( getLevelDimensions( volume, resolutions[ level ] ),
+                            subdivisions[ level ], dataType, compression );
+                    n5.createDataset( paths[ level ], attributes[ level ] );
+                    n5.setAttribute( paths[ level ], BdvN5Format.DOWNSAMPLING_FACTORS_KEY, resolutions[ level ] );
+                }
+
+                writeLevels( n5, volume, paths, attributes, resolutions, new long[ 0 ], executorService );
+            }
+        } finally {
+            executorService.shutdown();
+        }
+
+        writeBdvXml( xyzt, xmlFile, n5File, imageName, voxelDimensions, sourceTransform );
+        logThroughput( "Wrote " + imageName, Intervals.numElements( xyzt ) * getBytesPerVoxel( xyzt ), startTime );
+    }
+
+    /**
+     * Write an OME-Zarr image (version 0.4), with t,c,z,y,x axes.
+     *
+     * @param xyzt image data
+     * @param zarrPath path of the .ome.zarr directory
+     * @param imageName name of the multiscales image
+     * @param voxelDimensions voxel size
+     * @param resolutions downsampling factors of each level, e.g. new int[][]{ {1,1,1}, {2,2,2} }
+     * @param subdivisions chunk size of each level, e.g. new int[][]{ {64,64,64}, {64,64,64} }
+     * @param compression compression of the chunks, codecs that zarr does not support are replaced by blosc
+     * @throws IOException
+     */
+    public < T extends RealType< T > & NativeType< T > > void writeOmeZarr( RandomAccessibleInterval< T > xyzt,
+                                                                          String zarrPath, String imageName,
+                                                                          VoxelDimensions voxelDimensions,
+                                                                          int[][] resolutions, int[][] subdivisions,
+                                                                          Compression compression ) throws IOException {
+        final long numTimepoints = xyzt.dimension( 3 );
+        final DataType dataType = N5Utils.dataType( Util.getTypeFromInterval( xyzt ) );
+        final Compression zarrCompression = toZarrCompression( compression );
+
+        final N5ZarrWriter n5 = new N5ZarrWriter( zarrPath );
+        n5.createGroup( "/" );
+
+        final RandomAccessibleInterval< T > firstVolume = Views.hyperSlice( xyzt, 3, 0 );
+        final String[] paths = new String[ resolutions.length ];
+        final DatasetAttributes[] attributes = new DatasetAttributes[ resolutions.length ];
+        for ( int level = 0; level < resolutions.length; level++ ) {
+            final long[] dimensions = getLevelDimensions( firstVolume, resolutions[ level ] );
+            final int[] blockSize = subdivisions[ level ];
+            paths[ level ] = "s" + level;
+            attributes[ level ] = new DatasetAttributes(
+                    new long[]{ dimensions[ 0 ], dimensions[ 1 ], dimensions[ 2 ], 1, numTimepoints },
+                    new int[]{ blockSize[ 0 ], blockSize[ 1 ], blockSize[ 2 ], 1, 1 },
+                    dataType, zarrCompression );
+            n5.createDataset( paths[ level ], attributes[ level ] );
+        }
+        n5.setAttribute( "/", "multiscales", createMultiscales( imageName, voxelDimensions, paths, resolutions ) );
+
+        final long startTime = System.currentTimeMillis();
+        final ExecutorService executorService = Executors.newFixedThreadPool( numThreads );
+        try {
+            for ( int t = 0; t < numTimepoints; t++ ) {
+                writeLevels( n5, Views.hyperSlice( xyzt, 3, t ), paths, attributes, resolutions,
+                        new long[]{ 0, t }, executorService );
+            }
+        } finally {
+            executorService.shutdown();
+        }
+
+        logThroughput( "Wrote " + imageName, Intervals.numElements( xyzt ) * getBytesPerVoxel( xyzt ), startTime );
+    }
+
+    private < T extends RealType< T > & NativeType< T > > void writeLevels( N5Writer n5,
+                                                                          RandomAccessibleInterval< T > volume,
+                                                                          String[] paths,
+                                                                          DatasetAttributes[] attributes,
+                                                                          int[][] resolutions,
+                                                                          long[] extraGridPosition,
+                                                                          ExecutorService executorService ) throws IOException {
+        for ( int level = 0; level < resolutions.length; level++ ) {
+            RandomAccessibleInterval< T > source = volume;
+            int[] relativeFactors = resolutions[ level ];
+
+            // downsample from the previous level, if the factors allow it
+            if ( level > 0 && isMultipleOf( resolutions[ level ], resolutions[ level - 1 ] ) ) {
+                source = openWrittenLevel( n5, paths[ level - 1 ], attributes[ level - 1 ], getBytesPerVoxel( volume ),
+                        extraGridPosition );
+                relativeFactors = new int[ 3 ];
+                for ( int d = 0; d < 3; d++ ) {
+                    relativeFactors[ d ] = resolutions[ level ][ d ] / resolutions[ level - 1 ][ d ];
+                }
+            }
+
+            writeLevel( n5, source, paths[ level ], attributes[ level ], relativeFactors, extraGridPosition,
+                    executorService );
+        }
+    }
+
+    private < T extends RealType< T > & NativeType< T > > void writeLevel( N5Writer n5,
+                                                                         RandomAccessibleInterval< T > source,
+                                                                         String path,
+                                                                         DatasetAttributes attributes,
+                                                                         int[] factors,
+                                                                         long[] extraGridPosition,
+                                                                         ExecutorService executorService ) throws IOException {
+        final long startTime = System.currentTimeMillis();
+        final long[] dimensions = getLevelDimensions( source, factors );
+        final int[] blockSize = attributes.getBlockSize();
+        final long[] numBlocks = new long[ 3 ];
+        for ( int d = 0; d < 3; d++ ) {
+            numBlocks[ d ] = ( dimensions[ d ] + blockSize[ d ] - 1 ) / blockSize[ d ];
+        }
+
+        final int bytesPerVoxel = getBytesPerVoxel( source );
+        final int budgetKiB = ( int ) Math.min( Integer.MAX_VALUE, maxInFlightBytes / KIBIBYTE );
+        final Semaphore inFlightKiB = new Semaphore( budgetKiB );
+        // a single block that exceeds the budget is processed on its own
+        final int permits = Math.min( getBlockKiB( blockSize, bytesPerVoxel ), budgetKiB );
+        final AtomicReference< Throwable > failure = new AtomicReference<>();
+        final List< Future< ? > > futures = new ArrayList<>();
+
+        final LocalizingIntervalIterator gridIterator = new LocalizingIntervalIterator( numBlocks );
+        while ( gridIterator.hasNext() && failure.get() == null ) {
+            gridIterator.fwd();
+            final long[] gridPosition = new long[ 3 ];
+            gridIterator.localize( gridPosition );
+
+            acquire( inFlightKiB, permits );
+            futures.add( executorService.submit( () -> {
+                try {
+                    writeBlock( n5, source, path, attributes, factors, dimensions, gridPosition, extraGridPosition );
+                } catch ( Throwable e ) {
+                    failure.compareAndSet( null, e );
+                } finally {
+                    inFlightKiB.release( permits );
+                }
+            } ) );
+        }
+
+        for ( Future< ? > future : futures ) {
+            try {
+                future.get();
+            } catch ( InterruptedException | ExecutionException e ) {
+                throw new IOException( e );
+            }
+        }
+
+        if ( failure.get() != null ) {
+            throw new IOException( "Could not write " + path, failure.get() );
+        }
+
+        logThroughput( "Wrote " + path + " (" + futures.size() + " blocks)",
+                Intervals.numElements( dimensions ) * bytesPerVoxel, startTime );
+    }
+
+    private < T extends RealType< T > & NativeType< T > > void writeBlock( N5Writer n5,
+                                                                         RandomAccessibleInterval< T > source,
+                                                                         String path,
+                                                                         DatasetAttributes attributes,
+                                                                         int[] factors,
+                                                                         long[] dimensions,
+                                                                         long[] gridPosition,
+                                                                         long[] extraGridPosition ) throws IOException {
+        final int[] blockSize = attributes.getBlockSize();
+        final long[] min = new long[ 3 ];
+        final long[] max = new long[ 3 ];
+        for ( int d = 0; d < 3; d++ ) {
+            min[ d ] = gridPosition[ d ] * blockSize[ d ];
+            max[ d ] = Math.min( min[ d ] + blockSize[ d ], dimensions[ d ] ) - 1;
+        }
+        final FinalInterval interval = new FinalInterval( min, max );
+
+        RandomAccessibleInterval< T > block;
+        if ( factors[ 0 ] == 1 && factors[ 1 ] == 1 && factors[ 2 ] == 1 ) {
+            block = Views.interval( source, interval );
+        } else {
+            block = downsample( source, interval, factors );
+        }
+
+        final long[] gridOffset = new long[ 3 + extraGridPosition.length ];
+        System.arraycopy( gridPosition, 0, gridOffset, 0, 3 );
+        for ( int i = 0; i < extraGridPosition.length; i++ ) {
+            block = Views.addDimension( block, 0, 0 );
+            gridOffset[ 3 + i ] = extraGridPosition[ i ];
+        }
+
+        N5Utils.saveBlock( block, n5, path, attributes, gridOffset );
+    }
+
+    private < T extends RealType< T > & NativeType< T > > RandomAccessibleInterval< T > downsample(
+            RandomAccessibleInterval< T > source, Interval target, int[] factors ) {
+        final long[] targetDimensions = Intervals.dimensionsAsLongArray( target );
+        final Img< T > output = new ArrayImgFactory<>( Util.getTypeFromInterval( source ).createVariable() )
+                .create( targetDimensions );
+
+        if ( downsamplingMethod == DownsampleBlock.DownsamplingMethod.Average ) {
+            final long[] sourceMin = new long[ 3 ];
+            final long[] sourceMax = new long[ 3 ];
+            for ( int d = 0; d < 3; d++ ) {
+                sourceMin[ d ] = target.min( d ) * factors[ d ];
+                sourceMax[ d ] = Math.min( ( target.max( d ) + 1 ) * factors[ d ] - 1, source.max( d ) );
+            }
+
+            final int numElements = ( int ) Intervals.numElements( targetDimensions );
+            final double[] sums = new double[ numElements ];
+            final int[] counts = new int[ numElements ];
+            final long[] position = new long[ 3 ];
+            final Cursor< T > sourceCursor = Views.interval( source, sourceMin, sourceMax ).localizingCursor();
+            while ( sourceCursor.hasNext() ) {
+                final double value = sourceCursor.next().getRealDouble();
+                sourceCursor.localize( position );
+                int index = 0;
+                int stride = 1;
+                for ( int d = 0; d < 3; d++ ) {
+                    index += ( position[ d ] / factors[ d ] - target.min( d ) ) * stride;
+                    stride *= targetDimensions[ d ];
+                }
+                sums[ index ] += value;
+                counts[ index ]++;
+            }
+
+            // array images are iterated in flat order, matching the index above
+            final Cursor< T > outputCursor = output.cursor();
+            int index = 0;
+            while ( outputCursor.hasNext() ) {
+                outputCursor.next().setReal( counts[ index ] > 0 ? sums[ index ] / counts[ index ] : 0 );
+                index++;
+            }
+        } else {
+            // take the centre voxel, which keeps label ids intact
+            final RandomAccess< T > sourceAccess = source.randomAccess();
+            final Cursor< T > outputCursor = output.localizingCursor();
+            final long[] position = new long[ 3 ];
+            while ( outputCursor.hasNext() ) {
+                outputCursor.fwd();
+                outputCursor.localize( position );
+                for ( int d = 0; d < 3; d++ ) {
+                    final long sourcePosition = ( position[ d ] + target.min( d ) ) * factors[ d ] + factors[ d ] / 2;
+                    sourceAccess.setPosition( Math.min( sourcePosition, source.max( d ) ), d );
+                }
+                outputCursor.get().set( sourceAccess.get() );
+            }
+        }
+
+        return output;
+    }
+
+    private < T extends RealType< T > & NativeType< T > > RandomAccessibleInterval< T > openWrittenLevel(
+            N5Writer n5, String path, DatasetAttributes attributes, int bytesPerVoxel,
+            long[] extraGridPosition ) throws IOException {
+        // bound the number of cached blocks, such that a level is not accumulated in memory while being read
+        final int blockKiB = getBlockKiB( attributes.getBlockSize(), bytesPerVoxel );
+        final int maxNumCells = ( int ) Math.max( 8L * numThreads, maxInFlightBytes / KIBIBYTE / blockKiB );
+        RandomAccessibleInterval< T > level = N5Utils.openWithBoundedSoftRefCache( n5, path, maxNumCells );
+        // the block size along the extra dimensions is 1, thus grid position == voxel position
+        for ( int i = extraGridPosition.length - 1; i >= 0; i-- ) {
+            level = Views.hyperSlice( level, 3 + i, extraGridPosition[ i ] );
+        }
+        return level;
+    }
+
+    private void writeBdvXml( RandomAccessibleInterval< ? > xyzt, File xmlFile, File n5File, String imageName,
+                              VoxelDimensions voxelDimensions,
+                              AffineTransform3D sourceTransform ) throws SpimDataException {
+        final HashMap< Integer, ViewSetup > setups = new HashMap<>();
+        setups.put( 0, new ViewSetup( 0, imageName,
+                new FinalDimensions( xyzt.dimension( 0 ), xyzt.dimension( 1 ), xyzt.dimension( 2 ) ),
+                voxelDimensions, new Channel( 0 ), new Angle( 0 ), new Illumination( 0 ) ) );
+
+        final List< TimePoint > timepoints = new ArrayList<>();
+        final List< ViewRegistration > registrations = new ArrayList<>();
+        for ( int t = 0; t < xyzt.dimension( 3 ); t++ ) {
+            timepoints.add( new TimePoint( t ) );
+            registrations.add( new ViewRegistration( t, 0, sourceTransform ) );
+        }
+
+        final SequenceDescription sequenceDescription =
+                new SequenceDescription( new TimePoints( timepoints ), setups, null, null );
+        sequenceDescription.setImgLoader( new N5ImageLoader( n5File, sequenceDescription ) );
+        final SpimData spimData = new SpimData( xmlFile.getParentFile(), sequenceDescription,
+                new ViewRegistrations( registrations ) );
+        new XmlIoSpimData().save( spimData, xmlFile.getAbsolutePath() );
+    }
+
+    private List< Map< String, Object > > createMultiscales( String imageName, VoxelDimensions voxelDimensions,
+                                                            String[] paths, int[][] resolutions ) {
+        final List< Map< String, Object > > datasets = new ArrayList<>();
+        for ( int level = 0; level < paths.length; level++ ) {
+            final double[] scale = new double[]{ 1.0, 1.0, 0, 0, 0 };
+            final double[] translation = new double[]{ 0.0, 0.0, 0, 0, 0 };
+            for ( int d = 0; d < 3; d++ ) {
+                // t,c,z,y,x axis order
+                final int axis = 4 - d;
+                scale[ axis ] = voxelDimensions.dimension( d ) * resolutions[ level ][ d ];
+                translation[ axis ] = voxelDimensions.dimension( d ) * ( resolutions[ level ][ d ] - 1 ) / 2.0;
+            }
+
+            final List< Map< String, Object > > transformations = new ArrayList<>();
+            transformations.add( createTransformation( "scale", scale ) );
+            transformations.add( createTransformation( "translation", translation ) );
+            datasets.add( createOmeZarrDataset( paths[ level ], transformations ) );
+        }
+
+        final Map< String, Object > multiscale = createOmeZarrMultiscale( imageName, toOmeZarrUnit( voxelDimensions.unit() ), datasets );
+        multiscale.put( "type", downsamplingMethod.toString().toLowerCase() );
+
+        return Collections.singletonList( multiscale );
+    }
+
+    /**
+     * @param name name of the multiscales image
+     * @param unit OME-Zarr unit of the spatial axes, or null
+     * @param datasets the levels, see {@link #createOmeZarrDataset}
+     * @return OME-Zarr (version 0.4) multiscales metadata with t,c,z,y,x axes
+     */
+    public static Map< String, Object > createOmeZarrMultiscale( String name, String unit, List< Map< String, Object > > datasets ) {
+        final List< Map< String, Object > > axes = new ArrayList<>();
+        axes.add( createAxis( "t", "time", null ) );
+        axes.add( createAxis( "c", "channel", null ) );
+        axes.add( createAxis( "z", "space", unit ) );
+        axes.add( createAxis( "y", "space", unit ) );
+        axes.add( createAxis( "x", "space", unit ) );
+
+        final Map< String, Object > multiscale = new LinkedHashMap<>();
+        multiscale.put( "version", "0.4" );
+        multiscale.put( "name", name );
+        multiscale.put( "axes", axes );
+        multiscale.put( "datasets", datasets );
+        return multiscale;
+    }
+
+    /**
+     * @param path path of the level within the OME-Zarr container
+     * @param transformations coordinate transformations of the level, in t,c,z,y,x axis order
+     * @return the level of an OME-Zarr multiscales image
+     */
+    public static Map< String, Object > createOmeZarrDataset( String path, List< Map< String, Object > > transformations ) {
+        final Map< String, Object > dataset = new LinkedHashMap<>();
+        dataset.put( "path", path );
+        dataset.put( "coordinateTransformations", transformations );
+        return dataset;
+    }
+
+    private static Map< String, Object > createAxis( String name, String type, String unit ) {
+        final Map< String, Object > axis = new LinkedHashMap<>();
+        axis.put( "name", name );
+        axis.put( "type", type );
+        if ( unit != null ) {
+            axis.put( "unit", unit );
+        }
+        return axis;
+    }
+
+    public static Map< String, Object > createTransformation( String type, double[] values ) {
+        final Map< String, Object > transformation = new LinkedHashMap<>();
+        transformation.put( "type", type );
+        transformation.put( type, values );
+        return transformation;
+    }
+
+    public static String toOmeZarrUnit( String unit ) {
+        if ( unit == null ) {
+            return null;
+        }
+
+        switch ( unit ) {
+            case "µm":
+            case "um":
+            case "micron":
+            case "microns":
+                return "micrometer";
+            case "nm":
+                return "nanometer";
+            case "mm":
+                return "millimeter";
+            default:
+                return unit;
+        }
+    }
+
+    // zarr supports blosc, gzip, bzip2 and raw, but neither lz4 nor xz as standalone codecs
+    private static Compression toZarrCompression( Compression compression ) {
+        if ( compression instanceof Lz4Compression ) {
+            IJ.log( "LZ4 is not supported by zarr, using blosc with the lz4 codec instead." );
+            return Codec.BloscLz4.createCompression();
+        } else if ( compression instanceof XzCompression ) {
+            IJ.log( "XZ is not supported by zarr, using blosc with the zstd codec instead." );
+            return Codec.BloscZstd.createCompression();
+        } else if ( compression instanceof BloscCompression || compression instanceof GzipCompression
+                || compression instanceof Bzip2Compression || compression instanceof RawCompression ) {
+            return compression;
+        } else {
+            throw new UnsupportedOperationException( "Compression not supported by zarr: " + compression.getClass().getSimpleName() );
+        }
+    }
+
+    private static long[] getLevelDimensions( Interval volume, int[] factors ) {
+        final long[] dimensions = new long[ 3 ];
+        for ( int d = 0; d < 3; d++ ) {
+            dimensions[ d ] = Math.max( 1, volume.dimension( d ) / factors[ d ] );
+        }
+        return dimensions;
+    }
+
+    private static boolean isMultipleOf( int[] factors, int[] previousFactors ) {
+        for ( int d = 0; d < 3; d++ ) {
+            if ( factors[ d ] % previousFactors[ d ] != 0 ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static < T extends RealType< T > > int getBytesPerVoxel( RandomAccessibleInterval< T > rai ) {
+        return Math.max( 1, Util.getTypeFromInterval( rai ).getBitsPerPixel() / 8 );
+    }
+
+    // block data, the serialised data block and, when averaging, the primitive accumulators
+    private static int getBlockKiB( int[] blockSize, int bytesPerVoxel ) {
+        final long numVoxels = ( long ) blockSize[ 0 ] * blockSize[ 1 ] * blockSize[ 2 ];
+        final long bytes = numVoxels * ( 2L * bytesPerVoxel + Double.BYTES + Integer.BYTES );
+        return ( int ) Math.max( 1, Math.min( Integer.MAX_VALUE, bytes / KIBIBYTE ) );
+    }
+
+    private static void acquire( Semaphore semaphore, int permits ) throws IOException {
+        try {
+            semaphore.acquire( permits );
+        } catch ( InterruptedException e ) {
+            throw new IOException( "Writing has been interrupted", e );
+        }
+    }
+
+    private void logThroughput( String message, long numBytes, long startTimeMillis ) {
+        final long durationMillis = Math.max( 1, System.currentTimeMillis() - startTimeMillis );
+        final double megaBytes = numBytes / MEBIBYTE;
+        IJ.log( String.format( "%s: %.1f MB in %.1f s (%.1f MB/s, %d thread(s))",
+                message, megaBytes, durationMillis / 1000.0, megaBytes / ( durationMillis / 1000.0 ), numThreads ) );
+    }
+}
@@ -28,6 +28,8 @@
  */
 package org.embl.mobie.viewer.projectcreator;
 
+import bdv.export.ExportMipmapInfo;
+import bdv.export.ProposeMipmaps;
 import bdv.img.n5.N5ImageLoader;
 import bdv.viewer.Source;
 import bdv.viewer.SourceAndConverter;
@@ -36,9 +38,7 @@ import org.embl.mobie.io.ImageDataFormat;
 import org.embl.mobie.io.SpimDataOpener;
 import org.embl.mobie.io.n5.loaders.N5FSImageLoader;
 import org.embl.mobie.io.n5.util.DownsampleBlock;
-import org.embl.mobie.io.n5.writers.WriteImagePlusToN5;
 import org.embl.mobie.io.ome.zarr.loaders.N5OMEZarrImageLoader;
-import org.embl.mobie.io.ome.zarr.writers.imageplus.WriteImagePlusToN5OmeZarr;
 
 import org.embl.mobie.io.util.IOHelper;
 import de.embl.cba.tables.Tables;
@@ -49,7 +49,9 @@ import mpicbg.spim.data.SpimDataException;
 import mpicbg.spim.data.XmlIoSpimData;
 import mpicbg.spim.data.generic.base.Entity;
 import mpicbg.spim.data.generic.sequence.BasicImgLoader;
+import mpicbg.spim.data.generic.sequence.BasicViewSetup;
 import mpicbg.spim.data.sequence.*;
+import net.imglib2.FinalDimensions;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.converter.RealTypeConverters;
 import net.imglib2.realtransform.AffineTransform3D;
@@ -82,6 +84,9 @@ public class ImagesCreator {
     static { net.imagej.patcher.LegacyInjector.preinit(); }
 
     ProjectCreator projectCreator;
+    private int numWriterThreads = Runtime.getRuntime().availableProcessors();
+    private long writerMemoryBudget = Runtime.getRuntime().maxMemory() / 4;
+    private Compression defaultCompression = new GzipCompression();
 
     /**
      * Make an imagesCreator - includes all functions for adding images to a project
@@ -91,6 +96,33 @@ public class ImagesCreator {
         this.projectCreator = projectCreator;
     }
 
+    /**
+     * Set the number of threads that are used to downsample and write image blocks
+     * @param numWriterThreads number of threads
+     */
+    public void setNumWriterThreads( int numWriterThreads ) {
+        this.numWriterThreads = numWriterThreads;
+    }
+
+    /**
+     * Set the maximal amount of memory that is used while writing images. Half of it is used for image blocks
+     * which are currently downsampled or written, the other half for caching planes of virtual stacks,
+     * which are read lazily such that stacks much larger than the available memory can be added.
+     * @param writerMemoryBudget memory budget in bytes
+     */
+    public void setWriterMemoryBudget( long writerMemoryBudget ) {
+        this.writerMemoryBudget = writerMemoryBudget;
+    }
+
+    /**
+     * Set the compression that is used when adding images with default settings,
+     * e.g. {@code ImagePyramidWriter.Codec.BloscZstd.createCompression()}
+     * @param defaultCompression compression
+     */
+    public void setDefaultCompression( Compression defaultCompression ) {
+        this.defaultCompression = defaultCompression;
+    }
+
     private String getDefaultLocalImagePath( String datasetName, String imageName, ImageDataFormat imageDataFormat ) {
         if ( imageDataFormat == ImageDataFormat.OmeZarr ) {
             return getDefaultLocalImageZarrPath( datasetName, imageName, imageDataFormat );
@@ -191,7 +223,8 @@ public class ImagesCreator {
     /**
      * Add an image to a MoBIE project. Make sure the ImagePlus scale and unit is set properly, so that imp.getCalibration()
      * returns the correct values. Note that multi-channel images are not supported - you will need to
-     * split these channels and add each as its own image.
+     * split these channels and add each as its own image. Virtual stacks are streamed from disk, using at most
+     * the memory set with {@link #setWriterMemoryBudget(long)}.
      * @param imp image to add
      * @param imageName image name
      * @param datasetName dataset name
@@ -282,46 +315,37 @@ public class ImagesCreator {
 
     private void writeDefaultImage( ImagePlus imp, String filePath,
                                     DownsampleBlock.DownsamplingMethod downsamplingMethod,
-                                    String imageName, ImageDataFormat imageDataFormat ) {
-
-        // transform only including scaling from image
-        AffineTransform3D sourceTransform = ProjectCreatorHelper.generateDefaultAffine( imp );
-
-        // gzip compression by default
-        switch( imageDataFormat ) {
-            case BdvN5:
-                new WriteImagePlusToN5().export(imp, filePath, sourceTransform, downsamplingMethod,
-                        new GzipCompression(), new String[]{imageName} );
-                break;
-
-            case OmeZarr:
-                new WriteImagePlusToN5OmeZarr().export(imp, filePath, sourceTransform, downsamplingMethod,
-                        new GzipCompression() );
-                break;
+                                    String imageName, ImageDataFormat imageDataFormat ) throws IOException, SpimDataException {
 
-            default:
-                throw new UnsupportedOperationException();
+        // resolutions and chunk sizes as proposed by BigDataViewer, gzip compression by default
+        final ExportMipmapInfo mipmapInfo = ProposeMipmaps.proposeMipmaps( new BasicViewSetup( 0, imageName,
+                new FinalDimensions( imp.getWidth(), imp.getHeight(), imp.getNSlices() ), getVoxelDimensions( imp ) ) );
 
-        }
+        writeDefaultImage( imp, filePath, downsamplingMethod, imageName, imageDataFormat,
+                mipmapInfo.intResolutions(), mipmapInfo.getSubdivisions(), defaultCompression );
     }
 
     private void writeDefaultImage( ImagePlus imp, String filePath,
                              DownsampleBlock.DownsamplingMethod downsamplingMethod,
                              String imageName, ImageDataFormat imageDataFormat,
-                             int[][] resolutions, int[][] subdivisions, Compression compression ) {
+                             int[][] resolutions, int[][] subdivisions, Compression compression ) throws IOException, SpimDataException {
 
         // transform only including scaling from image
         AffineTransform3D sourceTransform = ProjectCreatorHelper.generateDefaultAffine( imp );
 
+        // virtual stacks are streamed, sharing the memory budget between cached planes and blocks in flight
+        final ImagePyramidWriter writer = new ImagePyramidWriter( numWriterThreads, writerMemoryBudget / 2, downsamplingMethod );
+        final RandomAccessibleInterval xyzt = ImagePyramidWriter.asXYZT( imp, writerMemoryBudget / 2, subdivisions[ 0 ][ 2 ] );
+
         switch( imageDataFormat ) {
             case BdvN5:
-                new WriteImagePlusToN5().export(imp, resolutions, subdivisions, filePath, sourceTransform,
-                        downsamplingMethod, compression, new String[]{imageName});
+                writer.writeBdvN5( xyzt, filePath, imageName, getVoxelDimensions( imp ), sourceTransform,
+                        resolutions, subdivisions, compression );
                 break;
 
             case OmeZarr:
-                new WriteImagePlusToN5OmeZarr().export(imp, resolutions, subdivisions, filePath, sourceTransform,
-                        downsamplingMethod, compression );
+                writer.writeOmeZarr( xyzt, filePath, imageName, getVoxelDimensions( imp ),
+                        resolutions, subdivisions, compression );
                 break;
 
             default:
@@ -329,6 +353,11 @@ public class ImagesCreator {
         }
     }
 
+    private VoxelDimensions getVoxelDimensions( ImagePlus imp ) {
+        return new FinalVoxelDimensions( imp.getCalibration().getUnit(), imp.getCalibration().pixelWidth,
+                imp.getCalibration().pixelHeight, imp.getCalibration().pixelDepth );
+    }
+
     private void deleteImageFiles( String datasetName, String imageName, ImageDataFormat imageDataFormat ) throws IOException {
 
         File xmlFile = null;
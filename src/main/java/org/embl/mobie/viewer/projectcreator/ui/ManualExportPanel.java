@@ -35,7 +35,9 @@ import fiji.util.gui.GenericDialogPlus;
 import ij.IJ;
 import ij.gui.GenericDialog;
 import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.embl.mobie.viewer.projectcreator.ImagePyramidWriter;
 import org.janelia.saalfeldlab.n5.*;
+import org.janelia.saalfeldlab.n5.blosc.BloscCompression;
 
 // based on https://github.com/bigdataviewer/bigdataviewer_fiji/blob/master/src/main/java/bdv/ij/ExportImagePlusAsN5PlugIn.java
 // removing export path, that shouldn't be set manually
@@ -64,13 +66,11 @@ public class ManualExportPanel {
         manualSettings.addStringField( "Subsampling_factors", lastSubsampling, 25 );
         manualSettings.addStringField( "chunk_sizes", lastChunkSizes, 25 );
 
-        // TODO - the ome-zarr code doesn't seem to support all the compression options at the moment. Would need to
-        // look into this more. For now, don't show compression options for ome-zarr
-        if ( imageDataFormat == ImageDataFormat.BdvN5 ) {
-            final String[] compressionChoices = new String[]{"raw (no compression)", "bzip", "gzip", "lz4", "xz"};
-            manualSettings.addChoice("compression", compressionChoices, compressionChoices[lastCompressionChoice]);
-            manualSettings.addCheckbox("use default settings for compression", lastCompressionDefaultSettings);
-        }
+        // lz4 and xz are not supported by zarr, for ome-zarr the ImagePyramidWriter replaces them by blosc
+        final String[] compressionChoices = new String[]{"raw (no compression)", "bzip", "gzip", "lz4", "xz",
+                "blosc-lz4", "blosc-zstd"};
+        manualSettings.addChoice("compression", compressionChoices, compressionChoices[lastCompressionChoice]);
+        manualSettings.addCheckbox("use default settings for compression", lastCompressionDefaultSettings);
 
         manualSettings.showDialog();
 
@@ -80,13 +80,8 @@ public class ManualExportPanel {
 
             subdivisions = PluginHelper.parseResolutionsString( lastChunkSizes );
             resolutions = PluginHelper.parseResolutionsString( lastSubsampling );
-            if ( imageDataFormat == ImageDataFormat.BdvN5 ) {
-                lastCompressionChoice = manualSettings.getNextChoiceIndex();
-                lastCompressionDefaultSettings = manualSettings.getNextBoolean();
-            } else {
-                lastCompressionChoice = 2;
-                lastCompressionDefaultSettings = true;
-            }
+            lastCompressionChoice = manualSettings.getNextChoiceIndex();
+            lastCompressionDefaultSettings = manualSettings.getNextBoolean();
             parseCompression();
         } else {
             subdivisions = null;
@@ -134,6 +129,16 @@ public class ManualExportPanel {
                         ? new XzCompression()
                         : getXzSettings();
                 break;
+            case 5: // blosc-lz4
+                compression = lastCompressionDefaultSettings
+                        ? ImagePyramidWriter.Codec.BloscLz4.createCompression()
+                        : getBloscSettings( "lz4" );
+                break;
+            case 6: // blosc-zstd
+                compression = lastCompressionDefaultSettings
+                        ? ImagePyramidWriter.Codec.BloscZstd.createCompression()
+                        : getBloscSettings( "zstd" );
+                break;
         }
     }
 
@@ -251,4 +256,32 @@ public class ManualExportPanel {
             return new XzCompression( lastXzLevel );
         }
     }
+
+    static int lastBloscLevel = 5;
+
+    static boolean lastBloscShuffle = true;
+
+    protected BloscCompression getBloscSettings( String codec )
+    {
+        while ( true )
+        {
+            final GenericDialogPlus gd = new GenericDialogPlus( "Blosc " + codec + " compression settings" );
+            gd.addNumericField( "level (0-9)", lastBloscLevel, 0 );
+            gd.addCheckbox( "byte shuffle", lastBloscShuffle );
+
+            gd.showDialog();
+            if ( gd.wasCanceled() )
+                return null;
+
+            lastBloscLevel = ( int ) gd.getNextNumber();
+            lastBloscShuffle = gd.getNextBoolean();
+            if ( lastBloscLevel < 0 || lastBloscLevel > 9 )
+            {
+                IJ.showMessage( "Level must be in range [0, 9]" );
+                continue;
+            }
+            return new BloscCompression( codec, lastBloscLevel,
+                    lastBloscShuffle ? BloscCompression.SHUFFLE : BloscCompression.NOSHUFFLE, 0, 1 );
+        }
+    }
 }
@@ -58,6 +58,18 @@ public class SegmentAdapter< T extends ImageSegment >
 			labelFrameAndImageToSegment.put( new LabelFrameAndImage( segment ), segment );
 	}
 
+	/**
+	 * Replaces all segments, e.g. the lazily created ones
+	 * once the table has been loaded.
+	 */
+	public synchronized void setSegments( List< T > segments )
+	{
+		labelFrameAndImageToSegment = new HashMap<>();
+		for ( T segment : segments )
+			labelFrameAndImageToSegment.put( new LabelFrameAndImage( segment ), segment );
+		isLazy = false;
+	}
+
 	public synchronized boolean containsSegment( double label, int t, String imageId )
 	{
 		final LabelFrameAndImage labelFrameAndImage = new LabelFrameAndImage( label, t, imageId  );
@@ -0,0 +1,324 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.segment;
+
+import bdv.tools.transformation.TransformedSource;
+import bdv.util.Affine3DHelpers;
+import bdv.viewer.Source;
+import de.embl.cba.tables.imagesegment.ImageSegment;
+import ij.IJ;
+import mpicbg.spim.data.sequence.VoxelDimensions;
+import net.imglib2.Cursor;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.util.Grids;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+import org.embl.mobie.viewer.MultiThreading;
+import org.embl.mobie.viewer.SourceNameEncoder;
+import org.embl.mobie.viewer.projectcreator.ImagePyramidWriter;
+import org.embl.mobie.viewer.source.LabelSource;
+import org.embl.mobie.viewer.source.SourceWrapper;
+import org.embl.mobie.viewer.transform.MergedGridSource;
+import org.janelia.saalfeldlab.n5.ByteArrayDataBlock;
+import org.janelia.saalfeldlab.n5.Compression;
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.GzipCompression;
+import org.janelia.saalfeldlab.n5.IntArrayDataBlock;
+import org.janelia.saalfeldlab.n5.LongArrayDataBlock;
+import org.janelia.saalfeldlab.n5.zarr.N5ZarrWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Future;
+
+/**
+ * Writes the selected segments of a label source as a new OME-Zarr label image.
+ *
+ * The label source is streamed block by block on the shared compute pool.
+ * Each voxel is mapped through a sorted lookup table of the selected voxel
+ * values, and blocks without any selected segment are not written at all.
+ * For merged grid sources that encode the source names into the voxels,
+ * the lookup table holds the encoded values.
+ */
+public class SelectedLabelsWriter
+{
+	public static final int[] BLOCK_SIZE = new int[]{ 128, 128, 16 };
+
+	public enum Labels
+	{
+		Binary,
+		Consecutive,
+		Original
+	}
+
+	private final Source< ? > labelSource;
+	private final int t;
+	private final int level;
+	private final Labels labels;
+	private final long[] voxelValues; // sorted
+	private final long[] outputValues;
+	private Compression compression = new GzipCompression();
+
+	public SelectedLabelsWriter( Source< ? > labelSource, Collection< ? extends ImageSegment > selectedSegments, int t, int level, Labels labels )
+	{
+		this.labelSource = labelSource;
+		this.t = t;
+		this.level = level;
+		this.labels = labels;
+
+		final TreeSet< Long > selectedVoxelValues = getSelectedVoxelValues( labelSource, selectedSegments, t );
+		voxelValues = new long[ selectedVoxelValues.size() ];
+		outputValues = new long[ selectedVoxelValues.size() ];
+		int i = 0;
+		for ( long voxelValue : selectedVoxelValues )
+		{
+			voxelValues[ i ] = voxelValue;
+			outputValues[ i ] = labels == Labels.Binary ? 1 : labels == Labels.Consecutive ? i + 1 : voxelValue;
+			i++;
+		}
+	}
+
+	public void setCompression( Compression compression )
+	{
+		this.compression = compression;
+	}
+
+	public int getNumSelectedLabels()
+	{
+		return voxelValues.length;
+	}
+
+	/**
+	 * @param zarrPath the output, which is overwritten
+	 * @throws IOException if a block could not be written
+	 */
+	public void write( String zarrPath ) throws IOException
+	{
+		final long startTime = System.currentTimeMillis();
+
+		final RandomAccessibleInterval< ? extends RealType< ? > > rai = Views.zeroMin( ( RandomAccessibleInterval ) labelSource.getSource( t, level ) );
+		final long[] dimensions = rai.dimensionsAsLongArray();
+
+		final N5ZarrWriter n5 = createZarr( zarrPath, dimensions );
+		final DatasetAttributes attributes = n5.getDatasetAttributes( "s0" );
+
+		final List< Interval > blocks = Grids.collectAllContainedIntervals( dimensions, BLOCK_SIZE );
+		final ArrayList< Future< ? > > futures = MultiThreading.getFutures();
+		for ( Interval block : blocks )
+		{
+			futures.add( MultiThreading.executorService.submit( () ->
+			{
+				final DataBlock< ? > dataBlock = createBlock( rai, block );
+				if ( dataBlock != null )
+					n5.writeBlock( "s0", attributes, dataBlock );
+				return null;
+			} ) );
+		}
+
+		MultiThreading.waitUntilFinished( futures, MultiThreading.ioFailure( "Could not write the selected segments" ) );
+
+		IJ.log( "Wrote " + voxelValues.length + " selected segments of " + labelSource.getName() + " to " + zarrPath + " in " + ( System.currentTimeMillis() - startTime ) + " ms." );
+	}
+
+	/**
+	 * @return the block, or null if it does not contain any selected segment
+	 */
+	private DataBlock< ? > createBlock( RandomAccessibleInterval< ? extends RealType< ? > > rai, Interval block )
+	{
+		final int numElements = BLOCK_SIZE[ 0 ] * BLOCK_SIZE[ 1 ] * BLOCK_SIZE[ 2 ];
+		final long[] output = new long[ numElements ];
+		boolean isEmpty = true;
+
+		final Cursor< ? extends RealType< ? > > cursor = Views.interval( rai, block ).localizingCursor();
+		long lastVoxelValue = 0;
+		long lastOutputValue = 0;
+		while ( cursor.hasNext() )
+		{
+			final long voxelValue = getLong( cursor.next() );
+			if ( voxelValue == 0 ) continue; // background
+
+			if ( voxelValue != lastVoxelValue )
+			{
+				lastVoxelValue = voxelValue;
+				final int index = Arrays.binarySearch( voxelValues, voxelValue );
+				lastOutputValue = index < 0 ? 0 : outputValues[ index ];
+			}
+			if ( lastOutputValue == 0 ) continue; // not selected
+
+			final long x = cursor.getLongPosition( 0 ) - block.min( 0 );
+			final long y = cursor.getLongPosition( 1 ) - block.min( 1 );
+			final long z = cursor.getLongPosition( 2 ) - block.min( 2 );
+			output[ ( int ) ( ( z * BLOCK_SIZE[ 1 ] + y ) * BLOCK_SIZE[ 0 ] + x ) ] = lastOutputValue;
+			isEmpty = false;
+		}
+
+		if ( isEmpty ) return null;
+
+		final int[] blockSize = { BLOCK_SIZE[ 0 ], BLOCK_SIZE[ 1 ], BLOCK_SIZE[ 2 ], 1, 1 };
+		final long[] gridPosition = new long[ 5 ];
+		for ( int d = 0; d < 3; d++ )
+			gridPosition[ d ] = block.min( d ) / BLOCK_SIZE[ d ];
+
+		switch ( getDataType() )
+		{
+			case UINT8:
+				final byte[] bytes = new byte[ numElements ];
+				for ( int i = 0; i < numElements; i++ )
+					bytes[ i ] = ( byte ) output[ i ];
+				return new ByteArrayDataBlock( blockSize, gridPosition, bytes );
+			case UINT32:
+				final int[] ints = new int[ numElements ];
+				for ( int i = 0; i < numElements; i++ )
+					ints[ i ] = ( int ) output[ i ];
+				return new IntArrayDataBlock( blockSize, gridPosition, ints );
+			default:
+				return new LongArrayDataBlock( blockSize, gridPosition, output );
+		}
+	}
+
+	private static long getLong( RealType< ? > value )
+	{
+		if ( value instanceof IntegerType )
+			return ( ( IntegerType< ? > ) value ).getIntegerLong();
+		else
+			return ( long ) value.getRealDouble();
+	}
+
+	private DataType getDataType()
+	{
+		switch ( labels )
+		{
+			case Binary:
+				return DataType.UINT8;
+			case Consecutive:
+				return DataType.UINT32;
+			default:
+				return DataType.UINT64;
+		}
+	}
+
+	private static TreeSet< Long > getSelectedVoxelValues( Source< ? > labelSource, Collection< ? extends ImageSegment > selectedSegments, int t )
+	{
+		final MergedGridSource< ? > mergedGridSource = getMergedGridSource( labelSource );
+		final Set< String > imageIds = new HashSet<>();
+		if ( mergedGridSource != null )
+			for ( Source< ? > gridSource : mergedGridSource.getGridSources() )
+				imageIds.add( gridSource.getName() );
+		else
+			imageIds.add( labelSource.getName() );
+
+		final boolean isEncoded = mergedGridSource != null && mergedGridSource.isEncodingSource();
+
+		final TreeSet< Long > voxelValues = new TreeSet<>();
+		for ( ImageSegment segment : selectedSegments )
+		{
+			if ( segment.timePoint() != t || ! imageIds.contains( segment.imageId() ) )
+				continue;
+
+			final long label = ( long ) segment.labelId();
+			if ( isEncoded )
+				voxelValues.add( SourceNameEncoder.encode( label, SourceNameEncoder.getIndex( segment.imageId() ) ) );
+			else
+				voxelValues.add( label );
+		}
+
+		return voxelValues;
+	}
+
+	private static MergedGridSource< ? > getMergedGridSource( Source< ? > source )
+	{
+		while ( true )
+		{
+			if ( source instanceof MergedGridSource )
+				return ( MergedGridSource< ? > ) source;
+			else if ( source instanceof LabelSource )
+				source = ( ( LabelSource< ? > ) source ).getWrappedSource();
+			else if ( source instanceof TransformedSource )
+				source = ( ( TransformedSource< ? > ) source ).getWrappedSource();
+			else if ( source instanceof SourceWrapper )
+				source = ( ( SourceWrapper< ? > ) source ).getWrappedSource();
+			else
+				return null;
+		}
+	}
+
+	private N5ZarrWriter createZarr( String zarrPath, long[] dimensions ) throws IOException
+	{
+		final N5ZarrWriter n5 = new N5ZarrWriter( zarrPath );
+
+		// blocks without selected segments are not written,
+		// thus the blocks of a previous export must not remain
+		if ( n5.exists( "s0" ) )
+			n5.remove( "/" );
+		n5.createGroup( "/" );
+
+		// x,y,z,c,t, which zarr stores in t,c,z,y,x order
+		n5.createDataset( "s0", new DatasetAttributes(
+				new long[]{ dimensions[ 0 ], dimensions[ 1 ], dimensions[ 2 ], 1, 1 },
+				new int[]{ BLOCK_SIZE[ 0 ], BLOCK_SIZE[ 1 ], BLOCK_SIZE[ 2 ], 1, 1 },
+				getDataType(), compression ) );
+
+		n5.setAttribute( "/", "multiscales", createMultiscales() );
+
+		return n5;
+	}
+
+	private List< Map< String, Object > > createMultiscales()
+	{
+		final VoxelDimensions voxelDimensions = labelSource.getVoxelDimensions();
+		final String unit = voxelDimensions == null ? null : ImagePyramidWriter.toOmeZarrUnit( voxelDimensions.unit() );
+
+		// position of the first voxel, the rotation of the source is not stored
+		final AffineTransform3D transform = new AffineTransform3D();
+		labelSource.getSourceTransform( t, level, transform );
+		final RandomAccessibleInterval< ? > rai = labelSource.getSource( t, level );
+		final double[] origin = rai.minAsDoubleArray();
+		transform.apply( origin, origin );
+
+		final List< Map< String, Object > > transformations = new ArrayList<>();
+		transformations.add( ImagePyramidWriter.createTransformation( "scale", new double[]{ 1.0, 1.0, Affine3DHelpers.extractScale( transform, 2 ), Affine3DHelpers.extractScale( transform, 1 ), Affine3DHelpers.extractScale( transform, 0 ) } ) );
+		transformations.add( ImagePyramidWriter.createTransformation( "translation", new double[]{ 0.0, 0.0, origin[ 2 ], origin[ 1 ], origin[ 0 ] } ) );
+
+		final Map< String, Object > dataset = ImagePyramidWriter.createOmeZarrDataset( "s0", transformations );
+		return Collections.singletonList( ImagePyramidWriter.createOmeZarrMultiscale( labelSource.getName() + "-selection", unit, Collections.singletonList( dataset ) ) );
+	}
+}
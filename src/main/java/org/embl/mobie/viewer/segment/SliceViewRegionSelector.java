@@ -35,6 +35,8 @@ import bdv.viewer.SourceAndConverter;
 import de.embl.cba.tables.tablerow.TableRow;
 import net.imglib2.RandomAccess;
 import net.imglib2.RealPoint;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.roi.RealMaskRealInterval;
 import net.imglib2.type.numeric.RealType;
 import org.embl.mobie.viewer.SourceNameEncoder;
 import org.embl.mobie.viewer.annotate.AnnotatedMaskAdapter;
@@ -44,6 +46,7 @@ import org.embl.mobie.viewer.display.AnnotationDisplay;
 import org.embl.mobie.viewer.display.SegmentationDisplay;
 import org.embl.mobie.viewer.source.LabelSource;
 import org.embl.mobie.viewer.transform.MergedGridSource;
+import org.embl.mobie.viewer.transform.RealMaskSource;
 import sc.fiji.bdvpg.sourceandconverter.SourceAndConverterHelper;
 
 import java.util.Collection;
@@ -97,7 +100,8 @@ public class SliceViewRegionSelector implements Runnable
 					continue;
 				}
 
-				if ( SourceAndConverterHelper.isPositionWithinSourceInterval( sourceAndConverter, position, timePoint, is2D ) )
+				if ( SourceAndConverterHelper.isPositionWithinSourceInterval( sourceAndConverter, position, timePoint, is2D )
+						&& isPositionWithinSourceMask( sourceAndConverter.getSpimSource(), position, is2D ) )
 				{
 					final Source< ? > source = sourceAndConverter.getSpimSource();
 
@@ -205,6 +209,45 @@ public class SliceViewRegionSelector implements Runnable
 		return containedSourceAndConverters;
 	}
 
+	/**
+	 * Sources with a {@link RealMaskSource} may not fill their bounding box,
+	 * e.g. sparse merged grids; check such masks exactly.
+	 */
+	private static boolean isPositionWithinSourceMask( Source< ? > source, RealPoint position, boolean is2D )
+	{
+		final AffineTransform3D maskToGlobal = new AffineTransform3D();
+		while ( true )
+		{
+			if ( source instanceof LabelSource )
+			{
+				source = ( ( LabelSource< ? > ) source ).getWrappedSource();
+			}
+			else if ( source instanceof TransformedSource )
+			{
+				final AffineTransform3D fixedTransform = new AffineTransform3D();
+				( ( TransformedSource< ? > ) source ).getFixedTransform( fixedTransform );
+				maskToGlobal.concatenate( fixedTransform );
+				source = ( ( TransformedSource< ? > ) source ).getWrappedSource();
+			}
+			else
+			{
+				break;
+			}
+		}
+
+		if ( ! ( source instanceof RealMaskSource ) ) return true;
+
+		final RealMaskRealInterval mask = ( ( RealMaskSource ) source ).getRealMask();
+		if ( mask == null ) return true;
+
+		final RealPoint maskPosition = new RealPoint( 3 );
+		maskToGlobal.inverse().apply( position, maskPosition );
+		if ( is2D )
+			maskPosition.setPosition( 0.5 * ( mask.realMin( 2 ) + mask.realMax( 2 ) ), 2 );
+
+		return mask.test( maskPosition );
+	}
+
 	private static double getPixelValue( int timePoint, RealPoint position, Source< ? > source )
 	{
 		final RandomAccess< RealType > randomAccess = ( RandomAccess< RealType > ) source.getSource( timePoint, 0 ).randomAccess();
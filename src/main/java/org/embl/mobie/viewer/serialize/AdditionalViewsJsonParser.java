@@ -32,7 +32,6 @@ import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 import com.google.gson.stream.JsonWriter;
 import org.embl.mobie.viewer.view.AdditionalViews;
-import org.embl.mobie.io.util.IOHelper;
 
 import java.io.*;
 import java.lang.reflect.Type;
@@ -40,7 +39,7 @@ import java.lang.reflect.Type;
 public class AdditionalViewsJsonParser {
     public AdditionalViews getViews( String path ) throws IOException
     {
-        final String s = IOHelper.read( path );
+        final String s = MetadataCache.read( path );
         Gson gson = JsonHelper.buildGson( false );
         Type type = new TypeToken< AdditionalViews >() {}.getType();
         return gson.fromJson( s, type );
@@ -45,7 +45,7 @@ public class DatasetJsonParser
 {
 	public Dataset parseDataset( String path ) throws IOException
 	{
-		final String datasetJson = IOHelper.read( path );
+		final String datasetJson = MetadataCache.read( path );
 		Gson gson = JsonHelper.buildGson( false );
 		Type type = new TypeToken< Dataset >() {}.getType();
 		Dataset dataset = gson.fromJson( datasetJson, type );
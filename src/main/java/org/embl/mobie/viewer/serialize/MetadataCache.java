@@ -0,0 +1,348 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.serialize;
+
+import com.google.gson.Gson;
+import org.embl.mobie.io.util.IOHelper;
+import org.embl.mobie.viewer.MultiThreading;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+
+/**
+ * Local cache for small remote metadata files, such as
+ * project.json, dataset.json and bdv.xml files.
+ *
+ * Cached files are used without any request for {@link #timeToLiveMillis}.
+ * Afterwards they are revalidated with a conditional request (ETag or Last-Modified),
+ * which only transfers the file again if it has changed.
+ * If the server cannot be reached, a cached file is used regardless of its age.
+ *
+ * Local files are not cached.
+ */
+public abstract class MetadataCache
+{
+	public static boolean enabled = false;
+	public static long timeToLiveMillis = 10 * 60 * 1000;
+	public static File cacheDirectory = new File( System.getProperty( "user.home" ), ".mobie" + File.separator + "cache" + File.separator + "metadata" );
+
+	private static final int TIMEOUT_MILLIS = 10000;
+	private static final String LISTING = "listing:";
+	private static final Map< String, Entry > keyToEntry = new ConcurrentHashMap<>();
+
+	private static class Entry
+	{
+		String key;
+		String etag;
+		String lastModified;
+		long validatedAtMillis;
+		String content;
+	}
+
+	public static String read( String path ) throws IOException
+	{
+		if ( ! enabled || ! isRemote( path ) )
+			return IOHelper.read( path );
+
+		Entry entry = getEntry( path );
+		if ( entry != null && isFresh( entry ) )
+			return entry.content;
+
+		try
+		{
+			entry = fetch( path, entry );
+			return entry.content;
+		}
+		catch ( IOException e )
+		{
+			if ( entry != null )
+			{
+				System.err.println( "Could not revalidate " + path + ", using cached version: " + e.getMessage() );
+				return entry.content;
+			}
+
+			// e.g. private buckets, which need the S3 client of IOHelper
+			return IOHelper.read( path );
+		}
+	}
+
+	/**
+	 * Returns a local copy of a remote file, e.g. to open a remote bdv.xml
+	 * without fetching it again.
+	 * Only use this for files that do not refer to other files by relative paths.
+	 *
+	 * @param path the path or URL of the file
+	 * @return the path of a local copy, or the input path if it is not remote or caching is disabled
+	 * @throws IOException if the file can not be read
+	 */
+	public static String getLocalCopy( String path ) throws IOException
+	{
+		if ( ! enabled || ! isRemote( path ) )
+			return path;
+
+		final String content = read( path );
+		final String fileName = new File( new URL( path ).getPath() ).getName();
+		final File file = new File( cacheDirectory, hash( path ) + "-" + fileName );
+		if ( ! file.exists() || ! content.equals( new String( Files.readAllBytes( file.toPath() ), StandardCharsets.UTF_8 ) ) )
+			writeAtomically( file, content );
+		return file.getAbsolutePath();
+	}
+
+	public static boolean exists( String path )
+	{
+		if ( enabled && isRemote( path ) )
+		{
+			final Entry entry = getEntry( path );
+			if ( entry != null && isFresh( entry ) )
+				return true;
+		}
+
+		return IOHelper.exists( path );
+	}
+
+	/**
+	 * Directory listings can not be revalidated and are thus
+	 * fetched again once the time to live is exceeded.
+	 *
+	 * @param directory the directory
+	 * @return the names of the files in the directory
+	 */
+	public static String[] getFileNames( String directory )
+	{
+		if ( ! enabled || ! isRemote( directory ) )
+			return IOHelper.getFileNames( directory );
+
+		final String key = LISTING + directory;
+		Entry entry = getEntry( key );
+		if ( entry != null && isFresh( entry ) )
+			return entry.content.isEmpty() ? new String[ 0 ] : entry.content.split( "\n" );
+
+		final String[] fileNames = IOHelper.getFileNames( directory );
+		if ( fileNames == null )
+			return null;
+
+		entry = new Entry();
+		entry.key = key;
+		entry.content = String.join( "\n", fileNames );
+		entry.validatedAtMillis = System.currentTimeMillis();
+		put( entry );
+		return fileNames;
+	}
+
+	/**
+	 * Reads or revalidates the given files in parallel,
+	 * such that opening a project needs one round of requests
+	 * rather than one request after the other.
+	 *
+	 * @param paths the paths or URLs of the files
+	 */
+	public static void prefetch( Collection< String > paths )
+	{
+		if ( ! enabled ) return;
+
+		final ArrayList< Future< ? > > futures = new ArrayList<>();
+		for ( String path : paths )
+		{
+			if ( ! isRemote( path ) ) continue;
+
+			final Entry entry = getEntry( path );
+			if ( entry != null && isFresh( entry ) ) continue;
+
+			futures.add( MultiThreading.ioExecutorService.submit( () -> {
+				try
+				{
+					fetch( path, entry );
+				}
+				catch ( IOException e )
+				{
+					// will be tried again when the file is actually read
+				}
+			} ) );
+		}
+		MultiThreading.waitUntilFinished( futures );
+	}
+
+	public static void clear()
+	{
+		keyToEntry.clear();
+		final File[] files = cacheDirectory.listFiles();
+		if ( files == null ) return;
+		for ( File file : files )
+			file.delete();
+	}
+
+	private static Entry fetch( String path, Entry cached ) throws IOException
+	{
+		final HttpURLConnection connection = ( HttpURLConnection ) new URL( path ).openConnection();
+		connection.setConnectTimeout( TIMEOUT_MILLIS );
+		connection.setReadTimeout( TIMEOUT_MILLIS );
+		if ( cached != null )
+		{
+			if ( cached.etag != null )
+				connection.setRequestProperty( "If-None-Match", cached.etag );
+			if ( cached.lastModified != null )
+				connection.setRequestProperty( "If-Modified-Since", cached.lastModified );
+		}
+
+		try
+		{
+			final int responseCode = connection.getResponseCode();
+			if ( responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null )
+			{
+				cached.validatedAtMillis = System.currentTimeMillis();
+				put( cached );
+				return cached;
+			}
+			else if ( responseCode == HttpURLConnection.HTTP_OK )
+			{
+				final Entry entry = new Entry();
+				entry.key = path;
+				entry.etag = connection.getHeaderField( "ETag" );
+				entry.lastModified = connection.getHeaderField( "Last-Modified" );
+				entry.validatedAtMillis = System.currentTimeMillis();
+				try ( InputStream inputStream = connection.getInputStream() )
+				{
+					entry.content = new String( readAllBytes( inputStream ), StandardCharsets.UTF_8 );
+				}
+				put( entry );
+				return entry;
+			}
+			else
+			{
+				throw new IOException( "HTTP " + responseCode + " for " + path );
+			}
+		}
+		finally
+		{
+			connection.disconnect();
+		}
+	}
+
+	private static byte[] readAllBytes( InputStream inputStream ) throws IOException
+	{
+		final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[ 8192 ];
+		int read;
+		while ( ( read = inputStream.read( buffer ) ) != -1 )
+			outputStream.write( buffer, 0, read );
+		return outputStream.toByteArray();
+	}
+
+	private static boolean isRemote( String path )
+	{
+		return path.startsWith( "http://" ) || path.startsWith( "https://" );
+	}
+
+	private static boolean isFresh( Entry entry )
+	{
+		return System.currentTimeMillis() - entry.validatedAtMillis < timeToLiveMillis;
+	}
+
+	private static Entry getEntry( String key )
+	{
+		return keyToEntry.computeIfAbsent( key, k -> readEntry( k ) );
+	}
+
+	private static Entry readEntry( String key )
+	{
+		final File file = getEntryFile( key );
+		if ( ! file.exists() ) return null;
+
+		try ( Reader reader = Files.newBufferedReader( file.toPath(), StandardCharsets.UTF_8 ) )
+		{
+			final Entry entry = new Gson().fromJson( reader, Entry.class );
+			if ( entry == null || ! key.equals( entry.key ) || entry.content == null )
+				return null;
+			return entry;
+		}
+		catch ( Exception e )
+		{
+			return null;
+		}
+	}
+
+	private static void put( Entry entry )
+	{
+		keyToEntry.put( entry.key, entry );
+		try
+		{
+			writeAtomically( getEntryFile( entry.key ), new Gson().toJson( entry ) );
+		}
+		catch ( IOException e )
+		{
+			System.err.println( "Could not cache " + entry.key + ": " + e.getMessage() );
+		}
+	}
+
+	private static void writeAtomically( File file, String content ) throws IOException
+	{
+		Files.createDirectories( cacheDirectory.toPath() );
+		final File tmp = File.createTempFile( file.getName(), ".tmp", cacheDirectory );
+		try ( Writer writer = Files.newBufferedWriter( tmp.toPath(), StandardCharsets.UTF_8 ) )
+		{
+			writer.write( content );
+		}
+		Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+	}
+
+	private static File getEntryFile( String key )
+	{
+		return new File( cacheDirectory, hash( key ) + ".json" );
+	}
+
+	private static String hash( String string )
+	{
+		try
+		{
+			final byte[] digest = MessageDigest.getInstance( "SHA-1" ).digest( string.getBytes( StandardCharsets.UTF_8 ) );
+			return String.format( "%040x", new BigInteger( 1, digest ) );
+		}
+		catch ( NoSuchAlgorithmException e )
+		{
+			throw new RuntimeException( e );
+		}
+	}
+}
@@ -32,7 +32,6 @@ import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 import com.google.gson.stream.JsonWriter;
 import org.embl.mobie.viewer.Project;
-import org.embl.mobie.io.util.IOHelper;
 
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -44,7 +43,7 @@ public class ProjectJsonParser
 {
 	public Project parseProject( String path ) throws IOException
 	{
-		final String s = IOHelper.read( path );
+		final String s = MetadataCache.read( path );
 		Gson gson = new Gson();
 		Type type = new TypeToken< Project >() {}.getType();
 		Project project = gson.fromJson( s, type );
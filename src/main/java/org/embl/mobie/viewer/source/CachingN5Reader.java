@@ -0,0 +1,359 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.source;
+
+import mpicbg.spim.data.generic.sequence.BasicImgLoader;
+import org.embl.mobie.viewer.metrics.Metrics;
+import org.janelia.saalfeldlab.n5.BlockReader;
+import org.janelia.saalfeldlab.n5.BlockWriter;
+import org.janelia.saalfeldlab.n5.Compression;
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.DefaultBlockReader;
+import org.janelia.saalfeldlab.n5.DefaultBlockWriter;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.RawCompression;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Reads image chunks from a {@link DiskChunkCache} and only falls back
+ * to the wrapped (remote) reader for chunks that are not cached yet.
+ * Without a cache, all chunks are read from the wrapped reader.
+ *
+ * Chunks in the N5 format are cached as they are stored remotely, i.e. compressed.
+ * The readers do not expose the raw chunk data, thus the compressed bytes are
+ * captured while the wrapped reader decompresses them, using a copy of the
+ * dataset attributes with a capturing compression. The attributes of the caller
+ * are never modified. Other chunk formats, e.g. Zarr, are decoded by their reader
+ * in a way that can not be replayed here; their chunks are cached as decoded,
+ * uncompressed N5 blocks and their compressed size is not measured.
+ * All metadata requests are forwarded to the wrapped reader.
+ *
+ * The fetch latency, the number of compressed bytes read and the cache hits
+ * are recorded in the {@link Metrics}.
+ */
+public class CachingN5Reader implements N5Reader
+{
+	private final N5Reader reader;
+	private final String location;
+	private final DiskChunkCache cache;
+	private final String fetchMetric;
+	private final String bytesMetric;
+
+	/**
+	 * @param reader the reader of the actual data
+	 * @param location identifies the container, e.g. the URL of the image
+	 * @param cache the cache, may be null to only record metrics
+	 */
+	public CachingN5Reader( N5Reader reader, String location, DiskChunkCache cache )
+	{
+		this.reader = reader;
+		this.location = location;
+		this.cache = cache;
+		final String imageName = new File( location ).getName();
+		this.fetchMetric = Metrics.CHUNK_FETCH + ":" + imageName;
+		this.bytesMetric = Metrics.CHUNK_BYTES + ":" + imageName;
+	}
+
+	public N5Reader getWrappedReader()
+	{
+		return reader;
+	}
+
+	/**
+	 * Makes the given image loader read its chunks through the cache.
+	 * This must be called before any image of the loader has been requested.
+	 *
+	 * The loaders do not offer a way to set their reader, thus the
+	 * reader is exchanged by reflection.
+	 *
+	 * @param imgLoader the loader
+	 * @param location identifies the image, e.g. its URL
+	 * @param cache the cache, may be null to only record metrics
+	 * @return whether the cache could be installed
+	 */
+	public static boolean install( BasicImgLoader imgLoader, String location, DiskChunkCache cache )
+	{
+		for ( Class< ? > c = imgLoader.getClass(); c != null; c = c.getSuperclass() )
+		{
+			for ( Field field : c.getDeclaredFields() )
+			{
+				if ( ! N5Reader.class.isAssignableFrom( field.getType() ) || ! field.getType().isAssignableFrom( CachingN5Reader.class ) )
+					continue;
+
+				try
+				{
+					field.setAccessible( true );
+					final N5Reader reader = ( N5Reader ) field.get( imgLoader );
+					if ( reader == null || reader instanceof CachingN5Reader ) return false;
+					field.set( imgLoader, new CachingN5Reader( reader, location, cache ) );
+					return true;
+				}
+				catch ( Exception e )
+				{
+					System.err.println( "Could not install the disk cache for " + location + ": " + e.getMessage() );
+					return false;
+				}
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public DataBlock< ? > readBlock( String pathName, DatasetAttributes datasetAttributes, long... gridPosition ) throws IOException
+	{
+		// only plain attributes describe chunks in the N5 format
+		final boolean isN5Format = datasetAttributes.getClass().equals( DatasetAttributes.class );
+		final String key = location + "/" + pathName + "/" + Arrays.toString( gridPosition ) + ( isN5Format ? "/n5" : "/raw" );
+
+		if ( cache != null )
+		{
+			final byte[] cached = cache.get( key );
+			if ( cached != null )
+			{
+				Metrics.count( Metrics.DISK_CACHE_HITS, 1 );
+				return DefaultBlockReader.readBlock( new ByteArrayInputStream( cached ), isN5Format ? datasetAttributes : getRawAttributes( datasetAttributes ), gridPosition );
+			}
+			Metrics.count( Metrics.DISK_CACHE_MISSES, 1 );
+		}
+
+		if ( ! isN5Format )
+		{
+			final long start = System.nanoTime();
+			final DataBlock< ? > dataBlock = reader.readBlock( pathName, datasetAttributes, gridPosition );
+			Metrics.timeSince( fetchMetric, start );
+			if ( dataBlock != null && cache != null )
+			{
+				final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				DefaultBlockWriter.writeBlock( bytes, getRawAttributes( datasetAttributes ), dataBlock );
+				cache.put( key, bytes.toByteArray() );
+			}
+			return dataBlock;
+		}
+
+		final CapturingCompression compression = new CapturingCompression( datasetAttributes.getCompression(), cache != null );
+		final DatasetAttributes capturingAttributes = new DatasetAttributes( datasetAttributes.getDimensions(), datasetAttributes.getBlockSize(), datasetAttributes.getDataType(), compression );
+		final long start = System.nanoTime();
+		final DataBlock< ? > dataBlock = reader.readBlock( pathName, capturingAttributes, gridPosition );
+		Metrics.timeSince( fetchMetric, start );
+		Metrics.count( bytesMetric, compression.numBytes );
+
+		if ( dataBlock != null && cache != null )
+		{
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			writeHeader( bytes, dataBlock );
+			compression.captured.writeTo( bytes );
+			cache.put( key, bytes.toByteArray() );
+		}
+		return dataBlock;
+	}
+
+	private static DatasetAttributes getRawAttributes( DatasetAttributes datasetAttributes )
+	{
+		return new DatasetAttributes( datasetAttributes.getDimensions(), datasetAttributes.getBlockSize(), datasetAttributes.getDataType(), new RawCompression() );
+	}
+
+	/**
+	 * Writes the header of a chunk in the N5 format, as written by {@link DefaultBlockWriter}.
+	 */
+	private static void writeHeader( OutputStream out, DataBlock< ? > dataBlock ) throws IOException
+	{
+		final DataOutputStream dos = new DataOutputStream( out );
+		final int mode = dataBlock.getNumElements() == DataBlock.getNumElements( dataBlock.getSize() ) ? 0 : 1;
+		dos.writeShort( mode );
+		dos.writeShort( dataBlock.getSize().length );
+		for ( final int size : dataBlock.getSize() )
+			dos.writeInt( size );
+		if ( mode != 0 )
+			dos.writeInt( dataBlock.getNumElements() );
+		dos.flush();
+	}
+
+	/**
+	 * Counts and optionally keeps the bytes that are consumed when
+	 * decompressing a chunk, i.e. the compressed chunk data.
+	 * An instance is used for reading a single chunk.
+	 */
+	private static class CapturingCompression implements Compression
+	{
+		private final Compression compression;
+		private final ByteArrayOutputStream captured;
+		private long numBytes;
+
+		CapturingCompression( Compression compression, boolean capture )
+		{
+			this.compression = compression;
+			this.captured = capture ? new ByteArrayOutputStream() : null;
+		}
+
+		public String getType()
+		{
+			return compression.getType();
+		}
+
+		@Override
+		public BlockReader getReader()
+		{
+			return new BlockReader()
+			{
+				@Override
+				public < T, B extends DataBlock< T > > void read( B dataBlock, InputStream in ) throws IOException
+				{
+					final CapturingInputStream capturingInputStream = new CapturingInputStream( in, captured );
+					try
+					{
+						compression.getReader().read( dataBlock, capturingInputStream );
+					}
+					finally
+					{
+						numBytes += capturingInputStream.numBytes;
+					}
+				}
+			};
+		}
+
+		@Override
+		public BlockWriter getWriter()
+		{
+			return compression.getWriter();
+		}
+	}
+
+	private static class CapturingInputStream extends FilterInputStream
+	{
+		private final OutputStream captured;
+		private long numBytes;
+
+		CapturingInputStream( InputStream in, OutputStream captured )
+		{
+			super( in );
+			this.captured = captured;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			final int b = super.read();
+			if ( b != -1 )
+			{
+				numBytes++;
+				if ( captured != null ) captured.write( b );
+			}
+			return b;
+		}
+
+		@Override
+		public int read( byte[] b, int off, int len ) throws IOException
+		{
+			final int n = super.read( b, off, len );
+			if ( n > 0 )
+			{
+				numBytes += n;
+				if ( captured != null ) captured.write( b, off, n );
+			}
+			return n;
+		}
+
+		@Override
+		public long skip( long n ) throws IOException
+		{
+			// skipped bytes are part of the chunk and have to be kept
+			if ( captured != null ) return Math.max( 0, read( new byte[ ( int ) Math.min( n, 8192 ) ] ) );
+			final long skipped = super.skip( n );
+			numBytes += skipped;
+			return skipped;
+		}
+
+		@Override
+		public boolean markSupported()
+		{
+			return false;
+		}
+	}
+
+	@Override
+	public < T > T getAttribute( String pathName, String key, Class< T > clazz ) throws IOException
+	{
+		return reader.getAttribute( pathName, key, clazz );
+	}
+
+	@Override
+	public < T > T getAttribute( String pathName, String key, Type type ) throws IOException
+	{
+		return reader.getAttribute( pathName, key, type );
+	}
+
+	@Override
+	public DatasetAttributes getDatasetAttributes( String pathName ) throws IOException
+	{
+		return reader.getDatasetAttributes( pathName );
+	}
+
+	@Override
+	public boolean exists( String pathName )
+	{
+		return reader.exists( pathName );
+	}
+
+	@Override
+	public boolean datasetExists( String pathName ) throws IOException
+	{
+		return reader.datasetExists( pathName );
+	}
+
+	@Override
+	public String[] list( String pathName ) throws IOException
+	{
+		return reader.list( pathName );
+	}
+
+	@Override
+	public Map< String, Class< ? > > listAttributes( String pathName ) throws IOException
+	{
+		return reader.listAttributes( pathName );
+	}
+
+	@Override
+	public Version getVersion() throws IOException
+	{
+		return reader.getVersion();
+	}
+}
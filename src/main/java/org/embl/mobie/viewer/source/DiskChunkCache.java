@@ -0,0 +1,309 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.source;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.zip.CRC32;
+
+/**
+ * Size bounded on-disk cache of image chunks.
+ * The cache stores the bytes it is given; see {@link CachingN5Reader}
+ * for how the chunks are encoded.
+ *
+ * Each chunk is stored in its own file, sharded into sub-directories
+ * by the hash of its key. Files are written to a temporary file and then
+ * atomically moved into place, such that several threads or MoBIE instances
+ * can share one cache directory. Each file holds a CRC32 checksum of its content;
+ * corrupt files are deleted and treated as a cache miss.
+ *
+ * Once the cache exceeds its maximum size, the least recently used chunks
+ * are deleted. The access order is kept in the file modification times
+ * and thus survives restarts.
+ */
+public class DiskChunkCache
+{
+	public static final File DEFAULT_DIRECTORY = new File( System.getProperty( "user.home" ), ".mobie" + File.separator + "cache" + File.separator + "chunks" );
+	private static final int MAGIC = 0x4d6f4249; // "MoBI"
+
+	private static DiskChunkCache instance;
+
+	private final File directory;
+	private final long maxBytes;
+	private final LongSupplier clock;
+	private final Map< File, Entry > fileToEntry = new ConcurrentHashMap<>();
+	private final AtomicLong totalBytes = new AtomicLong();
+	private final AtomicBoolean isEvicting = new AtomicBoolean();
+	private volatile boolean isIndexed = false;
+
+	private static class Entry
+	{
+		final long bytes;
+		volatile long lastAccessMillis;
+
+		Entry( long bytes, long lastAccessMillis )
+		{
+			this.bytes = bytes;
+			this.lastAccessMillis = lastAccessMillis;
+		}
+	}
+
+	public DiskChunkCache( File directory, long maxBytes )
+	{
+		this( directory, maxBytes, System::currentTimeMillis );
+	}
+
+	/**
+	 * @param directory the directory of the cache
+	 * @param maxBytes the maximal size of the cache
+	 * @param clock the time in milliseconds that is used to order the chunks by access
+	 */
+	DiskChunkCache( File directory, long maxBytes, LongSupplier clock )
+	{
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		this.clock = clock;
+	}
+
+	/**
+	 * @return the cache that is shared by all images, or null if disk caching is disabled
+	 */
+	public static synchronized DiskChunkCache getInstance()
+	{
+		return instance;
+	}
+
+	public static synchronized void setInstance( DiskChunkCache diskChunkCache )
+	{
+		instance = diskChunkCache;
+	}
+
+	public File getDirectory()
+	{
+		return directory;
+	}
+
+	public long getMaxBytes()
+	{
+		return maxBytes;
+	}
+
+	public long getTotalBytes()
+	{
+		index();
+		return totalBytes.get();
+	}
+
+	/**
+	 * @param key the key of the chunk
+	 * @return the content of the chunk, or null if it is not cached
+	 */
+	public byte[] get( String key )
+	{
+		index();
+		final File file = getFile( key );
+		final Entry entry = fileToEntry.get( file );
+		if ( entry == null ) return null;
+
+		try ( DataInputStream in = new DataInputStream( Files.newInputStream( file.toPath() ) ) )
+		{
+			if ( in.readInt() != MAGIC )
+				throw new IOException( "Not a chunk file" );
+			final long checksum = in.readLong();
+			final byte[] bytes = new byte[ in.readInt() ];
+			in.readFully( bytes );
+			if ( checksum( bytes ) != checksum )
+				throw new IOException( "Checksum mismatch" );
+
+			entry.lastAccessMillis = clock.getAsLong();
+			file.setLastModified( entry.lastAccessMillis );
+			return bytes;
+		}
+		catch ( NoSuchFileException e )
+		{
+			// deleted by another process
+			remove( file );
+			return null;
+		}
+		catch ( IOException e )
+		{
+			System.err.println( "Deleting corrupt cached chunk " + file + ": " + e.getMessage() );
+			remove( file );
+			file.delete();
+			return null;
+		}
+	}
+
+	public void put( String key, byte[] bytes )
+	{
+		index();
+		final File file = getFile( key );
+		try
+		{
+			Files.createDirectories( file.getParentFile().toPath() );
+			final File tmp = File.createTempFile( file.getName(), ".tmp", file.getParentFile() );
+			try ( DataOutputStream out = new DataOutputStream( Files.newOutputStream( tmp.toPath() ) ) )
+			{
+				out.writeInt( MAGIC );
+				out.writeLong( checksum( bytes ) );
+				out.writeInt( bytes.length );
+				out.write( bytes );
+			}
+			Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+
+			final Entry previous = fileToEntry.put( file, new Entry( file.length(), clock.getAsLong() ) );
+			totalBytes.addAndGet( file.length() - ( previous == null ? 0 : previous.bytes ) );
+		}
+		catch ( IOException e )
+		{
+			// the cache is optional, thus failing to write is not an error
+			System.err.println( "Could not cache chunk " + key + ": " + e.getMessage() );
+		}
+
+		if ( totalBytes.get() > maxBytes )
+			evict();
+	}
+
+	/**
+	 * Deletes the least recently used chunks until the cache
+	 * uses less than 90% of its maximum size.
+	 */
+	public void evict()
+	{
+		if ( ! isEvicting.compareAndSet( false, true ) ) return;
+
+		try
+		{
+			final long targetBytes = ( long ) ( 0.9 * maxBytes );
+			if ( totalBytes.get() <= targetBytes ) return;
+
+			final List< Map.Entry< File, Entry > > entries = new ArrayList<>( fileToEntry.entrySet() );
+			entries.sort( Comparator.comparingLong( e -> e.getValue().lastAccessMillis ) );
+			for ( Map.Entry< File, Entry > entry : entries )
+			{
+				if ( totalBytes.get() <= targetBytes ) break;
+				entry.getKey().delete();
+				remove( entry.getKey() );
+			}
+		}
+		finally
+		{
+			isEvicting.set( false );
+		}
+	}
+
+	public void clear()
+	{
+		index();
+		for ( File file : new ArrayList<>( fileToEntry.keySet() ) )
+		{
+			file.delete();
+			remove( file );
+		}
+	}
+
+	private void remove( File file )
+	{
+		final Entry entry = fileToEntry.remove( file );
+		if ( entry != null )
+			totalBytes.addAndGet( - entry.bytes );
+	}
+
+	// Builds the index of cached chunks from a previous session
+	private void index()
+	{
+		if ( isIndexed ) return;
+
+		synchronized ( this )
+		{
+			if ( isIndexed ) return;
+			index( directory );
+			isIndexed = true;
+		}
+	}
+
+	private void index( File directory )
+	{
+		final File[] files = directory.listFiles();
+		if ( files == null ) return;
+
+		for ( File file : files )
+		{
+			if ( file.isDirectory() )
+				index( file );
+			else if ( file.getName().endsWith( ".tmp" ) )
+				file.delete(); // left over from an interrupted write
+			else if ( fileToEntry.putIfAbsent( file, new Entry( file.length(), file.lastModified() ) ) == null )
+				totalBytes.addAndGet( file.length() );
+		}
+	}
+
+	private File getFile( String key )
+	{
+		final String hash = hash( key );
+		return new File( directory, hash.substring( 0, 2 ) + File.separator + hash.substring( 2, 4 ) + File.separator + hash + ".chunk" );
+	}
+
+	private static long checksum( byte[] bytes )
+	{
+		final CRC32 crc32 = new CRC32();
+		crc32.update( bytes, 0, bytes.length );
+		return crc32.getValue();
+	}
+
+	private static String hash( String string )
+	{
+		try
+		{
+			final byte[] digest = MessageDigest.getInstance( "SHA-1" ).digest( string.getBytes( StandardCharsets.UTF_8 ) );
+			return String.format( "%040x", new BigInteger( 1, digest ) );
+		}
+		catch ( NoSuchAlgorithmException e )
+		{
+			throw new RuntimeException( e );
+		}
+	}
+}
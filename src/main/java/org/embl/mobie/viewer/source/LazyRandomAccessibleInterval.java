@@ -0,0 +1,110 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.source;
+
+import net.imglib2.AbstractInterval;
+import net.imglib2.Interval;
+import net.imglib2.Point;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+
+import java.util.function.Supplier;
+
+/**
+ * An image of known dimensions whose data is only opened
+ * once a voxel value is actually requested.
+ * Asking for the dimensions or creating an accessor does not open the data.
+ *
+ * The opener may return null while the data is still being opened,
+ * in which case the placeholder value is returned.
+ *
+ * @param <T> the voxel type
+ */
+public class LazyRandomAccessibleInterval< T > extends AbstractInterval implements RandomAccessibleInterval< T >
+{
+	private final Supplier< RandomAccessibleInterval< T > > opener;
+	private final T placeholder;
+
+	public LazyRandomAccessibleInterval( long[] dimensions, Supplier< RandomAccessibleInterval< T > > opener, T placeholder )
+	{
+		super( dimensions );
+		this.opener = opener;
+		this.placeholder = placeholder;
+	}
+
+	@Override
+	public RandomAccess< T > randomAccess()
+	{
+		return new LazyRandomAccess();
+	}
+
+	@Override
+	public RandomAccess< T > randomAccess( Interval interval )
+	{
+		return randomAccess();
+	}
+
+	private class LazyRandomAccess extends Point implements RandomAccess< T >
+	{
+		private RandomAccess< T > access;
+
+		LazyRandomAccess()
+		{
+			super( LazyRandomAccessibleInterval.this.numDimensions() );
+		}
+
+		@Override
+		public T get()
+		{
+			if ( access == null )
+			{
+				final RandomAccessibleInterval< T > rai = opener.get();
+				if ( rai == null )
+					return placeholder;
+				access = rai.randomAccess();
+			}
+
+			access.setPosition( this );
+			return access.get();
+		}
+
+		@Override
+		public LazyRandomAccess copy()
+		{
+			final LazyRandomAccess copy = new LazyRandomAccess();
+			copy.setPosition( this );
+			return copy;
+		}
+
+		public LazyRandomAccess copyRandomAccess()
+		{
+			return copy();
+		}
+	}
+}
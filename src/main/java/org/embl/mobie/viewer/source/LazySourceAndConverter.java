@@ -0,0 +1,166 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.source;
+
+import bdv.viewer.SourceAndConverter;
+import ij.IJ;
+import net.imglib2.Volatile;
+import net.imglib2.type.numeric.NumericType;
+import net.imglib2.type.numeric.RealType;
+import org.embl.mobie.viewer.MultiThreading;
+import org.embl.mobie.viewer.color.LazyColorConverter;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Creates a {@link SourceAndConverter} from cached {@link SourceMetadata}
+ * that only opens the actual image, using the given opener,
+ * once one of its voxels needs to be rendered.
+ *
+ * The image is opened at most once. Accessing the voxels of the volatile source,
+ * which is the one that is rendered in the viewer, opens the image
+ * on the {@link MultiThreading#ioExecutorService} and shows invalid voxels until it is open,
+ * such that the rendering is not blocked. Accessing the voxels of the
+ * non-volatile source opens the image on the calling thread.
+ *
+ * The display settings that were set on the lazy converters are applied
+ * to the converters of the opened image; all others are taken from the opened image.
+ */
+public class LazySourceAndConverter
+{
+	private final String name;
+	private final SourceMetadata metadata;
+	private final Supplier< SourceAndConverter< ? > > opener;
+	private LazyColorConverter< ? > converter;
+	private LazyColorConverter< ? > volatileConverter;
+	private final AtomicBoolean isOpening = new AtomicBoolean();
+	private NumericType< ? > volatileType;
+	private volatile SourceAndConverter< ? > openedSourceAndConverter;
+
+	public LazySourceAndConverter( String name, SourceMetadata metadata, Supplier< SourceAndConverter< ? > > opener )
+	{
+		this.name = name;
+		this.metadata = metadata;
+		this.opener = opener;
+	}
+
+	/**
+	 * @return the opened image, or null if it has not been opened (yet)
+	 */
+	public SourceAndConverter< ? > getOpenedSourceAndConverter()
+	{
+		return openedSourceAndConverter;
+	}
+
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	public SourceAndConverter< ? > create()
+	{
+		final NumericType type = instantiate( metadata.type );
+		converter = createConverter( type );
+		final LazySpimSource source = new LazySpimSource( name, metadata, type, () -> open().getSpimSource() );
+
+		if ( metadata.volatileType == null )
+			return new SourceAndConverter( source, converter );
+
+		volatileType = instantiate( metadata.volatileType );
+		if ( volatileType instanceof Volatile )
+			( ( Volatile< ? > ) volatileType ).setValid( false );
+		volatileConverter = createConverter( type );
+		final LazySpimSource volatileSource = new LazySpimSource( name, metadata, volatileType, () ->
+		{
+			final SourceAndConverter< ? > sourceAndConverter = openedSourceAndConverter;
+			if ( sourceAndConverter == null )
+			{
+				openInBackground();
+				return null;
+			}
+			return sourceAndConverter.asVolatile().getSpimSource();
+		} );
+
+		return new SourceAndConverter( source, converter, new SourceAndConverter( volatileSource, volatileConverter ) );
+	}
+
+	private void openInBackground()
+	{
+		if ( ! isOpening.compareAndSet( false, true ) ) return;
+
+		MultiThreading.ioExecutorService.submit( () ->
+		{
+			try
+			{
+				open();
+			}
+			catch ( Exception e )
+			{
+				IJ.log( "[ERROR] Could not open " + name + ": " + e.getMessage() );
+				// show the image as empty rather than rendering it again and again
+				if ( volatileType instanceof Volatile )
+					( ( Volatile< ? > ) volatileType ).setValid( true );
+			}
+		} );
+	}
+
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	private synchronized SourceAndConverter< ? > open()
+	{
+		if ( openedSourceAndConverter != null )
+			return openedSourceAndConverter;
+
+		final SourceAndConverter< ? > sourceAndConverter = opener.get();
+		( ( LazyColorConverter ) converter ).setConverter( sourceAndConverter.getConverter() );
+		if ( volatileConverter != null && sourceAndConverter.asVolatile() != null )
+			( ( LazyColorConverter ) volatileConverter ).setConverter( sourceAndConverter.asVolatile().getConverter() );
+
+		openedSourceAndConverter = sourceAndConverter;
+		return sourceAndConverter;
+	}
+
+	private static LazyColorConverter< ? > createConverter( NumericType< ? > type )
+	{
+		if ( type instanceof RealType )
+		{
+			final RealType< ? > realType = ( RealType< ? > ) type;
+			return new LazyColorConverter<>( 0, Math.min( realType.getMaxValue(), 65535 ) );
+		}
+		return new LazyColorConverter<>( 0, 255 );
+	}
+
+	private static NumericType< ? > instantiate( String className )
+	{
+		try
+		{
+			return ( NumericType< ? > ) Class.forName( className ).newInstance();
+		}
+		catch ( Exception e )
+		{
+			throw new RuntimeException( "Could not create voxel type " + className, e );
+		}
+	}
+}
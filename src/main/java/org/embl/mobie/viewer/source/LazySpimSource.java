@@ -0,0 +1,137 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.source;
+
+import bdv.util.DefaultInterpolators;
+import bdv.viewer.Interpolation;
+import bdv.viewer.Source;
+import mpicbg.spim.data.sequence.VoxelDimensions;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealRandomAccessible;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.NumericType;
+import net.imglib2.view.Views;
+
+import java.util.function.Supplier;
+
+/**
+ * A source whose geometry and type are known from cached {@link SourceMetadata},
+ * but whose image data is only opened once a voxel inside its
+ * bounds is requested, e.g. once it is rendered within the viewer window.
+ *
+ * The opener may return null while the image data is opened in the background;
+ * until then all voxels have the value of the given type,
+ * which for volatile types should be invalid, such that the viewer keeps on rendering.
+ *
+ * @param <T> the voxel type
+ */
+public class LazySpimSource< T extends NumericType< T > > implements Source< T >
+{
+	private final String name;
+	private final SourceMetadata metadata;
+	private final T type;
+	private final Supplier< Source< T > > opener;
+	private final DefaultInterpolators< T > interpolators = new DefaultInterpolators<>();
+	private volatile Source< T > source;
+
+	public LazySpimSource( String name, SourceMetadata metadata, T type, Supplier< Source< T > > opener )
+	{
+		this.name = name;
+		this.metadata = metadata;
+		this.type = type;
+		this.opener = opener;
+	}
+
+	@Override
+	public boolean isPresent( int t )
+	{
+		return metadata.timepoints.contains( t );
+	}
+
+	@Override
+	public RandomAccessibleInterval< T > getSource( int t, int level )
+	{
+		if ( source != null )
+			return source.getSource( t, level );
+
+		return new LazyRandomAccessibleInterval<>( metadata.dimensions.get( level ), () ->
+		{
+			final Source< T > source = open();
+			return source == null ? null : source.getSource( t, level );
+		}, type );
+	}
+
+	public boolean isOpen()
+	{
+		return source != null;
+	}
+
+	private Source< T > open()
+	{
+		if ( source == null )
+			source = opener.get();
+		return source;
+	}
+
+	@Override
+	public RealRandomAccessible< T > getInterpolatedSource( int t, int level, Interpolation method )
+	{
+		return Views.interpolate( Views.extendZero( getSource( t, level ) ), interpolators.get( method ) );
+	}
+
+	@Override
+	public void getSourceTransform( int t, int level, AffineTransform3D transform )
+	{
+		transform.set( metadata.getTransform( level ) );
+	}
+
+	@Override
+	public T getType()
+	{
+		return type;
+	}
+
+	@Override
+	public String getName()
+	{
+		return name;
+	}
+
+	@Override
+	public VoxelDimensions getVoxelDimensions()
+	{
+		return metadata.getVoxelDimensions();
+	}
+
+	@Override
+	public int getNumMipmapLevels()
+	{
+		return metadata.getNumLevels();
+	}
+}
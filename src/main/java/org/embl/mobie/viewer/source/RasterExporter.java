@@ -0,0 +1,342 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.source;
+
+import bdv.util.Affine3DHelpers;
+import bdv.viewer.Interpolation;
+import bdv.viewer.Source;
+import ij.IJ;
+import ij.ImagePlus;
+import net.imglib2.Cursor;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealInterval;
+import net.imglib2.RealRandomAccess;
+import net.imglib2.algorithm.util.Grids;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.img.display.imagej.ImageJFunctions;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.NumericType;
+import net.imglib2.view.IntervalView;
+import net.imglib2.view.Views;
+import org.embl.mobie.io.n5.util.DownsampleBlock;
+import org.embl.mobie.io.ome.zarr.writers.imageplus.WriteImagePlusToN5OmeZarr;
+import org.embl.mobie.viewer.MoBIE;
+import org.embl.mobie.viewer.MultiThreading;
+import org.janelia.saalfeldlab.n5.GzipCompression;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Resamples a region of a {@link Source} onto a regular voxel grid
+ * and materialises it in memory, as TIFF or as OME-Zarr.
+ *
+ * The region is given in global (physical) coordinates, thus any displayed
+ * source can be exported, including merged grids and transformed sources.
+ * The data is read from the resolution level that matches the requested voxel size.
+ * The output is cut into blocks, which are copied in parallel from the source's cached cells.
+ * If the output voxel grid coincides with the voxel grid of the source the voxels
+ * are copied directly, otherwise they are sampled.
+ * Several time points are exported on the same voxel grid and level.
+ */
+public class RasterExporter< T extends NativeType< T > & NumericType< T > >
+{
+	public static final int[] DEFAULT_BLOCK_SIZE = { 128, 128, 16 };
+
+	private final Source< T > source;
+	private final List< Integer > timepoints;
+	private final double[] min;
+	private final double[] voxelSize;
+	private final long[] dimensions;
+	private final int level;
+	private Interpolation interpolation = Interpolation.NEARESTNEIGHBOR;
+	private int[] blockSize = DEFAULT_BLOCK_SIZE;
+
+	/**
+	 * @param source the source to export
+	 * @param t the time point to export
+	 * @param interval the region to export, in global coordinates
+	 * @param voxelSize the voxel size of the exported image, in global units
+	 */
+	public RasterExporter( Source< T > source, int t, RealInterval interval, double[] voxelSize )
+	{
+		this( source, Collections.singletonList( t ), interval, voxelSize );
+	}
+
+	/**
+	 * @param source the source to export
+	 * @param timepoints the time points to export
+	 * @param interval the region to export, in global coordinates
+	 * @param voxelSize the voxel size of the exported image, in global units
+	 */
+	public RasterExporter( Source< T > source, List< Integer > timepoints, RealInterval interval, double[] voxelSize )
+	{
+		this.source = source;
+		this.timepoints = new ArrayList<>( timepoints );
+		this.min = interval.minAsDoubleArray();
+		this.voxelSize = voxelSize;
+		this.dimensions = new long[ 3 ];
+		for ( int d = 0; d < 3; d++ )
+			dimensions[ d ] = Math.max( 1, ( long ) Math.ceil( ( interval.realMax( d ) - interval.realMin( d ) ) / voxelSize[ d ] ) );
+		this.level = getLevel( source, this.timepoints.get( 0 ), voxelSize );
+		snapToSourceVoxels();
+	}
+
+	/**
+	 * If the voxels of the output and of the source only differ by a translation,
+	 * shift the output by less than a voxel such that the voxels can be copied.
+	 */
+	private void snapToSourceVoxels()
+	{
+		final AffineTransform3D outputToSource = getOutputToSourceTransform( timepoints.get( 0 ) );
+		if ( ! isIntegerTranslation( outputToSource, false ) ) return;
+
+		for ( int d = 0; d < 3; d++ )
+		{
+			final double translation = outputToSource.get( d, 3 );
+			min[ d ] += ( Math.round( translation ) - translation ) * voxelSize[ d ];
+		}
+	}
+
+	/**
+	 * @param interpolation how to sample the source if the voxel grids do not coincide;
+	 *                      use {@link Interpolation#NEARESTNEIGHBOR}, the default, for label images
+	 */
+	public void setInterpolation( Interpolation interpolation )
+	{
+		this.interpolation = interpolation;
+	}
+
+	public void setBlockSize( int[] blockSize )
+	{
+		this.blockSize = blockSize;
+	}
+
+	public long[] getDimensions()
+	{
+		return dimensions;
+	}
+
+	public List< Integer > getTimepoints()
+	{
+		return Collections.unmodifiableList( timepoints );
+	}
+
+	/**
+	 * @return the number of voxels of all time points
+	 */
+	public long getNumVoxels()
+	{
+		return dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ] * timepoints.size();
+	}
+
+	public int getLevel()
+	{
+		return level;
+	}
+
+	/**
+	 * @return the transformation from the exported voxel grid to global coordinates
+	 */
+	public AffineTransform3D getOutputTransform()
+	{
+		final AffineTransform3D transform = new AffineTransform3D();
+		for ( int d = 0; d < 3; d++ )
+		{
+			transform.set( voxelSize[ d ], d, d );
+			transform.set( min[ d ], d, 3 );
+		}
+		return transform;
+	}
+
+	/**
+	 * @param t the time point
+	 * @return the exported voxels of the time point
+	 */
+	public Img< T > export( int t )
+	{
+		final long startTime = System.currentTimeMillis();
+
+		final T type = source.getType().createVariable();
+		final Img< T > img = dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ] < Integer.MAX_VALUE
+				? new ArrayImgFactory<>( type ).create( dimensions )
+				: new CellImgFactory<>( type, blockSize ).create( dimensions );
+
+		final AffineTransform3D outputToSource = getOutputToSourceTransform( t );
+		if ( isIntegerTranslation( outputToSource, true ) )
+			copyVoxels( img, t, outputToSource );
+		else
+			sampleVoxels( img, t, outputToSource );
+
+		final long durationMillis = System.currentTimeMillis() - startTime;
+		if ( durationMillis > MoBIE.minLogTimeMillis )
+			IJ.log( source.getName() + ": Exported " + img.size() + " voxels of time point " + t + " from resolution level " + level + " in " + durationMillis + " ms." );
+
+		return img;
+	}
+
+	public ImagePlus exportAsImagePlus()
+	{
+		final List< RandomAccessibleInterval< T > > volumes = new ArrayList<>();
+		for ( int t : timepoints )
+			volumes.add( export( t ) );
+
+		// ImageJ expects XYCZT
+		final IntervalView< T > xyztc = Views.addDimension( Views.stack( volumes ), 0, 0 );
+		final IntervalView< T > xyczt = Views.permute( Views.permute( xyztc, 4, 3 ), 3, 2 );
+		final ImagePlus imagePlus = ImageJFunctions.wrap( xyczt, source.getName() );
+
+		imagePlus.getCalibration().setUnit( source.getVoxelDimensions().unit() );
+		imagePlus.getCalibration().pixelWidth = voxelSize[ 0 ];
+		imagePlus.getCalibration().pixelHeight = voxelSize[ 1 ];
+		imagePlus.getCalibration().pixelDepth = voxelSize[ 2 ];
+		imagePlus.getCalibration().xOrigin = - min[ 0 ] / voxelSize[ 0 ];
+		imagePlus.getCalibration().yOrigin = - min[ 1 ] / voxelSize[ 1 ];
+		imagePlus.getCalibration().zOrigin = - min[ 2 ] / voxelSize[ 2 ];
+
+		return imagePlus;
+	}
+
+	public void exportAsTiff( String path )
+	{
+		IJ.saveAsTiff( exportAsImagePlus(), path );
+	}
+
+	public void exportAsOmeZarr( String path, DownsampleBlock.DownsamplingMethod downsamplingMethod )
+	{
+		// the voxel size and unit are taken from the calibration of the ImagePlus
+		new WriteImagePlusToN5OmeZarr().export( exportAsImagePlus(), path, new AffineTransform3D(), downsamplingMethod, new GzipCompression() );
+	}
+
+	private void copyVoxels( RandomAccessibleInterval< T > target, int t, AffineTransform3D outputToSource )
+	{
+		final long[] offset = new long[ 3 ];
+		for ( int d = 0; d < 3; d++ )
+			offset[ d ] = - Math.round( outputToSource.get( d, 3 ) );
+
+		final RandomAccessible< T > sourceVoxels = Views.translate( Views.extendZero( source.getSource( t, level ) ), offset );
+
+		forEachBlock( target, block ->
+		{
+			final RandomAccess< T > access = sourceVoxels.randomAccess( block );
+			final Cursor< T > cursor = Views.interval( target, block ).localizingCursor();
+			while ( cursor.hasNext() )
+			{
+				cursor.fwd();
+				access.setPosition( cursor );
+				cursor.get().set( access.get() );
+			}
+		} );
+	}
+
+	private void sampleVoxels( RandomAccessibleInterval< T > target, int t, AffineTransform3D outputToSource )
+	{
+		forEachBlock( target, block ->
+		{
+			final RealRandomAccess< T > access = source.getInterpolatedSource( t, level, interpolation ).realRandomAccess();
+			final Cursor< T > cursor = Views.interval( target, block ).localizingCursor();
+			final double[] position = new double[ 3 ];
+			while ( cursor.hasNext() )
+			{
+				cursor.fwd();
+				cursor.localize( position );
+				outputToSource.apply( position, position );
+				access.setPosition( position );
+				cursor.get().set( access.get() );
+			}
+		} );
+	}
+
+	private void forEachBlock( RandomAccessibleInterval< T > target, Consumer< Interval > copier )
+	{
+		final List< Interval > blocks = Grids.collectAllContainedIntervals( target.dimensionsAsLongArray(), blockSize );
+
+		final ArrayList< Future< ? > > futures = MultiThreading.getFutures();
+		for ( Interval block : blocks )
+			futures.add( MultiThreading.executorService.submit( () -> copier.accept( block ) ) );
+
+		MultiThreading.waitUntilFinished( futures, cause -> new RuntimeException( "Could not export " + source.getName(), cause ) );
+	}
+
+	private AffineTransform3D getOutputToSourceTransform( int t )
+	{
+		final AffineTransform3D sourceTransform = new AffineTransform3D();
+		source.getSourceTransform( t, level, sourceTransform );
+
+		final AffineTransform3D outputToSource = getOutputTransform();
+		outputToSource.preConcatenate( sourceTransform.inverse() );
+		return outputToSource;
+	}
+
+	private static boolean isIntegerTranslation( AffineTransform3D transform, boolean checkTranslation )
+	{
+		final double eps = 1e-6;
+		for ( int row = 0; row < 3; row++ )
+		{
+			for ( int col = 0; col < 3; col++ )
+				if ( Math.abs( transform.get( row, col ) - ( row == col ? 1 : 0 ) ) > eps )
+					return false;
+
+			final double translation = transform.get( row, 3 );
+			if ( checkTranslation && Math.abs( translation - Math.round( translation ) ) > eps )
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the coarsest resolution level that is at least as fine
+	 * 		   as the requested voxel size in all dimensions
+	 */
+	private static int getLevel( Source< ? > source, int t, double[] voxelSize )
+	{
+		final AffineTransform3D sourceTransform = new AffineTransform3D();
+		for ( int level = source.getNumMipmapLevels() - 1; level > 0; level-- )
+		{
+			source.getSourceTransform( t, level, sourceTransform );
+			boolean isFineEnough = true;
+			for ( int d = 0; d < 3; d++ )
+				if ( Affine3DHelpers.extractScale( sourceTransform, d ) > voxelSize[ d ] * 1.001 )
+					isFineEnough = false;
+
+			if ( isFineEnough )
+				return level;
+		}
+		return 0;
+	}
+}
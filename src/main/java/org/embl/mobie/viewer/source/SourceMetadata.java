@@ -0,0 +1,263 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.source;
+
+import bdv.viewer.Source;
+import bdv.viewer.SourceAndConverter;
+import com.google.gson.Gson;
+import mpicbg.spim.data.sequence.FinalVoxelDimensions;
+import mpicbg.spim.data.sequence.VoxelDimensions;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.realtransform.AffineTransform3D;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The metadata of an image source that is needed to show it in the viewer
+ * without opening it, i.e. its time points, resolution levels, voxel
+ * dimensions and data types.
+ *
+ * The metadata is cached on disk, keyed by the image path,
+ * such that the image can be opened lazily in later sessions.
+ * Each entry records the version of the image's metadata file,
+ * i.e. its modification time or, for remote images, its ETag or Last-Modified header,
+ * and is only used as long as that version is unchanged.
+ */
+public class SourceMetadata
+{
+	public static File cacheDirectory = new File( System.getProperty( "user.home" ), ".mobie" + File.separator + "cache" + File.separator + "source-metadata" );
+
+	public String imagePath;
+	public String version;
+	public List< Integer > timepoints;
+	public List< double[] > transforms; // row packed, per level
+	public List< long[] > dimensions; // per level
+	public String unit;
+	public double[] voxelSize;
+	public String type;
+	public String volatileType;
+
+	public static SourceMetadata fromSourceAndConverter( String imagePath, SourceAndConverter< ? > sourceAndConverter, List< Integer > timepoints )
+	{
+		final Source< ? > source = sourceAndConverter.getSpimSource();
+		final int t = timepoints.get( 0 );
+
+		final SourceMetadata metadata = new SourceMetadata();
+		metadata.imagePath = imagePath;
+		metadata.version = getVersion( imagePath );
+		metadata.timepoints = new ArrayList<>( timepoints );
+		metadata.transforms = new ArrayList<>();
+		metadata.dimensions = new ArrayList<>();
+		for ( int level = 0; level < source.getNumMipmapLevels(); level++ )
+		{
+			final AffineTransform3D transform = new AffineTransform3D();
+			source.getSourceTransform( t, level, transform );
+			metadata.transforms.add( transform.getRowPackedCopy() );
+			final RandomAccessibleInterval< ? > rai = source.getSource( t, level );
+			final long[] dimensions = new long[ 3 ];
+			for ( int d = 0; d < rai.numDimensions() && d < 3; d++ )
+				dimensions[ d ] = rai.dimension( d );
+			for ( int d = rai.numDimensions(); d < 3; d++ )
+				dimensions[ d ] = 1;
+			metadata.dimensions.add( dimensions );
+		}
+
+		final VoxelDimensions voxelDimensions = source.getVoxelDimensions();
+		if ( voxelDimensions != null )
+		{
+			metadata.unit = voxelDimensions.unit();
+			metadata.voxelSize = voxelDimensions.dimensionsAsDoubleArray();
+		}
+
+		metadata.type = source.getType().getClass().getName();
+		if ( sourceAndConverter.asVolatile() != null )
+			metadata.volatileType = sourceAndConverter.asVolatile().getSpimSource().getType().getClass().getName();
+
+		return metadata;
+	}
+
+	public int getNumLevels()
+	{
+		return transforms.size();
+	}
+
+	public AffineTransform3D getTransform( int level )
+	{
+		final AffineTransform3D transform = new AffineTransform3D();
+		transform.set( transforms.get( level ) );
+		return transform;
+	}
+
+	public VoxelDimensions getVoxelDimensions()
+	{
+		if ( voxelSize == null ) return null;
+		return new FinalVoxelDimensions( unit, voxelSize );
+	}
+
+	/**
+	 * @param imagePath the path or URL of the image
+	 * @return the cached metadata, or null if there is none, it cannot be read or the image has changed since
+	 */
+	public static SourceMetadata read( String imagePath )
+	{
+		final File file = getCacheFile( imagePath );
+		if ( ! file.exists() ) return null;
+
+		try ( Reader reader = Files.newBufferedReader( file.toPath(), StandardCharsets.UTF_8 ) )
+		{
+			final SourceMetadata metadata = new Gson().fromJson( reader, SourceMetadata.class );
+			if ( metadata == null || ! imagePath.equals( metadata.imagePath ) || metadata.getNumLevels() == 0 )
+				return null;
+			if ( metadata.version == null || ! metadata.version.equals( getVersion( imagePath ) ) )
+				return null;
+			return metadata;
+		}
+		catch ( Exception e )
+		{
+			// a corrupt cache entry is simply ignored and overwritten later
+			return null;
+		}
+	}
+
+	public void write()
+	{
+		// without a version the entry could never be validated
+		if ( version == null ) return;
+
+		final File file = getCacheFile( imagePath );
+		try
+		{
+			Files.createDirectories( cacheDirectory.toPath() );
+			final File tmp = new File( file.getPath() + ".tmp" );
+			try ( Writer writer = Files.newBufferedWriter( tmp.toPath(), StandardCharsets.UTF_8 ) )
+			{
+				new Gson().toJson( this, writer );
+			}
+			Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+		}
+		catch ( IOException e )
+		{
+			System.err.println( "Could not cache metadata of " + imagePath + ": " + e.getMessage() );
+		}
+	}
+
+	/**
+	 * @param imagePath the path or URL of the image
+	 * @return the version of the image's metadata file, or null if it cannot be determined
+	 */
+	public static String getVersion( String imagePath )
+	{
+		for ( String path : getMetadataPaths( imagePath ) )
+		{
+			final String version = isRemote( path ) ? getRemoteVersion( path ) : getLocalVersion( path );
+			if ( version != null )
+				return version;
+		}
+		return null;
+	}
+
+	private static List< String > getMetadataPaths( String imagePath )
+	{
+		if ( imagePath.endsWith( ".xml" ) )
+			return Collections.singletonList( imagePath );
+
+		// ome.zarr or n5 container
+		final String separator = isRemote( imagePath ) ? "/" : File.separator;
+		return Arrays.asList( imagePath + separator + ".zattrs", imagePath + separator + "attributes.json" );
+	}
+
+	private static String getLocalVersion( String path )
+	{
+		final File file = new File( path );
+		if ( ! file.exists() ) return null;
+		return String.valueOf( file.lastModified() );
+	}
+
+	private static String getRemoteVersion( String path )
+	{
+		try
+		{
+			final HttpURLConnection connection = ( HttpURLConnection ) new URL( path ).openConnection();
+			try
+			{
+				connection.setRequestMethod( "HEAD" );
+				if ( connection.getResponseCode() != HttpURLConnection.HTTP_OK )
+					return null;
+				final String etag = connection.getHeaderField( "ETag" );
+				return etag != null ? etag : connection.getHeaderField( "Last-Modified" );
+			}
+			finally
+			{
+				connection.disconnect();
+			}
+		}
+		catch ( IOException e )
+		{
+			return null;
+		}
+	}
+
+	private static boolean isRemote( String path )
+	{
+		return path.startsWith( "http://" ) || path.startsWith( "https://" );
+	}
+
+	private static File getCacheFile( String imagePath )
+	{
+		return new File( cacheDirectory, hash( imagePath ) + ".json" );
+	}
+
+	private static String hash( String string )
+	{
+		try
+		{
+			final byte[] digest = MessageDigest.getInstance( "SHA-1" ).digest( string.getBytes( StandardCharsets.UTF_8 ) );
+			return String.format( "%040x", new BigInteger( 1, digest ) );
+		}
+		catch ( NoSuchAlgorithmException e )
+		{
+			throw new RuntimeException( e );
+		}
+	}
+}
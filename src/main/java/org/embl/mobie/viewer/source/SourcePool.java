@@ -0,0 +1,312 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.source;
+
+import bdv.img.n5.N5ImageLoader;
+import bdv.viewer.SourceAndConverter;
+import ij.IJ;
+import mpicbg.spim.data.sequence.ImgLoader;
+import net.imglib2.display.ColorConverter;
+import net.imglib2.type.numeric.ARGBType;
+import org.embl.mobie.io.ome.zarr.loaders.N5OMEZarrImageLoader;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Reference counted pool of opened sources.
+ *
+ * Sources are acquired by name; a source that is already open (or still being opened)
+ * is shared instead of being opened again, keeping its image loader and thereby its cache.
+ * Once a source is released by all its users it becomes idle. Idle sources are
+ * closed after {@link #setMaxIdleMillis(long)} or, if the used heap exceeds
+ * {@link #setMemoryBudget(long)}, during the next periodic eviction.
+ */
+public class SourcePool
+{
+	public static final long DEFAULT_MAX_IDLE_MILLIS = 5 * 60 * 1000;
+	public static final long DEFAULT_MEMORY_BUDGET = Runtime.getRuntime().maxMemory() / 2;
+	private static final long EVICTION_PERIOD_MILLIS = 10 * 1000;
+
+	private final Map< String, Entry > entries = new HashMap<>();
+	private final ScheduledExecutorService evictionService;
+	private long maxIdleMillis = DEFAULT_MAX_IDLE_MILLIS;
+	private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+
+	public SourcePool()
+	{
+		evictionService = Executors.newSingleThreadScheduledExecutor( runnable -> {
+			final Thread thread = new Thread( runnable, "MoBIE source pool eviction" );
+			thread.setDaemon( true );
+			return thread;
+		} );
+		evictionService.scheduleWithFixedDelay( this::evictIdle, EVICTION_PERIOD_MILLIS, EVICTION_PERIOD_MILLIS, TimeUnit.MILLISECONDS );
+	}
+
+	/**
+	 * @param maxIdleMillis time after which a source that is not used by any view is closed
+	 */
+	public void setMaxIdleMillis( long maxIdleMillis )
+	{
+		this.maxIdleMillis = maxIdleMillis;
+	}
+
+	/**
+	 * @param memoryBudget used heap, in bytes, above which all idle sources are closed
+	 */
+	public void setMemoryBudget( long memoryBudget )
+	{
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * Returns the pooled source with the given name, opening it if needed.
+	 * Each call must be matched by a call to {@link #release(String)}.
+	 *
+	 * @param name the name of the source
+	 * @param opener opens the source if it is not in the pool
+	 * @return the source
+	 */
+	public SourceAndConverter< ? > acquire( String name, Supplier< PooledSource > opener )
+	{
+		final Entry entry;
+		final boolean isOpener;
+		final boolean wasIdle;
+		synchronized ( this )
+		{
+			Entry existing = entries.get( name );
+			isOpener = existing == null;
+			if ( isOpener )
+			{
+				existing = new Entry();
+				entries.put( name, existing );
+			}
+			entry = existing;
+			wasIdle = entry.refCount == 0 && ! isOpener;
+			entry.refCount++;
+		}
+
+		if ( isOpener )
+		{
+			try
+			{
+				entry.source.complete( opener.get() );
+			}
+			catch ( RuntimeException e )
+			{
+				synchronized ( this )
+				{
+					entries.remove( name );
+				}
+				entry.source.completeExceptionally( e );
+				throw e;
+			}
+		}
+
+		final PooledSource pooledSource;
+		try
+		{
+			pooledSource = entry.source.join();
+		}
+		catch ( CompletionException e )
+		{
+			throw e.getCause() instanceof RuntimeException ? ( RuntimeException ) e.getCause() : e;
+		}
+
+		// a previous view may have changed color or contrast limits
+		if ( wasIdle )
+			pooledSource.resetDisplaySettings();
+
+		return pooledSource.sourceAndConverter;
+	}
+
+	/**
+	 * Marks one use of the source as finished.
+	 * The source stays open until it is evicted.
+	 *
+	 * @param name the name of the source
+	 */
+	public synchronized void release( String name )
+	{
+		final Entry entry = entries.get( name );
+		if ( entry == null || entry.refCount == 0 ) return;
+
+		entry.refCount--;
+		if ( entry.refCount == 0 )
+			entry.idleSinceMillis = System.currentTimeMillis();
+	}
+
+	public void release( Collection< String > names )
+	{
+		for ( String name : names )
+			release( name );
+	}
+
+	/**
+	 * Closes the sources that have been idle for too long, or all idle sources
+	 * if the used heap exceeds the memory budget.
+	 */
+	public void evictIdle()
+	{
+		final Runtime runtime = Runtime.getRuntime();
+		final boolean exceedsBudget = runtime.totalMemory() - runtime.freeMemory() > memoryBudget;
+		final long currentTimeMillis = System.currentTimeMillis();
+
+		final List< Map.Entry< String, Entry > > evicted = new ArrayList<>();
+		synchronized ( this )
+		{
+			for ( Map.Entry< String, Entry > entry : entries.entrySet() )
+			{
+				final Entry value = entry.getValue();
+				if ( value.refCount > 0 || ! value.source.isDone() ) continue;
+
+				if ( exceedsBudget || currentTimeMillis - value.idleSinceMillis > maxIdleMillis )
+					evicted.add( entry );
+			}
+
+			evicted.sort( Comparator.comparingLong( e -> e.getValue().idleSinceMillis ) );
+			for ( Map.Entry< String, Entry > entry : evicted )
+				entries.remove( entry.getKey() );
+		}
+
+		for ( Map.Entry< String, Entry > entry : evicted )
+			close( entry.getValue() );
+
+		if ( evicted.size() > 0 )
+			IJ.log( "Closed " + evicted.size() + " idle image(s)" + ( exceedsBudget ? " to free memory." : "." ) );
+	}
+
+	public synchronized boolean contains( String name )
+	{
+		return entries.containsKey( name );
+	}
+
+	/**
+	 * Closes all sources, including the ones that are still in use,
+	 * and stops the periodic eviction.
+	 */
+	public void close()
+	{
+		evictionService.shutdownNow();
+
+		final List< Entry > closed;
+		synchronized ( this )
+		{
+			closed = new ArrayList<>( entries.values() );
+			entries.clear();
+		}
+
+		for ( Entry entry : closed )
+			close( entry );
+	}
+
+	private static void close( Entry entry )
+	{
+		if ( entry.source.isCompletedExceptionally() ) return;
+
+		final ImgLoader imgLoader = entry.source.join().imgLoader.get();
+		if ( imgLoader instanceof N5ImageLoader )
+		{
+			( ( N5ImageLoader ) imgLoader ).close();
+		}
+		else if ( imgLoader instanceof N5OMEZarrImageLoader )
+		{
+			( ( N5OMEZarrImageLoader ) imgLoader ).close();
+		}
+	}
+
+	private static class Entry
+	{
+		private final CompletableFuture< PooledSource > source = new CompletableFuture<>();
+		private int refCount;
+		private long idleSinceMillis;
+	}
+
+	public static class PooledSource
+	{
+		private final SourceAndConverter< ? > sourceAndConverter;
+		private final Supplier< ImgLoader > imgLoader;
+		private ARGBType color;
+		private double min;
+		private double max;
+
+		public PooledSource( SourceAndConverter< ? > sourceAndConverter, ImgLoader imgLoader )
+		{
+			this( sourceAndConverter, () -> imgLoader );
+		}
+
+		/**
+		 * @param sourceAndConverter the source
+		 * @param imgLoader supplies the loader to be closed on eviction;
+		 *                  may supply null if the data was never opened
+		 */
+		public PooledSource( SourceAndConverter< ? > sourceAndConverter, Supplier< ImgLoader > imgLoader )
+		{
+			this.sourceAndConverter = sourceAndConverter;
+			this.imgLoader = imgLoader;
+
+			if ( sourceAndConverter.getConverter() instanceof ColorConverter )
+			{
+				final ColorConverter converter = ( ColorConverter ) sourceAndConverter.getConverter();
+				color = converter.getColor().copy();
+				min = converter.getMin();
+				max = converter.getMax();
+			}
+		}
+
+		private void resetDisplaySettings()
+		{
+			if ( color == null ) return;
+
+			resetDisplaySettings( sourceAndConverter.getConverter() );
+			if ( sourceAndConverter.asVolatile() != null )
+				resetDisplaySettings( sourceAndConverter.asVolatile().getConverter() );
+		}
+
+		private void resetDisplaySettings( Object converter )
+		{
+			if ( ! ( converter instanceof ColorConverter ) ) return;
+
+			final ColorConverter colorConverter = ( ColorConverter ) converter;
+			colorConverter.setColor( color );
+			colorConverter.setMin( min );
+			colorConverter.setMax( max );
+		}
+	}
+}
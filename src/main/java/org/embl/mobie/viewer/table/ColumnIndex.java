@@ -0,0 +1,194 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.table;
+
+import de.embl.cba.tables.Utils;
+import de.embl.cba.tables.tablerow.TableRow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+/**
+ * Answers equality and range queries on one column of a table.
+ * The hash index on the cell strings and the sorted index on the
+ * numeric cell values are each built on first use, so a query costs
+ * O( log n + k ) for k matching rows.
+ * Rows of equal value are returned in table order.
+ * Cells that are not numeric are not part of the sorted index.
+ */
+public class ColumnIndex< T extends TableRow >
+{
+	private static final int[] NO_ROWS = new int[ 0 ];
+
+	private final List< T > tableRows;
+	private final String columnName;
+
+	private Map< String, int[] > valueToRows;
+	private double[] sortedValues;
+	private int[] sortedRows;
+
+	public ColumnIndex( List< T > tableRows, String columnName )
+	{
+		this.tableRows = tableRows;
+		this.columnName = columnName;
+	}
+
+	public String getColumnName()
+	{
+		return columnName;
+	}
+
+	public Set< String > getValues()
+	{
+		return getValueToRows().keySet();
+	}
+
+	public List< T > getRows( int[] rows )
+	{
+		final ArrayList< T > list = new ArrayList<>( rows.length );
+		for ( int row : rows )
+			list.add( tableRows.get( row ) );
+		return list;
+	}
+
+	public int[] equalTo( String value )
+	{
+		return getValueToRows().getOrDefault( value, NO_ROWS );
+	}
+
+	public int[] equalTo( double value )
+	{
+		buildSortedIndex();
+		return Arrays.copyOfRange( sortedRows, lowerBound( value ), upperBound( value ) );
+	}
+
+	public int[] greaterThan( double value )
+	{
+		buildSortedIndex();
+		return Arrays.copyOfRange( sortedRows, upperBound( value ), sortedRows.length );
+	}
+
+	public int[] lessThan( double value )
+	{
+		buildSortedIndex();
+		return Arrays.copyOfRange( sortedRows, 0, lowerBound( value ) );
+	}
+
+	private synchronized Map< String, int[] > getValueToRows()
+	{
+		if ( valueToRows == null )
+		{
+			final Map< String, List< Integer > > lists = new HashMap<>();
+			final int numRows = tableRows.size();
+			for ( int row = 0; row < numRows; row++ )
+				lists.computeIfAbsent( tableRows.get( row ).getCell( columnName ), v -> new ArrayList<>() ).add( row );
+
+			valueToRows = new HashMap<>( lists.size() * 2 );
+			for ( Map.Entry< String, List< Integer > > entry : lists.entrySet() )
+				valueToRows.put( entry.getKey(), entry.getValue().stream().mapToInt( Integer::intValue ).toArray() );
+		}
+
+		return valueToRows;
+	}
+
+	private synchronized void buildSortedIndex()
+	{
+		if ( sortedRows != null ) return;
+
+		final int numRows = tableRows.size();
+		final double[] values = new double[ numRows ];
+		for ( int row = 0; row < numRows; row++ )
+			values[ row ] = parseDouble( tableRows.get( row ).getCell( columnName ) );
+
+		// stable with respect to the row index, NaN values are dropped
+		sortedRows = IntStream.range( 0, numRows )
+				.filter( row -> ! Double.isNaN( values[ row ] ) )
+				.boxed()
+				.sorted( ( a, b ) -> Double.compare( values[ a ], values[ b ] ) )
+				.mapToInt( Integer::intValue )
+				.toArray();
+
+		sortedValues = new double[ sortedRows.length ];
+		for ( int i = 0; i < sortedRows.length; i++ )
+			sortedValues[ i ] = values[ sortedRows[ i ] ];
+	}
+
+	private static double parseDouble( String cell )
+	{
+		try
+		{
+			return Utils.parseDouble( cell );
+		}
+		catch ( NumberFormatException e )
+		{
+			return Double.NaN;
+		}
+	}
+
+	/**
+	 * @return the index of the first sorted value that is not less than value
+	 */
+	private int lowerBound( double value )
+	{
+		int low = 0;
+		int high = sortedValues.length;
+		while ( low < high )
+		{
+			final int mid = ( low + high ) >>> 1;
+			if ( sortedValues[ mid ] < value )
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * @return the index of the first sorted value that is greater than value
+	 */
+	private int upperBound( double value )
+	{
+		int low = 0;
+		int high = sortedValues.length;
+		while ( low < high )
+		{
+			final int mid = ( low + high ) >>> 1;
+			if ( sortedValues[ mid ] <= value )
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+}
@@ -0,0 +1,316 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.table;
+
+import de.embl.cba.tables.tablerow.TableRow;
+import org.embl.mobie.viewer.MultiThreading;
+
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+import javax.swing.SwingUtilities;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+/**
+ * Sorts and filters the rows of a {@link TableRowsTableModel} on a background
+ * thread and swaps in the resulting permutation on the event dispatch thread,
+ * such that sorting large tables does not block the user interface.
+ * Until a sort has finished the previous order is shown.
+ * Rows of equal sort keys keep their order in the model.
+ */
+public class TableRowsRowSorter< T extends TableRow > extends RowSorter< TableRowsTableModel< T > >
+{
+	private static final int MAX_SORT_KEYS = 3;
+
+	private final TableRowsTableModel< T > model;
+	private final AtomicBoolean isSortPending = new AtomicBoolean();
+	private final AtomicInteger generation = new AtomicInteger();
+
+	private List< SortKey > sortKeys = Collections.emptyList();
+	private Predicate< T > rowFilter;
+	private boolean isSortable = true;
+
+	// only accessed on the event dispatch thread; null if view and model order are the same
+	private int[] viewToModel;
+	private int[] modelToView;
+
+	public TableRowsRowSorter( TableRowsTableModel< T > model )
+	{
+		this.model = model;
+	}
+
+	@Override
+	public TableRowsTableModel< T > getModel()
+	{
+		return model;
+	}
+
+	public void setSortable( boolean isSortable )
+	{
+		this.isSortable = isSortable;
+	}
+
+	/**
+	 * @param rowFilter
+	 * 		the rows to show, or null to show all rows
+	 */
+	public void setRowFilter( Predicate< T > rowFilter )
+	{
+		this.rowFilter = rowFilter;
+		sort();
+	}
+
+	@Override
+	public void toggleSortOrder( int column )
+	{
+		if ( ! isSortable ) return;
+
+		final List< SortKey > keys = new ArrayList<>( sortKeys );
+		if ( ! keys.isEmpty() && keys.get( 0 ).getColumn() == column )
+		{
+			final SortOrder order = keys.get( 0 ).getSortOrder() == SortOrder.ASCENDING ? SortOrder.DESCENDING : SortOrder.ASCENDING;
+			keys.set( 0, new SortKey( column, order ) );
+		}
+		else
+		{
+			keys.removeIf( key -> key.getColumn() == column );
+			keys.add( 0, new SortKey( column, SortOrder.ASCENDING ) );
+			if ( keys.size() > MAX_SORT_KEYS )
+				keys.remove( MAX_SORT_KEYS );
+		}
+
+		setSortKeys( keys );
+	}
+
+	@Override
+	public void setSortKeys( List< ? extends SortKey > keys )
+	{
+		sortKeys = keys == null ? Collections.emptyList() : Collections.unmodifiableList( new ArrayList<>( keys ) );
+		fireSortOrderChanged();
+		sort();
+	}
+
+	@Override
+	public List< ? extends SortKey > getSortKeys()
+	{
+		return sortKeys;
+	}
+
+	@Override
+	public int convertRowIndexToModel( int index )
+	{
+		if ( viewToModel == null )
+		{
+			if ( index < 0 || index >= model.getRowCount() )
+				throw new IndexOutOfBoundsException( "Invalid index: " + index );
+			return index;
+		}
+
+		return viewToModel[ index ];
+	}
+
+	@Override
+	public int convertRowIndexToView( int index )
+	{
+		if ( modelToView == null )
+		{
+			if ( index < 0 || index >= model.getRowCount() )
+				throw new IndexOutOfBoundsException( "Invalid index: " + index );
+			return index;
+		}
+
+		return modelToView[ index ];
+	}
+
+	@Override
+	public int getViewRowCount()
+	{
+		return viewToModel == null ? model.getRowCount() : viewToModel.length;
+	}
+
+	@Override
+	public int getModelRowCount()
+	{
+		return model.getRowCount();
+	}
+
+	@Override
+	public void modelStructureChanged()
+	{
+		// the column indices of the sort keys are not valid anymore
+		sortKeys = Collections.emptyList();
+		sort();
+	}
+
+	@Override
+	public void allRowsChanged()
+	{
+		sort();
+	}
+
+	@Override
+	public void rowsInserted( int firstRow, int endRow )
+	{
+		// until the new order is sorted, the inserted rows are shown at the end
+		if ( viewToModel != null )
+		{
+			final int numInserted = endRow - firstRow + 1;
+			setViewToModel( IntStream.concat(
+					Arrays.stream( viewToModel ).map( row -> row >= firstRow ? row + numInserted : row ),
+					IntStream.rangeClosed( firstRow, endRow ) ).toArray() );
+		}
+		sort();
+	}
+
+	@Override
+	public void rowsDeleted( int firstRow, int endRow )
+	{
+		// until the new order is sorted, the previous order must not refer to the deleted rows
+		if ( viewToModel != null )
+		{
+			final int numDeleted = endRow - firstRow + 1;
+			setViewToModel( Arrays.stream( viewToModel )
+					.filter( row -> row < firstRow || row > endRow )
+					.map( row -> row > endRow ? row - numDeleted : row ).toArray() );
+		}
+		sort();
+	}
+
+	@Override
+	public void rowsUpdated( int firstRow, int endRow )
+	{
+		if ( ! sortKeys.isEmpty() || rowFilter != null )
+			sort();
+	}
+
+	@Override
+	public void rowsUpdated( int firstRow, int endRow, int column )
+	{
+		if ( rowFilter != null || sortKeys.stream().anyMatch( key -> key.getColumn() == column ) )
+			sort();
+	}
+
+	/**
+	 * Requests a sort in the background; requests that arrive while
+	 * one is pending are served by the pending one.
+	 */
+	private void sort()
+	{
+		generation.incrementAndGet();
+		if ( ! isSortPending.compareAndSet( false, true ) ) return;
+
+		MultiThreading.executorService.submit( () ->
+		{
+			isSortPending.set( false );
+			final int sortGeneration = generation.get();
+			final List< SortKey > keys = sortKeys;
+			final Predicate< T > filter = rowFilter;
+			final int[] permutation = computePermutation( keys, filter );
+			SwingUtilities.invokeLater( () -> setPermutation( permutation, sortGeneration ) );
+		} );
+	}
+
+	private int[] computePermutation( List< SortKey > keys, Predicate< T > filter )
+	{
+		final int numRows = model.getRowCount();
+		IntStream rows = IntStream.range( 0, numRows );
+		if ( filter != null )
+			rows = rows.parallel().filter( row -> filter.test( model.getRow( row ) ) );
+
+		Comparator< Integer > comparator = null;
+		for ( SortKey key : keys )
+		{
+			if ( key.getSortOrder() == SortOrder.UNSORTED ) continue;
+
+			Comparator< Integer > keyComparator = createComparator( key.getColumn() );
+			if ( key.getSortOrder() == SortOrder.DESCENDING )
+				keyComparator = keyComparator.reversed();
+			comparator = comparator == null ? keyComparator : comparator.thenComparing( keyComparator );
+		}
+
+		if ( comparator == null )
+			return filter == null ? null : rows.toArray();
+
+		// parallelSort of objects is stable
+		final Integer[] sorted = rows.boxed().toArray( Integer[]::new );
+		Arrays.parallelSort( sorted, comparator );
+		return Arrays.stream( sorted ).mapToInt( Integer::intValue ).toArray();
+	}
+
+	private Comparator< Integer > createComparator( int column )
+	{
+		final int numRows = model.getRowCount();
+		if ( model.isNumeric( column ) )
+		{
+			final double[] values = new double[ numRows ];
+			IntStream.range( 0, numRows ).parallel().forEach( row -> values[ row ] = model.getDouble( row, column ) );
+			// the column holds strings if one of its cells is not a number
+			if ( model.isNumeric( column ) )
+				return ( a, b ) -> Double.compare( values[ a ], values[ b ] );
+		}
+
+		final String[] values = new String[ numRows ];
+		IntStream.range( 0, numRows ).parallel().forEach( row -> values[ row ] = model.getString( row, column ) );
+		final Comparator< String > stringComparator = Comparator.nullsFirst( Comparator.naturalOrder() );
+		return ( a, b ) -> stringComparator.compare( values[ a ], values[ b ] );
+	}
+
+	private void setPermutation( int[] permutation, int sortGeneration )
+	{
+		// a newer sort has been requested
+		if ( sortGeneration != generation.get() ) return;
+
+		final int[] lastViewToModel = viewToModel;
+		setViewToModel( permutation );
+		fireRowSorterChanged( lastViewToModel );
+	}
+
+	private void setViewToModel( int[] permutation )
+	{
+		viewToModel = permutation;
+		if ( permutation == null )
+		{
+			modelToView = null;
+		}
+		else
+		{
+			modelToView = new int[ model.getRowCount() ];
+			Arrays.fill( modelToView, -1 );
+			for ( int view = 0; view < permutation.length; view++ )
+				modelToView[ permutation[ view ] ] = view;
+		}
+	}
+}
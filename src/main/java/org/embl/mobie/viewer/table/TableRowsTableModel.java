@@ -0,0 +1,245 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.table;
+
+import de.embl.cba.tables.Utils;
+import de.embl.cba.tables.tablerow.TableRow;
+
+import javax.swing.SwingUtilities;
+import javax.swing.event.TableModelEvent;
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A table model that reads its cells from the table rows on demand,
+ * thus only the cells that are painted are ever converted.
+ * A column holds doubles if its first cell that is not missing is a number,
+ * where missing cells are empty or NaN; missing cells of such a column are NaN.
+ * Once a cell of such a column turns out not to be a number,
+ * the column holds strings instead.
+ */
+public class TableRowsTableModel< T extends TableRow > extends AbstractTableModel
+{
+	private final List< T > tableRows;
+	private final List< String > columnNames;
+	private final List< Class< ? > > columnClasses;
+	private final Map< String, Integer > columnNameToIndex;
+	private Map< T, Integer > rowToIndex;
+
+	public TableRowsTableModel( List< T > tableRows )
+	{
+		this.tableRows = tableRows;
+		this.columnNames = new ArrayList<>();
+		this.columnClasses = new ArrayList<>();
+		this.columnNameToIndex = new HashMap<>();
+
+		final T firstRow = tableRows.get( 0 );
+		for ( String columnName : firstRow.getColumnNames() )
+			addColumn( columnName, getFirstValue( columnName ) );
+	}
+
+	public T getRow( int rowIndex )
+	{
+		return tableRows.get( rowIndex );
+	}
+
+	/**
+	 * @return the model index of the table row, replacing the linear search of {@link List#indexOf}
+	 */
+	public synchronized int indexOf( T tableRow )
+	{
+		if ( rowToIndex == null )
+		{
+			rowToIndex = new HashMap<>( 2 * tableRows.size() );
+			for ( int rowIndex = tableRows.size() - 1; rowIndex >= 0; rowIndex-- )
+				rowToIndex.put( tableRows.get( rowIndex ), rowIndex );
+		}
+
+		return rowToIndex.getOrDefault( tableRow, -1 );
+	}
+
+	public synchronized boolean isNumeric( int columnIndex )
+	{
+		return columnClasses.get( columnIndex ) == Double.class;
+	}
+
+	/**
+	 * @return the numeric value of the cell, or NaN if it is not a number
+	 */
+	public double getDouble( int rowIndex, int columnIndex )
+	{
+		final String cell = getString( rowIndex, columnIndex );
+		final double value = parseDouble( cell );
+		if ( Double.isNaN( value ) && ! isMissing( cell ) )
+			setStringColumn( columnIndex );
+		return value;
+	}
+
+	public String getString( int rowIndex, int columnIndex )
+	{
+		return tableRows.get( rowIndex ).getCell( columnNames.get( columnIndex ) );
+	}
+
+	/**
+	 * To be called when a cell of a table row changed.
+	 * Cells of columns that the model does not know yet add the column.
+	 */
+	public void cellChanged( int rowIndex, String columnName, String value )
+	{
+		final Integer columnIndex;
+		synchronized ( this )
+		{
+			columnIndex = columnNameToIndex.get( columnName );
+			if ( columnIndex == null )
+				addColumn( columnName, value );
+		}
+
+		if ( columnIndex != null && isNumeric( columnIndex ) && ! isNumber( value ) )
+			setStringColumn( columnIndex );
+
+		if ( columnIndex == null )
+			fireTableStructureChanged();
+		else
+			fireTableCellUpdated( rowIndex, columnIndex );
+	}
+
+	@Override
+	public int getRowCount()
+	{
+		return tableRows.size();
+	}
+
+	@Override
+	public synchronized int getColumnCount()
+	{
+		return columnNames.size();
+	}
+
+	@Override
+	public synchronized String getColumnName( int columnIndex )
+	{
+		return columnNames.get( columnIndex );
+	}
+
+	@Override
+	public synchronized Class< ? > getColumnClass( int columnIndex )
+	{
+		return columnClasses.get( columnIndex );
+	}
+
+	@Override
+	public Object getValueAt( int rowIndex, int columnIndex )
+	{
+		// the renderers and comparators of the JTable rely on the column class
+		if ( isNumeric( columnIndex ) )
+		{
+			final double value = getDouble( rowIndex, columnIndex );
+			if ( isNumeric( columnIndex ) )
+				return value;
+		}
+
+		return getString( rowIndex, columnIndex );
+	}
+
+	@Override
+	public void fireTableChanged( TableModelEvent e )
+	{
+		// rows were inserted, deleted or replaced
+		if ( e.getType() != TableModelEvent.UPDATE || e.getLastRow() == Integer.MAX_VALUE )
+		{
+			synchronized ( this )
+			{
+				rowToIndex = null;
+			}
+		}
+
+		super.fireTableChanged( e );
+	}
+
+	private synchronized void addColumn( String columnName, String firstValue )
+	{
+		columnNameToIndex.put( columnName, columnNames.size() );
+		columnNames.add( columnName );
+		// a column of only empty cells holds strings
+		columnClasses.add( firstValue != null && ! firstValue.isEmpty() && isNumber( firstValue ) ? Double.class : String.class );
+	}
+
+	private String getFirstValue( String columnName )
+	{
+		for ( T tableRow : tableRows )
+		{
+			final String cell = tableRow.getCell( columnName );
+			if ( ! isMissing( cell ) )
+				return cell;
+		}
+		return tableRows.get( 0 ).getCell( columnName );
+	}
+
+	/**
+	 * Makes a numeric column hold strings, because one of its cells is not a number.
+	 */
+	private void setStringColumn( int columnIndex )
+	{
+		synchronized ( this )
+		{
+			if ( columnClasses.get( columnIndex ) == String.class ) return;
+			columnClasses.set( columnIndex, String.class );
+		}
+
+		// the listeners re-sort and re-render the rows; the cells may be read on any thread
+		SwingUtilities.invokeLater( this::fireTableDataChanged );
+	}
+
+	private static boolean isMissing( String cell )
+	{
+		return cell == null || cell.isEmpty() || "nan".equalsIgnoreCase( cell );
+	}
+
+	private static boolean isNumber( String cell )
+	{
+		return isMissing( cell ) || ! Double.isNaN( parseDouble( cell ) );
+	}
+
+	private static double parseDouble( String cell )
+	{
+		if ( cell == null ) return Double.NaN;
+
+		try
+		{
+			return Utils.parseDouble( cell );
+		}
+		catch ( NumberFormatException e )
+		{
+			return Double.NaN;
+		}
+	}
+}
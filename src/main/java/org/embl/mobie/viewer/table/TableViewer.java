@@ -28,6 +28,8 @@
  */
 package org.embl.mobie.viewer.table;
 
+import bdv.viewer.Source;
+import bdv.viewer.SourceAndConverter;
 import de.embl.cba.bdv.utils.lut.GlasbeyARGBLut;
 import org.embl.mobie.io.util.IOHelper;
 import org.embl.mobie.viewer.MoBIE;
@@ -35,13 +37,17 @@ import org.embl.mobie.viewer.MoBIEHelper;
 import org.embl.mobie.viewer.annotate.RegionTableRow;
 import org.embl.mobie.viewer.annotate.Annotator;
 import org.embl.mobie.viewer.color.SelectionColoringModel;
+import org.embl.mobie.viewer.display.AnnotationDisplay;
+import org.embl.mobie.viewer.display.ImageDisplay;
+import org.embl.mobie.viewer.display.SourceDisplay;
+import org.embl.mobie.viewer.measure.IntensityMeasurer;
+import org.embl.mobie.viewer.segment.SelectedLabelsWriter;
 import de.embl.cba.tables.*;
 import de.embl.cba.tables.color.*;
 import de.embl.cba.tables.plot.ScatterPlotDialog;
 
 import org.embl.mobie.viewer.select.SelectionListener;
 import org.embl.mobie.viewer.select.SelectionModel;
-import de.embl.cba.tables.tablerow.JTableFromTableRowsModelCreator;
 import de.embl.cba.tables.tablerow.TableRow;
 import de.embl.cba.tables.tablerow.TableRowImageSegment;
 import de.embl.cba.tables.tablerow.TableRowListener;
@@ -51,16 +57,22 @@ import net.imglib2.type.numeric.ARGBType;
 
 import javax.activation.UnsupportedDataTypeException;
 import javax.swing.*;
+import javax.swing.event.TableModelEvent;
 import javax.swing.table.DefaultTableCellRenderer;
 import javax.swing.table.TableModel;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.embl.mobie.viewer.MoBIEHelper.*;
 import static de.embl.cba.tables.color.CategoryTableRowColumnColoringModel.DARK_GREY;
@@ -75,6 +87,9 @@ public class TableViewer< T extends TableRow > implements SelectionListener< T >
 	private final SelectionColoringModel< T > coloringModel;
 	private final String tableName;
 	private JTable jTable;
+	private TableRowsTableModel< T > tableModel;
+	private TableRowsRowSorter< T > rowSorter;
+	private volatile int[] rowColors; // ARGB per model row, 0 if not yet computed
 
 	private int recentlySelectedRowInView;
 	private ColumnColoringModelCreator< T > columnColoringModelCreator;
@@ -86,6 +101,7 @@ public class TableViewer< T extends TableRow > implements SelectionListener< T >
 
 	// TODO: this is only for the annotator (maybe move it there)
 	private Map< String, CategoryTableRowColumnColoringModel< T > > columnNameToColoringModel = new HashMap<>(  );
+	private Map< String, ColumnIndex< T > > columnNameToIndex = new ConcurrentHashMap<>(); // built on first query, dropped when a cell of the column changes
 
 	private boolean controlDown;
 	private JFrame frame;
@@ -175,15 +191,9 @@ public class TableViewer< T extends TableRow > implements SelectionListener< T >
 				@Override
 				public void cellChanged( String columnName, String value )
 				{
-					synchronized ( jTable )
-					{
-						if ( ! Tables.getColumnNames( jTable ).contains( columnName ) )
-						{
-							Tables.addColumnToJTable( columnName, value, jTable.getModel() );
-						}
-
-						Tables.setJTableCell( finalRowIndex, columnName, value, jTable );
-					}
+					columnNameToIndex.remove( columnName );
+					rowColors[ finalRowIndex ] = 0;
+					tableModel.cellChanged( finalRowIndex, columnName, value );
 				}
 			});
 		}
@@ -313,14 +323,25 @@ public class TableViewer< T extends TableRow > implements SelectionListener< T >
 //			return Color.BLUE;
 //		}
 
-		final ARGBType argbType = new ARGBType();
-		final T tableRow = tableRows.get( row );
-		coloringModel.convert( tableRow, argbType );
+		final int[] colors = rowColors;
+		if ( colors[ row ] == 0 )
+		{
+			final ARGBType argbType = new ARGBType();
+			final T tableRow = tableRows.get( row );
+			coloringModel.convert( tableRow, argbType );
+
+			if ( ARGBType.alpha( argbType.get() ) == 0 )
+				colors[ row ] = Color.WHITE.getRGB();
+			else
+				colors[ row ] = ColorUtils.getColor( argbType ).getRGB();
+		}
 
-		if ( ARGBType.alpha( argbType.get() ) == 0 )
-			return Color.WHITE;
-		else
-			return ColorUtils.getColor( argbType );
+		return new Color( colors[ row ], true );
+	}
+
+	private void clearRowColors()
+	{
+		rowColors = new int[ tableRows.size() ];
 	}
 
 	private synchronized void repaintTable()
@@ -330,10 +351,20 @@ public class TableViewer< T extends TableRow > implements SelectionListener< T >
 
 	private void configureJTable()
 	{
-		jTable = new JTableFromTableRowsModelCreator( tableRows ).createJTable();
+		// the cells are read from the table rows only when they are painted
+		// and sorting happens in the background, such that large tables stay responsive
+		tableModel = new TableRowsTableModel<>( tableRows );
+		rowSorter = new TableRowsRowSorter<>( tableModel );
+		rowColors = new int[ tableRows.size() ];
+		tableModel.addTableModelListener( e -> {
+			// the colors are cached per model row
+			if ( e.getType() != TableModelEvent.UPDATE || e.getLastRow() == Integer.MAX_VALUE )
+				clearRowColors();
+		} );
+		jTable = new JTable( tableModel );
 		jTable.setPreferredScrollableViewportSize( new Dimension(500, 200) );
 		jTable.setFillsViewportHeight( true );
-		jTable.setAutoCreateRowSorter( true );
+		jTable.setRowSorter( rowSorter );
 		jTable.setRowSelectionAllowed( true );
 		jTable.setSelectionMode( ListSelectionModel.SINGLE_SELECTION );
 
@@ -419,6 +450,11 @@ public class TableViewer< T extends TableRow > implements SelectionListener< T >
 
 		menu.add( createLoadColumnsMenuItem() );
 
+		menu.add( createMeasureIntensitiesMenuItem() );
+
+		if ( ! isRegionTable && selectionModel != null )
+			menu.add( createExportSelectedSegmentsMenuItem() );
+
 		return menu;
     }
 
@@ -485,11 +521,7 @@ public class TableViewer< T extends TableRow > implements SelectionListener< T >
 
 	private void enableRowSorting( boolean sortable )
 	{
-		final int columnCount = jTable.getColumnCount();
-		for ( int i = 0; i < columnCount; i++ )
-		{
-			((DefaultRowSorter) jTable.getRowSorter()).setSortable( i, sortable );
-		}
+		rowSorter.setSortable( sortable );
 	}
 
 	private JMenuItem createLoadColumnsMenuItem()
@@ -517,6 +549,126 @@ public class TableViewer< T extends TableRow > implements SelectionListener< T >
 		return menuItem;
 	}
 
+	private JMenuItem createMeasureIntensitiesMenuItem()
+	{
+		final JMenuItem menuItem = new JMenuItem( "Measure Intensities..." );
+		menuItem.addActionListener( e ->
+				new Thread( () -> measureIntensities() ).start() );
+
+		return menuItem;
+	}
+
+	private void measureIntensities()
+	{
+		final AnnotationDisplay< ? > display = getAnnotationDisplay();
+		final Map< String, Source< ? > > images = getCurrentImages();
+		if ( display == null || images.isEmpty() )
+		{
+			Logger.error( "Please show the image that should be measured." );
+			return;
+		}
+
+		final GenericDialog gd = new GenericDialog( "Measure Intensities" );
+		final String[] imageNames = images.keySet().toArray( new String[ 0 ] );
+		gd.addChoice( "Image", imageNames, imageNames[ 0 ] );
+		gd.addNumericField( "Resolution level", 0, 0 );
+		gd.showDialog();
+		if ( gd.wasCanceled() ) return;
+		final Source< ? > image = images.get( gd.getNextChoice() );
+		final int level = Math.max( 0, Math.min( ( int ) gd.getNextNumber(), image.getNumMipmapLevels() - 1 ) );
+
+		final long start = System.currentTimeMillis();
+		final IntensityMeasurer measurer = new IntensityMeasurer( image, level );
+		final Map< String, List< String > > columns;
+		if ( isRegionTable )
+			columns = measurer.measureRegions( ( List< RegionTableRow > ) tableRows );
+		else
+			columns = measurer.measureSegments( ( List< TableRowImageSegment > ) tableRows, imageId -> getLabelSource( display, imageId ) );
+
+		enableRowSorting( false );
+		addColumns( columns );
+		enableRowSorting( true );
+
+		Logger.info( "Measured the intensities of " + tableRows.size() + " annotations in " + image.getName() + " in " + ( System.currentTimeMillis() - start ) + " ms." );
+	}
+
+	private JMenuItem createExportSelectedSegmentsMenuItem()
+	{
+		final JMenuItem menuItem = new JMenuItem( "Export Selected Segments As Label Image..." );
+		menuItem.addActionListener( e ->
+				new Thread( () -> exportSelectedSegments() ).start() );
+
+		return menuItem;
+	}
+
+	private void exportSelectedSegments()
+	{
+		final AnnotationDisplay< ? > display = getAnnotationDisplay();
+		if ( display == null ) return;
+
+		final Set< T > selected = selectionModel.getSelected();
+		if ( selected.isEmpty() )
+		{
+			Logger.error( "Please select the segments that should be exported." );
+			return;
+		}
+
+		final GenericDialog gd = new GenericDialog( "Export Selected Segments" );
+		final String[] labels = Arrays.stream( SelectedLabelsWriter.Labels.values() ).map( Enum::name ).toArray( String[]::new );
+		gd.addChoice( "Labels", labels, SelectedLabelsWriter.Labels.Binary.name() );
+		gd.addNumericField( "Resolution level", 0, 0 );
+		gd.showDialog();
+		if ( gd.wasCanceled() ) return;
+		final SelectedLabelsWriter.Labels selectedLabels = SelectedLabelsWriter.Labels.valueOf( gd.getNextChoice() );
+		final int level = Math.max( 0, ( int ) gd.getNextNumber() );
+
+		final String directory = selectDirectoryPath( "Output Directory", false );
+		if ( directory == null ) return;
+
+		final int t = display.sliceViewer.getBdvHandle().getViewerPanel().state().getCurrentTimepoint();
+		for ( SourceAndConverter< ? > sourceAndConverter : display.sourceNameToSourceAndConverter.values() )
+		{
+			final Source< ? > labelSource = sourceAndConverter.getSpimSource();
+			final SelectedLabelsWriter writer = new SelectedLabelsWriter( labelSource, ( Set< TableRowImageSegment > ) selected, t, Math.min( level, labelSource.getNumMipmapLevels() - 1 ), selectedLabels );
+			if ( writer.getNumSelectedLabels() == 0 ) continue;
+
+			try
+			{
+				writer.write( new File( directory, labelSource.getName() + "-selection.ome.zarr" ).getAbsolutePath() );
+			}
+			catch ( IOException e )
+			{
+				Logger.error( "Could not export the selected segments of " + labelSource.getName() + ": " + e.getMessage() );
+			}
+		}
+	}
+
+	private AnnotationDisplay< ? > getAnnotationDisplay()
+	{
+		for ( SourceDisplay sourceDisplay : moBIE.getViewManager().getCurrentSourceDisplays() )
+			if ( sourceDisplay instanceof AnnotationDisplay && ( ( AnnotationDisplay< ? > ) sourceDisplay ).tableViewer == this )
+				return ( AnnotationDisplay< ? > ) sourceDisplay;
+		return null;
+	}
+
+	private Map< String, Source< ? > > getCurrentImages()
+	{
+		final Map< String, Source< ? > > images = new LinkedHashMap<>();
+		for ( SourceDisplay sourceDisplay : moBIE.getViewManager().getCurrentSourceDisplays() )
+			if ( sourceDisplay instanceof ImageDisplay )
+				for ( SourceAndConverter< ? > sourceAndConverter : ( ( ImageDisplay ) sourceDisplay ).sourceNameToSourceAndConverter.values() )
+					images.put( sourceAndConverter.getSpimSource().getName(), sourceAndConverter.getSpimSource() );
+		return images;
+	}
+
+	private Source< ? > getLabelSource( AnnotationDisplay< ? > display, String imageId )
+	{
+		SourceAndConverter< ? > sourceAndConverter = display.sourceNameToSourceAndConverter.get( imageId );
+		if ( sourceAndConverter == null )
+			sourceAndConverter = moBIE.sourceNameToSourceAndConverter().get( imageId );
+		return sourceAndConverter == null ? null : sourceAndConverter.getSpimSource();
+	}
+
 	public ArrayList<String> getAdditionalTables() {
 		return additionalTables;
 	}
@@ -631,6 +783,14 @@ public class TableViewer< T extends TableRow > implements SelectionListener< T >
 		selectionModel.setSelected( notSelectedTableRows, false );
 	}
 
+	private void selectOnly( List< T > selectedTableRows )
+	{
+		// only the currently selected rows have to be deselected
+		final Set< T > notSelectedTableRows = new HashSet<>( selectionModel.getSelected() );
+		notSelectedTableRows.removeAll( selectedTableRows );
+		selectRows( selectedTableRows, new ArrayList<>( notSelectedTableRows ) );
+	}
+
 	private void selectEqualTo()
 	{
 		// works for categorical and numeric columns
@@ -656,28 +816,11 @@ public class TableViewer< T extends TableRow > implements SelectionListener< T >
 			}
 		}
 
-		ArrayList<T> selectedTableRows = new ArrayList<>();
-		ArrayList<T> notSelectedTableRows = new ArrayList<>();
-		for( T tableRow: tableRows ) {
-			String tableValue = tableRow.getCell( columnName );
-			boolean valuesMatch;
-
-			if ( isDoubleColumn ) {
-				double tableDouble = Utils.parseDouble( tableValue );
-				valuesMatch = doubleValue == tableDouble;
-			} else {
-				valuesMatch = tableValue.equals( value );
-			}
-
-			if ( valuesMatch ) {
-				selectedTableRows.add( tableRow );
-			} else {
-				notSelectedTableRows.add( tableRow );
-			}
-		}
+		final ColumnIndex< T > columnIndex = getColumnIndex( columnName );
+		final int[] rows = isDoubleColumn ? columnIndex.equalTo( doubleValue ) : columnIndex.equalTo( value );
 
-		if ( selectedTableRows.size() > 0 ) {
-			selectRows( selectedTableRows, notSelectedTableRows );
+		if ( rows.length > 0 ) {
+			selectOnly( columnIndex.getRows( rows ) );
 		} else {
 			Logger.error( value + " does not exist in column " + columnName + ", please choose another value." );
 		}
@@ -694,26 +837,11 @@ public class TableViewer< T extends TableRow > implements SelectionListener< T >
 		final String columnName = gd.getNextChoice();
 		final double value = gd.getNextNumber();
 
-		ArrayList<T> selectedTableRows = new ArrayList<>();
-		ArrayList<T> notSelectedTableRows = new ArrayList<>();
-		for( T tableRow: tableRows ) {
+		final ColumnIndex< T > columnIndex = getColumnIndex( columnName );
+		final int[] rows = greaterThan ? columnIndex.greaterThan( value ) : columnIndex.lessThan( value );
 
-			boolean criteriaMet;
-			if ( greaterThan ) {
-				criteriaMet = Utils.parseDouble(tableRow.getCell(columnName)) > value;
-			} else {
-				criteriaMet = Utils.parseDouble(tableRow.getCell(columnName)) < value;
-			}
-
-			if ( criteriaMet ) {
-				selectedTableRows.add(tableRow);
-			} else {
-				notSelectedTableRows.add(tableRow);
-			}
-		}
-
-		if ( selectedTableRows.size() > 0 ) {
-			selectRows( selectedTableRows, notSelectedTableRows );
+		if ( rows.length > 0 ) {
+			selectOnly( columnIndex.getRows( rows ) );
 		} else {
 			if ( greaterThan ) {
 				Logger.error("No values greater than " + value + " in column " + columnName + ", please choose another value.");
@@ -757,7 +885,8 @@ public class TableViewer< T extends TableRow > implements SelectionListener< T >
 				tableRows,
 				selectionModel,
 				columnNameToColoringModel.get( columnName ),
-				rowSorter
+				rowSorter,
+				this::getColumnIndex
 		);
 
 		annotator.showDialog();
@@ -779,6 +908,12 @@ public class TableViewer< T extends TableRow > implements SelectionListener< T >
 	public void addColumn( String column, Object[] values )
 	{
 		TableRows.addColumn( tableRows, column, values );
+		columnNameToIndex.remove( column );
+	}
+
+	public ColumnIndex< T > getColumnIndex( String columnName )
+	{
+		return columnNameToIndex.computeIfAbsent( columnName, c -> new ColumnIndex<>( tableRows, c ) );
 	}
 
 	public void addColumns( Map< String, List< String > > columns )
@@ -884,7 +1019,7 @@ public class TableViewer< T extends TableRow > implements SelectionListener< T >
 
 	private synchronized void moveToSelectedTableRow( T selection )
 	{
-		final int rowInView = jTable.convertRowIndexToView( tableRows.indexOf( selection ) );
+		final int rowInView = jTable.convertRowIndexToView( tableModel.indexOf( selection ) );
 
 		if ( rowInView == recentlySelectedRowInView ) return;
 
@@ -987,6 +1122,7 @@ public class TableViewer< T extends TableRow > implements SelectionListener< T >
 			setRecentlySelectedRowInView( -1 );
 			jTable.getSelectionModel().clearSelection();
 		}
+		clearRowColors();
 		SwingUtilities.invokeLater( () -> repaintTable() );
 	}
 
@@ -999,6 +1135,7 @@ public class TableViewer< T extends TableRow > implements SelectionListener< T >
 	@Override
 	public void coloringChanged()
 	{
+		clearRowColors();
 		SwingUtilities.invokeLater( () -> repaintTable() );
 	}
 
@@ -36,8 +36,10 @@ import bdv.viewer.Source;
 import bdv.viewer.SourceAndConverter;
 import mpicbg.spim.data.sequence.VoxelDimensions;
 import net.imglib2.Cursor;
+import net.imglib2.FinalRealInterval;
 import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealInterval;
 import net.imglib2.RealRandomAccessible;
 import net.imglib2.cache.img.CachedCellImg;
 import net.imglib2.cache.img.CellLoader;
@@ -46,10 +48,10 @@ import net.imglib2.cache.img.ReadOnlyCachedCellImgOptions;
 import net.imglib2.cache.img.SingleCellArrayImg;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.roi.RealMaskRealInterval;
-import net.imglib2.roi.geom.GeomMasks;
 import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.IntegerType;
 import net.imglib2.type.numeric.NumericType;
-import net.imglib2.type.numeric.integer.UnsignedIntType;
+import net.imglib2.type.numeric.integer.UnsignedLongType;
 import net.imglib2.view.Views;
 import org.embl.mobie.viewer.MoBIEHelper;
 import org.embl.mobie.viewer.SourceNameEncoder;
@@ -90,7 +92,8 @@ public class MergedGridSource< T extends NativeType< T > & NumericType< T > > im
 		this.interpolators = new DefaultInterpolators<>();
 		this.referenceSource = gridSources.get( 0 );
 		this.mergedGridSourceName = mergedGridSourceName;
-		this.type = referenceSource.getType();
+		// encoding the source names needs 64 bits, see SourceNameEncoder
+		this.type = encodeSource ? ( T ) new UnsignedLongType() : referenceSource.getType();
 
 		mergedRandomAccessibleIntervals = createMergedRAIs();
 	}
@@ -118,6 +121,11 @@ public class MergedGridSource< T extends NativeType< T > & NumericType< T > > im
 		return false;
 	}
 
+	public boolean isEncodingSource()
+	{
+		return encodeSource;
+	}
+
 	public List< Source< T > > getGridSources()
 	{
 		return gridSources;
@@ -292,32 +300,31 @@ public class MergedGridSource< T extends NativeType< T > & NumericType< T > > im
 
 	private void setMask( List< int[] > positions, int[] cellDimensions )
 	{
-		final long[] minPos = new long[ 3 ];
-		final long[] maxPos = new long[ 3 ];
-		for ( int d = 0; d < 2; d++ )
-		{
-			final int finalD = d;
-			minPos[ d ] = positions.stream().mapToInt( pos -> pos[ finalD ] ).min().orElseThrow( NoSuchElementException::new );
-			maxPos[ d ] = positions.stream().mapToInt( pos -> pos[ finalD ] ).max().orElseThrow( NoSuchElementException::new );
-		}
-
-		final double[] min = new double[ 3 ];
-		final double[] max = new double[ 3 ];
-
 		final AffineTransform3D referenceTransform = new AffineTransform3D();
 		referenceSource.getSourceTransform( 0, 0, referenceTransform );
 
+		final double[] cellRealSize = new double[ 2 ];
 		for ( int d = 0; d < 2; d++ )
+			cellRealSize[ d ] = cellDimensions[ d ] * Affine3DHelpers.extractScale( referenceTransform, d );
+
+		// one box per occupied grid position, such that
+		// the mask is exact also for sparse grids
+		final List< RealInterval > cells = new ArrayList<>();
+		for ( int[] position : positions )
 		{
-			final double scale = Affine3DHelpers.extractScale( referenceTransform, d );
-			min[ d ] = minPos[ d ] * cellDimensions[ d ] * scale;
-			max[ d ] = ( maxPos[ d ] + 1 ) * cellDimensions[ d ] * scale;
+			final double[] min = new double[ 3 ];
+			final double[] max = new double[ 3 ];
+			for ( int d = 0; d < 2; d++ )
+			{
+				min[ d ] = position[ d ] * cellRealSize[ d ];
+				max[ d ] = ( position[ d ] + 1 ) * cellRealSize[ d ];
+			}
+			cells.add( new FinalRealInterval( min, max ) );
 		}
 
-		mask = GeomMasks.closedBox( min, max );
+		mask = UnionRealMask.fromBoxes( cells );
 	}
 
-
 	private static String getCellKey( long[] cellMins )
 	{
 		String key = "_";
@@ -454,13 +461,14 @@ public class MergedGridSource< T extends NativeType< T > & NumericType< T > > im
 
 				if ( encodeSource )
 				{
-					final String name = source.getName();
-					while ( sourceCursor.hasNext() )
+					// the grid sources hold the labels, the cell holds the encoded values
+					final long nameIndex = SourceNameEncoder.getIndex( source.getName() );
+					final Cursor< ? extends IntegerType< ? > > labelCursor = ( Cursor ) sourceCursor;
+					final RandomAccess< UnsignedLongType > encodedAccess = ( RandomAccess ) targetAccess;
+					while ( labelCursor.hasNext() )
 					{
-						sourceCursor.fwd();
-						// copy the sourceCursor in order not to modify it by the source name encoding
-						targetAccess.setPositionAndGet( sourceCursor ).set( sourceCursor.get().copy() );
-						SourceNameEncoder.encodeName( ( UnsignedIntType ) targetAccess.get(), name );
+						labelCursor.fwd();
+						encodedAccess.setPositionAndGet( labelCursor ).set( SourceNameEncoder.encode( labelCursor.get().getIntegerLong(), nameIndex ) );
 					}
 				}
 				else
@@ -0,0 +1,288 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.transform;
+
+import net.imglib2.AbstractRealInterval;
+import net.imglib2.FinalRealInterval;
+import net.imglib2.RealInterval;
+import net.imglib2.RealLocalizable;
+import net.imglib2.roi.BoundaryType;
+import net.imglib2.roi.RealMaskRealInterval;
+import net.imglib2.roi.geom.GeomMasks;
+import net.imglib2.roi.geom.real.Box;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Union of many masks, with a bounding volume hierarchy over
+ * the bounding boxes of the masks.
+ *
+ * In contrast to chaining {@link RealMaskRealInterval#or}, which builds
+ * an operator tree that is as deep as there are masks,
+ * testing a position only visits the masks whose bounding box contains it,
+ * which for non-overlapping masks takes O(log n).
+ * Closed boxes are tested by their bounds only.
+ * The union of no masks is empty and contains no position.
+ */
+public class UnionRealMask extends AbstractRealInterval implements RealMaskRealInterval
+{
+	private static final int LEAF_SIZE = 4;
+
+	private final List< ? extends RealMaskRealInterval > masks;
+	private final boolean[] isBox;
+	private final double[][] maskMin;
+	private final double[][] maskMax;
+
+	// the hierarchy, indexed by node; the root is node 0.
+	// inner nodes have two children, leaves refer to the range [ start, end ) of maskOrder
+	private final List< double[] > nodeMin = new ArrayList<>();
+	private final List< double[] > nodeMax = new ArrayList<>();
+	private final List< int[] > nodeChildren = new ArrayList<>();
+	private final List< int[] > nodeRange = new ArrayList<>();
+	private final Integer[] maskOrder;
+
+	/**
+	 * @param masks the masks; if there are none, the union is three-dimensional
+	 */
+	public UnionRealMask( List< ? extends RealMaskRealInterval > masks )
+	{
+		this( masks, masks.isEmpty() ? 3 : masks.get( 0 ).numDimensions() );
+	}
+
+	public UnionRealMask( List< ? extends RealMaskRealInterval > masks, int numDimensions )
+	{
+		this( masks, getMins( masks ), getMaxs( masks ), isClosedBox( masks ), numDimensions );
+	}
+
+	private UnionRealMask( List< ? extends RealMaskRealInterval > masks, double[][] maskMin, double[][] maskMax, boolean[] isBox, int numDimensions )
+	{
+		super( unionMin( maskMin, numDimensions ), unionMax( maskMax, numDimensions ) );
+
+		this.masks = masks;
+		this.maskMin = maskMin;
+		this.maskMax = maskMax;
+		this.isBox = isBox;
+		final int numMasks = maskMin.length;
+		maskOrder = new Integer[ numMasks ];
+		for ( int i = 0; i < numMasks; i++ )
+			maskOrder[ i ] = i;
+
+		buildNode( 0, numMasks );
+	}
+
+	/**
+	 * Creates the union of closed boxes from their bounds,
+	 * without creating a mask object per box.
+	 *
+	 * @param min the minimum of each box
+	 * @param max the maximum of each box
+	 * @param numDimensions the number of dimensions
+	 * @return the union, whose mask indices are the indices of the boxes
+	 */
+	public static UnionRealMask fromBounds( double[][] min, double[][] max, int numDimensions )
+	{
+		final boolean[] isBox = new boolean[ min.length ];
+		Arrays.fill( isBox, true );
+		return new UnionRealMask( null, min, max, isBox, numDimensions );
+	}
+
+	public static UnionRealMask fromBoxes( List< ? extends RealInterval > boxes )
+	{
+		final List< RealMaskRealInterval > masks = new ArrayList<>();
+		for ( RealInterval box : boxes )
+			masks.add( GeomMasks.closedBox( box.minAsDoubleArray(), box.maxAsDoubleArray() ) );
+		return new UnionRealMask( masks );
+	}
+
+	public int numMasks()
+	{
+		return maskMin.length;
+	}
+
+	/**
+	 * @param maskIndex the index of the mask
+	 * @return the bounding box of the mask
+	 */
+	public RealInterval getBounds( int maskIndex )
+	{
+		return new FinalRealInterval( maskMin[ maskIndex ], maskMax[ maskIndex ] );
+	}
+
+	@Override
+	public boolean test( RealLocalizable position )
+	{
+		return indexOf( position ) != -1;
+	}
+
+	/**
+	 * @return the lowest index of the masks that contain the position, or -1
+	 */
+	public int indexOf( RealLocalizable position )
+	{
+		int index = -1;
+		final int[] stack = new int[ 64 ];
+		int stackSize = 0;
+		stack[ stackSize++ ] = 0;
+		while ( stackSize > 0 )
+		{
+			final int node = stack[ --stackSize ];
+			if ( ! contains( nodeMin.get( node ), nodeMax.get( node ), position ) )
+				continue;
+
+			final int[] children = nodeChildren.get( node );
+			if ( children != null )
+			{
+				stack[ stackSize++ ] = children[ 0 ];
+				stack[ stackSize++ ] = children[ 1 ];
+				continue;
+			}
+
+			final int[] range = nodeRange.get( node );
+			for ( int i = range[ 0 ]; i < range[ 1 ]; i++ )
+			{
+				final int maskIndex = maskOrder[ i ];
+				if ( index != -1 && maskIndex > index )
+					continue;
+
+				if ( ! contains( maskMin[ maskIndex ], maskMax[ maskIndex ], position ) )
+					continue;
+
+				if ( isBox[ maskIndex ] || masks.get( maskIndex ).test( position ) )
+					index = maskIndex;
+			}
+		}
+
+		return index;
+	}
+
+	@Override
+	public BoundaryType boundaryType()
+	{
+		return BoundaryType.UNSPECIFIED;
+	}
+
+	private int buildNode( int start, int end )
+	{
+		final int node = nodeRange.size();
+		final double[] min = new double[ n ];
+		final double[] max = new double[ n ];
+		Arrays.fill( min, Double.POSITIVE_INFINITY );
+		Arrays.fill( max, Double.NEGATIVE_INFINITY );
+		for ( int i = start; i < end; i++ )
+		{
+			for ( int d = 0; d < n; d++ )
+			{
+				min[ d ] = Math.min( min[ d ], maskMin[ maskOrder[ i ] ][ d ] );
+				max[ d ] = Math.max( max[ d ], maskMax[ maskOrder[ i ] ][ d ] );
+			}
+		}
+
+		nodeMin.add( min );
+		nodeMax.add( max );
+		nodeRange.add( new int[]{ start, end } );
+		nodeChildren.add( null );
+
+		if ( end - start <= LEAF_SIZE ) return node;
+
+		// split at the median of the mask centres along the longest axis,
+		// which keeps the hierarchy balanced
+		int axis = 0;
+		for ( int d = 1; d < n; d++ )
+			if ( max[ d ] - min[ d ] > max[ axis ] - min[ axis ] )
+				axis = d;
+
+		final int finalAxis = axis;
+		Arrays.sort( maskOrder, start, end, Comparator.comparingDouble( i -> maskMin[ i ][ finalAxis ] + maskMax[ i ][ finalAxis ] ) );
+
+		final int middle = ( start + end ) / 2;
+		final int left = buildNode( start, middle );
+		final int right = buildNode( middle, end );
+		nodeChildren.set( node, new int[]{ left, right } );
+
+		return node;
+	}
+
+	private boolean contains( double[] min, double[] max, RealLocalizable position )
+	{
+		for ( int d = 0; d < n; d++ )
+		{
+			final double x = position.getDoublePosition( d );
+			if ( x < min[ d ] || x > max[ d ] )
+				return false;
+		}
+		return true;
+	}
+
+	private static double[][] getMins( List< ? extends RealInterval > intervals )
+	{
+		final double[][] mins = new double[ intervals.size() ][];
+		for ( int i = 0; i < mins.length; i++ )
+			mins[ i ] = intervals.get( i ).minAsDoubleArray();
+		return mins;
+	}
+
+	private static double[][] getMaxs( List< ? extends RealInterval > intervals )
+	{
+		final double[][] maxs = new double[ intervals.size() ][];
+		for ( int i = 0; i < maxs.length; i++ )
+			maxs[ i ] = intervals.get( i ).maxAsDoubleArray();
+		return maxs;
+	}
+
+	private static boolean[] isClosedBox( List< ? extends RealMaskRealInterval > masks )
+	{
+		final boolean[] isBox = new boolean[ masks.size() ];
+		for ( int i = 0; i < isBox.length; i++ )
+			isBox[ i ] = masks.get( i ) instanceof Box && masks.get( i ).boundaryType() == BoundaryType.CLOSED;
+		return isBox;
+	}
+
+	private static double[] unionMin( double[][] mins, int numDimensions )
+	{
+		final double[] min = new double[ numDimensions ];
+		Arrays.fill( min, Double.POSITIVE_INFINITY );
+		for ( double[] maskMin : mins )
+			for ( int d = 0; d < min.length; d++ )
+				min[ d ] = Math.min( min[ d ], maskMin[ d ] );
+		return min;
+	}
+
+	private static double[] unionMax( double[][] maxs, int numDimensions )
+	{
+		final double[] max = new double[ numDimensions ];
+		Arrays.fill( max, Double.NEGATIVE_INFINITY );
+		for ( double[] maskMax : maxs )
+			for ( int d = 0; d < max.length; d++ )
+				max[ d ] = Math.max( max[ d ], maskMax[ d ] );
+		return max;
+	}
+}
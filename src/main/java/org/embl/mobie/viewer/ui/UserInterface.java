@@ -167,6 +167,28 @@ public class UserInterface
 		}
 	}
 
+	/**
+	 * Replaces the settings panel of a display at its position,
+	 * e.g. once the tables of the display have been loaded.
+	 */
+	public void updateDisplaySettingsPanel( SourceDisplay sourceDisplay )
+	{
+		MoBIELaf.MoBIELafOn();
+		final JPanel panel = createDisplaySettingPanel( sourceDisplay );
+		MoBIELaf.MoBIELafOff();
+
+		SwingUtilities.invokeLater( () -> {
+			final JPanel previousPanel = displayToPanel.get( sourceDisplay );
+			if ( previousPanel == null ) return;
+
+			final int index = displaySettingsContainer.getComponentZOrder( previousPanel );
+			displaySettingsContainer.remove( previousPanel );
+			displaySettingsContainer.add( panel, index );
+			displayToPanel.put( sourceDisplay, panel );
+			refreshDisplaySettings();
+		} );
+	}
+
 	public void removeDisplaySettingsPanel( Object display )
 	{
 		SwingUtilities.invokeLater( () -> {
@@ -0,0 +1,435 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.view;
+
+import bdv.util.Affine3DHelpers;
+import bdv.viewer.Interpolation;
+import bdv.viewer.Source;
+import bdv.viewer.SourceAndConverter;
+import de.embl.cba.bdv.utils.lut.GlasbeyARGBLut;
+import de.embl.cba.tables.color.ColorUtils;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.io.FileSaver;
+import ij.process.ColorProcessor;
+import net.imglib2.RealInterval;
+import net.imglib2.RealRandomAccess;
+import net.imglib2.display.ColorConverter;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.type.numeric.RealType;
+import org.embl.mobie.viewer.MoBIE;
+import org.embl.mobie.viewer.MoBIEHelper;
+import org.embl.mobie.viewer.MultiThreading;
+import org.embl.mobie.viewer.SourceNameEncoder;
+import org.embl.mobie.viewer.bdv.render.AccumulateOccludingProjectorARGB;
+import org.embl.mobie.viewer.bdv.render.BlendingMode;
+import org.embl.mobie.viewer.display.ImageDisplay;
+import org.embl.mobie.viewer.display.SegmentationDisplay;
+import org.embl.mobie.viewer.display.SourceDisplay;
+import org.embl.mobie.viewer.transform.AffineViewerTransform;
+import org.embl.mobie.viewer.transform.NormalizedAffineViewerTransform;
+import org.embl.mobie.viewer.transform.PositionViewerTransform;
+import org.embl.mobie.viewer.transform.TransformHelper;
+import org.embl.mobie.viewer.transform.ViewerTransform;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static de.embl.cba.bdv.utils.converters.RandomARGBConverter.goldenRatio;
+import static sc.fiji.bdvpg.bdv.BdvHandleHelper.getLevel;
+
+/**
+ * Renders views of a dataset to image files, without opening any viewer.
+ *
+ * The MoBIE instance should be opened with {@link org.embl.mobie.viewer.MoBIESettings#headless(boolean)}.
+ * The views are rendered in parallel on their own threads, because opening
+ * and transforming the sources of a view runs on the shared compute pool.
+ * All views share the opened raw sources, and thereby their image caches,
+ * such that views showing the same images (e.g. different wells of a plate)
+ * only need to load the image data once.
+ *
+ * Image displays are rendered with their color, contrast limits, opacity and blending mode.
+ * Segmentation displays are rendered with random label colors, as the tables are not loaded.
+ * Region displays are not rendered.
+ */
+public class HeadlessViewRenderer
+{
+	public static final String PNG = "png";
+	public static final String TIFF = "tif";
+
+	private final MoBIE moBIE;
+	private final Map< String, SourceAndConverter< ? > > rawSources = new ConcurrentHashMap<>();
+	private String fileFormat = PNG;
+
+	public HeadlessViewRenderer( MoBIE moBIE )
+	{
+		this.moBIE = moBIE;
+	}
+
+	public void setFileFormat( String fileFormat )
+	{
+		this.fileFormat = fileFormat;
+	}
+
+	/**
+	 * Renders each view into its own file in the output directory.
+	 * The files are named after the views.
+	 *
+	 * @param viewNames the views to render; if empty, all views of the dataset are rendered
+	 * @param width the width of the rendered images, in pixels
+	 * @param height the height of the rendered images, in pixels
+	 * @param outputDirectory the directory to save the images to
+	 * @throws IOException if a view could not be rendered or saved
+	 */
+	public void render( List< String > viewNames, int width, int height, File outputDirectory ) throws IOException
+	{
+		final long startTime = System.currentTimeMillis();
+
+		final Map< String, View > views = moBIE.getViews();
+		final List< String > names = viewNames.isEmpty() ? new ArrayList<>( views.keySet() ) : viewNames;
+		for ( String name : names )
+			if ( ! views.containsKey( name ) )
+				throw new IOException( "The view \"" + name + "\" could not be found in this dataset." );
+
+		outputDirectory.mkdirs();
+
+		final AtomicInteger numRendered = new AtomicInteger( 0 );
+		forEachView( names, name -> {
+			final int[] argbs = render( views.get( name ), width, height );
+			save( argbs, width, height, new File( outputDirectory, toFileName( name ) ) );
+			IJ.log( "Rendered view (" + numRendered.incrementAndGet() + "/" + names.size() + "): " + name );
+		} );
+
+		IJ.log( "Rendered " + names.size() + " view(s) in " + ( System.currentTimeMillis() - startTime ) + " ms, using up to " + MultiThreading.getNumThreads() + " thread(s)." );
+	}
+
+	/**
+	 * Runs the task for each view in parallel.
+	 *
+	 * The tasks must not run on {@link MultiThreading#executorService}:
+	 * a task submits work to that pool and waits for it (e.g. in the grid transformers),
+	 * such that tasks occupying all of its threads would wait forever.
+	 */
+	static void forEachView( List< String > viewNames, ViewTask task ) throws IOException
+	{
+		final ExecutorService viewExecutor = Executors.newFixedThreadPool( MultiThreading.getNumThreads() );
+		try
+		{
+			final ArrayList< Future< ? > > futures = MultiThreading.getFutures();
+			for ( String name : viewNames )
+			{
+				futures.add( viewExecutor.submit( () -> {
+					task.run( name );
+					return null;
+				} ) );
+			}
+
+			MultiThreading.waitUntilFinished( futures, MultiThreading.ioFailure( "Could not render views" ) );
+		}
+		finally
+		{
+			viewExecutor.shutdown();
+		}
+	}
+
+	interface ViewTask
+	{
+		void run( String viewName ) throws IOException;
+	}
+
+	/**
+	 * Releases all sources that have been opened for rendering.
+	 */
+	public void close()
+	{
+		moBIE.releaseSourceAndConverters( rawSources.keySet() );
+		rawSources.clear();
+	}
+
+	/**
+	 * Renders one view into ARGB pixels.
+	 *
+	 * @param view the view
+	 * @param width the width of the rendered image, in pixels
+	 * @param height the height of the rendered image, in pixels
+	 * @return the ARGB pixels, in row-major order
+	 */
+	public int[] render( View view, int width, int height )
+	{
+		final Map< String, SourceAndConverter< ? > > sourceNameToSourceAndConverter = openAndTransformSources( view );
+
+		final List< SourceRenderer > renderers = new ArrayList<>();
+		for ( SourceDisplay sourceDisplay : view.getSourceDisplays() )
+		{
+			if ( ! sourceDisplay.isVisible() ) continue;
+
+			if ( ! ( sourceDisplay instanceof ImageDisplay || sourceDisplay instanceof SegmentationDisplay ) )
+			{
+				IJ.log( "[WARN] Headless rendering of " + sourceDisplay.getClass().getSimpleName() + " is not supported: " + sourceDisplay.getName() );
+				continue;
+			}
+
+			for ( String sourceName : sourceDisplay.getSources() )
+				renderers.add( new SourceRenderer( sourceDisplay, sourceNameToSourceAndConverter.get( sourceName ) ) );
+		}
+
+		final int[] argbs = new int[ width * height ];
+		if ( renderers.size() == 0 ) return argbs;
+
+		final ViewerTransform viewerTransform = view.getViewerTransform();
+		final int t = viewerTransform != null && viewerTransform.getTimepoint() != null ? viewerTransform.getTimepoint() : 0;
+		final AffineTransform3D viewer = createViewerTransform( viewerTransform, renderers, t, width, height );
+		final double viewerVoxelSpacing = 1.0 / Affine3DHelpers.extractScale( viewer, 0 );
+
+		final boolean[] occluding = new boolean[ renderers.size() ];
+		for ( int i = 0; i < renderers.size(); i++ )
+		{
+			renderers.get( i ).init( viewer, t, viewerVoxelSpacing );
+			occluding[ i ] = BlendingMode.isOccluding( renderers.get( i ).blendingMode );
+		}
+
+		final double[] canvasPosition = new double[ 3 ];
+		final int[] sourceArgbs = new int[ renderers.size() ];
+		for ( int y = 0; y < height; y++ )
+		{
+			for ( int x = 0; x < width; x++ )
+			{
+				canvasPosition[ 0 ] = x;
+				canvasPosition[ 1 ] = y;
+				for ( int i = 0; i < renderers.size(); i++ )
+					sourceArgbs[ i ] = renderers.get( i ).getArgb( canvasPosition );
+
+				argbs[ y * width + x ] = AccumulateOccludingProjectorARGB.getArgbIndex( sourceArgbs, occluding );
+			}
+		}
+
+		return argbs;
+	}
+
+	private Map< String, SourceAndConverter< ? > > openAndTransformSources( View view )
+	{
+		final Set< String > sources = ViewManager.fetchSources( view );
+		SourceNameEncoder.addNames( sources );
+		final Set< String > rawSourceNames = sources.stream().filter( s -> moBIE.getDataset().sources.containsKey( s ) ).collect( Collectors.toSet() );
+
+		// open each raw source only once, such that all views share its cache
+		synchronized ( rawSources )
+		{
+			final Set< String > missing = rawSourceNames.stream().filter( s -> ! rawSources.containsKey( s ) ).collect( Collectors.toSet() );
+			if ( missing.size() > 0 )
+				rawSources.putAll( moBIE.openSourceAndConverters( missing ) );
+		}
+
+		final Map< String, SourceAndConverter< ? > > sourceNameToSourceAndConverter = new HashMap<>();
+		for ( String name : rawSourceNames )
+			sourceNameToSourceAndConverter.put( name, rawSources.get( name ) );
+
+		ViewManager.transformSources( view.getSourceTransforms(), sourceNameToSourceAndConverter );
+
+		return sourceNameToSourceAndConverter;
+	}
+
+	private static AffineTransform3D createViewerTransform( ViewerTransform viewerTransform, List< SourceRenderer > renderers, int t, int width, int height )
+	{
+		if ( viewerTransform instanceof NormalizedAffineViewerTransform )
+		{
+			// compare TransformHelper.createUnnormalizedViewerTransform
+			final AffineTransform3D unnormalize = new AffineTransform3D();
+			unnormalize.scale( width );
+			unnormalize.translate( width / 2.0, height / 2.0, 0 );
+
+			final AffineTransform3D transform = MoBIEHelper.asAffineTransform3D( viewerTransform.getParameters() );
+			transform.preConcatenate( unnormalize );
+			return transform;
+		}
+		else if ( viewerTransform instanceof AffineViewerTransform )
+		{
+			return MoBIEHelper.asAffineTransform3D( viewerTransform.getParameters() );
+		}
+
+		final List< Source< ? > > sources = renderers.stream().map( r -> r.source ).collect( Collectors.toList() );
+		final AffineTransform3D transform = createIntervalViewerTransform( TransformHelper.estimateBounds( sources, t ), width, height );
+
+		if ( viewerTransform instanceof PositionViewerTransform )
+		{
+			// keep the zoom, but center the position
+			final double[] position = new double[ 3 ];
+			transform.apply( viewerTransform.getParameters(), position );
+			transform.translate( width / 2.0 - position[ 0 ], height / 2.0 - position[ 1 ], - position[ 2 ] );
+		}
+		else if ( viewerTransform != null && viewerTransform.getParameters() != null )
+		{
+			IJ.log( "[WARN] Headless rendering does not support " + viewerTransform.getClass().getSimpleName() + ", showing all sources instead." );
+		}
+
+		return transform;
+	}
+
+	// compare TransformHelper.getIntervalViewerTransform
+	private static AffineTransform3D createIntervalViewerTransform( RealInterval interval, int width, int height )
+	{
+		final AffineTransform3D transform = new AffineTransform3D();
+
+		final double[] centerPosition = new double[ 3 ];
+		for ( int d = 0; d < 3; ++d )
+			centerPosition[ d ] = - ( interval.realMin( d ) + interval.realMax( d ) ) / 2.0;
+		transform.translate( centerPosition );
+
+		final double scale = Math.min(
+				width / ( interval.realMax( 0 ) - interval.realMin( 0 ) ),
+				height / ( interval.realMax( 1 ) - interval.realMin( 1 ) ) );
+		transform.scale( scale );
+		transform.translate( width / 2.0, height / 2.0, 0 );
+
+		return transform;
+	}
+
+	private void save( int[] argbs, int width, int height, File file ) throws IOException
+	{
+		final ImagePlus imp = new ImagePlus( file.getName(), new ColorProcessor( width, height, argbs ) );
+		final FileSaver fileSaver = new FileSaver( imp );
+		final boolean saved = fileFormat.equals( TIFF ) ? fileSaver.saveAsTiff( file.getAbsolutePath() ) : fileSaver.saveAsPng( file.getAbsolutePath() );
+		if ( ! saved )
+			throw new IOException( "Could not save " + file );
+	}
+
+	private String toFileName( String viewName )
+	{
+		return viewName.replaceAll( "[^a-zA-Z0-9._-]", "_" ) + "." + fileFormat;
+	}
+
+	/**
+	 * Converts the voxels of one source into ARGB, according to the settings of its display.
+	 * This does not modify the converters of the sources,
+	 * such that several views that share a source can be rendered concurrently.
+	 */
+	private static class SourceRenderer
+	{
+		private final Source< ? > source;
+		private final boolean isLabelSource;
+		private final double opacity;
+		private final BlendingMode blendingMode;
+		private int color = ARGBType.rgba( 255, 255, 255, 255 );
+		private double min = 0;
+		private double max = 255;
+		private GlasbeyARGBLut glasbeyLut;
+		private AffineTransform3D viewerToSource;
+		private RealRandomAccess< ? > access;
+		private final double[] sourcePosition = new double[ 3 ];
+
+		SourceRenderer( SourceDisplay display, SourceAndConverter< ? > sourceAndConverter )
+		{
+			this.source = sourceAndConverter.getSpimSource();
+			this.isLabelSource = display instanceof SegmentationDisplay;
+			this.opacity = display.getOpacity();
+			this.blendingMode = display.getBlendingMode() != null ? display.getBlendingMode() : BlendingMode.Sum;
+
+			if ( isLabelSource )
+			{
+				glasbeyLut = new GlasbeyARGBLut();
+			}
+			else
+			{
+				if ( sourceAndConverter.getConverter() instanceof ColorConverter )
+				{
+					final ColorConverter converter = ( ColorConverter ) sourceAndConverter.getConverter();
+					color = converter.getColor().get();
+					min = converter.getMin();
+					max = converter.getMax();
+				}
+
+				final ImageDisplay imageDisplay = ( ImageDisplay ) display;
+				if ( imageDisplay.getColor() != null )
+				{
+					final ARGBType argbType = ColorUtils.getARGBType( imageDisplay.getColor() );
+					if ( argbType != null )
+						color = argbType.get();
+				}
+				if ( imageDisplay.getContrastLimits() != null )
+				{
+					min = imageDisplay.getContrastLimits()[ 0 ];
+					max = imageDisplay.getContrastLimits()[ 1 ];
+				}
+			}
+		}
+
+		void init( AffineTransform3D viewerTransform, int t, double viewerVoxelSpacing )
+		{
+			final int level = getLevel( source, viewerVoxelSpacing );
+			final AffineTransform3D sourceTransform = new AffineTransform3D();
+			source.getSourceTransform( t, level, sourceTransform );
+
+			viewerToSource = new AffineTransform3D();
+			viewerToSource.preConcatenate( viewerTransform.inverse() );
+			viewerToSource.preConcatenate( sourceTransform.inverse() );
+
+			final Interpolation interpolation = isLabelSource ? Interpolation.NEARESTNEIGHBOR : Interpolation.NLINEAR;
+			access = source.getInterpolatedSource( t, level, interpolation ).realRandomAccess();
+		}
+
+		int getArgb( double[] canvasPosition )
+		{
+			viewerToSource.apply( canvasPosition, sourcePosition );
+			access.setPosition( sourcePosition );
+			final Object value = access.get();
+			if ( ! ( value instanceof RealType ) ) return 0;
+
+			final double realValue = ( ( RealType< ? > ) value ).getRealDouble();
+
+			if ( isLabelSource )
+			{
+				if ( realValue == 0 ) return 0;
+				double random = realValue * goldenRatio;
+				random = random - ( long ) Math.floor( random );
+				final int argb = glasbeyLut.getARGB( random );
+				return ARGBType.rgba( ARGBType.red( argb ), ARGBType.green( argb ), ARGBType.blue( argb ), ( int ) ( 255 * opacity ) );
+			}
+
+			// compare RealARGBColorConverter and AdjustableOpacityColorConverter
+			final double normalised = Math.max( 0, Math.min( 1, ( realValue - min ) / ( max - min ) ) );
+			return ARGBType.rgba(
+					( int ) ( ARGBType.red( color ) * normalised ),
+					( int ) ( ARGBType.green( color ) * normalised ),
+					( int ) ( ARGBType.blue( color ) * normalised ),
+					( int ) ( ARGBType.alpha( color ) * normalised * opacity ) );
+		}
+	}
+}
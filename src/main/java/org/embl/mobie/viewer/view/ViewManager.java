@@ -37,18 +37,22 @@ import de.embl.cba.tables.color.ColumnColoringModelCreator;
 import de.embl.cba.tables.tablerow.TableRow;
 import de.embl.cba.tables.tablerow.TableRowImageSegment;
 import ij.IJ;
+import net.imglib2.RealInterval;
 import net.imglib2.realtransform.AffineTransform3D;
 import org.apache.commons.lang.ArrayUtils;
 import org.embl.mobie.viewer.MoBIE;
+import org.embl.mobie.viewer.MultiThreading;
 import org.embl.mobie.viewer.SourceNameEncoder;
 import org.embl.mobie.viewer.annotate.AnnotatedMaskAdapter;
 import org.embl.mobie.viewer.annotate.RegionTableRow;
+import org.embl.mobie.viewer.bdv.render.BlendingMode;
 import org.embl.mobie.viewer.bdv.view.RegionSliceView;
 import org.embl.mobie.viewer.bdv.view.ImageSliceView;
 import org.embl.mobie.viewer.bdv.view.SegmentationSliceView;
 import org.embl.mobie.viewer.bdv.view.SliceViewer;
 import org.embl.mobie.viewer.color.SelectionColoringModel;
 import org.embl.mobie.viewer.display.*;
+import org.embl.mobie.viewer.playground.BdvPlaygroundHelper;
 import org.embl.mobie.viewer.playground.SourceAffineTransformer;
 import org.embl.mobie.viewer.plot.ScatterPlotViewer;
 import org.embl.mobie.viewer.segment.SegmentAdapter;
@@ -74,6 +78,13 @@ import javax.swing.*;
 import java.awt.*;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 public class ViewManager
@@ -90,6 +101,10 @@ public class ViewManager
 	private final AdditionalViewsLoader additionalViewsLoader;
 	private final ViewSaver viewSaver;
 	private int numCurrentTables = 0;
+	private final Map< SourceDisplay, AcquiredSources > displayToAcquiredSources = new HashMap<>();
+	private final List< AcquiredSources > acquiredSources = new ArrayList<>();
+	private final Set< SourceDisplay > preparedSourceDisplays = ConcurrentHashMap.newKeySet();
+	private final Set< SourceDisplay > displaysWithPendingTables = ConcurrentHashMap.newKeySet();
 
 	public ViewManager( MoBIE moBIE, UserInterface userInterface, boolean is2D )
 	{
@@ -121,28 +136,32 @@ public class ViewManager
 		}
 	}
 
-	private static void configureColoringModel( AnnotationDisplay< ? extends TableRow > display )
+	// displays whose tables are not yet loaded are colored by
+	// their lut until the tables are attached
+	private void configureColoringModel( AnnotationDisplay< ? extends TableRow > display )
 	{
-		if ( display.getColorByColumn() != null )
+		if ( display.getColorByColumn() != null && ! displaysWithPendingTables.contains( display ) )
 		{
-			final ColumnColoringModelCreator< TableRowImageSegment > modelCreator = new ColumnColoringModelCreator( display.tableRows );
-			final ColoringModel< TableRowImageSegment > coloringModel;
-			String coloringLut = display.getLut();
+			display.selectionColoringModel = new SelectionColoringModel( createColumnColoringModel( display ), display.selectionModel );
+		}
+		else
+		{
+			display.selectionColoringModel = new SelectionColoringModel( display.getLut(), display.selectionModel );
+		}
+	}
 
-			if ( display.getValueLimits() != null )
-			{
-				coloringModel = modelCreator.createColoringModel(display.getColorByColumn(), coloringLut, display.getValueLimits()[0], display.getValueLimits()[1]);
-			}
-			else
-			{
-				coloringModel = modelCreator.createColoringModel(display.getColorByColumn(), coloringLut, null, null );
-			}
+	private static ColoringModel< TableRowImageSegment > createColumnColoringModel( AnnotationDisplay< ? extends TableRow > display )
+	{
+		final ColumnColoringModelCreator< TableRowImageSegment > modelCreator = new ColumnColoringModelCreator( display.tableRows );
+		String coloringLut = display.getLut();
 
-			display.selectionColoringModel = new SelectionColoringModel( coloringModel, display.selectionModel );
+		if ( display.getValueLimits() != null )
+		{
+			return modelCreator.createColoringModel(display.getColorByColumn(), coloringLut, display.getValueLimits()[0], display.getValueLimits()[1]);
 		}
 		else
 		{
-			display.selectionColoringModel = new SelectionColoringModel( display.getLut(), display.selectionModel );
+			return modelCreator.createColoringModel(display.getColorByColumn(), coloringLut, null, null );
 		}
 	}
 
@@ -258,12 +277,19 @@ public class ViewManager
 			SliceViewLocationChanger.changeLocation( sliceViewer.getBdvHandle(), view.getViewerTransform() );
 		}
 
-		openAndTransformSources( view );
+		if ( moBIE.getSettings().values.isProgressiveViewOpening() )
+		{
+			showProgressively( view );
+		}
+		else
+		{
+			openAndTransformSources( view );
 
-		// show the displays
-		final List< SourceDisplay > sourceDisplays = view.getSourceDisplays();
-		for ( SourceDisplay sourceDisplay : sourceDisplays )
-			showSourceDisplay( sourceDisplay );
+			// show the displays
+			final List< SourceDisplay > sourceDisplays = view.getSourceDisplays();
+			for ( SourceDisplay sourceDisplay : sourceDisplays )
+				showSourceDisplay( sourceDisplay );
+		}
 
 		if ( view.getViewerTransform() == null && currentSourceDisplays.size() > 0 && ( view.isExclusive() || currentSourceDisplays.size() == 1 ) )
 		{
@@ -281,21 +307,285 @@ public class ViewManager
 		final Set< String > sources = fetchSources( view );
 		if ( sources.size() == 0 ) return;
 
+		final List< SourceTransformer > sourceTransformers = view.getSourceTransforms();
+		if ( sourceTransformers != null )
+			currentSourceTransformers.addAll( sourceTransformers );
+
+		openAndTransformSources( sources, sourceTransformers, view.getSourceDisplays() );
+	}
+
+	/*
+	 * The raw sources are acquired from the source pool for the given displays,
+	 * and released once all of these displays have been removed.
+	 */
+	private void openAndTransformSources( Set< String > sources, List< SourceTransformer > sourceTransformers, Collection< SourceDisplay > sourceDisplays )
+	{
 		SourceNameEncoder.addNames( sources );
 		final Set< String > rawSources = sources.stream().filter( s -> moBIE.getDataset().sources.containsKey( s ) ).collect( Collectors.toSet() );
 
 		// open all raw sources
 		Map< String, SourceAndConverter< ? > > sourceNameToSourceAndConverters = moBIE.openSourceAndConverters( rawSources );
+		addAcquiredSources( rawSources, sourceDisplays );
 
 		// create transformed sources
-		final List< SourceTransformer > sourceTransformers = view.getSourceTransforms();
-		if ( sourceTransformers != null )
+		transformSources( sourceTransformers, sourceNameToSourceAndConverters );
+
+		// register all available (transformed) sources in MoBIE
+		// this is where the source and segmentation displays will
+		// get the sources from
+		moBIE.addSourceAndConverters( sourceNameToSourceAndConverters );
+	}
+
+	/*
+	 * Opens the displays of the view concurrently and shows each of them
+	 * as soon as its sources are ready.
+	 * Displays whose sources are neither created nor modified by a sourceTransformer
+	 * are opened independently of each other; all other displays are opened together
+	 * with the sourceTransformers.
+	 * Among the displays that are ready, the ones closest to the current viewer centre are shown first.
+	 * Displays with an occluding blending mode are only shown after all
+	 * displays preceding them in the view, such that they are rendered on top.
+	 * The tables of segmentation displays are loaded after their labels are shown
+	 * and attached to the display once they are loaded; the tables of region displays
+	 * define the regions and thus are loaded before the display is shown.
+	 */
+	private void showProgressively( View view )
+	{
+		final long startTime = System.currentTimeMillis();
+
+		final List< SourceTransformer > sourceTransformers = view.getSourceTransforms() != null ? view.getSourceTransforms() : new ArrayList<>();
+		final Set< String > transformedSources = new HashSet<>();
 		for ( SourceTransformer sourceTransformer : sourceTransformers )
+			transformedSources.addAll( sourceTransformer.getSources() );
+
+		final List< SourceDisplay > independentDisplays = new ArrayList<>();
+		final List< SourceDisplay > dependentDisplays = new ArrayList<>();
+		for ( SourceDisplay sourceDisplay : view.getSourceDisplays() )
+		{
+			final boolean isIndependent = sourceDisplay.getSources().stream().allMatch( s -> moBIE.getDataset().sources.containsKey( s ) && ! transformedSources.contains( s ) );
+			if ( isIndependent )
+				independentDisplays.add( sourceDisplay );
+			else
+				dependentDisplays.add( sourceDisplay );
+		}
+
+		// each task returns what is to be done with its result on this thread
+		final List< SourceDisplay > readyDisplays = new ArrayList<>();
+		final Deque< Callable< Runnable > > openingTasks = new ArrayDeque<>();
+		if ( dependentDisplays.size() > 0 )
+		{
+			currentSourceTransformers.addAll( sourceTransformers );
+			final Set< String > sources = new HashSet<>( transformedSources );
+			for ( SourceDisplay sourceDisplay : dependentDisplays )
+				sources.addAll( sourceDisplay.getSources() );
+
+			openingTasks.add( () -> {
+				openAndTransformSources( sources, sourceTransformers, dependentDisplays );
+				for ( SourceDisplay sourceDisplay : dependentDisplays )
+					prepareSourceDisplay( sourceDisplay );
+				return () -> readyDisplays.addAll( dependentDisplays );
+			} );
+		}
+
+		for ( SourceDisplay sourceDisplay : independentDisplays )
+		{
+			openingTasks.add( () -> {
+				openAndTransformSources( new HashSet<>( sourceDisplay.getSources() ), null, Collections.singletonList( sourceDisplay ) );
+				prepareSourceDisplay( sourceDisplay );
+				return () -> readyDisplays.add( sourceDisplay );
+			} );
+		}
+
+		// the tasks wait for sources and tables that they load on the IO pool,
+		// thus they run on their own threads, such that all IO threads remain available for loading
+		final int maxNumPending = MultiThreading.getNumIoThreads();
+		final ExecutorService openingExecutor = Executors.newFixedThreadPool( maxNumPending );
+		final ExecutorCompletionService< Runnable > completionService = new ExecutorCompletionService<>( openingExecutor );
+		final Deque< Callable< Runnable > > tableTasks = new ArrayDeque<>();
+		final Set< Future< Runnable > > pendingOpeningTasks = new HashSet<>();
+		int numPending = 0;
+		try
+		{
+			final double[] viewerCentre = BdvPlaygroundHelper.getWindowCentreInCalibratedUnits( sliceViewer.getBdvHandle() );
+			final int t = sliceViewer.getBdvHandle().getViewerPanel().state().getCurrentTimepoint();
+			final Set< SourceDisplay > finishedDisplays = new HashSet<>();
+			boolean isOpened = false;
+			while ( numPending > 0 || ! openingTasks.isEmpty() || ! tableTasks.isEmpty() )
+			{
+				for ( ; numPending < maxNumPending && ! openingTasks.isEmpty(); numPending++ )
+					pendingOpeningTasks.add( completionService.submit( openingTasks.poll() ) );
+				for ( ; numPending < maxNumPending && ! tableTasks.isEmpty(); numPending++ )
+					completionService.submit( tableTasks.poll() );
+
+				// wait for at least one task, then also take all others that are done
+				Future< Runnable > future = completionService.take();
+				do
+				{
+					numPending--;
+					pendingOpeningTasks.remove( future );
+					try
+					{
+						future.get().run();
+					}
+					catch ( ExecutionException e )
+					{
+						IJ.log( "[ERROR] Could not open display: " + e.getCause() );
+					}
+				}
+				while ( numPending > 0 && ( future = completionService.poll() ) != null );
+
+				if ( ! isOpened && openingTasks.isEmpty() && pendingOpeningTasks.isEmpty() )
+				{
+					// failed displays must not prevent the remaining ones from being shown
+					isOpened = true;
+					finishedDisplays.addAll( view.getSourceDisplays() );
+					finishedDisplays.removeAll( readyDisplays );
+				}
+
+				readyDisplays.sort( Comparator.comparingDouble( d -> getSquaredDistance( d, viewerCentre, t ) ) );
+				for ( SourceDisplay sourceDisplay : showReadyDisplays( view.getSourceDisplays(), readyDisplays, finishedDisplays ) )
+					if ( displaysWithPendingTables.contains( sourceDisplay ) )
+						tableTasks.add( createTableLoadingTask( ( SegmentationDisplay ) sourceDisplay ) );
+			}
+		}
+		catch ( InterruptedException e )
+		{
+			IJ.log( "Opening view has been interrupted." );
+		}
+		finally
 		{
-			currentSourceTransformers.add( sourceTransformer );
-			sourceTransformer.transform( sourceNameToSourceAndConverters );
+			openingExecutor.shutdown();
 		}
 
+		IJ.log( "Showed " + view.getSourceDisplays().size() + " display(s) progressively in " + ( System.currentTimeMillis() - startTime ) + " ms." );
+	}
+
+	private Callable< Runnable > createTableLoadingTask( SegmentationDisplay segmentationDisplay )
+	{
+		return () -> {
+			try
+			{
+				loadTablesAndCreateImageSegments( segmentationDisplay );
+			}
+			catch ( RuntimeException e )
+			{
+				displaysWithPendingTables.remove( segmentationDisplay );
+				throw e;
+			}
+			return () -> attachTables( segmentationDisplay );
+		};
+	}
+
+	/*
+	 * Adds the tables to a segmentation display that has been shown without them.
+	 */
+	private synchronized void attachTables( SegmentationDisplay segmentationDisplay )
+	{
+		displaysWithPendingTables.remove( segmentationDisplay );
+
+		// the display has been removed while its tables were loaded
+		if ( ! currentSourceDisplays.contains( segmentationDisplay ) ) return;
+
+		// segments that have been selected without tables do not exist anymore
+		segmentationDisplay.selectionModel.clearSelection();
+		segmentationDisplay.segmentAdapter.setSegments( segmentationDisplay.tableRows );
+		if ( segmentationDisplay.getColorByColumn() != null )
+			segmentationDisplay.selectionColoringModel.setColoringModel( createColumnColoringModel( segmentationDisplay ) );
+		selectSegments( segmentationDisplay );
+
+		initTableViewer( segmentationDisplay );
+		initScatterPlotViewer( segmentationDisplay );
+		initSegmentationVolumeViewer( segmentationDisplay );
+		setTablePosition( segmentationDisplay.sliceViewer.getWindow(), segmentationDisplay.tableViewer.getWindow() );
+		userInterface.updateDisplaySettingsPanel( segmentationDisplay );
+		sliceViewer.getBdvHandle().getViewerPanel().requestRepaint();
+	}
+
+	/**
+	 * @return the displays that have been shown
+	 */
+	private List< SourceDisplay > showReadyDisplays( List< SourceDisplay > order, List< SourceDisplay > readyDisplays, Set< SourceDisplay > finishedDisplays )
+	{
+		final List< SourceDisplay > shownDisplays = new ArrayList<>();
+		boolean showedDisplay = true;
+		while ( showedDisplay )
+		{
+			showedDisplay = false;
+			for ( SourceDisplay sourceDisplay : new ArrayList<>( readyDisplays ) )
+			{
+				if ( ! canBeShown( sourceDisplay, order, finishedDisplays ) ) continue;
+
+				showSourceDisplay( sourceDisplay );
+				readyDisplays.remove( sourceDisplay );
+				finishedDisplays.add( sourceDisplay );
+				shownDisplays.add( sourceDisplay );
+				showedDisplay = true;
+			}
+		}
+		return shownDisplays;
+	}
+
+	private static boolean canBeShown( SourceDisplay sourceDisplay, List< SourceDisplay > order, Set< SourceDisplay > finishedDisplays )
+	{
+		final BlendingMode blendingMode = sourceDisplay.getBlendingMode();
+		if ( blendingMode == null || ! BlendingMode.isOccluding( blendingMode ) )
+			return true;
+
+		return finishedDisplays.containsAll( order.subList( 0, order.indexOf( sourceDisplay ) ) );
+	}
+
+	private double getSquaredDistance( SourceDisplay sourceDisplay, double[] position, int t )
+	{
+		final List< Source< ? > > sources = new ArrayList<>();
+		for ( String name : sourceDisplay.getSources() )
+		{
+			final SourceAndConverter< ? > sourceAndConverter = moBIE.sourceNameToSourceAndConverter().get( name );
+			if ( sourceAndConverter != null )
+				sources.add( sourceAndConverter.getSpimSource() );
+		}
+		if ( sources.size() == 0 ) return Double.MAX_VALUE;
+
+		final RealInterval bounds = TransformHelper.estimateBounds( sources, t );
+		double squaredDistance = 0;
+		for ( int d = 0; d < 3; d++ )
+		{
+			final double distance = ( bounds.realMin( d ) + bounds.realMax( d ) ) / 2.0 - position[ d ];
+			squaredDistance += distance * distance;
+		}
+		return squaredDistance;
+	}
+
+	// loads the tables of region displays, such that this does not need
+	// to happen when the display is shown; segmentation displays are
+	// shown without their tables, which are loaded afterwards
+	private void prepareSourceDisplay( SourceDisplay sourceDisplay )
+	{
+		if ( sourceDisplay instanceof SegmentationDisplay )
+		{
+			if ( ( ( SegmentationDisplay ) sourceDisplay ).getTables() != null )
+				displaysWithPendingTables.add( sourceDisplay );
+		}
+		else if ( sourceDisplay instanceof RegionDisplay )
+		{
+			( ( RegionDisplay ) sourceDisplay ).tableRows = moBIE.createRegionTableRows( ( RegionDisplay ) sourceDisplay );
+			preparedSourceDisplays.add( sourceDisplay );
+		}
+	}
+
+	/**
+	 * Applies the sourceTransformers of a view to the given sources.
+	 * The transformed sources are added to (or replace the original sources in) the map.
+	 * This does not modify the state of any viewer and thus can also be used headless.
+	 *
+	 * @param sourceTransformers the sourceTransformers of a view, may be null
+	 * @param sourceNameToSourceAndConverters the raw sources, will be modified
+	 */
+	public static void transformSources( List< SourceTransformer > sourceTransformers, Map< String, SourceAndConverter< ? > > sourceNameToSourceAndConverters )
+	{
+		if ( sourceTransformers != null )
+			for ( SourceTransformer sourceTransformer : sourceTransformers )
+				sourceTransformer.transform( sourceNameToSourceAndConverters );
+
 		// Wrap all in a final transformed source.
 		// This is so any manual transformations can be
 		// retrieved separate from any from sourceTransformers.
@@ -303,14 +593,9 @@ public class ViewManager
 			SourceAndConverter<?> sourceAndConverter = new SourceAffineTransformer( sourceNameToSourceAndConverters.get( sourceName ), new AffineTransform3D()).getSourceOut();
 			sourceNameToSourceAndConverters.put( sourceName, sourceAndConverter );
 		}
-
-		// register all available (transformed) sources in MoBIE
-		// this is where the source and segmentation displays will
-		// get the sources from
-		moBIE.addSourceAndConverters( sourceNameToSourceAndConverters );
 	}
 
-	public Set< String > fetchSources( View view )
+	public static Set< String > fetchSources( View view )
 	{
 		final Set< String > sources = new HashSet<>();
 		final List< SourceDisplay > sourceDisplays = view.getSourceDisplays();
@@ -363,6 +648,62 @@ public class ViewManager
 			// also close all ImgLoaders to free the cache
 			removeSourceDisplay( sourceDisplay, closeImgLoader );
 		}
+
+		// release the raw sources that are still acquired, e.g. for displays that
+		// could not be shown, such that their image loaders can be closed
+		// by the source pool, unless the next view needs them again
+		if ( closeImgLoader )
+		{
+			synchronized ( acquiredSources )
+			{
+				for ( AcquiredSources sources : acquiredSources )
+					moBIE.releaseSourceAndConverters( sources.names );
+				acquiredSources.clear();
+				displayToAcquiredSources.clear();
+			}
+		}
+	}
+
+	private void addAcquiredSources( Collection< String > names, Collection< SourceDisplay > sourceDisplays )
+	{
+		final AcquiredSources sources = new AcquiredSources( names, sourceDisplays );
+		synchronized ( acquiredSources )
+		{
+			acquiredSources.add( sources );
+			for ( SourceDisplay sourceDisplay : sourceDisplays )
+				displayToAcquiredSources.put( sourceDisplay, sources );
+		}
+	}
+
+	private void releaseAcquiredSources( SourceDisplay sourceDisplay )
+	{
+		synchronized ( acquiredSources )
+		{
+			final AcquiredSources sources = displayToAcquiredSources.remove( sourceDisplay );
+			if ( sources == null ) return;
+
+			sources.displays.remove( sourceDisplay );
+			if ( sources.displays.isEmpty() )
+			{
+				moBIE.releaseSourceAndConverters( sources.names );
+				acquiredSources.remove( sources );
+			}
+		}
+	}
+
+	/*
+	 * Raw sources that have been acquired together for a group of displays.
+	 */
+	private static class AcquiredSources
+	{
+		private final Collection< String > names;
+		private final Set< SourceDisplay > displays;
+
+		private AcquiredSources( Collection< String > names, Collection< SourceDisplay > displays )
+		{
+			this.names = names;
+			this.displays = new HashSet<>( displays );
+		}
 	}
 
 	private void showImageDisplay( ImageDisplay imageDisplay )
@@ -391,7 +732,8 @@ public class ViewManager
 	private void showRegionDisplay( RegionDisplay regionDisplay )
 	{
 		regionDisplay.sliceViewer = sliceViewer;
-		regionDisplay.tableRows = moBIE.createRegionTableRows( regionDisplay );
+		if ( ! preparedSourceDisplays.remove( regionDisplay ) )
+			regionDisplay.tableRows = moBIE.createRegionTableRows( regionDisplay );
 		regionDisplay.annotatedMaskAdapter = new AnnotatedMaskAdapter( regionDisplay.tableRows );
 
 		regionDisplay.selectionModel = new MoBIESelectionModel<>();
@@ -423,26 +765,23 @@ public class ViewManager
 	private void showSegmentationDisplay( SegmentationDisplay segmentationDisplay )
 	{
 		segmentationDisplay.sliceViewer = sliceViewer;
-		loadTablesAndCreateImageSegments( segmentationDisplay );
+		final boolean hasPendingTables = displaysWithPendingTables.contains( segmentationDisplay );
+		if ( ! hasPendingTables )
+			loadTablesAndCreateImageSegments( segmentationDisplay );
 
-		if ( segmentationDisplay.tableRows != null )
+		if ( segmentationDisplay.tableRows != null && ! hasPendingTables )
 			segmentationDisplay.segmentAdapter = new SegmentAdapter( segmentationDisplay.tableRows );
 		else
 			segmentationDisplay.segmentAdapter = new SegmentAdapter();
 
 		segmentationDisplay.selectionModel = new MoBIESelectionModel<>();
 		configureColoringModel( segmentationDisplay );
-
-		// set selected segments
-		if ( segmentationDisplay.getSelectedTableRows() != null )
-		{
-			final List< TableRowImageSegment > segments = segmentationDisplay.segmentAdapter.getSegments( segmentationDisplay.getSelectedTableRows() );
-			segmentationDisplay.selectionModel.setSelected( segments, true );
-		}
+		if ( ! hasPendingTables )
+			selectSegments( segmentationDisplay );
 
 		segmentationDisplay.sliceView = new SegmentationSliceView( moBIE, segmentationDisplay );
 
-		if ( segmentationDisplay.tableRows != null )
+		if ( segmentationDisplay.tableRows != null && ! hasPendingTables )
 		{
 			initTableViewer( segmentationDisplay );
 			initScatterPlotViewer( segmentationDisplay );
@@ -451,6 +790,15 @@ public class ViewManager
 		}
 	}
 
+	private static void selectSegments( SegmentationDisplay segmentationDisplay )
+	{
+		if ( segmentationDisplay.getSelectedTableRows() != null )
+		{
+			final List< TableRowImageSegment > segments = segmentationDisplay.segmentAdapter.getSegments( segmentationDisplay.getSelectedTableRows() );
+			segmentationDisplay.selectionModel.setSelected( segments, true );
+		}
+	}
+
 	private void setTablePosition( Window reference, Window table )
 	{
 		SwingUtilities.invokeLater( () -> WindowArrangementHelper.bottomAlignWindow( reference, table, ( numCurrentTables - 1 ) * 10 ) );
@@ -506,13 +854,15 @@ public class ViewManager
 			final AnnotationDisplay< ? > regionDisplay = ( AnnotationDisplay< ? > ) sourceDisplay;
 			regionDisplay.getSliceView().close( closeImgLoader );
 
-			if ( regionDisplay.tableRows != null )
+			// the tables of a segmentation display may still be loading
+			if ( regionDisplay.tableViewer != null )
 			{
 				regionDisplay.tableViewer.close();
 				numCurrentTables--;
 				regionDisplay.scatterPlotViewer.close();
 				if ( regionDisplay instanceof SegmentationDisplay )
 					( ( SegmentationDisplay ) regionDisplay ).segmentsVolumeViewer.close();
+				regionDisplay.tableViewer = null;
 			}
 
 		}
@@ -524,6 +874,7 @@ public class ViewManager
 
 		userInterface.removeDisplaySettingsPanel( sourceDisplay );
 		currentSourceDisplays.remove( sourceDisplay );
+		releaseAcquiredSources( sourceDisplay );
 
 		updateCurrentSourceTransformers();
 	}
@@ -557,7 +908,7 @@ public class ViewManager
 	{
 		IJ.log( "Closing BDV..." );
 		removeAllSourceDisplays( true );
-		sliceViewer.getBdvHandle().close();
+		sliceViewer.close();
 		IJ.log( "Closing 3D Viewer..." );
 		universeManager.close();
 		IJ.log( "Closing UI..." );
@@ -33,25 +33,28 @@ import bdv.viewer.SourceAndConverter;
 import de.embl.cba.tables.Logger;
 import de.embl.cba.tables.color.ColorUtils;
 import de.embl.cba.tables.imagesegment.ImageSegment;
-import de.embl.cba.util.CopyUtils;
 import ij.IJ;
 import ij.ImagePlus;
-import ij.Prefs;
+import ij.ImageStack;
 import ij3d.Content;
 import ij3d.ContentConstants;
 import ij3d.Image3DUniverse;
 import ij3d.UniverseListener;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
 import net.imglib2.RandomAccessibleInterval;
-import net.imglib2.converter.RealUnsignedByteConverter;
 import net.imglib2.display.ColorConverter;
-import net.imglib2.img.display.imagej.ImageJFunctions;
-import net.imglib2.type.NativeType;
+import net.imglib2.img.cell.AbstractCellImg;
+import net.imglib2.iterator.LocalizingIntervalIterator;
 import net.imglib2.type.numeric.ARGBType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.UnsignedByteType;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.util.Intervals;
 import net.imglib2.util.Util;
 import net.imglib2.view.Views;
+import org.embl.mobie.viewer.MultiThreading;
 import org.embl.mobie.viewer.VisibilityListener;
 import org.embl.mobie.viewer.mesh.MeshCreator;
 import org.embl.mobie.viewer.playground.BdvPlaygroundHelper;
@@ -67,6 +70,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 import static de.embl.cba.bdv.utils.BdvUtils.getLevel;
@@ -83,8 +87,13 @@ public class ImageVolumeViewer
 	private ConcurrentHashMap< Content, SourceAndConverter > contentToSac;
 	private boolean showImages;
 
+	// the 8-bit image plus the copies that the 3D viewer creates for rendering it
+	private static final int DISPLAY_BYTES_PER_VOXEL = 4;
+	private static final double MEBIBYTE = 1024.0 * 1024.0;
+
 	private int meshSmoothingIterations;
 	private long maxNumVoxels;
+	private long memoryBudget; // bytes; 0 = auto => use half of the currently available heap
 	private double[] voxelSpacing; // desired voxel spacings; null = auto => use maxNumVoxels
 
 	private float transparency = 0.0F;
@@ -113,6 +122,19 @@ public class ImageVolumeViewer
 		this.maxNumVoxels = maxNumVoxels;
 	}
 
+	/**
+	 * The resolution level of a volume is chosen such that its
+	 * voxels fit into this budget, even if a finer voxel spacing
+	 * or a larger maximal number of voxels is requested.
+	 * The budget is never larger than half of the available heap.
+	 *
+	 * @param memoryBudget memory budget in bytes; 0 uses half of the available heap
+	 */
+	public void setMemoryBudget( long memoryBudget )
+	{
+		this.memoryBudget = memoryBudget;
+	}
+
 	public void updateView()
 	{
 		if ( universe == null ) return;
@@ -159,8 +181,23 @@ public class ImageVolumeViewer
 	{
 		final int[] contrastLimits = getContrastLimits( sac );
 		final ARGBType color = ( ( ColorConverter ) sac.getConverter() ).getColor();
-		final Content content = addSourceToUniverse( universe, sac.getSpimSource(), voxelSpacing, maxNumVoxels, ContentConstants.SURFACE, color, transparency, contrastLimits[ 0 ], contrastLimits[ 1 ] );
-		sacToContent.put( sac, content );
+		final Content content = addSourceToUniverse( universe, sac.getSpimSource(), voxelSpacing, maxNumVoxels, memoryBudget, ContentConstants.SURFACE, color, transparency, contrastLimits[ 0 ], contrastLimits[ 1 ] );
+		if ( content != null )
+			sacToContent.put( sac, content );
+	}
+
+	public static < R extends RealType< R > > Content addSourceToUniverse(
+			Image3DUniverse universe,
+			Source< ? > source,
+			double[] voxelSpacing,
+			long maxNumVoxels,
+			int displayType,
+			ARGBType argbType,
+			float transparency,
+			int min,
+			int max )
+	{
+		return addSourceToUniverse( universe, source, voxelSpacing, maxNumVoxels, 0, displayType, argbType, transparency, min, max );
 	}
 
 	public static < R extends RealType< R > > Content addSourceToUniverse(
@@ -168,26 +205,36 @@ public class ImageVolumeViewer
 			Source< ? > source,
 			double[] voxelSpacing,
 			long maxNumVoxels,
+			long memoryBudget,
 			int displayType,
 			ARGBType argbType,
 			float transparency,
 			int min,
 			int max )
 	{
-		Integer level;
+		int level;
 		if ( voxelSpacing != null )
 			level = BdvPlaygroundHelper.getLevel( source, voxelSpacing );
 		else
 			level = BdvPlaygroundHelper.getLevel( source, maxNumVoxels );
 
-		logVoxelSpacing( source, getVoxelSpacings( source ).get( level ) );
+		final long maxNumDisplayedVoxels = getMaxNumDisplayedVoxels( memoryBudget );
+		final int memoryLevel = BdvPlaygroundHelper.getLevel( source, maxNumDisplayedVoxels );
 
-		if ( level == null )
+		if ( Intervals.numElements( source.getSource( 0, memoryLevel ) ) > maxNumDisplayedVoxels )
 		{
-			Logger.warn( "Image is too large to be displayed in 3D." );
+			Logger.warn( "Image is too large to be displayed in 3D with the available memory." );
 			return null;
 		}
 
+		if ( memoryLevel > level )
+		{
+			IJ.log( "3D View: Using a lower resolution for " + source.getName() + " to stay within the memory budget of " + ( long ) ( maxNumDisplayedVoxels * DISPLAY_BYTES_PER_VOXEL / MEBIBYTE ) + " MB." );
+			level = memoryLevel;
+		}
+
+		logVoxelSpacing( source, getVoxelSpacings( source ).get( level ) );
+
 		if ( universe == null )
 		{
 			Logger.warn( "No Universe exists => Cannot show volume." );
@@ -209,6 +256,16 @@ public class ImageVolumeViewer
 		return content;
 	}
 
+	private static long getMaxNumDisplayedVoxels( long memoryBudget )
+	{
+		final Runtime runtime = Runtime.getRuntime();
+		final long availableMemory = runtime.maxMemory() - ( runtime.totalMemory() - runtime.freeMemory() );
+		long budget = availableMemory / 2;
+		if ( memoryBudget > 0 )
+			budget = Math.min( memoryBudget, budget );
+		return budget / DISPLAY_BYTES_PER_VOXEL;
+	}
+
 	public static void logVoxelSpacing( Source< ? > source, double[] voxelSpacings )
 	{
 		IJ.log( "3D View: Fetching source " + source.getName() + " at " + Arrays.stream( voxelSpacings ).mapToObj( x -> "" + x ).collect( Collectors.joining( ", " ) ) + " micrometer..." );
@@ -235,27 +292,92 @@ public class ImageVolumeViewer
 		return content;
 	}
 
-	private static < R extends RealType< R > & NativeType< R > > ImagePlus createUnsignedByteImagePlus( Source< ? > source, int min, int max, Integer level )
+	/*
+	 * Converts the volume to 8-bit directly from the (cached) cells of the source,
+	 * without first copying it in its original data type.
+	 * The cells are converted in parallel, each thread writing into the ImageJ planes.
+	 */
+	private static < R extends RealType< R > > ImagePlus createUnsignedByteImagePlus( Source< ? > source, int min, int max, int level )
 	{
-		RandomAccessibleInterval< R > rai = ( RandomAccessibleInterval )  source.getSource( 0, level );
-
-		rai = CopyUtils.copyVolumeRaiMultiThreaded( rai, Prefs.getThreads() - 1  ); // TODO: make multi-threading configurable.
-
-		rai = Views.permute( Views.addDimension( rai, 0, 0 ), 2, 3 );
+		final RandomAccessibleInterval< R > volume = ( RandomAccessibleInterval ) source.getSource( 0, level );
+		final RandomAccessibleInterval< R > rai = Views.zeroMin( volume );
+
+		final int width = ( int ) rai.dimension( 0 );
+		final int height = ( int ) rai.dimension( 1 );
+		final int depth = ( int ) rai.dimension( 2 );
+		final ImageStack stack = new ImageStack( width, height );
+		final byte[][] planes = new byte[ depth ][];
+		for ( int z = 0; z < depth; z++ )
+		{
+			planes[ z ] = new byte[ width * height ];
+			stack.addSlice( "", planes[ z ] );
+		}
 
-		final ImagePlus wrap = ImageJFunctions.wrapUnsignedByte(
-				rai,
-				new RealUnsignedByteConverter< R >( min, max ),
-				source.getName() );
+		final double scale = 255.0 / Math.max( 1, max - min );
+		final ArrayList< Future< ? > > futures = MultiThreading.getFutures();
+		for ( Interval block : getBlocks( volume ) )
+		{
+			futures.add( MultiThreading.executorService.submit( () -> {
+				final Cursor< R > cursor = Views.interval( rai, block ).localizingCursor();
+				while ( cursor.hasNext() )
+				{
+					final double value = cursor.next().getRealDouble();
+					final long unsignedByte = Math.max( 0, Math.min( 255, Math.round( ( value - min ) * scale ) ) );
+					planes[ cursor.getIntPosition( 2 ) ][ cursor.getIntPosition( 0 ) + cursor.getIntPosition( 1 ) * width ] = ( byte ) unsignedByte;
+				}
+			} ) );
+		}
+		MultiThreading.waitUntilFinished( futures, cause -> new RuntimeException( "Could not load " + source.getName() + " for the 3D viewer", cause ) );
 
+		final ImagePlus imp = new ImagePlus( source.getName(), stack );
 		final double[] voxelSpacing = getVoxelSpacings( source ).get( level );
-		wrap.getCalibration().pixelWidth = voxelSpacing[ 0 ];
-		wrap.getCalibration().pixelHeight = voxelSpacing[ 1 ];
-		wrap.getCalibration().pixelDepth = voxelSpacing[ 2 ];
+		imp.getCalibration().pixelWidth = voxelSpacing[ 0 ];
+		imp.getCalibration().pixelHeight = voxelSpacing[ 1 ];
+		imp.getCalibration().pixelDepth = voxelSpacing[ 2 ];
 
-		return wrap;
+		return imp;
 	}
 
+	/*
+	 * Blocks that match the cells of cached images,
+	 * such that each cell is loaded only once;
+	 * otherwise one block per plane.
+	 */
+	private static List< Interval > getBlocks( RandomAccessibleInterval< ? > volume )
+	{
+		final long[] dimensions = volume.dimensionsAsLongArray();
+		final int[] blockSize = new int[ 3 ];
+		if ( volume instanceof AbstractCellImg && volume.numDimensions() == 3 )
+		{
+			( ( AbstractCellImg< ?, ?, ?, ? > ) volume ).getCellGrid().cellDimensions( blockSize );
+		}
+		else
+		{
+			blockSize[ 0 ] = ( int ) dimensions[ 0 ];
+			blockSize[ 1 ] = ( int ) dimensions[ 1 ];
+			blockSize[ 2 ] = 1;
+		}
+
+		final long[] numBlocks = new long[ 3 ];
+		for ( int d = 0; d < 3; d++ )
+			numBlocks[ d ] = ( dimensions[ d ] + blockSize[ d ] - 1 ) / blockSize[ d ];
+
+		final List< Interval > blocks = new ArrayList<>();
+		final LocalizingIntervalIterator gridIterator = new LocalizingIntervalIterator( numBlocks );
+		final long[] min = new long[ 3 ];
+		final long[] max = new long[ 3 ];
+		while ( gridIterator.hasNext() )
+		{
+			gridIterator.fwd();
+			for ( int d = 0; d < 3; d++ )
+			{
+				min[ d ] = gridIterator.getLongPosition( d ) * blockSize[ d ];
+				max[ d ] = Math.min( min[ d ] + blockSize[ d ], dimensions[ d ] ) - 1;
+			}
+			blocks.add( new FinalInterval( min, max ) );
+		}
+		return blocks;
+	}
 
 	private int[] getContrastLimits( SourceAndConverter< ? > sac )
 	{
@@ -29,6 +29,7 @@
 package develop;
 
 import net.imglib2.type.numeric.integer.UnsignedIntType;
+import net.imglib2.type.numeric.integer.UnsignedLongType;
 import org.embl.mobie.viewer.SourceNameEncoder;
 
 public class DevelopSourceNameBitEncoding
@@ -60,8 +61,8 @@ public class DevelopSourceNameBitEncoding
 
 		SourceNameEncoder.addName( "hello" );
 		SourceNameEncoder.addName( "world" );
-		final UnsignedIntType labelIndex = new UnsignedIntType( 133 );
-		SourceNameEncoder.encodeName( labelIndex, "hello" );
+		final UnsignedLongType labelIndex = new UnsignedLongType( 133 );
+		SourceNameEncoder.encodeName( labelIndex, "world" );
 		System.out.println(labelIndex.get());
 		System.out.println("name: " + SourceNameEncoder.getName( labelIndex ));
 		System.out.println("value: " + SourceNameEncoder.getValue( labelIndex ));
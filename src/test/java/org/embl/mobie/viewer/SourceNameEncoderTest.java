@@ -0,0 +1,72 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer;
+
+import net.imglib2.type.numeric.integer.UnsignedLongType;
+import net.imglib2.type.volatiles.VolatileUnsignedLongType;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SourceNameEncoderTest {
+
+    @Test
+    public void encodesLabelsBeyond16Bits() {
+        SourceNameEncoder.addNames( Arrays.asList( "encoder-test-a", "encoder-test-b" ) );
+
+        final long label = 70000L * 1000L;
+        final UnsignedLongType value = new UnsignedLongType( label );
+        SourceNameEncoder.encodeName( value, "encoder-test-b" );
+
+        assertEquals( label, SourceNameEncoder.getValue( value ) );
+        assertEquals( "encoder-test-b", SourceNameEncoder.getName( value ) );
+
+        // the rendering passes volatile voxels and must decode them without losing bits
+        final VolatileUnsignedLongType volatileValue = new VolatileUnsignedLongType( value.get() );
+        assertEquals( label, SourceNameEncoder.getValue( volatileValue ) );
+        assertEquals( "encoder-test-b", SourceNameEncoder.getName( volatileValue ) );
+    }
+
+    @Test
+    public void keepsBackgroundAtZero() {
+        SourceNameEncoder.addName( "encoder-test-a" );
+        assertEquals( 0, SourceNameEncoder.encode( 0, SourceNameEncoder.getIndex( "encoder-test-a" ) ) );
+    }
+
+    @Test
+    public void rejectsUnknownNamesAndTooLargeLabels() {
+        assertThrows( IllegalArgumentException.class, () -> SourceNameEncoder.getIndex( "encoder-test-unknown" ) );
+        assertThrows( IllegalArgumentException.class, () -> SourceNameEncoder.encode( 1L << SourceNameEncoder.getLabelBits(), 0 ) );
+        assertNull( SourceNameEncoder.getName( Long.MAX_VALUE ) );
+    }
+}
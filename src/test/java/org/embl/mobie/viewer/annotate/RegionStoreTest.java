@@ -0,0 +1,127 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.annotate;
+
+import net.imglib2.RealPoint;
+import net.imglib2.roi.RealMaskRealInterval;
+import org.embl.mobie.viewer.transform.UnionRealMask;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RegionStoreTest {
+
+    // region "a" is the box [0,1]^3, region "b" consists of the boxes [10,11]^3 and [20,21]^3
+    static RegionStore createStore() {
+        final Map< String, List< String > > columns = new HashMap<>();
+        columns.put( "region_id", new ArrayList<>( Arrays.asList( "b", "a" ) ) );
+        columns.put( "color", new ArrayList<>( Arrays.asList( "red", "blue" ) ) );
+        final double[] memberMin = { 0, 0, 0, 10, 10, 10, 20, 20, 20 };
+        final double[] memberMax = { 1, 1, 1, 11, 11, 11, 21, 21, 21 };
+        return new RegionStore( columns, new String[]{ "a", "b" }, new int[]{ 1, 0 }, new int[]{ 0, 1, 3 }, memberMin, memberMax );
+    }
+
+    @Test
+    public void createsMasksFromBounds() {
+        final RegionStore store = createStore();
+
+        final RealMaskRealInterval a = store.getMask( 0 );
+        assertTrue( a.test( new RealPoint( 0.5, 0.5, 0.5 ) ) );
+        assertFalse( a.test( new RealPoint( 10.5, 10.5, 10.5 ) ) );
+
+        final RealMaskRealInterval b = store.getMask( 1 );
+        assertTrue( b.test( new RealPoint( 10.5, 10.5, 10.5 ) ) );
+        assertTrue( b.test( new RealPoint( 20.5, 20.5, 20.5 ) ) );
+        assertFalse( b.test( new RealPoint( 15, 15, 15 ) ) );
+        assertEquals( 10, b.realMin( 0 ), 1e-9 );
+        assertEquals( 21, b.realMax( 0 ), 1e-9 );
+    }
+
+    @Test
+    public void readsAndWritesTheTableRowOfTheRegion() {
+        final RegionStore store = createStore();
+
+        assertEquals( "blue", store.getCell( 0, "color" ) );
+        assertEquals( "red", store.getCell( 1, "color" ) );
+        assertNull( store.getCell( 0, "missing" ) );
+
+        store.setCell( 0, "color", "green" );
+        assertEquals( "green", store.getCell( 0, "color" ) );
+        assertEquals( "red", store.getCell( 1, "color" ) );
+
+        store.setCell( 1, "score", "1.0" );
+        assertEquals( "1.0", store.getCell( 1, "score" ) );
+        assertEquals( "", store.getCell( 0, "score" ) );
+        assertTrue( store.getColumnNames().contains( "score" ) );
+    }
+
+    @Test
+    public void createsOneRowPerRegion() {
+        final RegionStore store = createStore();
+        final List< RegionTableRow > rows = store.createRows();
+
+        assertEquals( 2, rows.size() );
+        assertEquals( "a", rows.get( 0 ).name() );
+        assertEquals( "b", rows.get( 1 ).name() );
+    }
+
+    @Test
+    public void mapsMembersToRegions() {
+        final double[] bounds = new double[ 3 * 3 ];
+        final Map< String, List< String > > columns = new HashMap<>();
+        columns.put( "region_id", new ArrayList<>( Arrays.asList( "a", "b", "c", "d" ) ) );
+        // region "b" has no members
+        final RegionStore store = new RegionStore( columns, new String[]{ "a", "b", "c", "d" }, new int[]{ 0, 1, 2, 3 }, new int[]{ 0, 1, 1, 2, 3 }, bounds, bounds );
+
+        assertEquals( 0, store.getRegion( 0 ) );
+        assertEquals( 2, store.getRegion( 1 ) );
+        assertEquals( 3, store.getRegion( 2 ) );
+    }
+
+    @Test
+    public void indexesTheMembersOfAllRegions() {
+        final RegionStore store = createStore();
+        final UnionRealMask union = store.createMemberUnion();
+
+        assertEquals( 3, union.numMasks() );
+        assertEquals( 0, store.getRegion( union.indexOf( new RealPoint( 0.5, 0.5, 0.5 ) ) ) );
+        assertEquals( 1, store.getRegion( union.indexOf( new RealPoint( 10.5, 10.5, 10.5 ) ) ) );
+        assertEquals( 1, store.getRegion( union.indexOf( new RealPoint( 20.5, 20.5, 20.5 ) ) ) );
+        assertEquals( -1, union.indexOf( new RealPoint( 15, 15, 15 ) ) );
+    }
+}
@@ -0,0 +1,86 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.annotate;
+
+import de.embl.cba.tables.tablerow.TableRowListener;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class StoredRegionTableRowTest {
+
+    @Test
+    public void readsTheCellsOfItsRegion() {
+        final RegionStore store = RegionStoreTest.createStore();
+        final StoredRegionTableRow row = new StoredRegionTableRow( store, 1 );
+
+        assertEquals( "b", row.name() );
+        assertEquals( "red", row.getCell( "color" ) );
+        assertEquals( store.getColumnNames(), row.getColumnNames() );
+        // without a timepoint column, the region is at the first time point
+        assertEquals( 0, row.timePoint() );
+        assertEquals( store.getMask( 1 ), row.mask() );
+    }
+
+    @Test
+    public void readsTheTimePoint() {
+        final Map< String, List< String > > columns = new HashMap<>();
+        columns.put( "region_id", new ArrayList<>( Arrays.asList( "a" ) ) );
+        columns.put( "timepoint", new ArrayList<>( Arrays.asList( "3" ) ) );
+        final double[] bounds = new double[ 3 ];
+        final RegionStore store = new RegionStore( columns, new String[]{ "a" }, new int[]{ 0 }, new int[]{ 0, 1 }, bounds, bounds );
+
+        assertEquals( 3, new StoredRegionTableRow( store, 0 ).timePoint() );
+    }
+
+    @Test
+    public void writesToTheStoreAndNotifiesListeners() {
+        final RegionStore store = RegionStoreTest.createStore();
+        final StoredRegionTableRow row = new StoredRegionTableRow( store, 0 );
+        final List< String > changes = new ArrayList<>();
+        row.listeners().add( new TableRowListener() {
+            @Override
+            public void cellChanged( String columnName, String value ) {
+                changes.add( columnName + "=" + value );
+            }
+        } );
+
+        row.setCell( "color", "green" );
+
+        assertEquals( "green", store.getCell( 0, "color" ) );
+        assertEquals( "red", store.getCell( 1, "color" ) );
+        assertEquals( Arrays.asList( "color=green" ), changes );
+    }
+}
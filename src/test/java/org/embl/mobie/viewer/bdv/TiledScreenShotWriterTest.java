@@ -0,0 +1,128 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.bdv;
+
+import bdv.util.RandomAccessibleIntervalMipmapSource;
+import bdv.viewer.Source;
+import bdv.viewer.SourceAndConverter;
+import mpicbg.spim.data.sequence.FinalVoxelDimensions;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converter;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+import org.janelia.saalfeldlab.n5.zarr.N5ZarrReader;
+import org.janelia.saalfeldlab.n5.zarr.N5ZarrWriter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TiledScreenShotWriterTest {
+
+    private static final long[] CAPTURE_SIZE = { 45, 35 };
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    public void stitchedTilesMatchSingleTile() throws IOException {
+        final SourceAndConverter< UnsignedShortType > sac = createSourceAndConverter();
+
+        // partial tiles at the right and bottom border
+        final String tiledPath = write( sac, 16, "tiled" );
+        final String singlePath = write( sac, 64, "single" );
+
+        final RandomAccessibleInterval< ? extends RealType< ? > > tiledRgb = N5Utils.open( new N5ZarrReader( tiledPath + "/rgb" ), "s0" );
+        final RandomAccessibleInterval< ? extends RealType< ? > > singleRgb = N5Utils.open( new N5ZarrReader( singlePath + "/rgb" ), "s0" );
+        final RandomAccessibleInterval< ? extends RealType< ? > > tiledRaw = N5Utils.open( new N5ZarrReader( tiledPath + "/raw" ), "s0" );
+        final RandomAccessibleInterval< ? extends RealType< ? > > singleRaw = N5Utils.open( new N5ZarrReader( singlePath + "/raw" ), "s0" );
+
+        for ( int y = 0; y < CAPTURE_SIZE[ 1 ]; y++ ) {
+            for ( int x = 0; x < CAPTURE_SIZE[ 0 ]; x++ ) {
+                // the red channel holds the voxel value
+                assertEquals( x + y, get( singleRgb, x, y, 0 ) );
+                assertEquals( x + y, get( singleRaw, x, y, 0 ) );
+                for ( int c = 0; c < 3; c++ )
+                    assertEquals( get( singleRgb, x, y, c ), get( tiledRgb, x, y, c ), "x=" + x + ", y=" + y + ", c=" + c );
+                assertEquals( get( singleRaw, x, y, 0 ), get( tiledRaw, x, y, 0 ) );
+            }
+        }
+    }
+
+    private String write( SourceAndConverter< UnsignedShortType > sac, int tileSize, String name ) throws IOException {
+        final TiledScreenShotWriter writer = new TiledScreenShotWriter( null );
+        writer.setTileSize( tileSize );
+
+        final List< SourceAndConverter< ? > > sacs = Collections.singletonList( sac );
+        final List< TiledScreenShotWriter.SourceSampler > samplers = new ArrayList<>();
+        samplers.add( new TiledScreenShotWriter.SourceSampler( sac, new AffineTransform3D(), 0, 1.0 ) );
+
+        final String path = new File( tempDir, name ).getAbsolutePath();
+        final double[] scale = { 1, 1, 1, 1, 1 };
+        final N5ZarrWriter rgbWriter = writer.createZarr( path + "/rgb", "RGB", CAPTURE_SIZE, 3, DataType.UINT8, scale, new ArrayList<>() );
+        final N5ZarrWriter rawWriter = writer.createZarr( path + "/raw", "Raw", CAPTURE_SIZE, sacs.size(), DataType.UINT16, scale, new ArrayList<>() );
+        writer.writeTiles( samplers, new boolean[]{ false }, CAPTURE_SIZE, 1.0, rgbWriter, rawWriter );
+        return path;
+    }
+
+    private static double get( RandomAccessibleInterval< ? extends RealType< ? > > xyzct, int x, int y, int c ) {
+        final RandomAccess< ? extends RealType< ? > > access = xyzct.randomAccess();
+        access.setPosition( new long[]{ x, y, 0, c, 0 } );
+        return access.get().getRealDouble();
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private static SourceAndConverter< UnsignedShortType > createSourceAndConverter() {
+        final ArrayImg< UnsignedShortType, ShortArray > image = ArrayImgs.unsignedShorts( CAPTURE_SIZE[ 0 ], CAPTURE_SIZE[ 1 ], 3 );
+        final Cursor< UnsignedShortType > cursor = image.localizingCursor();
+        while ( cursor.hasNext() ) {
+            cursor.fwd();
+            cursor.get().set( cursor.getIntPosition( 0 ) + cursor.getIntPosition( 1 ) );
+        }
+        final RandomAccessibleInterval< UnsignedShortType >[] levels = new RandomAccessibleInterval[]{ image };
+        final Source< UnsignedShortType > source = new RandomAccessibleIntervalMipmapSource<>( levels, new UnsignedShortType(), new double[][]{ { 1, 1, 1 } }, new FinalVoxelDimensions( "micrometer", 1, 1, 1 ), "image" );
+        final Converter< UnsignedShortType, ARGBType > converter = ( input, output ) -> output.set( ARGBType.rgba( input.get(), 0, 0, 255 ) );
+        return new SourceAndConverter<>( source, converter );
+    }
+}
@@ -0,0 +1,117 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.measure;
+
+import bdv.util.RandomAccessibleIntervalSource;
+import net.imglib2.Cursor;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypes.ByteArray;
+import net.imglib2.roi.RealMaskRealInterval;
+import net.imglib2.roi.geom.GeomMasks;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import org.embl.mobie.viewer.annotate.AnnotatedMask;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class IntensityMeasurerTest {
+
+    @Test
+    public void measuresRegions() {
+        // the voxel values are their x coordinates
+        final ArrayImg< UnsignedByteType, ByteArray > image = ArrayImgs.unsignedBytes( 20, 20, 1 );
+        final Cursor< UnsignedByteType > cursor = image.localizingCursor();
+        while ( cursor.hasNext() ) {
+            cursor.fwd();
+            cursor.get().set( cursor.getIntPosition( 0 ) );
+        }
+        final RandomAccessibleIntervalSource< UnsignedByteType > source = new RandomAccessibleIntervalSource<>( image, new UnsignedByteType(), "image" );
+
+        final List< AnnotatedMask > regions = Arrays.asList(
+                region( GeomMasks.closedBox( new double[]{ 2, 0, 0 }, new double[]{ 6, 1, 0 } ) ),
+                region( GeomMasks.closedBox( new double[]{ 30, 30, 0 }, new double[]{ 40, 40, 0 } ) ) );
+
+        final Map< String, List< String > > columns = new IntensityMeasurer( source, 0 ).measureRegions( regions );
+
+        assertEquals( 10.0, Double.parseDouble( columns.get( "image_count" ).get( 0 ) ) );
+        assertEquals( 40.0, Double.parseDouble( columns.get( "image_sum" ).get( 0 ) ) );
+        assertEquals( 4.0, Double.parseDouble( columns.get( "image_mean" ).get( 0 ) ) );
+        assertEquals( 2.0, Double.parseDouble( columns.get( "image_min" ).get( 0 ) ) );
+        assertEquals( 6.0, Double.parseDouble( columns.get( "image_max" ).get( 0 ) ) );
+        assertEquals( 2.0, Double.parseDouble( columns.get( "image_p5" ).get( 0 ) ) );
+        assertEquals( 4.0, Double.parseDouble( columns.get( "image_p50" ).get( 0 ) ) );
+        assertEquals( 6.0, Double.parseDouble( columns.get( "image_p95" ).get( 0 ) ) );
+
+        // outside of the image
+        assertEquals( 0.0, Double.parseDouble( columns.get( "image_count" ).get( 1 ) ) );
+        assertEquals( Double.NaN, Double.parseDouble( columns.get( "image_mean" ).get( 1 ) ) );
+    }
+
+    @Test
+    public void estimatesPercentilesOfRealValues() {
+        final IntensityStatistics statistics = new IntensityStatistics( 1, false );
+        for ( int pass = 0; pass < 2; pass++ ) {
+            if ( pass == 1 ) statistics.startHistograms();
+            for ( int i = 0; i < 1000; i++ ) {
+                if ( pass == 0 ) statistics.add( 0, i * 0.1 );
+                else statistics.addToHistogram( 0, i * 0.1 );
+            }
+        }
+
+        // accurate within one bin
+        final double binWidth = 99.9 / IntensityStatistics.NUM_BINS;
+        assertEquals( 49.9, statistics.getPercentile( 0, 50 ), binWidth );
+        assertEquals( 94.9, statistics.getPercentile( 0, 95 ), binWidth );
+        assertEquals( 49.95, statistics.getMean( 0 ), 1e-9 );
+    }
+
+    private static AnnotatedMask region( RealMaskRealInterval mask ) {
+        return new AnnotatedMask() {
+            @Override
+            public RealMaskRealInterval mask() {
+                return mask;
+            }
+
+            @Override
+            public Integer timePoint() {
+                return 0;
+            }
+
+            @Override
+            public String name() {
+                return "region";
+            }
+        };
+    }
+}
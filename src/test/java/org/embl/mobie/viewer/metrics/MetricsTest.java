@@ -0,0 +1,118 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.metrics;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class MetricsTest {
+
+    @BeforeEach
+    void setUp() {
+        Metrics.reset();
+    }
+
+    @AfterEach
+    void tearDown() {
+        Metrics.reset();
+    }
+
+    @Test
+    public void computesPercentilesOfTimers() {
+        for ( int i = 100; i >= 1; i-- )
+            Metrics.time( Metrics.FRAME_RENDER, i );
+
+        final Metrics.Metric metric = Metrics.get( Metrics.FRAME_RENDER );
+        assertEquals( 100, metric.getCount() );
+        assertEquals( 50.5, metric.getMean(), 1e-9 );
+        assertEquals( 50, metric.getRecentPercentile( 50 ), 1e-9 );
+        assertEquals( 95, metric.getRecentPercentile( 95 ), 1e-9 );
+        assertEquals( 1, metric.getRecentPercentile( 0 ), 1e-9 );
+        assertEquals( 100, metric.getRecentPercentile( 100 ), 1e-9 );
+    }
+
+    @Test
+    public void addsUpCountersAndKeepsLastGaugeValue() {
+        Metrics.count( Metrics.DISK_CACHE_HITS, 3 );
+        Metrics.count( Metrics.DISK_CACHE_HITS, 1 );
+        Metrics.count( Metrics.DISK_CACHE_MISSES, 4 );
+        Metrics.gauge( Metrics.CHUNKS_VISIBLE_PENDING, 7 );
+        Metrics.gauge( Metrics.CHUNKS_VISIBLE_PENDING, 2 );
+
+        assertEquals( 4, Metrics.get( Metrics.DISK_CACHE_HITS ).getTotal(), 1e-9 );
+        assertEquals( 0.5, Metrics.getHitRate( Metrics.DISK_CACHE_HITS, Metrics.DISK_CACHE_MISSES ), 1e-9 );
+        assertEquals( 2, Metrics.get( Metrics.CHUNKS_VISIBLE_PENDING ).getLast(), 1e-9 );
+        assertNull( Metrics.get( Metrics.MESH_BUILD ) );
+    }
+
+    @Test
+    public void writesCsv() {
+        Metrics.time( Metrics.TABLE_LOAD, 10 );
+        Metrics.time( Metrics.TABLE_LOAD, 30 );
+        Metrics.count( Metrics.CHUNK_BYTES + ":image", 1024 );
+
+        final String[] lines = Metrics.toCsv().split( "\n" );
+        assertEquals( 3, lines.length );
+        assertEquals( "name,kind,count,total,mean,min,max,p50,p95,last", lines[ 0 ] );
+        // sorted by name
+        assertEquals( "chunk.bytes:image,Counter,1,1024.0,1024.0,1024.0,1024.0,0.0,0.0,1024.0", lines[ 1 ] );
+        assertEquals( "table.load,Timer,2,40.0,20.0,10.0,30.0,10.0,30.0,30.0", lines[ 2 ] );
+    }
+
+    @Test
+    public void writesJson() {
+        Metrics.time( Metrics.TABLE_LOAD, 10 );
+        Metrics.time( Metrics.TABLE_LOAD, 30 );
+        Metrics.count( Metrics.DISK_CACHE_HITS, 2 );
+
+        final List< Map< String, Object > > metrics = new Gson().fromJson( Metrics.toJson(), new TypeToken< List< Map< String, Object > > >() {}.getType() );
+        assertEquals( 2, metrics.size() );
+
+        final Map< String, Object > hits = metrics.get( 0 );
+        assertEquals( Metrics.DISK_CACHE_HITS, hits.get( "name" ) );
+        assertEquals( "Counter", hits.get( "kind" ) );
+        assertEquals( 2.0, ( Double ) hits.get( "total" ), 1e-9 );
+
+        final Map< String, Object > tableLoad = metrics.get( 1 );
+        assertEquals( Metrics.TABLE_LOAD, tableLoad.get( "name" ) );
+        assertEquals( 2.0, ( Double ) tableLoad.get( "count" ), 1e-9 );
+        assertEquals( 20.0, ( Double ) tableLoad.get( "meanMillis" ), 1e-9 );
+        assertEquals( 10.0, ( Double ) tableLoad.get( "p50Millis" ), 1e-9 );
+        assertEquals( 30.0, ( Double ) tableLoad.get( "p95Millis" ), 1e-9 );
+    }
+}
@@ -0,0 +1,127 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.plugins.platybrowser;
+
+import net.imglib2.Cursor;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypes.ByteArray;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class GeneExpressionIndexTest {
+
+    @TempDir
+    File tempDir;
+
+    private File cacheDirectory;
+
+    @BeforeEach
+    public void setCacheDirectory() {
+        cacheDirectory = GeneExpressionIndex.getCacheDirectory();
+        GeneExpressionIndex.setCacheDirectory( tempDir );
+    }
+
+    @AfterEach
+    public void restoreCacheDirectory() {
+        GeneExpressionIndex.setCacheDirectory( cacheDirectory );
+    }
+
+    @Test
+    public void matchesVoxelSearch() {
+        final ArrayImg< UnsignedByteType, ByteArray > image = createExpression();
+        final GeneExpressionIndex index = GeneExpressionIndex.build( image );
+
+        final double calibration = 0.5;
+        for ( double radius : new double[]{ 0.5, 3.0, 9.0 } ) {
+            final double[] position = { 20.0, 14.5, 16.0 };
+            final double expected = GeneSearch.GeneSearchUtils.getFractionOfNonZeroVoxels( image, position, radius, calibration );
+            assertEquals( expected, index.getFractionOfNonZeroVoxels( image, position, radius, calibration ), 1e-12 );
+        }
+    }
+
+    @Test
+    public void readsCachedIndex() {
+        final ArrayImg< UnsignedByteType, ByteArray > image = createExpression();
+        GeneExpressionIndex.build( image ).write( "dataset/gene", "1" );
+
+        final GeneExpressionIndex index = GeneExpressionIndex.read( "dataset/gene", "1", image.dimensionsAsLongArray() );
+        assertNotNull( index );
+
+        final double[] position = { 20.0, 14.5, 16.0 };
+        final double expected = GeneSearch.GeneSearchUtils.getFractionOfNonZeroVoxels( image, position, 5.0, 0.5 );
+        assertEquals( expected, index.getFractionOfNonZeroVoxels( image, position, 5.0, 0.5 ), 1e-12 );
+
+        // an index of other data is not used
+        assertNull( GeneExpressionIndex.read( "dataset/gene", "1", new long[]{ 1, 2, 3 } ) );
+        assertNull( GeneExpressionIndex.read( "dataset/other-gene", "1", image.dimensionsAsLongArray() ) );
+    }
+
+    @Test
+    public void ignoresIndexOfModifiedImage() {
+        final ArrayImg< UnsignedByteType, ByteArray > image = createExpression();
+        GeneExpressionIndex.build( image ).write( "dataset/gene", "1" );
+
+        assertNull( GeneExpressionIndex.read( "dataset/gene", "2", image.dimensionsAsLongArray() ) );
+        assertNull( GeneExpressionIndex.read( "dataset/gene", null, image.dimensionsAsLongArray() ) );
+    }
+
+    @Test
+    public void doesNotCacheIndexOfUnknownVersion() {
+        final ArrayImg< UnsignedByteType, ByteArray > image = createExpression();
+        GeneExpressionIndex.build( image ).write( "dataset/gene", null );
+
+        assertEquals( 0, tempDir.listFiles().length );
+    }
+
+    private static ArrayImg< UnsignedByteType, ByteArray > createExpression() {
+        // a fully expressed slab, an empty half and sparse expression elsewhere
+        final ArrayImg< UnsignedByteType, ByteArray > image = ArrayImgs.unsignedBytes( 80, 70, 60 );
+        final Random random = new Random( 42 );
+        final Cursor< UnsignedByteType > cursor = image.localizingCursor();
+        while ( cursor.hasNext() ) {
+            cursor.fwd();
+            final long x = cursor.getLongPosition( 0 );
+            if ( x < 16 ) continue;
+            if ( x < 40 ) cursor.get().set( 1 );
+            else if ( random.nextDouble() < 0.3 ) cursor.get().set( 255 );
+        }
+        return image;
+    }
+}
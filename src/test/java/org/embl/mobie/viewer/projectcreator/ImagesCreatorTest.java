@@ -55,6 +55,7 @@ import java.nio.file.Path;
 
 import static org.embl.mobie.viewer.projectcreator.ProjectCreatorTestHelper.makeImage;
 import static org.embl.mobie.viewer.projectcreator.ProjectCreatorTestHelper.makeSegmentation;
+import static org.embl.mobie.viewer.projectcreator.ProjectCreatorTestHelper.makeVirtualStack;
 import static org.junit.jupiter.api.Assertions.*;
 
 class ImagesCreatorTest {
@@ -265,6 +266,37 @@ class ImagesCreatorTest {
         testAddingSegmentationInCertainFormat( ImageDataFormat.OmeZarr );
     }
 
+    @Test
+    void addImageBloscCompressedBdvN5() throws IOException, SpimDataException {
+        imagesCreator.setDefaultCompression( ImagePyramidWriter.Codec.BloscZstd.createCompression() );
+        imagesCreator.setNumWriterThreads( 2 );
+        testAddingImageInCertainFormat( ImageDataFormat.BdvN5, false );
+    }
+
+    @Test
+    void addImageLz4CompressedOmeZarr() throws IOException, SpimDataException {
+        // lz4 is not a zarr codec, thus must be written with blosc
+        imagesCreator.setDefaultCompression( ImagePyramidWriter.Codec.Lz4.createCompression() );
+        imagesCreator.setWriterMemoryBudget( 1024 * 1024 );
+        testAddingImageInCertainFormat( ImageDataFormat.OmeZarr, false );
+    }
+
+    @Test
+    void addVirtualStackOmeZarr() throws IOException, SpimDataException {
+        File planeDirectory = new File( tempDir, "planes" );
+        planeDirectory.mkdirs();
+        ImagePlus imp = makeVirtualStack( imageName, planeDirectory );
+        assertTrue( imp.getStack().isVirtual() );
+
+        // a budget that holds only a few planes
+        imagesCreator.setWriterMemoryBudget( 4 * imp.getWidth() * imp.getHeight() );
+        imagesCreator.addImage( imp, imageName, datasetName,
+                ImageDataFormat.OmeZarr, ProjectCreator.ImageType.image,
+                sourceTransform, uiSelectionGroup, false );
+
+        assertionsForImageAdded( ImageDataFormat.OmeZarr, false );
+    }
+
     @Test
     void linkToImageBdvN5() throws IOException, SpimDataException {
         testLinkingImagesInCertainFormat( ImageDataFormat.BdvN5, false );
@@ -30,8 +30,11 @@ package org.embl.mobie.viewer.projectcreator;
 
 import ij.IJ;
 import ij.ImagePlus;
+import ij.VirtualStack;
 import ij.process.ImageProcessor;
 
+import java.io.File;
+
 public class ProjectCreatorTestHelper {
 
     static { net.imagej.patcher.LegacyInjector.preinit(); }
@@ -45,6 +48,22 @@ public class ProjectCreatorTestHelper {
         }
     }
 
+    public static ImagePlus makeVirtualStack( String imageName, File directory ) {
+        // save the planes of a random image as tiffs, and open them lazily as a virtual stack
+        ImagePlus imp = makeImage( imageName, false );
+        VirtualStack stack = new VirtualStack( imp.getWidth(), imp.getHeight(), null, directory.getAbsolutePath() );
+        for ( int i = 1; i <= imp.getNSlices(); i++ ) {
+            String fileName = imageName + "-" + i + ".tif";
+            IJ.saveAsTiff( new ImagePlus( fileName, imp.getStack().getProcessor( i ) ),
+                    new File( directory, fileName ).getAbsolutePath() );
+            stack.addSlice( fileName );
+        }
+
+        ImagePlus virtualImp = new ImagePlus( imageName, stack );
+        virtualImp.setCalibration( imp.getCalibration() );
+        return virtualImp;
+    }
+
     public static ImagePlus makeSegmentation( String imageName ) {
         // make an image with 3 boxes with pixel values 1, 2 and 3 as mock segmentation. Same size as imagej sample
         // head image
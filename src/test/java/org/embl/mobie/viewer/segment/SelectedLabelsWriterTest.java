@@ -0,0 +1,97 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.segment;
+
+import bdv.util.RandomAccessibleIntervalMipmapSource;
+import bdv.viewer.Source;
+import de.embl.cba.tables.imagesegment.DefaultImageSegment;
+import de.embl.cba.tables.imagesegment.ImageSegment;
+import mpicbg.spim.data.sequence.FinalVoxelDimensions;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.IntArray;
+import net.imglib2.type.numeric.integer.UnsignedIntType;
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.zarr.N5ZarrReader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class SelectedLabelsWriterTest {
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    public void overwritesPreviousExport() throws IOException {
+        final Source< UnsignedIntType > source = createLabelSource();
+        final String zarrPath = new File( tempDir, "labels-selection.ome.zarr" ).getAbsolutePath();
+
+        write( source, 1, zarrPath );
+        write( source, 2, zarrPath );
+
+        final N5ZarrReader n5 = new N5ZarrReader( zarrPath );
+        final DatasetAttributes attributes = n5.getDatasetAttributes( "s0" );
+        // the block of label 1 must not remain from the first export
+        assertNull( n5.readBlock( "s0", attributes, 0, 0, 0, 0, 0 ) );
+        final DataBlock< ? > block = n5.readBlock( "s0", attributes, 1, 0, 0, 0, 0 );
+        assertNotNull( block );
+        assertEquals( 1, ( ( byte[] ) block.getData() )[ 0 ] );
+    }
+
+    private static void write( Source< UnsignedIntType > source, int label, String zarrPath ) throws IOException {
+        final ImageSegment segment = new DefaultImageSegment( "labels", label, 0, 0, 0, 0, null );
+        final SelectedLabelsWriter writer = new SelectedLabelsWriter( source, Collections.singleton( segment ), 0, 0, SelectedLabelsWriter.Labels.Binary );
+        assertEquals( 1, writer.getNumSelectedLabels() );
+        writer.write( zarrPath );
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private static Source< UnsignedIntType > createLabelSource() {
+        // label 1 fills the first block along x, label 2 the second block
+        final ArrayImg< UnsignedIntType, IntArray > image = ArrayImgs.unsignedInts( 2L * SelectedLabelsWriter.BLOCK_SIZE[ 0 ], SelectedLabelsWriter.BLOCK_SIZE[ 1 ], SelectedLabelsWriter.BLOCK_SIZE[ 2 ] );
+        final Cursor< UnsignedIntType > cursor = image.localizingCursor();
+        while ( cursor.hasNext() ) {
+            cursor.fwd();
+            cursor.get().set( cursor.getLongPosition( 0 ) < SelectedLabelsWriter.BLOCK_SIZE[ 0 ] ? 1 : 2 );
+        }
+        final RandomAccessibleInterval< UnsignedIntType >[] levels = new RandomAccessibleInterval[]{ image };
+        return new RandomAccessibleIntervalMipmapSource<>( levels, new UnsignedIntType(), new double[][]{ { 1, 1, 1 } }, new FinalVoxelDimensions( "micrometer", 1, 1, 1 ), "labels" );
+    }
+}
@@ -0,0 +1,206 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.source;
+
+import bdv.img.n5.N5ImageLoader;
+import org.embl.mobie.viewer.metrics.Metrics;
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.GzipCompression;
+import org.janelia.saalfeldlab.n5.N5FSWriter;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.ShortArrayDataBlock;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// A local N5 container stands in for the remote object store
+class CachingN5ReaderTest {
+
+    private static final String DATASET = "s0";
+
+    private File remoteDir;
+    private File cacheDir;
+    private N5FSWriter remote;
+    private DatasetAttributes attributes;
+
+    @BeforeEach
+    void setUp( @TempDir Path tempDir ) throws IOException {
+        remoteDir = new File( tempDir.toFile(), "remote.n5" );
+        cacheDir = new File( tempDir.toFile(), "cache" );
+        remote = new N5FSWriter( remoteDir.getAbsolutePath() );
+        attributes = new DatasetAttributes( new long[]{ 64, 64 }, new int[]{ 32, 32 }, DataType.UINT16, new GzipCompression() );
+        remote.createDataset( DATASET, attributes );
+        for ( int x = 0; x < 2; x++ ) {
+            for ( int y = 0; y < 2; y++ ) {
+                final short[] data = new short[ 32 * 32 ];
+                for ( int i = 0; i < data.length; i++ )
+                    data[ i ] = ( short ) ( i + 100 * x + 1000 * y );
+                remote.writeBlock( DATASET, attributes, new ShortArrayDataBlock( new int[]{ 32, 32 }, new long[]{ x, y }, data ) );
+            }
+        }
+    }
+
+    @Test
+    public void readsCachedBlocksWithoutRemote() throws IOException {
+        final DiskChunkCache cache = new DiskChunkCache( cacheDir, 1024 * 1024 );
+        final CachingN5Reader reader = new CachingN5Reader( remote, remoteDir.getAbsolutePath(), cache );
+
+        final DataBlock< ? > remoteBlock = reader.readBlock( DATASET, attributes, 1, 1 );
+        assertTrue( remote.deleteBlock( DATASET, 1, 1 ) );
+
+        // a new session on the same cache directory
+        final CachingN5Reader newReader = new CachingN5Reader( remote, remoteDir.getAbsolutePath(), new DiskChunkCache( cacheDir, 1024 * 1024 ) );
+        final DataBlock< ? > cachedBlock = newReader.readBlock( DATASET, attributes, 1, 1 );
+
+        assertNotNull( cachedBlock );
+        assertArrayEquals( ( short[] ) remoteBlock.getData(), ( short[] ) cachedBlock.getData() );
+        assertArrayEquals( new long[]{ 1, 1 }, cachedBlock.getGridPosition() );
+    }
+
+    @Test
+    public void countsCompressedBytes() throws IOException {
+        Metrics.reset();
+        final CachingN5Reader reader = new CachingN5Reader( remote, remoteDir.getAbsolutePath(), null );
+
+        reader.readBlock( DATASET, attributes, 1, 1 );
+
+        final long compressedBytes = new File( remoteDir, DATASET + File.separator + "1" + File.separator + "1" ).length();
+        final double countedBytes = Metrics.get( Metrics.CHUNK_BYTES + ":" + remoteDir.getName() ).getTotal();
+        assertTrue( countedBytes > 0 );
+        assertTrue( countedBytes <= compressedBytes );
+        assertTrue( countedBytes < 32 * 32 * 2 );
+    }
+
+    @Test
+    public void cachesCompressedChunksWithoutChangingAttributes() throws IOException {
+        final DiskChunkCache cache = new DiskChunkCache( cacheDir, 1024 * 1024 );
+        final CachingN5Reader reader = new CachingN5Reader( remote, remoteDir.getAbsolutePath(), cache );
+
+        reader.readBlock( DATASET, attributes, 1, 1 );
+
+        assertTrue( attributes.getCompression() instanceof GzipCompression );
+        final long compressedBytes = new File( remoteDir, DATASET + File.separator + "1" + File.separator + "1" ).length();
+        assertTrue( cache.getTotalBytes() > 0 );
+        assertTrue( cache.getTotalBytes() < 32 * 32 * 2 );
+        // the chunk as stored remotely, plus the magic number, checksum and length of the cache file
+        assertTrue( cache.getTotalBytes() <= compressedBytes + 16 );
+    }
+
+    @Test
+    public void installsIntoImageLoader() throws IOException {
+        final DiskChunkCache cache = new DiskChunkCache( cacheDir, 1024 * 1024 );
+        final N5ImageLoader imgLoader = new N5ImageLoader( remoteDir, null );
+
+        assertTrue( CachingN5Reader.install( imgLoader, remoteDir.getAbsolutePath(), cache ) );
+        assertFalse( CachingN5Reader.install( imgLoader, remoteDir.getAbsolutePath(), cache ) );
+
+        final N5Reader reader = getN5Reader( imgLoader );
+        assertTrue( reader instanceof CachingN5Reader );
+        reader.readBlock( DATASET, attributes, 0, 0 );
+        assertTrue( cache.getTotalBytes() > 0 );
+    }
+
+    @Test
+    public void deletesCorruptChunks() throws IOException {
+        final DiskChunkCache cache = new DiskChunkCache( cacheDir, 1024 * 1024 );
+        cache.put( "chunk", new byte[]{ 1, 2, 3, 4 } );
+
+        final File chunkFile = findChunkFile( cacheDir );
+        try ( RandomAccessFile file = new RandomAccessFile( chunkFile, "rw" ) ) {
+            file.seek( file.length() - 1 );
+            file.write( 42 );
+        }
+
+        assertNull( cache.get( "chunk" ) );
+        assertTrue( ! chunkFile.exists() );
+        assertEquals( 0, cache.getTotalBytes() );
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedChunks() {
+        final int chunkBytes = 1000;
+        final AtomicLong clock = new AtomicLong();
+        final DiskChunkCache cache = new DiskChunkCache( cacheDir, 3500, clock::incrementAndGet );
+        cache.put( "a", new byte[ chunkBytes ] );
+        cache.put( "b", new byte[ chunkBytes ] );
+        cache.put( "c", new byte[ chunkBytes ] );
+        assertNotNull( cache.get( "a" ) );
+        cache.put( "d", new byte[ chunkBytes ] );
+
+        assertTrue( cache.getTotalBytes() <= 3500 );
+        assertNotNull( cache.get( "a" ) );
+        assertNull( cache.get( "b" ) );
+        assertNotNull( cache.get( "d" ) );
+    }
+
+    private static N5Reader getN5Reader( Object imgLoader ) {
+        for ( Class< ? > c = imgLoader.getClass(); c != null; c = c.getSuperclass() ) {
+            for ( Field field : c.getDeclaredFields() ) {
+                if ( ! N5Reader.class.isAssignableFrom( field.getType() ) ) continue;
+                try {
+                    field.setAccessible( true );
+                    return ( N5Reader ) field.get( imgLoader );
+                } catch ( IllegalAccessException e ) {
+                    throw new RuntimeException( e );
+                }
+            }
+        }
+        return null;
+    }
+
+    private static File findChunkFile( File directory ) {
+        final File[] files = directory.listFiles();
+        if ( files == null ) return null;
+        for ( File file : files ) {
+            if ( file.isDirectory() ) {
+                final File chunkFile = findChunkFile( file );
+                if ( chunkFile != null ) return chunkFile;
+            } else if ( file.getName().endsWith( ".chunk" ) ) {
+                return file;
+            }
+        }
+        return null;
+    }
+}
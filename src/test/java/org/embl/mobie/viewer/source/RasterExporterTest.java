@@ -0,0 +1,144 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.source;
+
+import bdv.util.RandomAccessibleIntervalMipmapSource;
+import bdv.viewer.Source;
+import ij.ImagePlus;
+import mpicbg.spim.data.sequence.FinalVoxelDimensions;
+import net.imglib2.Cursor;
+import net.imglib2.FinalRealInterval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RasterExporterTest {
+
+    // level 1 values are offset, such that it is visible from which level a voxel was read
+    private static final int LEVEL_1_OFFSET = 1000;
+
+    private Source< UnsignedShortType > source;
+
+    @BeforeEach
+    @SuppressWarnings( "unchecked" )
+    void setUp() {
+        final RandomAccessibleInterval< UnsignedShortType >[] levels = new RandomAccessibleInterval[]{ createImage( 8, 0 ), createImage( 4, LEVEL_1_OFFSET ) };
+        final double[][] scales = { { 1, 1, 1 }, { 2, 2, 2 } };
+        source = new RandomAccessibleIntervalMipmapSource<>( levels, new UnsignedShortType(), scales, new FinalVoxelDimensions( "micrometer", 1, 1, 1 ), "image" );
+    }
+
+    @Test
+    public void selectsCoarsestLevelThatIsFineEnough() {
+        assertEquals( 0, exporter( 1.0 ).getLevel() );
+        assertEquals( 0, exporter( 1.5 ).getLevel() );
+        assertEquals( 1, exporter( 2.0 ).getLevel() );
+        assertEquals( 1, exporter( 4.0 ).getLevel() );
+    }
+
+    @Test
+    public void copiesVoxelsOnTheSourceGrid() {
+        // the region starts between two voxels and is snapped onto the source grid
+        final RasterExporter< UnsignedShortType > exporter = new RasterExporter<>( source, 0, new FinalRealInterval( new double[]{ 2.3, 2.3, 2.3 }, new double[]{ 6.3, 6.3, 6.3 } ), new double[]{ 1, 1, 1 } );
+        final Img< UnsignedShortType > img = exporter.export( 0 );
+
+        assertArrayEquals( new long[]{ 4, 4, 4 }, img.dimensionsAsLongArray() );
+        assertEquals( value( 2, 2, 2, 0 ), get( img, 0, 0, 0 ) );
+        assertEquals( value( 5, 4, 3, 0 ), get( img, 3, 2, 1 ) );
+    }
+
+    @Test
+    public void copiesVoxelsFromTheCoarserLevel() {
+        final RasterExporter< UnsignedShortType > exporter = exporter( 2.0 );
+        final Img< UnsignedShortType > img = exporter.export( 0 );
+
+        assertArrayEquals( new long[]{ 2, 2, 2 }, img.dimensionsAsLongArray() );
+        // the region is snapped onto the level 1 grid, whose voxel 1 is at global position 2.5
+        assertEquals( value( 1, 1, 1, LEVEL_1_OFFSET ), get( img, 0, 0, 0 ) );
+        assertEquals( value( 2, 1, 2, LEVEL_1_OFFSET ), get( img, 1, 0, 1 ) );
+    }
+
+    @Test
+    public void samplesVoxelsOnADifferentGrid() {
+        final RasterExporter< UnsignedShortType > exporter = new RasterExporter<>( source, 0, new FinalRealInterval( new double[]{ 2, 2, 2 }, new double[]{ 4, 4, 4 } ), new double[]{ 0.5, 0.5, 0.5 } );
+        final Img< UnsignedShortType > img = exporter.export( 0 );
+
+        assertEquals( 0, exporter.getLevel() );
+        assertArrayEquals( new long[]{ 4, 4, 4 }, img.dimensionsAsLongArray() );
+        assertEquals( value( 2, 2, 2, 0 ), get( img, 0, 0, 0 ) );
+        assertEquals( value( 3, 2, 3, 0 ), get( img, 2, 0, 2 ) );
+    }
+
+    @Test
+    public void exportsAllTimepoints() {
+        final RasterExporter< UnsignedShortType > exporter = new RasterExporter<>( source, Arrays.asList( 0, 1, 2 ), new FinalRealInterval( new double[]{ 0, 0, 0 }, new double[]{ 8, 8, 4 } ), new double[]{ 1, 1, 1 } );
+        assertEquals( 8 * 8 * 4 * 3, exporter.getNumVoxels() );
+
+        final ImagePlus imagePlus = exporter.exportAsImagePlus();
+        assertEquals( 8, imagePlus.getWidth() );
+        assertEquals( 8, imagePlus.getHeight() );
+        assertEquals( 1, imagePlus.getNChannels() );
+        assertEquals( 4, imagePlus.getNSlices() );
+        assertEquals( 3, imagePlus.getNFrames() );
+    }
+
+    private RasterExporter< UnsignedShortType > exporter( double voxelSize ) {
+        return new RasterExporter<>( source, 0, new FinalRealInterval( new double[]{ 2, 2, 2 }, new double[]{ 6, 6, 6 } ), new double[]{ voxelSize, voxelSize, voxelSize } );
+    }
+
+    private static ArrayImg< UnsignedShortType, ShortArray > createImage( int size, int offset ) {
+        final ArrayImg< UnsignedShortType, ShortArray > img = ArrayImgs.unsignedShorts( size, size, size );
+        final Cursor< UnsignedShortType > cursor = img.localizingCursor();
+        while ( cursor.hasNext() ) {
+            cursor.fwd();
+            cursor.get().set( value( cursor.getIntPosition( 0 ), cursor.getIntPosition( 1 ), cursor.getIntPosition( 2 ), offset ) );
+        }
+        return img;
+    }
+
+    private static int value( int x, int y, int z, int offset ) {
+        return offset + x + 10 * y + 100 * z;
+    }
+
+    private static int get( Img< UnsignedShortType > img, long... position ) {
+        final RandomAccess< UnsignedShortType > access = img.randomAccess();
+        access.setPosition( position );
+        return access.get().get();
+    }
+}
@@ -0,0 +1,157 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.source;
+
+import bdv.util.RandomAccessibleIntervalSource;
+import bdv.viewer.SourceAndConverter;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SourcePoolTest {
+
+    private SourcePool pool;
+    private AtomicInteger numOpened;
+
+    @BeforeEach
+    void setUp() {
+        pool = new SourcePool();
+        pool.setMemoryBudget( Long.MAX_VALUE );
+        numOpened = new AtomicInteger();
+    }
+
+    @AfterEach
+    void tearDown() {
+        pool.close();
+    }
+
+    @Test
+    public void sharesAnAcquiredSourceUntilItIsEvicted() {
+        final SourceAndConverter< ? > first = pool.acquire( "image", opener( "image" ) );
+        final SourceAndConverter< ? > second = pool.acquire( "image", opener( "image" ) );
+        assertSame( first, second );
+        assertEquals( 1, numOpened.get() );
+
+        // released sources stay open until they have been idle for too long
+        pool.release( "image" );
+        pool.release( "image" );
+        pool.evictIdle();
+        assertTrue( pool.contains( "image" ) );
+        assertSame( first, pool.acquire( "image", opener( "image" ) ) );
+        assertEquals( 1, numOpened.get() );
+    }
+
+    @Test
+    public void evictsOnlyIdleSources() {
+        pool.acquire( "used", opener( "used" ) );
+        pool.acquire( "idle", opener( "idle" ) );
+        pool.release( "idle" );
+
+        pool.setMaxIdleMillis( -1 );
+        pool.evictIdle();
+
+        assertTrue( pool.contains( "used" ) );
+        assertFalse( pool.contains( "idle" ) );
+
+        // an evicted source is opened again
+        pool.acquire( "idle", opener( "idle" ) );
+        assertEquals( 3, numOpened.get() );
+    }
+
+    @Test
+    public void opensASourceOnceWhenAcquiredConcurrently() throws Exception {
+        final CountDownLatch open = new CountDownLatch( 1 );
+        final Supplier< SourcePool.PooledSource > opener = () -> {
+            try {
+                open.await();
+            } catch ( InterruptedException e ) {
+                throw new RuntimeException( e );
+            }
+            return opener( "image" ).get();
+        };
+
+        final ExecutorService executorService = Executors.newFixedThreadPool( 8 );
+        final List< Future< SourceAndConverter< ? > > > futures = new ArrayList<>();
+        for ( int i = 0; i < 8; i++ )
+            futures.add( executorService.submit( () -> pool.acquire( "image", opener ) ) );
+        open.countDown();
+
+        final SourceAndConverter< ? > source = futures.get( 0 ).get();
+        for ( Future< SourceAndConverter< ? > > future : futures )
+            assertSame( source, future.get() );
+        assertEquals( 1, numOpened.get() );
+        executorService.shutdown();
+
+        // the source is in use until it has been released by all users
+        pool.setMaxIdleMillis( -1 );
+        for ( int i = 0; i < 7; i++ )
+            pool.release( "image" );
+        pool.evictIdle();
+        assertTrue( pool.contains( "image" ) );
+        pool.release( "image" );
+        pool.evictIdle();
+        assertFalse( pool.contains( "image" ) );
+    }
+
+    @Test
+    public void closesAllSources() {
+        pool.acquire( "a", opener( "a" ) );
+        pool.acquire( "b", opener( "b" ) );
+        pool.release( "b" );
+
+        pool.close();
+
+        assertFalse( pool.contains( "a" ) );
+        assertFalse( pool.contains( "b" ) );
+    }
+
+    private Supplier< SourcePool.PooledSource > opener( String name ) {
+        return () -> {
+            numOpened.incrementAndGet();
+            final RandomAccessibleIntervalSource< UnsignedByteType > source = new RandomAccessibleIntervalSource<>( ArrayImgs.unsignedBytes( 2, 2, 2 ), new UnsignedByteType(), name );
+            return new SourcePool.PooledSource( new SourceAndConverter<>( source, null ), () -> null );
+        };
+    }
+}
@@ -0,0 +1,89 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.table;
+
+import net.imglib2.roi.geom.GeomMasks;
+import org.embl.mobie.viewer.TableColumnNames;
+import org.embl.mobie.viewer.annotate.DefaultRegionTableRow;
+import org.embl.mobie.viewer.annotate.RegionTableRow;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+class ColumnIndexTest {
+
+    @Test
+    public void findsTheSameRowsAsScanningAllRows() {
+        final Random random = new Random( 42 );
+        final List< String > ids = new ArrayList<>();
+        final List< String > values = new ArrayList<>();
+        for ( int i = 0; i < 1000; i++ ) {
+            ids.add( "" + i );
+            values.add( i % 100 == 0 ? "NaN" : "" + random.nextInt( 50 ) + ".0" );
+        }
+        final Map< String, List< String > > columns = new HashMap<>();
+        columns.put( TableColumnNames.REGION_ID, ids );
+        columns.put( "value", values );
+
+        final List< RegionTableRow > tableRows = new ArrayList<>();
+        for ( int i = 0; i < ids.size(); i++ )
+            tableRows.add( new DefaultRegionTableRow( ids.get( i ), GeomMasks.closedBox( new double[ 3 ], new double[]{ 1, 1, 1 } ), columns, i ) );
+
+        final ColumnIndex< RegionTableRow > index = new ColumnIndex<>( tableRows, "value" );
+        for ( double value = -1; value <= 50; value += 0.5 ) {
+            assertArrayEquals( scan( values, value, 0 ), index.equalTo( value ) );
+            assertArrayEquals( scan( values, value, 1 ), index.greaterThan( value ) );
+            assertArrayEquals( scan( values, value, -1 ), index.lessThan( value ) );
+        }
+        assertArrayEquals( scan( values, 7, 0 ), index.equalTo( "7.0" ) );
+        assertArrayEquals( new int[ 0 ], index.equalTo( "7" ) );
+    }
+
+    private static int[] scan( List< String > values, double value, int comparison ) {
+        final int[] rows = new int[ values.size() ];
+        int numRows = 0;
+        for ( int row = 0; row < values.size(); row++ ) {
+            final double tableValue = Double.parseDouble( values.get( row ) );
+            if ( Double.isNaN( tableValue ) ) continue;
+            if ( Math.signum( Double.compare( tableValue, value ) ) == comparison )
+                rows[ numRows++ ] = row;
+        }
+        // the index returns rows ordered by value
+        return Arrays.stream( rows, 0, numRows ).boxed()
+                .sorted( ( a, b ) -> Double.compare( Double.parseDouble( values.get( a ) ), Double.parseDouble( values.get( b ) ) ) )
+                .mapToInt( Integer::intValue ).toArray();
+    }
+}
@@ -0,0 +1,156 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.table;
+
+import net.imglib2.roi.geom.GeomMasks;
+import org.embl.mobie.viewer.TableColumnNames;
+import org.embl.mobie.viewer.annotate.DefaultRegionTableRow;
+import org.embl.mobie.viewer.annotate.RegionTableRow;
+import org.junit.jupiter.api.Test;
+
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+import javax.swing.SwingUtilities;
+import javax.swing.event.RowSorterEvent;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TableRowsRowSorterTest {
+
+    @Test
+    public void sortsNumbersByValueAndKeepsTheOrderOfEqualValues() throws Exception {
+        final List< String > ids = new ArrayList<>();
+        final List< String > values = new ArrayList<>();
+        for ( int i = 0; i < 1000; i++ ) {
+            ids.add( "" + i );
+            values.add( "" + ( i % 10 ) * 10 );
+        }
+        final Map< String, List< String > > columns = new HashMap<>();
+        columns.put( TableColumnNames.REGION_ID, ids );
+        columns.put( "value", values );
+
+        final List< RegionTableRow > tableRows = new ArrayList<>();
+        for ( int i = 0; i < ids.size(); i++ )
+            tableRows.add( new DefaultRegionTableRow( ids.get( i ), GeomMasks.closedBox( new double[ 3 ], new double[]{ 1, 1, 1 } ), columns, i ) );
+
+        final TableRowsTableModel< RegionTableRow > model = new TableRowsTableModel<>( tableRows );
+        final TableRowsRowSorter< RegionTableRow > sorter = new TableRowsRowSorter<>( model );
+        final CountDownLatch sorted = new CountDownLatch( 1 );
+        sorter.addRowSorterListener( e -> {
+            if ( e.getType() == RowSorterEvent.Type.SORTED ) sorted.countDown();
+        } );
+
+        final int column = model.findColumn( "value" );
+        SwingUtilities.invokeAndWait( () -> sorter.setSortKeys( Collections.singletonList( new RowSorter.SortKey( column, SortOrder.DESCENDING ) ) ) );
+        assertTrue( sorted.await( 10, TimeUnit.SECONDS ) );
+
+        SwingUtilities.invokeAndWait( () -> {
+            assertEquals( 9, sorter.convertRowIndexToModel( 0 ) );
+            assertEquals( 19, sorter.convertRowIndexToModel( 1 ) );
+            assertEquals( 999, sorter.convertRowIndexToModel( 99 ) );
+            assertEquals( 990, sorter.convertRowIndexToView( 900 ) );
+            assertEquals( 0, sorter.convertRowIndexToModel( sorter.convertRowIndexToView( 0 ) ) );
+        } );
+    }
+
+    @Test
+    public void dropsDeletedRowsFromTheViewBeforeSorting() throws Exception {
+        final List< String > ids = new ArrayList<>();
+        for ( int i = 0; i < 100; i++ )
+            ids.add( "" + i );
+        final Map< String, List< String > > columns = new HashMap<>();
+        columns.put( TableColumnNames.REGION_ID, ids );
+        columns.put( "value", new ArrayList<>( ids ) );
+
+        final List< RegionTableRow > tableRows = new ArrayList<>();
+        for ( int i = 0; i < ids.size(); i++ )
+            tableRows.add( new DefaultRegionTableRow( ids.get( i ), GeomMasks.closedBox( new double[ 3 ], new double[]{ 1, 1, 1 } ), columns, i ) );
+
+        final TableRowsTableModel< RegionTableRow > model = new TableRowsTableModel<>( tableRows );
+        final TableRowsRowSorter< RegionTableRow > sorter = new TableRowsRowSorter<>( model );
+        final CountDownLatch sorted = new CountDownLatch( 1 );
+        sorter.addRowSorterListener( e -> {
+            if ( e.getType() == RowSorterEvent.Type.SORTED ) sorted.countDown();
+        } );
+
+        final int column = model.findColumn( "value" );
+        SwingUtilities.invokeAndWait( () -> sorter.setSortKeys( Collections.singletonList( new RowSorter.SortKey( column, SortOrder.DESCENDING ) ) ) );
+        assertTrue( sorted.await( 10, TimeUnit.SECONDS ) );
+
+        SwingUtilities.invokeAndWait( () -> {
+            tableRows.subList( 10, 20 ).clear();
+            sorter.rowsDeleted( 10, 19 );
+
+            assertEquals( 90, sorter.getViewRowCount() );
+            // rows 99 to 20 are now rows 89 to 10, followed by the rows 9 to 0
+            assertEquals( 89, sorter.convertRowIndexToModel( 0 ) );
+            assertEquals( 10, sorter.convertRowIndexToModel( 79 ) );
+            assertEquals( 9, sorter.convertRowIndexToModel( 80 ) );
+            assertEquals( 0, sorter.convertRowIndexToModel( 89 ) );
+            assertEquals( 89, sorter.convertRowIndexToView( 0 ) );
+        } );
+    }
+
+    @Test
+    public void sortsMissingStringsFirst() throws Exception {
+        final Map< String, List< String > > columns = new HashMap<>();
+        columns.put( TableColumnNames.REGION_ID, new ArrayList<>( Arrays.asList( "a", "b", "c" ) ) );
+        columns.put( "name", new ArrayList<>( Arrays.asList( "y", null, "x" ) ) );
+
+        final List< RegionTableRow > tableRows = new ArrayList<>();
+        for ( int i = 0; i < 3; i++ )
+            tableRows.add( new DefaultRegionTableRow( columns.get( TableColumnNames.REGION_ID ).get( i ), GeomMasks.closedBox( new double[ 3 ], new double[]{ 1, 1, 1 } ), columns, i ) );
+
+        final TableRowsTableModel< RegionTableRow > model = new TableRowsTableModel<>( tableRows );
+        final TableRowsRowSorter< RegionTableRow > sorter = new TableRowsRowSorter<>( model );
+        final CountDownLatch sorted = new CountDownLatch( 1 );
+        sorter.addRowSorterListener( e -> {
+            if ( e.getType() == RowSorterEvent.Type.SORTED ) sorted.countDown();
+        } );
+
+        final int column = model.findColumn( "name" );
+        SwingUtilities.invokeAndWait( () -> sorter.setSortKeys( Collections.singletonList( new RowSorter.SortKey( column, SortOrder.ASCENDING ) ) ) );
+        assertTrue( sorted.await( 10, TimeUnit.SECONDS ) );
+
+        SwingUtilities.invokeAndWait( () -> {
+            assertEquals( 1, sorter.convertRowIndexToModel( 0 ) );
+            assertEquals( 2, sorter.convertRowIndexToModel( 1 ) );
+            assertEquals( 0, sorter.convertRowIndexToModel( 2 ) );
+        } );
+    }
+}
@@ -0,0 +1,88 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.table;
+
+import net.imglib2.roi.geom.GeomMasks;
+import org.embl.mobie.viewer.TableColumnNames;
+import org.embl.mobie.viewer.annotate.DefaultRegionTableRow;
+import org.embl.mobie.viewer.annotate.RegionTableRow;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TableRowsTableModelTest {
+
+    @Test
+    public void fallsBackToStringsForColumnsWithCellsThatAreNotNumbers() {
+        final TableRowsTableModel< RegionTableRow > model = createModel( "1.5", "none", null );
+        final int column = model.findColumn( "value" );
+
+        assertEquals( Double.class, model.getColumnClass( column ) );
+        assertEquals( 1.5, model.getValueAt( 0, column ) );
+        assertEquals( "none", model.getValueAt( 1, column ) );
+        assertEquals( String.class, model.getColumnClass( column ) );
+        assertEquals( "1.5", model.getValueAt( 0, column ) );
+        assertEquals( String.class, model.getColumnClass( model.findColumn( TableColumnNames.REGION_ID ) ) );
+    }
+
+    @Test
+    public void returnsNaNForMissingCellsOfNumericColumns() {
+        final TableRowsTableModel< RegionTableRow > model = createModel( null, "2", "NaN", "" );
+        final int column = model.findColumn( "value" );
+
+        assertEquals( Double.class, model.getColumnClass( column ) );
+        assertTrue( Double.isNaN( ( Double ) model.getValueAt( 0, column ) ) );
+        assertEquals( 2.0, model.getValueAt( 1, column ) );
+        assertTrue( Double.isNaN( ( Double ) model.getValueAt( 2, column ) ) );
+        assertTrue( Double.isNaN( ( Double ) model.getValueAt( 3, column ) ) );
+        assertEquals( Double.class, model.getColumnClass( column ) );
+    }
+
+    private static TableRowsTableModel< RegionTableRow > createModel( String... values ) {
+        final List< String > ids = new ArrayList<>();
+        for ( int i = 0; i < values.length; i++ )
+            ids.add( "" + i );
+        final Map< String, List< String > > columns = new HashMap<>();
+        columns.put( TableColumnNames.REGION_ID, ids );
+        columns.put( "value", new ArrayList<>( Arrays.asList( values ) ) );
+
+        final List< RegionTableRow > tableRows = new ArrayList<>();
+        for ( int i = 0; i < values.length; i++ )
+            tableRows.add( new DefaultRegionTableRow( ids.get( i ), GeomMasks.closedBox( new double[ 3 ], new double[]{ 1, 1, 1 } ), columns, i ) );
+
+        return new TableRowsTableModel<>( tableRows );
+    }
+}
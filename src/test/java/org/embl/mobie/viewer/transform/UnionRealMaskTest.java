@@ -0,0 +1,103 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.transform;
+
+import net.imglib2.FinalRealInterval;
+import net.imglib2.RealInterval;
+import net.imglib2.RealPoint;
+import net.imglib2.roi.RealMaskRealInterval;
+import net.imglib2.roi.geom.GeomMasks;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UnionRealMaskTest {
+
+    @Test
+    public void findsTheSameBoxesAsTestingAllBoxes() {
+        final Random random = new Random( 42 );
+        final List< RealInterval > boxes = new ArrayList<>();
+        for ( int i = 0; i < 1000; i++ ) {
+            final double[] min = { random.nextDouble() * 1000, random.nextDouble() * 1000, 0 };
+            final double[] max = { min[ 0 ] + random.nextDouble() * 50, min[ 1 ] + random.nextDouble() * 50, 1 };
+            boxes.add( new FinalRealInterval( min, max ) );
+        }
+        final UnionRealMask union = UnionRealMask.fromBoxes( boxes );
+
+        final RealPoint point = new RealPoint( 3 );
+        for ( int i = 0; i < 10000; i++ ) {
+            point.setPosition( new double[]{ random.nextDouble() * 1100, random.nextDouble() * 1100, 0.5 } );
+            assertEquals( firstContaining( boxes, point ), union.indexOf( point ) );
+        }
+    }
+
+    @Test
+    public void testsNonBoxMasksExactly() {
+        final List< RealMaskRealInterval > masks = new ArrayList<>();
+        masks.add( GeomMasks.closedSphere( new double[]{ 0, 0, 0 }, 1 ) );
+        masks.add( GeomMasks.closedBox( new double[]{ 10, 10, 10 }, new double[]{ 11, 11, 11 } ) );
+        final UnionRealMask union = new UnionRealMask( masks );
+
+        // within the bounding box of the sphere, but not within the sphere
+        assertFalse( union.test( new RealPoint( 0.9, 0.9, 0.9 ) ) );
+        assertTrue( union.test( new RealPoint( 0.1, 0.1, 0.1 ) ) );
+        assertTrue( union.test( new RealPoint( 10.5, 10.5, 10.5 ) ) );
+        assertEquals( -1, union.realMin( 0 ), 1e-9 );
+        assertEquals( 11, union.realMax( 0 ), 1e-9 );
+    }
+
+    @Test
+    public void emptyUnionContainsNothing() {
+        final UnionRealMask union = new UnionRealMask( Collections.emptyList() );
+
+        assertEquals( 3, union.numDimensions() );
+        assertEquals( -1, union.indexOf( new RealPoint( 0, 0, 0 ) ) );
+        assertFalse( union.test( new RealPoint( 1, 2, 3 ) ) );
+        assertTrue( union.realMin( 0 ) > union.realMax( 0 ) );
+    }
+
+    private static int firstContaining( List< RealInterval > boxes, RealPoint point ) {
+        for ( int i = 0; i < boxes.size(); i++ ) {
+            boolean contains = true;
+            for ( int d = 0; d < 3; d++ )
+                if ( point.getDoublePosition( d ) < boxes.get( i ).realMin( d ) || point.getDoublePosition( d ) > boxes.get( i ).realMax( d ) )
+                    contains = false;
+            if ( contains )
+                return i;
+        }
+        return -1;
+    }
+}
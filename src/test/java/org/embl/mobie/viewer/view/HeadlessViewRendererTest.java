@@ -0,0 +1,68 @@
+/*-
+ * #%L
+ * Fiji viewer for MoBIE projects
+ * %%
+ * Copyright (C) 2018 - 2022 EMBL
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.embl.mobie.viewer.view;
+
+import org.embl.mobie.viewer.MultiThreading;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class HeadlessViewRendererTest {
+
+    @Test
+    public void rendersMoreGridViewsThanTheComputePoolHasThreads() {
+        final List< String > viewNames = new ArrayList<>();
+        for ( int i = 0; i < 4 * MultiThreading.getNumThreads(); i++ )
+            viewNames.add( "well-" + i );
+
+        final List< String > rendered = Collections.synchronizedList( new ArrayList<>() );
+        assertTimeoutPreemptively( Duration.ofSeconds( 30 ), () ->
+            HeadlessViewRenderer.forEachView( viewNames, name -> {
+                // like the grid source transformers, which run on the compute pool and wait for it
+                final AtomicInteger numTransformed = new AtomicInteger();
+                final ArrayList< Future< ? > > futures = MultiThreading.getFutures();
+                for ( int i = 0; i < 4; i++ )
+                    futures.add( MultiThreading.executorService.submit( () -> { numTransformed.incrementAndGet(); } ) );
+                MultiThreading.waitUntilFinished( futures );
+                assertEquals( 4, numTransformed.get() );
+                rendered.add( name );
+            } )
+        );
+
+        assertEquals( viewNames.size(), rendered.size() );
+    }
+}